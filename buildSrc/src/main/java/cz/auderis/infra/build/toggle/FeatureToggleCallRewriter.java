@@ -0,0 +1,84 @@
+package cz.auderis.infra.build.toggle;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Replaces calls of static feature toggle methods in a class by calls of the generated registry:
+ * <ul>
+ *     <li>a call of a {@code @FeatureToggle} accessor becomes a call of the static registry
+ *     accessor, which reads the toggle value from its call site slot; a call of a frozen
+ *     toggle becomes a constant,</li>
+ *     <li>a call of either member of a {@code @FeatureMethod} pair becomes a call of the static
+ *     registry dispatcher.</li>
+ * </ul>
+ * The replacement has the same descriptor as the original call, so it needs the same operand
+ * stack and does not change stack map frames.
+ * <p>
+ * Calls inside the class that declares the annotated method, or inside a class nested in it,
+ * are left intact: an implementation of a feature method pair may call its counterpart,
+ * which must not be sent back through the dispatcher. Calls of instance methods and method
+ * references are left intact as well.
+ */
+final class FeatureToggleCallRewriter extends ClassVisitor {
+
+    private final FeatureToggleCallSites callSites;
+    private String topLevelClassName;
+    private int rewrittenCount;
+
+    FeatureToggleCallRewriter(ClassVisitor next, FeatureToggleCallSites callSites) {
+        super(Opcodes.ASM9, next);
+        this.callSites = callSites;
+    }
+
+    /**
+     * Returns the number of calls rewritten so far.
+     */
+    int getRewrittenCount() {
+        return rewrittenCount;
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        topLevelClassName = FeatureToggleCallSites.topLevelName(name);
+        super.visit(version, access, name, signature, superName, interfaces);
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        return new CallSiteVisitor(super.visitMethod(access, name, descriptor, signature, exceptions));
+    }
+
+
+    private final class CallSiteVisitor extends MethodVisitor {
+
+        CallSiteVisitor(MethodVisitor next) {
+            super(Opcodes.ASM9, next);
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+            final var replacement = ((Opcodes.INVOKESTATIC == opcode) && !isOwnCall(owner))
+                                    ? callSites.find(owner, name, descriptor)
+                                    : null;
+            if (null == replacement) {
+                super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+                return;
+            }
+            ++rewrittenCount;
+            final var frozenValue = replacement.getFrozenValue();
+            if (null != frozenValue) {
+                super.visitInsn(frozenValue ? Opcodes.ICONST_1 : Opcodes.ICONST_0);
+            } else {
+                super.visitMethodInsn(Opcodes.INVOKESTATIC, replacement.getRegistryClass(), replacement.getMethodName(),
+                                      replacement.getDescriptor(), false);
+            }
+        }
+
+        private boolean isOwnCall(String owner) {
+            return topLevelClassName.equals(FeatureToggleCallSites.topLevelName(owner));
+        }
+    }
+
+}
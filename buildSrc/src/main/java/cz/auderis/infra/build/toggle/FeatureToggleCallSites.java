@@ -0,0 +1,149 @@
+package cz.auderis.infra.build.toggle;
+
+import cz.auderis.infra.toggle.manifest.ToggleManifest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Methods annotated with {@code @FeatureToggle} and {@code @FeatureMethod} whose calls
+ * are replaced by calls of the generated registry, as described by feature toggle manifests.
+ * The manifests are parsed by {@link ToggleManifest} of the manifest library; registry methods
+ * are described since format version 3.
+ * <p>
+ * Only static annotated methods are replaced. A call of an instance method may be dispatched
+ * to an override in a subclass, which a static registry method would bypass.
+ */
+final class FeatureToggleCallSites {
+
+    static final String MANIFEST_RESOURCE = ToggleManifest.RESOURCE_NAME;
+
+    private final Map<String, Replacement> replacements;
+    private final Set<String> registryClasses;
+
+    FeatureToggleCallSites() {
+        this.replacements = new HashMap<>();
+        this.registryClasses = new HashSet<>();
+    }
+
+    boolean isEmpty() {
+        return replacements.isEmpty();
+    }
+
+    /**
+     * Adds the methods described by a binary manifest.
+     *
+     * @return {@code false} if the manifest was produced by an annotation processor that
+     *         does not describe registry methods, so that its toggles cannot be inlined
+     * @throws IOException if the manifest is corrupted or of an unknown version
+     */
+    boolean addManifest(byte[] manifestData) throws IOException {
+        final var manifest = ToggleManifest.read(ByteBuffer.wrap(manifestData));
+        final var registryClass = internalName(manifest.getRegistryClassName());
+        registryClasses.add(registryClass);
+        boolean described = true;
+        for (final var entry : manifest.getToggles()) {
+            final var registryMethod = entry.getRegistryMethod();
+            if (registryMethod.isEmpty()) {
+                described = false;
+                continue;
+            }
+            final var isPair = ToggleManifest.Kind.FEATURE_METHOD_PAIR == entry.getKind();
+            final var frozenValue = (!isPair && entry.isFrozen()) ? Boolean.valueOf(entry.isDefaultEnabled()) : null;
+            final var replacement = new Replacement(registryClass, registryMethod.get().getMethodName(),
+                                                    registryMethod.get().getDescriptor(), frozenValue);
+            if (isPair) {
+                entry.getLegacyMethod().ifPresent(method -> add(method, replacement));
+                entry.getFeatureMethod().ifPresent(method -> add(method, replacement));
+            } else {
+                entry.getAccessors().forEach(method -> add(method, replacement));
+            }
+        }
+        return described;
+    }
+
+    /**
+     * Finds the replacement of a call of the method.
+     *
+     * @return replacement, or {@code null} if the method is not a static feature toggle method
+     */
+    Replacement find(String ownerInternalName, String methodName, String descriptor) {
+        return replacements.get(key(ownerInternalName, methodName, descriptor));
+    }
+
+    /**
+     * Checks whether the class is a generated registry or a class nested in it,
+     * whose calls of feature toggle methods must be preserved.
+     */
+    boolean isRegistryClass(String internalName) {
+        return registryClasses.contains(topLevelName(internalName));
+    }
+
+    /**
+     * Returns the internal name of the top-level class that encloses the class.
+     */
+    static String topLevelName(String internalName) {
+        final var nestedSeparator = internalName.indexOf('$', internalName.lastIndexOf('/') + 1);
+        return (nestedSeparator < 0) ? internalName : internalName.substring(0, nestedSeparator);
+    }
+
+    private void add(ToggleManifest.MethodReference method, Replacement replacement) {
+        if (method.isStatic()) {
+            replacements.put(key(internalName(method.getClassName()), method.getMethodName(), method.getDescriptor()), replacement);
+        }
+    }
+
+    private static String internalName(String binaryName) {
+        return binaryName.replace('.', '/');
+    }
+
+    private static String key(String ownerInternalName, String methodName, String descriptor) {
+        return ownerInternalName + '.' + methodName + descriptor;
+    }
+
+
+    /**
+     * Static method of a generated registry that replaces calls of annotated methods.
+     */
+    static final class Replacement {
+        private final String registryClass;
+        private final String methodName;
+        private final String descriptor;
+        private final Boolean frozenValue;
+
+        Replacement(String registryClass, String methodName, String descriptor, Boolean frozenValue) {
+            this.registryClass = registryClass;
+            this.methodName = methodName;
+            this.descriptor = descriptor;
+            this.frozenValue = frozenValue;
+        }
+
+        /**
+         * Returns the internal name of the registry class.
+         */
+        String getRegistryClass() {
+            return registryClass;
+        }
+
+        String getMethodName() {
+            return methodName;
+        }
+
+        String getDescriptor() {
+            return descriptor;
+        }
+
+        /**
+         * Returns the permanent value of a frozen feature toggle, or {@code null}
+         * if the toggle is not frozen or if it is a feature method pair.
+         */
+        Boolean getFrozenValue() {
+            return frozenValue;
+        }
+    }
+
+}
@@ -0,0 +1,155 @@
+package cz.auderis.infra.build.toggle;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.IgnoreEmptyDirectories;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.SkipWhenEmpty;
+import org.gradle.api.tasks.TaskAction;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.zip.ZipFile;
+
+/**
+ * Copies compiled classes and replaces calls of static methods annotated with {@code @FeatureToggle}
+ * and {@code @FeatureMethod} by calls of the generated registry. Without the rewriting,
+ * every check of a toggle is a call of user code, which is inlined only if the JIT
+ * compiler decides so.
+ * <p>
+ * The methods are found in the feature toggle manifests of the compiled classes and of
+ * the classes on the classpath, so calls of toggles defined by dependencies are rewritten
+ * as well. The generated registry classes themselves are copied unchanged, since they
+ * call the annotated methods on purpose.
+ *
+ * @author Boleslav Bobcik
+ */
+@CacheableTask
+public abstract class InlineFeatureToggleCalls extends DefaultTask {
+
+    /**
+     * Returns the directory with the classes produced by the compiler.
+     *
+     * @return directory with compiled classes
+     */
+    @InputFiles
+    @SkipWhenEmpty
+    @IgnoreEmptyDirectories
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract DirectoryProperty getClassesDirectory();
+
+    /**
+     * Returns the classpath of the compiled classes, which is searched for manifests of dependencies.
+     *
+     * @return compilation classpath
+     */
+    @Classpath
+    public abstract ConfigurableFileCollection getClasspath();
+
+    /**
+     * Returns the directory that receives the rewritten classes and all other compiler output.
+     *
+     * @return output directory
+     */
+    @OutputDirectory
+    public abstract DirectoryProperty getOutputDirectory();
+
+    @TaskAction
+    public void inline() throws IOException {
+        final var inputRoot = getClassesDirectory().get().getAsFile().toPath();
+        final var outputRoot = getOutputDirectory().get().getAsFile().toPath();
+        deleteContents(outputRoot);
+        final var callSites = new FeatureToggleCallSites();
+        final var localManifest = inputRoot.resolve(FeatureToggleCallSites.MANIFEST_RESOURCE);
+        if (Files.isRegularFile(localManifest)) {
+            addManifest(callSites, Files.readAllBytes(localManifest), localManifest.toString());
+        }
+        for (final var entry : getClasspath()) {
+            addClasspathManifest(callSites, entry);
+        }
+        int rewrittenClasses = 0;
+        int rewrittenCalls = 0;
+        try (final var files = Files.walk(inputRoot)) {
+            for (final var file : (Iterable<Path>) files::iterator) {
+                final var target = outputRoot.resolve(inputRoot.relativize(file).toString());
+                if (Files.isDirectory(file)) {
+                    Files.createDirectories(target);
+                } else if (callSites.isEmpty() || !file.getFileName().toString().endsWith(".class")) {
+                    Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+                } else {
+                    final var reader = new ClassReader(Files.readAllBytes(file));
+                    final var writer = new ClassWriter(reader, 0);
+                    final var rewriter = new FeatureToggleCallRewriter(writer, callSites);
+                    reader.accept(callSites.isRegistryClass(reader.getClassName()) ? writer : rewriter, 0);
+                    Files.write(target, writer.toByteArray());
+                    if (0 != rewriter.getRewrittenCount()) {
+                        ++rewrittenClasses;
+                        rewrittenCalls += rewriter.getRewrittenCount();
+                    }
+                }
+            }
+        }
+        getLogger().info("Inlined {} feature toggle calls in {} classes", rewrittenCalls, rewrittenClasses);
+    }
+
+    private void addClasspathManifest(FeatureToggleCallSites callSites, File entry) throws IOException {
+        if (entry.isDirectory()) {
+            final var manifest = entry.toPath().resolve(FeatureToggleCallSites.MANIFEST_RESOURCE);
+            if (Files.isRegularFile(manifest)) {
+                addManifest(callSites, Files.readAllBytes(manifest), manifest.toString());
+            }
+        } else if (entry.isFile()) {
+            try (final var archive = new ZipFile(entry)) {
+                final var manifest = archive.getEntry(FeatureToggleCallSites.MANIFEST_RESOURCE);
+                if (null != manifest) {
+                    try (final var in = archive.getInputStream(manifest)) {
+                        addManifest(callSites, in.readAllBytes(), entry + "!/" + FeatureToggleCallSites.MANIFEST_RESOURCE);
+                    }
+                }
+            }
+        }
+    }
+
+    private void addManifest(FeatureToggleCallSites callSites, byte[] manifest, String location) throws IOException {
+        try {
+            if (!callSites.addManifest(manifest)) {
+                getLogger().warn("Feature toggle manifest {} does not describe registry methods, its toggles are not inlined", location);
+            }
+        } catch (IOException e) {
+            throw new IOException("Cannot read feature toggle manifest " + location, e);
+        }
+    }
+
+    private static void deleteContents(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (final var files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder())
+                 .filter(file -> !file.equals(directory))
+                 .forEach(file -> {
+                     try {
+                         Files.delete(file);
+                     } catch (IOException e) {
+                         throw new UncheckedIOException(e);
+                     }
+                 });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+package cz.auderis.infra.build.toggle;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class FeatureToggleCallRewriterTest {
+
+    private static final String FIXTURE_PACKAGE = "cz.auderis.infra.build.toggle.fixture.";
+    private static final String FEATURES = "cz.auderis.infra.build.toggle.fixture.Features";
+    private static final String REGISTRY = "cz.auderis.infra.build.toggle.fixture.FeatureRegistry";
+
+    @Test
+    void shouldReplaceCallsOfStaticToggleMethods() throws Exception {
+        // Given
+        final var loader = new RewritingClassLoader(callSites(3));
+        // When
+        final var client = loader.loadClass(FIXTURE_PACKAGE + "FeatureClient");
+        // Then
+        assertThat("Toggle not read from registry", invoke(client, "fastPath"), is(true));
+        assertThat("Frozen toggle not inlined", invoke(client, "retired"), is(true));
+        assertThat("Pair not dispatched", invoke(client, "greeting", "world"), is("Hello world!"));
+        assertThat("Wrong number of rewritten calls", loader.getRewrittenCount("FeatureClient"), is(3));
+    }
+
+    @Test
+    void shouldKeepCallsInsideDeclaringClass() throws Exception {
+        // Given
+        final var loader = new RewritingClassLoader(callSites(3));
+        // When
+        final var client = loader.loadClass(FIXTURE_PACKAGE + "FeatureClient");
+        // Then
+        assertThat("Own call rewritten", invoke(client, "fastPathInside"), is(false));
+        assertThat("Call of nested class rewritten", invoke(client, "fastPathNested"), is(false));
+        assertThat("Declaring class rewritten", loader.getRewrittenCount("Features"), is(0));
+        assertThat("Nested class rewritten", loader.getRewrittenCount("Features$Nested"), is(0));
+        assertThat("Registry rewritten", loader.getRewrittenCount("FeatureRegistry"), is(0));
+    }
+
+    @Test
+    void shouldKeepCallsOfInstanceMethods() throws Exception {
+        // Given
+        final var loader = new RewritingClassLoader(callSites(3));
+        final var client = loader.loadClass(FIXTURE_PACKAGE + "FeatureClient");
+        final var features = loader.loadClass(FEATURES).getConstructor().newInstance();
+        final var customFeatures = loader.loadClass(FIXTURE_PACKAGE + "CustomFeatures").getConstructor().newInstance();
+        // When
+        final var value = invoke(client, "instance", features);
+        final var overriddenValue = invoke(client, "instance", customFeatures);
+        // Then
+        assertThat("Instance call rewritten", value, is(false));
+        assertThat("Override bypassed", overriddenValue, is(true));
+    }
+
+    @Test
+    void shouldSkipManifestWithoutRegistryMethods() throws Exception {
+        // Given
+        final var callSites = new FeatureToggleCallSites();
+        // When
+        final var described = callSites.addManifest(manifest(2));
+        // Then
+        assertThat("Registry methods described", described, is(false));
+        assertThat("Call sites found", callSites.isEmpty(), is(true));
+        assertThat("Registry not recognized", callSites.isRegistryClass(internalName(REGISTRY) + "$Nested"), is(true));
+        assertThrows(IOException.class, () -> callSites.addManifest(new byte[] {1, 2, 3}));
+    }
+
+    private static FeatureToggleCallSites callSites(int manifestVersion) throws IOException {
+        final var callSites = new FeatureToggleCallSites();
+        assertThat("Registry methods not described", callSites.addManifest(manifest(manifestVersion)), is(true));
+        return callSites;
+    }
+
+    private static Object invoke(Class<?> type, String methodName, Object... args) throws ReflectiveOperationException {
+        for (final var method : type.getMethods()) {
+            if (method.getName().equals(methodName)) {
+                return method.invoke(null, args);
+            }
+        }
+        throw new NoSuchMethodException(methodName);
+    }
+
+    private static String internalName(String className) {
+        return className.replace('.', '/');
+    }
+
+    /**
+     * Creates a binary manifest of the fixture toggles, as documented by {@code ToggleManifest}.
+     */
+    private static byte[] manifest(int version) throws IOException {
+        final var manifest = new ManifestBuilder(version, REGISTRY);
+        manifest.toggle("fast-path", 0, 0, "fastPath", "()Z")
+                .method(0, true, FEATURES, "isFastPathEnabled", "()Z");
+        manifest.toggle("retired", 0, 3, "retired", "()Z")
+                .method(0, true, FEATURES, "isRetiredEnabled", "()Z");
+        manifest.toggle("instance", 0, 0, "instance", "()Z")
+                .method(0, false, FEATURES, "isInstanceEnabled", "()Z");
+        manifest.toggle("greeting", 1, 0, "dispatchGreeting", "(Ljava/lang/String;)Ljava/lang/String;")
+                .method(1, true, FEATURES, "legacyGreeting", "(Ljava/lang/String;)Ljava/lang/String;")
+                .method(2, true, FEATURES, "featureGreeting", "(Ljava/lang/String;)Ljava/lang/String;");
+        return manifest.build();
+    }
+
+
+    /**
+     * Loads the fixture classes rewritten the same way as by {@link InlineFeatureToggleCalls}.
+     */
+    private static final class RewritingClassLoader extends ClassLoader {
+        private final FeatureToggleCallSites callSites;
+        private final Map<String, Integer> rewrittenCounts = new HashMap<>();
+
+        RewritingClassLoader(FeatureToggleCallSites callSites) {
+            super(FeatureToggleCallRewriterTest.class.getClassLoader());
+            this.callSites = callSites;
+        }
+
+        int getRewrittenCount(String simpleName) throws ClassNotFoundException {
+            loadClass(FIXTURE_PACKAGE + simpleName);
+            return rewrittenCounts.get(simpleName);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith(FIXTURE_PACKAGE)) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                final var loaded = findLoadedClass(name);
+                if (null != loaded) {
+                    return loaded;
+                }
+                final byte[] original;
+                try (final var in = getParent().getResourceAsStream(internalName(name) + ".class")) {
+                    if (null == in) {
+                        throw new ClassNotFoundException(name);
+                    }
+                    original = in.readAllBytes();
+                } catch (IOException e) {
+                    throw new ClassNotFoundException(name, e);
+                }
+                final var reader = new ClassReader(original);
+                final var writer = new ClassWriter(reader, 0);
+                final var rewriter = new FeatureToggleCallRewriter(writer, callSites);
+                reader.accept(callSites.isRegistryClass(reader.getClassName()) ? writer : rewriter, 0);
+                rewrittenCounts.put(name.substring(FIXTURE_PACKAGE.length()), rewriter.getRewrittenCount());
+                final var rewritten = writer.toByteArray();
+                return defineClass(name, rewritten, 0, rewritten.length);
+            }
+        }
+    }
+
+}
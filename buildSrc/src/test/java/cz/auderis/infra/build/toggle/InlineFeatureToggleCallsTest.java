@@ -0,0 +1,139 @@
+package cz.auderis.infra.build.toggle;
+
+import cz.auderis.infra.toggle.manifest.ToggleManifest;
+import org.gradle.testkit.runner.GradleRunner;
+import org.gradle.testkit.runner.TaskOutcome;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Builds a small project that applies the {@code feature-toggle-inlining} plugin and runs
+ * its main class. The project stands for the output of the annotation processor by its own
+ * registry class and a prepared manifest on the compile classpath, so that the test depends
+ * on nothing but the build logic.
+ */
+public class InlineFeatureToggleCallsTest {
+
+    private Path projectDir;
+
+    @BeforeEach
+    void createProject() throws IOException {
+        projectDir = Files.createTempDirectory("feature-toggle-inlining");
+        write("settings.gradle", "rootProject.name = 'feature-toggle-inlining'\n");
+        write("build.gradle", """
+                plugins {
+                    id 'java'
+                    id 'feature-toggle-inlining'
+                }
+                dependencies {
+                    implementation files('manifest')
+                }
+                tasks.register('runClient', JavaExec) {
+                    classpath = sourceSets.main.runtimeClasspath
+                    mainClass = 'cz.auderis.test.Client'
+                }
+                """);
+        write("src/main/java/cz/auderis/test/Features.java", """
+                package cz.auderis.test;
+                public class Features {
+                    public static boolean isFastPathEnabled() {
+                        return false;
+                    }
+                    public static String legacyGreeting(String name) {
+                        return "Hello " + name;
+                    }
+                    public static String featureGreeting(String name) {
+                        return legacyGreeting(name) + "!";
+                    }
+                }
+                """);
+        write("src/main/java/cz/auderis/test/FeatureToggles.java", """
+                package cz.auderis.test;
+                public final class FeatureToggles {
+                    public static boolean fastPath() {
+                        return true;
+                    }
+                    public static String dispatchGreeting(String name) {
+                        return Features.featureGreeting(name);
+                    }
+                }
+                """);
+        write("src/main/java/cz/auderis/test/Client.java", """
+                package cz.auderis.test;
+                public class Client {
+                    public static void main(String[] args) {
+                        System.out.println("fast-path=" + Features.isFastPathEnabled());
+                        System.out.println("greeting=" + Features.legacyGreeting("world"));
+                    }
+                }
+                """);
+        final var manifest = new ManifestBuilder(ToggleManifest.FORMAT_VERSION, "cz.auderis.test.FeatureToggles");
+        manifest.toggle("fast-path", 0, 0, "fastPath", "()Z")
+                .method(0, true, "cz.auderis.test.Features", "isFastPathEnabled", "()Z");
+        manifest.toggle("greeting", 1, 0, "dispatchGreeting", "(Ljava/lang/String;)Ljava/lang/String;")
+                .method(1, true, "cz.auderis.test.Features", "legacyGreeting", "(Ljava/lang/String;)Ljava/lang/String;")
+                .method(2, true, "cz.auderis.test.Features", "featureGreeting", "(Ljava/lang/String;)Ljava/lang/String;");
+        final var manifestFile = projectDir.resolve("manifest").resolve(ToggleManifest.RESOURCE_NAME);
+        Files.createDirectories(manifestFile.getParent());
+        Files.write(manifestFile, manifest.build());
+    }
+
+    @AfterEach
+    void deleteProject() throws IOException {
+        if (null != projectDir) {
+            try (final var files = Files.walk(projectDir)) {
+                for (final var file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Test
+    void shouldRunRewrittenClasses() {
+        // Given
+        final var runner = runner("runClient", "--info");
+        // When
+        final var result = runner.build();
+        // Then
+        assertThat("Calls not inlined", result.task(":inlineFeatureToggles").getOutcome(), is(TaskOutcome.SUCCESS));
+        assertThat("Wrong number of calls", result.getOutput(), containsString("Inlined 2 feature toggle calls in 1 classes"));
+        assertThat("Toggle not read from registry", result.getOutput(), containsString("fast-path=true"));
+        assertThat("Pair not dispatched", result.getOutput(), containsString("greeting=Hello world!"));
+    }
+
+    @Test
+    void shouldReuseRewrittenClasses() {
+        // Given
+        runner("classes").build();
+        // When
+        final var result = runner("classes").build();
+        // Then
+        assertThat("Classes rewritten again", result.task(":inlineFeatureToggles").getOutcome(), is(TaskOutcome.UP_TO_DATE));
+    }
+
+    private GradleRunner runner(String... arguments) {
+        return GradleRunner.create()
+                           .withProjectDir(projectDir.toFile())
+                           .withPluginClasspath()
+                           .withArguments(arguments);
+    }
+
+    private void write(String relativePath, String content) throws IOException {
+        final var file = projectDir.resolve(relativePath);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+    }
+
+}
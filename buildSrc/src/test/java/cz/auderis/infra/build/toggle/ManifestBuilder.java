@@ -0,0 +1,108 @@
+package cz.auderis.infra.build.toggle;
+
+import cz.auderis.infra.toggle.manifest.ToggleManifest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes binary feature toggle manifests in the format documented by {@link ToggleManifest}.
+ * Method roles and toggle kinds and flags are passed as their numeric codes.
+ */
+final class ManifestBuilder {
+
+    private final int version;
+    private final List<String> strings = new ArrayList<>();
+    private final ByteArrayOutputStream toggles = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(toggles);
+    private final List<byte[]> methods = new ArrayList<>();
+    private final String registryClass;
+    private int toggleCount;
+
+    ManifestBuilder(int version, String registryClass) {
+        this.version = version;
+        this.registryClass = registryClass;
+    }
+
+    ManifestBuilder toggle(String name, int kind, int flags, String registryMethod, String registryDescriptor) throws IOException {
+        flushMethods();
+        ++toggleCount;
+        out.writeInt(index(name));
+        out.writeByte(kind);
+        out.writeByte(flags);
+        out.writeInt(-1);
+        if (version >= 2) {
+            out.writeInt(-1);
+        }
+        if (version >= 3) {
+            out.writeInt(index(registryMethod));
+            out.writeInt(index(registryDescriptor));
+        }
+        return this;
+    }
+
+    ManifestBuilder method(int role, boolean isStatic, String className, String name, String descriptor) {
+        final var method = new ByteArrayOutputStream();
+        try (final var methodOut = new DataOutputStream(method)) {
+            methodOut.writeByte(role);
+            methodOut.writeByte(isStatic ? 1 : 0);
+            methodOut.writeInt(index(className));
+            methodOut.writeInt(index(name));
+            methodOut.writeInt(index(descriptor));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        methods.add(method.toByteArray());
+        return this;
+    }
+
+    byte[] build() throws IOException {
+        flushMethods();
+        final var registryIndex = index(registryClass);
+        final var result = new ByteArrayOutputStream();
+        final var header = new DataOutputStream(result);
+        header.writeInt(ToggleManifest.MAGIC);
+        header.writeShort(version);
+        header.writeInt(strings.size());
+        for (final var string : strings) {
+            final var bytes = string.getBytes(StandardCharsets.UTF_8);
+            header.writeInt(bytes.length);
+            header.write(bytes);
+        }
+        header.writeInt(registryIndex);
+        header.writeInt(toggleCount);
+        header.write(toggles.toByteArray());
+        return result.toByteArray();
+    }
+
+    private void flushMethods() throws IOException {
+        if (0 == toggleCount) {
+            return;
+        }
+        out.writeShort(methods.size());
+        for (final var method : methods) {
+            out.write(method);
+        }
+        methods.clear();
+        out.writeShort(0);
+        if (version >= 4) {
+            out.writeShort(0);
+            out.writeShort(0);
+        }
+    }
+
+    private int index(String string) {
+        final var index = strings.indexOf(string);
+        if (index >= 0) {
+            return index;
+        }
+        strings.add(string);
+        return strings.size() - 1;
+    }
+
+}
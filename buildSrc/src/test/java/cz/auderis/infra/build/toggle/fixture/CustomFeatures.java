@@ -0,0 +1,10 @@
+package cz.auderis.infra.build.toggle.fixture;
+
+public class CustomFeatures extends Features {
+
+    @Override
+    public boolean isInstanceEnabled() {
+        return true;
+    }
+
+}
@@ -0,0 +1,29 @@
+package cz.auderis.infra.build.toggle.fixture;
+
+public class FeatureClient {
+
+    public static boolean fastPath() {
+        return Features.isFastPathEnabled();
+    }
+
+    public static boolean retired() {
+        return Features.isRetiredEnabled();
+    }
+
+    public static boolean instance(Features features) {
+        return features.isInstanceEnabled();
+    }
+
+    public static String greeting(String name) {
+        return Features.legacyGreeting(name);
+    }
+
+    public static boolean fastPathInside() {
+        return Features.isFastPathEnabledInside();
+    }
+
+    public static boolean fastPathNested() {
+        return Features.Nested.isFastPathEnabled();
+    }
+
+}
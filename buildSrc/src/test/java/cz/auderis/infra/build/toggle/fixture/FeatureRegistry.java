@@ -0,0 +1,24 @@
+package cz.auderis.infra.build.toggle.fixture;
+
+/**
+ * Stands for the generated registry of the methods of {@link Features}.
+ */
+public final class FeatureRegistry {
+
+    private FeatureRegistry() {
+        throw new AssertionError();
+    }
+
+    public static boolean fastPath() {
+        return true;
+    }
+
+    public static boolean instance() {
+        return true;
+    }
+
+    public static String dispatchGreeting(String name) {
+        return Features.featureGreeting(name);
+    }
+
+}
@@ -0,0 +1,38 @@
+package cz.auderis.infra.build.toggle.fixture;
+
+/**
+ * Annotated methods as described by the manifest of the rewriter tests.
+ */
+public class Features {
+
+    public static boolean isFastPathEnabled() {
+        return false;
+    }
+
+    public static boolean isRetiredEnabled() {
+        return false;
+    }
+
+    public boolean isInstanceEnabled() {
+        return false;
+    }
+
+    public static String legacyGreeting(String name) {
+        return "Hello " + name;
+    }
+
+    public static String featureGreeting(String name) {
+        return legacyGreeting(name) + "!";
+    }
+
+    public static boolean isFastPathEnabledInside() {
+        return isFastPathEnabled();
+    }
+
+    public static class Nested {
+        public static boolean isFastPathEnabled() {
+            return Features.isFastPathEnabled();
+        }
+    }
+
+}
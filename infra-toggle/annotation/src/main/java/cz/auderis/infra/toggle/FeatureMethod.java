@@ -51,4 +51,46 @@ public @interface FeatureMethod {
      */
     String description() default "";
 
+    /**
+     * Permanent value of the feature toggle. A frozen feature method pair is not
+     * part of the run-time toggle registry; its generated dispatcher invokes
+     * the selected implementation directly and never refers to the other one.
+     * It is sufficient to specify the value on one of the methods; if both specify
+     * it, the values must be identical.
+     *
+     * @return permanent value, or {@link FrozenValue#NONE} if the toggle may change at run time
+     */
+    FrozenValue frozen() default FrozenValue.NONE;
+
+    /**
+     * Date after which the feature toggle is considered expired, in ISO-8601
+     * format ({@code yyyy-MM-dd}). Compilation of code with an expired toggle
+     * fails unless the toggle is {@linkplain #frozen() frozen}, which forces
+     * a decision about the toggle value once the toggle has served its purpose.
+     * Similarly to {@link #frozen()}, it is sufficient to specify the date on one
+     * of the methods.
+     *
+     * @return expiration date, or an empty string if the toggle does not expire
+     */
+    String expires() default "";
+
+    /**
+     * Names of feature toggles that must be enabled for this toggle to take effect.
+     * A toggle whose prerequisite is disabled behaves as disabled, regardless of its
+     * own value; prerequisites apply transitively and must not form a cycle.
+     * Similarly to {@link #frozen()}, prerequisites may be specified on just one
+     * of the methods; prerequisites declared on both methods are combined.
+     *
+     * @return names of required feature toggles
+     */
+    String[] requires() default {};
+
+    /**
+     * Names of groups the feature toggle belongs to. All toggles of a group may be
+     * enabled or disabled at once, and a group is enabled if all its toggles are.
+     *
+     * @return group names
+     */
+    String[] groups() default {};
+
 }
@@ -0,0 +1,28 @@
+package cz.auderis.infra.toggle;
+
+/**
+ * Permanent value of a feature toggle. A frozen toggle is no longer managed
+ * at run time; the annotation processor replaces it with a compile-time
+ * constant, so that the compiler and the JIT compiler may drop the code
+ * that depends on the other value. This is the intended final stage of
+ * a toggle that has been fully rolled out or retired, before the toggle
+ * is removed from the code altogether.
+ */
+public enum FrozenValue {
+
+    /**
+     * The toggle is not frozen and may be changed at run time.
+     */
+    NONE,
+
+    /**
+     * The toggle is permanently enabled.
+     */
+    ENABLED,
+
+    /**
+     * The toggle is permanently disabled.
+     */
+    DISABLED,
+
+}
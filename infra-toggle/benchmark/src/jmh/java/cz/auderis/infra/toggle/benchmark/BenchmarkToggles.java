@@ -0,0 +1,22 @@
+package cz.auderis.infra.toggle.benchmark;
+
+import cz.auderis.infra.toggle.FeatureToggle;
+
+/**
+ * Declares the feature toggle read by the benchmarks. The annotation processor generates
+ * the registry class {@code FeatureToggles} in this package.
+ */
+final class BenchmarkToggles {
+
+    static final String TOGGLE_NAME = "benchmark.enabled";
+
+    private BenchmarkToggles() {
+        throw new AssertionError();
+    }
+
+    @FeatureToggle(name = TOGGLE_NAME, description = "Toggle read by the benchmarks")
+    static boolean isBenchmarkEnabled() {
+        return true;
+    }
+
+}
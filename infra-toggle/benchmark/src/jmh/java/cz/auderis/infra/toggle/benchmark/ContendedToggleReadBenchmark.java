@@ -0,0 +1,11 @@
+package cz.auderis.infra.toggle.benchmark;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Runs the read benchmarks of {@link ToggleReadBenchmark} from 64 threads sharing
+ * the same toggle state.
+ */
+@Threads(64)
+public class ContendedToggleReadBenchmark extends ToggleReadBenchmark {
+}
@@ -0,0 +1,101 @@
+package cz.auderis.infra.toggle.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples toggle read latency while a single writer keeps flipping the toggle.
+ * <p>
+ * Each group runs seven readers and one writer. Changes of a toggle in the generated
+ * registry invalidate code that has the toggle value folded in, so the read latency
+ * distribution shows the cost of recompilation, compared to the volatile field and
+ * {@link ConcurrentHashMap} alternatives that are never folded. The writer spends
+ * {@code flipDelay} {@link Blackhole#consumeCPU(long) tokens} between changes.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Group)
+public class ToggleFlipStormBenchmark {
+
+    @Param({ "1000", "100000" })
+    public long flipDelay;
+
+    volatile boolean volatileToggle;
+    Map<String, Boolean> toggleMap;
+    boolean nextValue;
+
+    @Setup
+    public void setUp() {
+        toggleMap = new ConcurrentHashMap<>();
+        toggleMap.put(BenchmarkToggles.TOGGLE_NAME, Boolean.TRUE);
+        volatileToggle = true;
+    }
+
+    @Benchmark
+    @Group("generatedAccessor")
+    @GroupThreads(7)
+    public boolean generatedAccessorRead() {
+        return FeatureToggles.benchmarkEnabled();
+    }
+
+    @Benchmark
+    @Group("generatedAccessor")
+    @GroupThreads(1)
+    public void generatedAccessorFlip() {
+        Blackhole.consumeCPU(flipDelay);
+        nextValue = !nextValue;
+        FeatureToggles.REGISTRY.setEnabled(FeatureToggles.BENCHMARK_ENABLED, nextValue);
+    }
+
+    @Benchmark
+    @Group("volatileField")
+    @GroupThreads(7)
+    public boolean volatileFieldRead() {
+        return volatileToggle;
+    }
+
+    @Benchmark
+    @Group("volatileField")
+    @GroupThreads(1)
+    public void volatileFieldFlip() {
+        Blackhole.consumeCPU(flipDelay);
+        nextValue = !nextValue;
+        volatileToggle = nextValue;
+    }
+
+    @Benchmark
+    @Group("concurrentHashMap")
+    @GroupThreads(7)
+    public boolean concurrentHashMapRead() {
+        return toggleMap.get(BenchmarkToggles.TOGGLE_NAME);
+    }
+
+    @Benchmark
+    @Group("concurrentHashMap")
+    @GroupThreads(1)
+    public void concurrentHashMapFlip() {
+        Blackhole.consumeCPU(flipDelay);
+        nextValue = !nextValue;
+        toggleMap.put(BenchmarkToggles.TOGGLE_NAME, nextValue);
+    }
+
+}
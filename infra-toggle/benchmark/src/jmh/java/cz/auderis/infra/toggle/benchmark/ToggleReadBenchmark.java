@@ -0,0 +1,119 @@
+package cz.auderis.infra.toggle.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cost of reading a feature toggle through the generated registry with
+ * the usual alternatives: a {@code static final boolean} constant, a volatile field
+ * and a {@link ConcurrentHashMap} lookup.
+ * <p>
+ * Single read benchmarks measure an isolated read, the {@code InLoop} variants measure
+ * a toggle evaluated in every iteration of a hot loop, which is where constant folding
+ * of the toggle value matters most. The toggle value never changes during the benchmark,
+ * see {@link ToggleFlipStormBenchmark} for reads during frequent changes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ToggleReadBenchmark {
+
+    static final int LOOP_LENGTH = 1024;
+    static final boolean CONSTANT_TOGGLE = true;
+
+    volatile boolean volatileToggle;
+    Map<String, Boolean> toggleMap;
+    int[] data;
+
+    @Setup
+    public void setUp() {
+        FeatureToggles.REGISTRY.setEnabled(FeatureToggles.BENCHMARK_ENABLED, true);
+        volatileToggle = true;
+        toggleMap = new ConcurrentHashMap<>();
+        toggleMap.put(BenchmarkToggles.TOGGLE_NAME, Boolean.TRUE);
+        data = new Random(42L).ints(LOOP_LENGTH).toArray();
+    }
+
+    @Benchmark
+    public boolean generatedAccessor() {
+        return FeatureToggles.benchmarkEnabled();
+    }
+
+    @Benchmark
+    public boolean registryByOrdinal() {
+        return FeatureToggles.REGISTRY.isEnabled(FeatureToggles.BENCHMARK_ENABLED);
+    }
+
+    @Benchmark
+    public boolean staticFinalField() {
+        return CONSTANT_TOGGLE;
+    }
+
+    @Benchmark
+    public boolean volatileField() {
+        return volatileToggle;
+    }
+
+    @Benchmark
+    public boolean concurrentHashMap() {
+        return toggleMap.get(BenchmarkToggles.TOGGLE_NAME);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOP_LENGTH)
+    public long generatedAccessorInLoop() {
+        long sum = 0L;
+        for (final int x : data) {
+            sum += FeatureToggles.benchmarkEnabled() ? x : -x;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOP_LENGTH)
+    public long staticFinalFieldInLoop() {
+        long sum = 0L;
+        for (final int x : data) {
+            sum += CONSTANT_TOGGLE ? x : -x;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOP_LENGTH)
+    public long volatileFieldInLoop() {
+        long sum = 0L;
+        for (final int x : data) {
+            sum += volatileToggle ? x : -x;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOP_LENGTH)
+    public long concurrentHashMapInLoop() {
+        long sum = 0L;
+        for (final int x : data) {
+            sum += toggleMap.get(BenchmarkToggles.TOGGLE_NAME) ? x : -x;
+        }
+        return sum;
+    }
+
+}
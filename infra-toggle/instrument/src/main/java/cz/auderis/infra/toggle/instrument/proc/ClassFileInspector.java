@@ -0,0 +1,120 @@
+package cz.auderis.infra.toggle.instrument.proc;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Minimal reader of class files. It is used when an annotated method is not
+ * available in source form, which happens when a build tool performs incremental
+ * compilation and passes unchanged annotated types to the processor as compiled
+ * classes.
+ */
+final class ClassFileInspector {
+
+    private static final int CLASS_FILE_MAGIC = 0xCAFEBABE;
+    private static final int ICONST_0 = 0x03;
+    private static final int ICONST_1 = 0x04;
+    private static final int IRETURN = 0xAC;
+
+    private ClassFileInspector() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Checks whether the method {@code boolean methodName()} consists of a single
+     * {@code return} statement with a constant and returns the constant.
+     *
+     * @return constant returned by the method, or {@code null} if the method
+     *         does not exist or does not return a constant
+     */
+    static Boolean constantBooleanResult(InputStream classFile, String methodName) throws IOException {
+        final var in = new DataInputStream(classFile);
+        if (CLASS_FILE_MAGIC != in.readInt()) {
+            throw new IOException("Not a class file");
+        }
+        skip(in, 4);
+        final var constants = readUtf8Constants(in);
+        skip(in, 6);
+        skip(in, 2 * in.readUnsignedShort());
+        final var fieldCount = in.readUnsignedShort();
+        for (int i = 0; i < fieldCount; ++i) {
+            skip(in, 6);
+            skipAttributes(in);
+        }
+        final var methodCount = in.readUnsignedShort();
+        for (int i = 0; i < methodCount; ++i) {
+            skip(in, 2);
+            final var name = constants[in.readUnsignedShort()];
+            final var descriptor = constants[in.readUnsignedShort()];
+            if (methodName.equals(name) && "()Z".equals(descriptor)) {
+                return constantResult(in, constants);
+            }
+            skipAttributes(in);
+        }
+        return null;
+    }
+
+    private static Boolean constantResult(DataInputStream in, String[] constants) throws IOException {
+        final var attributeCount = in.readUnsignedShort();
+        for (int i = 0; i < attributeCount; ++i) {
+            final var name = constants[in.readUnsignedShort()];
+            final var length = in.readInt();
+            if (!"Code".equals(name)) {
+                skip(in, length);
+                continue;
+            }
+            skip(in, 4);
+            final var code = new byte[in.readInt()];
+            in.readFully(code);
+            if ((2 == code.length) && (IRETURN == (code[1] & 0xFF))) {
+                if (ICONST_0 == code[0]) {
+                    return Boolean.FALSE;
+                } else if (ICONST_1 == code[0]) {
+                    return Boolean.TRUE;
+                }
+            }
+            return null;
+        }
+        return null;
+    }
+
+    /**
+     * Reads the constant pool, keeping only the UTF-8 entries.
+     */
+    private static String[] readUtf8Constants(DataInputStream in) throws IOException {
+        final var count = in.readUnsignedShort();
+        final var result = new String[count];
+        for (int i = 1; i < count; ++i) {
+            final var tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1 -> result[i] = in.readUTF();
+                case 7, 8, 16, 19, 20 -> skip(in, 2);
+                case 15 -> skip(in, 3);
+                case 3, 4, 9, 10, 11, 12, 17, 18 -> skip(in, 4);
+                case 5, 6 -> {
+                    skip(in, 8);
+                    ++i;
+                }
+                default -> throw new IOException("Invalid constant pool tag " + tag);
+            }
+        }
+        return result;
+    }
+
+    private static void skip(DataInputStream in, int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("Invalid class file");
+        }
+        in.skipNBytes(length);
+    }
+
+    private static void skipAttributes(DataInputStream in) throws IOException {
+        final var count = in.readUnsignedShort();
+        for (int i = 0; i < count; ++i) {
+            skip(in, 2);
+            skip(in, in.readInt());
+        }
+    }
+
+}
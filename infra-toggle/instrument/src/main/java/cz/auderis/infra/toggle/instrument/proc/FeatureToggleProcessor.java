@@ -1,18 +1,43 @@
 package cz.auderis.infra.toggle.instrument.proc;
 
+import com.sun.source.tree.ExpressionTree;
+import com.sun.source.tree.LiteralTree;
+import com.sun.source.tree.ParenthesizedTree;
+import com.sun.source.tree.ReturnTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.tree.UnaryTree;
+import com.sun.source.util.Trees;
+
 import javax.annotation.processing.AbstractProcessor;
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.RoundEnvironment;
 import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
 import javax.annotation.processing.SupportedSourceVersion;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
 import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
 import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
 import javax.tools.Diagnostic;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -22,22 +47,52 @@ import java.util.stream.Stream;
         "cz.auderis.infra.toggle.FeatureMethod",
         "cz.auderis.infra.toggle.FeatureToggleObserver",
         })
+@SupportedOptions({
+        FeatureToggleProcessor.OPTION_REGISTRY_CLASS,
+        FeatureToggleProcessor.OPTION_CURRENT_DATE,
+        })
 @SupportedSourceVersion(SourceVersion.RELEASE_17)
 public class FeatureToggleProcessor extends AbstractProcessor {
 
+    /**
+     * Processor option that defines the fully qualified name of the generated
+     * registry class. If not specified, class {@code FeatureToggles} is generated
+     * in the common package of all annotated elements.
+     */
+    public static final String OPTION_REGISTRY_CLASS = "cz.auderis.infra.toggle.registryClass";
+
+    /**
+     * Processor option that defines the date (in format {@code yyyy-MM-dd}) against which
+     * expiration dates of feature toggles are checked. If not specified, the current date
+     * is used. Setting the date explicitly makes builds reproducible.
+     */
+    public static final String OPTION_CURRENT_DATE = "cz.auderis.infra.toggle.currentDate";
+
+    static final String DEFAULT_REGISTRY_CLASS_NAME = "FeatureToggles";
+
     private Elements elementUtils;
+    private Types typeUtils;
+    private Trees trees;
     private Set<TypeElement> supportedAnnotationTypes;
     private RegisteredToggleManager toggleManager;
+    private Map<ExecutableElement, List<String>> observedToggles;
+    private LocalDate currentDate;
+    private boolean errorsReported;
+    private boolean registryGenerated;
 
     @Override
     public synchronized void init(ProcessingEnvironment processingEnv) {
         super.init(processingEnv);
         this.elementUtils = processingEnv.getElementUtils();
+        this.typeUtils = processingEnv.getTypeUtils();
         final var typeAnnotation = FeatureToggleProcessor.class.getAnnotation(SupportedAnnotationTypes.class);
         supportedAnnotationTypes = Stream.of(typeAnnotation.value())
                                          .map(elementUtils::getTypeElement)
                                          .collect(Collectors.toSet());
         toggleManager = new RegisteredToggleManager();
+        observedToggles = new LinkedHashMap<>();
+        trees = findTrees(processingEnv);
+        currentDate = configuredCurrentDate();
     }
 
     @Override
@@ -52,31 +107,549 @@ public class FeatureToggleProcessor extends AbstractProcessor {
             }
 
         }
+        if (registryGenerated) {
+            error("Feature toggle annotations found in sources generated by other processors are not supported", null);
+        } else {
+            validateMethodPairs();
+            validateObservers();
+            validateExpiryDates();
+            validatePrerequisites();
+            if (!errorsReported && !toggleManager.isEmpty()) {
+                generateRegistry();
+            }
+            registryGenerated = true;
+        }
         return true;
     }
 
     private void processAnnotatedElement(RoundEnvironment roundEnv, TypeElement annotation, Element elem) {
-        final List<? extends AnnotationMirror> mirrors = elem.getAnnotationMirrors().stream().filter(this::isAnnotationMirrorSupported).toList();
-        if (mirrors.size() != 1) {
-            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Incompatible feature-related annotations", elem);
+        final var mirror = findSingleSupportedMirror(elem);
+        if (null == mirror) {
+            error("Incompatible feature-related annotations", elem);
+            return;
+        }
+        if (!(elem instanceof ExecutableElement method)) {
+            error("Feature-related annotation must be placed on a method", elem);
             return;
         }
-
 
         final var instrumentationType = InstrumentationType.forType(annotation);
+        switch (instrumentationType) {
+            case FEATURE_TOGGLE -> processFeatureToggle(method, mirror);
+            case FEATURE_METHOD_PAIR -> processFeatureMethod(method, mirror);
+            case TOGGLE_OBSERVER -> processToggleObserver(method, mirror);
+        }
+    }
+
+    private void processFeatureToggle(ExecutableElement method, AnnotationMirror mirror) {
+        final var name = stringValue(mirror, "name");
+        if (name.isEmpty()) {
+            error("Feature toggle name must not be empty", method);
+            return;
+        } else if (!method.getParameters().isEmpty() || (TypeKind.BOOLEAN != method.getReturnType().getKind())) {
+            error("Feature toggle method must have no arguments and must return boolean", method);
+            return;
+        }
+        final var toggle = toggleManager.register(name, InstrumentationType.FEATURE_TOGGLE);
+        final var enclosingType = (TypeElement) method.getEnclosingElement();
+        if (null == toggle) {
+            error("Feature toggle '" + name + "' conflicts with a feature method pair of the same name", method);
+            return;
+        } else if (toggle.isDefinedIn(enclosingType)) {
+            error("Feature toggle '" + name + "' is defined more than once in " + enclosingType.getQualifiedName(), method);
+            return;
+        }
+        final boolean defaultValue = inferDefaultValue(method, name);
+        if (!toggle.getOccurrences().isEmpty() && (defaultValue != toggle.getDefaultValue())) {
+            error("Feature toggle '" + name + "' has conflicting default values", method);
+            return;
+        }
+        toggle.addMethod(method);
+        toggle.setDefaultValue(defaultValue);
+        toggle.setDescription(stringValue(mirror, "description"));
+        processLifecycle(toggle, method, mirror);
+    }
+
+    private void processFeatureMethod(ExecutableElement method, AnnotationMirror mirror) {
+        final var name = stringValue(mirror, "name");
+        final var flagValue = (Boolean) annotationValue(mirror, "flagValue").getValue();
+        if (name.isEmpty()) {
+            error("Feature name must not be empty", method);
+            return;
+        }
+        final var toggle = toggleManager.register(name, InstrumentationType.FEATURE_METHOD_PAIR);
+        if (null == toggle) {
+            error("Feature method pair '" + name + "' conflicts with a feature toggle of the same name", method);
+            return;
+        } else if (null != toggle.getPairMember(flagValue)) {
+            error("Feature method '" + name + "' with flagValue=" + flagValue + " is defined more than once", method);
+            return;
+        }
+        toggle.setPairMember(flagValue, method, stringValue(mirror, "description"));
+        processLifecycle(toggle, method, mirror);
+    }
+
+    /**
+     * Applies attributes {@code frozen}, {@code expires}, {@code requires} and {@code groups}
+     * of the annotation to the toggle. The lifecycle attributes may be omitted at some occurrences
+     * of the toggle, but where they are specified, they must agree; prerequisites and groups
+     * of all occurrences are combined.
+     */
+    private void processLifecycle(RegisteredToggle toggle, ExecutableElement method, AnnotationMirror mirror) {
+        for (final var prerequisite : stringValues(mirror, "requires")) {
+            toggle.addPrerequisite(prerequisite);
+        }
+        for (final var group : stringValues(mirror, "groups")) {
+            if (group.isBlank()) {
+                error("Group name of feature toggle '" + toggle.getName() + "' must not be empty", method);
+            } else {
+                toggle.addGroup(group);
+            }
+        }
+        final var frozen = ((VariableElement) annotationValue(mirror, "frozen").getValue()).getSimpleName().toString();
+        if (!"NONE".equals(frozen) && !toggle.setFrozenValue("ENABLED".equals(frozen))) {
+            error("Feature toggle '" + toggle.getName() + "' has conflicting frozen values", method);
+        }
+        final var expires = stringValue(mirror, "expires").strip();
+        if (expires.isEmpty()) {
+            return;
+        }
+        final LocalDate expiryDate;
+        try {
+            expiryDate = LocalDate.parse(expires);
+        } catch (DateTimeParseException e) {
+            error("Invalid expiration date of feature toggle '" + toggle.getName() + "', expected yyyy-MM-dd: " + expires, method);
+            return;
+        }
+        if (!toggle.setExpiryDate(expiryDate)) {
+            error("Feature toggle '" + toggle.getName() + "' has conflicting expiration dates", method);
+        }
+    }
+
+    private void processToggleObserver(ExecutableElement method, AnnotationMirror mirror) {
+        if (!method.getModifiers().contains(Modifier.STATIC)) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "Non-static feature toggle observer is ignored", method);
+            return;
+        } else if (method.getModifiers().contains(Modifier.PRIVATE)) {
+            error("Feature toggle observer must not be private", method);
+            return;
+        }
+        final var params = method.getParameters();
+        final var stringType = elementUtils.getTypeElement("java.lang.String").asType();
+        if ((2 != params.size())
+                || !typeUtils.isSameType(stringType, params.get(0).asType())
+                || (TypeKind.BOOLEAN != params.get(1).asType().getKind())
+                || (TypeKind.VOID != method.getReturnType().getKind())) {
+            error("Feature toggle observer must have signature static void methodName(String featureName, boolean newValue)", method);
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        final var values = (List<? extends AnnotationValue>) annotationValue(mirror, "value").getValue();
+        final var names = new LinkedHashSet<String>(values.size());
+        for (final var value : values) {
+            names.add((String) value.getValue());
+        }
+        observedToggles.put(method, List.copyOf(names));
+    }
+
+    private void validateMethodPairs() {
+        for (final var toggle : toggleManager.getToggles()) {
+            if (InstrumentationType.FEATURE_METHOD_PAIR != toggle.getType()) {
+                continue;
+            }
+            if (!toggle.isPairComplete()) {
+                final var presentFlag = (null != toggle.getPairMember(true));
+                error("Incompatible feature-related annotations: feature method '" + toggle.getName()
+                      + "' has no counterpart with flagValue=" + !presentFlag, toggle.getPairMember(presentFlag));
+                continue;
+            }
+            final var legacy = toggle.getPairMember(false);
+            final var feature = toggle.getPairMember(true);
+            if (!hasIdenticalSignature(legacy, feature)) {
+                error("Feature methods '" + toggle.getName() + "' must be declared in the same class with identical signatures", feature);
+            }
+        }
+    }
+
+    private boolean hasIdenticalSignature(ExecutableElement m1, ExecutableElement m2) {
+        if (m1.getEnclosingElement() != m2.getEnclosingElement()) {
+            return false;
+        } else if (m1.getModifiers().contains(Modifier.STATIC) != m2.getModifiers().contains(Modifier.STATIC)) {
+            return false;
+        } else if (!typeUtils.isSameType(m1.getReturnType(), m2.getReturnType())) {
+            return false;
+        } else if (!m1.getTypeParameters().isEmpty() || !m2.getTypeParameters().isEmpty()) {
+            return false;
+        }
+        final var params1 = m1.getParameters();
+        final var params2 = m2.getParameters();
+        if (params1.size() != params2.size()) {
+            return false;
+        }
+        for (int i = 0; i < params1.size(); ++i) {
+            if (!typeUtils.isSameType(params1.get(i).asType(), params2.get(i).asType())) {
+                return false;
+            }
+        }
+        return m1.isVarArgs() == m2.isVarArgs();
+    }
+
+    private void validateObservers() {
+        for (final var entry : observedToggles.entrySet()) {
+            final var observer = entry.getKey();
+            final var enclosingType = (TypeElement) observer.getEnclosingElement();
+            for (final var name : entry.getValue()) {
+                final var toggle = toggleManager.find(name);
+                if ((null == toggle) || !toggle.isDefinedIn(enclosingType)) {
+                    error("Observed feature toggle '" + name + "' is not defined in " + enclosingType.getQualifiedName(), observer);
+                } else if (toggle.isFrozen()) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                            "Feature toggle '" + name + "' is frozen, its observer is never notified", observer);
+                } else {
+                    toggle.addObserver(observer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reports toggles whose expiration date has passed. An expired toggle prevents
+     * compilation until it is frozen; a frozen toggle is only reminded to be removed.
+     */
+    private void validateExpiryDates() {
+        for (final var toggle : toggleManager.getToggles()) {
+            final var expiryDate = toggle.getExpiryDate();
+            if ((null == expiryDate) || !currentDate.isAfter(expiryDate)) {
+                continue;
+            }
+            final var location = toggle.getMethods().get(0);
+            if (!toggle.isFrozen()) {
+                error("Feature toggle '" + toggle.getName() + "' expired on " + expiryDate + ", freeze it or remove it", location);
+            } else {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                        "Feature toggle '" + toggle.getName() + "' expired on " + expiryDate + " and is frozen, it should be removed",
+                        location);
+            }
+        }
+    }
+
+    /**
+     * Verifies that prerequisites of the toggles are defined and do not form a cycle.
+     * A prerequisite that is frozen in the enabled state is always satisfied and is dropped;
+     * a prerequisite frozen in the disabled state would disable the dependent toggle forever
+     * and is reported as an error. Prerequisites of frozen toggles have no effect.
+     */
+    private void validatePrerequisites() {
+        final var toggles = toggleManager.getToggles();
+        for (final var toggle : toggles) {
+            final var location = toggle.getMethods().get(0);
+            for (final var name : List.copyOf(toggle.getPrerequisites())) {
+                final var prerequisite = toggleManager.find(name);
+                if (null == prerequisite) {
+                    error("Prerequisite '" + name + "' of feature toggle '" + toggle.getName() + "' is not defined", location);
+                } else if (toggle.isFrozen() || (prerequisite.isFrozen() && prerequisite.getFrozenValue())) {
+                    toggle.removePrerequisite(name);
+                } else if (prerequisite.isFrozen()) {
+                    error("Prerequisite '" + name + "' of feature toggle '" + toggle.getName() + "' is frozen as disabled", location);
+                }
+            }
+        }
+        final var visited = new HashSet<RegisteredToggle>();
+        for (final var toggle : toggles) {
+            findPrerequisiteCycle(toggle, visited, new ArrayList<>());
+        }
+    }
+
+    /**
+     * Searches the prerequisites of the toggle depth-first and reports the first cycle found.
+     *
+     * @return {@code true} if a cycle was found
+     */
+    private boolean findPrerequisiteCycle(RegisteredToggle toggle, Set<RegisteredToggle> visited, List<RegisteredToggle> path) {
+        final var cycleStart = path.indexOf(toggle);
+        if (cycleStart >= 0) {
+            final var cycle = new StringBuilder("Feature toggle prerequisites form a cycle: ");
+            for (final var member : path.subList(cycleStart, path.size())) {
+                cycle.append(member.getName()).append(" -> ");
+            }
+            error(cycle.append(toggle.getName()).toString(), toggle.getMethods().get(0));
+            return true;
+        } else if (!visited.add(toggle)) {
+            return false;
+        }
+        path.add(toggle);
+        for (final var name : toggle.getPrerequisites()) {
+            final var prerequisite = toggleManager.find(name);
+            if ((null != prerequisite) && findPrerequisiteCycle(prerequisite, visited, path)) {
+                return true;
+            }
+        }
+        path.remove(path.size() - 1);
+        return false;
+    }
+
+    private void generateRegistry() {
+        final var toggles = toggleManager.assignOrdinals();
+        final var writer = new RegistrySourceWriter(registryClassName(toggles), toggles, elementUtils, typeUtils);
+        if (!checkAccessibility(toggles, writer.getPackageName())) {
+            return;
+        }
+        final var originatingElements = toggles.stream()
+                                               .flatMap(t -> t.getOccurrences().stream())
+                                               .distinct()
+                                               .toArray(Element[]::new);
+        try {
+            final var sourceFile = processingEnv.getFiler().createSourceFile(writer.getQualifiedClassName(), originatingElements);
+            try (final var out = sourceFile.openWriter()) {
+                writer.write(out);
+            }
+        } catch (IOException e) {
+            error("Cannot generate feature toggle registry " + writer.getQualifiedClassName() + ": " + e.getMessage(), null);
+            return;
+        }
+        generateManifest(writer, toggles, originatingElements);
+    }
+
+    private void generateManifest(RegistrySourceWriter registryWriter, List<RegisteredToggle> toggles, Element[] originatingElements) {
+        final var writer = new ManifestWriter(registryWriter.getQualifiedClassName(), registryWriter.getRegistryMethodNames(),
+                                              toggles, elementUtils, typeUtils);
+        final var filer = processingEnv.getFiler();
+        try {
+            final var binaryFile = filer.createResource(StandardLocation.CLASS_OUTPUT, "", ManifestWriter.RESOURCE_NAME, originatingElements);
+            try (final var out = binaryFile.openOutputStream()) {
+                out.write(writer.toBinary());
+            }
+            final var jsonFile = filer.createResource(StandardLocation.CLASS_OUTPUT, "", ManifestWriter.JSON_RESOURCE_NAME, originatingElements);
+            try (final var out = jsonFile.openWriter()) {
+                out.write(writer.toJson());
+            }
+        } catch (IOException e) {
+            error("Cannot generate feature toggle manifest: " + e.getMessage(), null);
+        }
+    }
+
+    /**
+     * Verifies that the generated registry class is able to refer to observer methods
+     * and to classes that declare feature method pairs.
+     */
+    private boolean checkAccessibility(List<RegisteredToggle> toggles, String registryPackage) {
+        boolean result = true;
+        for (final var toggle : toggles) {
+            if (InstrumentationType.FEATURE_METHOD_PAIR == toggle.getType()) {
+                final var owner = toggle.getPairMember(true).getEnclosingElement();
+                if (!isAccessibleFrom(owner, registryPackage)) {
+                    error("Class declaring feature methods '" + toggle.getName() + "' is not accessible from package "
+                          + registryPackage, toggle.getPairMember(true));
+                    result = false;
+                }
+            }
+            for (final var observer : toggle.getObservers()) {
+                if (!isAccessibleFrom(observer, registryPackage)) {
+                    error("Feature toggle observer is not accessible from package " + registryPackage, observer);
+                    result = false;
+                }
+            }
+        }
+        return result;
+    }
+
+    private boolean isAccessibleFrom(Element elem, String packageName) {
+        final var samePackage = elementUtils.getPackageOf(elem).getQualifiedName().contentEquals(packageName);
+        for (var e = elem; (null != e) && e.getKind() != ElementKind.PACKAGE; e = e.getEnclosingElement()) {
+            final var modifiers = e.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE)) {
+                return false;
+            } else if (!samePackage && !modifiers.contains(Modifier.PUBLIC)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
+    private LocalDate configuredCurrentDate() {
+        final var configuredDate = processingEnv.getOptions().get(OPTION_CURRENT_DATE);
+        if ((null != configuredDate) && !configuredDate.isBlank()) {
+            try {
+                return LocalDate.parse(configuredDate.strip());
+            } catch (DateTimeParseException e) {
+                error("Invalid value of option " + OPTION_CURRENT_DATE + ", expected yyyy-MM-dd: " + configuredDate, null);
+            }
+        }
+        return LocalDate.now();
+    }
+
+    private String registryClassName(List<RegisteredToggle> toggles) {
+        final var configuredName = processingEnv.getOptions().get(OPTION_REGISTRY_CLASS);
+        if ((null != configuredName) && !configuredName.isBlank()) {
+            return configuredName.strip();
+        }
+        String commonPackage = null;
+        for (final var toggle : toggles) {
+            for (final var type : toggle.getOccurrences()) {
+                final var pkg = elementUtils.getPackageOf(type).getQualifiedName().toString();
+                if (null == commonPackage) {
+                    commonPackage = pkg;
+                } else if (!pkg.equals(commonPackage)) {
+                    commonPackage = commonPackagePrefix(commonPackage, pkg);
+                }
+            }
+        }
+        return ((null == commonPackage) || commonPackage.isEmpty())
+               ? DEFAULT_REGISTRY_CLASS_NAME
+               : (commonPackage + '.' + DEFAULT_REGISTRY_CLASS_NAME);
+    }
+
+    private static String commonPackagePrefix(String pkg1, String pkg2) {
+        final var parts1 = pkg1.split("\\.");
+        final var parts2 = pkg2.split("\\.");
+        final var prefix = new StringBuilder(Math.min(pkg1.length(), pkg2.length()));
+        for (int i = 0; (i < parts1.length) && (i < parts2.length) && parts1[i].equals(parts2[i]); ++i) {
+            if (i > 0) {
+                prefix.append('.');
+            }
+            prefix.append(parts1[i]);
+        }
+        return prefix.toString();
+    }
 
+    /**
+     * Obtains the source trees of the compiler. Build tools such as Gradle wrap
+     * the processing environment provided by javac, so if the environment is not
+     * recognized, the wrapped environment is looked up in field {@code delegate}.
+     */
+    private static Trees findTrees(ProcessingEnvironment environment) {
+        var env = environment;
+        for (int depth = 0; (null != env) && (depth < 4); ++depth) {
+            try {
+                return Trees.instance(env);
+            } catch (IllegalArgumentException e) {
+                env = wrappedEnvironment(env);
+            }
+        }
+        // Not running within javac
+        return null;
+    }
 
+    private static ProcessingEnvironment wrappedEnvironment(ProcessingEnvironment environment) {
+        for (Class<?> type = environment.getClass(); Object.class != type; type = type.getSuperclass()) {
+            try {
+                final var delegateField = type.getDeclaredField("delegate");
+                delegateField.setAccessible(true);
+                final var delegate = delegateField.get(environment);
+                return (delegate instanceof ProcessingEnvironment wrapped) ? wrapped : null;
+            } catch (NoSuchFieldException e) {
+                // Try superclass
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return null;
+            }
+        }
+        return null;
+    }
 
+    /**
+     * Determines the default value of a feature toggle from the body of the annotated
+     * method. Only bodies consisting of a single {@code return} statement with a constant
+     * boolean expression are recognized; in other cases {@code false} is assumed.
+     */
+    private boolean inferDefaultValue(ExecutableElement method, String toggleName) {
+        final var tree = (null != trees) ? trees.getTree(method) : null;
+        if ((null != tree) && (null != tree.getBody())) {
+            final var statements = tree.getBody().getStatements();
+            if ((1 == statements.size()) && (statements.get(0) instanceof ReturnTree returnTree)) {
+                final var value = evaluateBooleanConstant(returnTree.getExpression());
+                if (null != value) {
+                    return value;
+                }
+            }
+        } else if (null == tree) {
+            final var value = inferDefaultValueFromClassFile(method);
+            if (null != value) {
+                return value;
+            }
+        }
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                "Default value of feature toggle '" + toggleName + "' cannot be determined at compile time, assuming false",
+                method);
+        return false;
+    }
 
+    /**
+     * Infers the default value of a toggle whose accessor is available only in compiled
+     * form. Incremental builds (e.g. in Gradle) pass unchanged annotated classes to
+     * the processor as class files, so their method bodies are not available as trees.
+     */
+    private Boolean inferDefaultValueFromClassFile(ExecutableElement method) {
+        final var type = (TypeElement) method.getEnclosingElement();
+        final var packageName = elementUtils.getPackageOf(type).getQualifiedName().toString();
+        final var binaryName = elementUtils.getBinaryName(type).toString();
+        final var classFileName = binaryName.substring(packageName.isEmpty() ? 0 : packageName.length() + 1) + ".class";
+        try {
+            final var classFile = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, packageName, classFileName);
+            try (final var in = classFile.openInputStream()) {
+                return ClassFileInspector.constantBooleanResult(in, method.getSimpleName().toString());
+            }
+        } catch (IOException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
 
+    private static Boolean evaluateBooleanConstant(ExpressionTree expr) {
+        if (expr instanceof ParenthesizedTree parenthesized) {
+            return evaluateBooleanConstant(parenthesized.getExpression());
+        } else if ((expr instanceof LiteralTree literal) && (literal.getValue() instanceof Boolean value)) {
+            return value;
+        } else if ((Tree.Kind.LOGICAL_COMPLEMENT == expr.getKind()) && (expr instanceof UnaryTree unary)) {
+            final var operandValue = evaluateBooleanConstant(unary.getExpression());
+            return (null != operandValue) ? !operandValue : null;
+        }
+        return null;
+    }
 
+    private AnnotationValue annotationValue(AnnotationMirror mirror, String attributeName) {
+        for (final var entry : elementUtils.getElementValuesWithDefaults(mirror).entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(attributeName)) {
+                return entry.getValue();
+            }
+        }
+        throw new IllegalArgumentException("Unknown annotation attribute: " + attributeName);
+    }
 
-        System.out.println("Processing element " + elem + " annotated with " + annotation);
+    private String stringValue(AnnotationMirror mirror, String attributeName) {
+        return (String) annotationValue(mirror, attributeName).getValue();
+    }
 
+    private List<String> stringValues(AnnotationMirror mirror, String attributeName) {
+        @SuppressWarnings("unchecked")
+        final var values = (List<? extends AnnotationValue>) annotationValue(mirror, attributeName).getValue();
+        final var result = new ArrayList<String>(values.size());
+        for (final var value : values) {
+            result.add(((String) value.getValue()).strip());
+        }
+        return result;
+    }
 
+    private void error(String message, Element elem) {
+        errorsReported = true;
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, elem);
     }
 
+    /**
+     * Returns the only supported annotation of the element, or {@code null} if the element
+     * has more than one of them. This is called for every annotated element, so it avoids
+     * allocating intermediate collections.
+     */
+    private AnnotationMirror findSingleSupportedMirror(Element elem) {
+        AnnotationMirror result = null;
+        for (final AnnotationMirror mirror : elem.getAnnotationMirrors()) {
+            if (isAnnotationMirrorSupported(mirror)) {
+                if (null != result) {
+                    return null;
+                }
+                result = mirror;
+            }
+        }
+        return result;
+    }
 
     private boolean isAnnotationMirrorSupported(AnnotationMirror mirror) {
         final var element = mirror.getAnnotationType().asElement();
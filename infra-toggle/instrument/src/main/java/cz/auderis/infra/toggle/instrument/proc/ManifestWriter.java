@@ -0,0 +1,310 @@
+package cz.auderis.infra.toggle.instrument.proc;
+
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Produces the feature toggle manifest, both in the binary form read by
+ * {@code cz.auderis.infra.toggle.manifest.ToggleManifest} and in the JSON form
+ * intended for humans. The binary format is described in the documentation
+ * of that class.
+ */
+class ManifestWriter {
+
+    static final String RESOURCE_NAME = "META-INF/feature-toggles.ftm";
+    static final String JSON_RESOURCE_NAME = "META-INF/feature-toggles.json";
+
+    private static final int MAGIC = 0x4654474D;
+    private static final int FORMAT_VERSION = 4;
+    private static final int ROLE_ACCESSOR = 0;
+    private static final int ROLE_LEGACY = 1;
+    private static final int ROLE_FEATURE = 2;
+
+    private final String registryClassName;
+    private final List<String> registryMethodNames;
+    private final List<RegisteredToggle> toggles;
+    private final Elements elementUtils;
+    private final Types typeUtils;
+
+    ManifestWriter(String registryClassName, List<String> registryMethodNames, List<RegisteredToggle> toggles,
+                   Elements elementUtils, Types typeUtils) {
+        this.registryClassName = registryClassName;
+        this.registryMethodNames = registryMethodNames;
+        this.toggles = toggles;
+        this.elementUtils = elementUtils;
+        this.typeUtils = typeUtils;
+    }
+
+    byte[] toBinary() {
+        final var strings = new StringTable();
+        final var body = new ByteArrayOutputStream(64 * toggles.size() + 16);
+        try (final var out = new DataOutputStream(body)) {
+            out.writeInt(strings.indexOf(registryClassName));
+            out.writeInt(toggles.size());
+            for (int i = 0; i < toggles.size(); ++i) {
+                final var toggle = toggles.get(i);
+                out.writeInt(strings.indexOf(toggle.getName()));
+                out.writeByte((InstrumentationType.FEATURE_METHOD_PAIR == toggle.getType()) ? 1 : 0);
+                out.writeByte((effectiveValue(toggle) ? 1 : 0) | (toggle.isFrozen() ? 2 : 0));
+                out.writeInt(toggle.getDescription().isEmpty() ? -1 : strings.indexOf(toggle.getDescription()));
+                out.writeInt((null == toggle.getExpiryDate()) ? -1 : strings.indexOf(toggle.getExpiryDate().toString()));
+                out.writeInt(strings.indexOf(registryMethodNames.get(i)));
+                out.writeInt(strings.indexOf(registryMethodDescriptor(toggle)));
+                final var methods = methodsWithRoles(toggle);
+                out.writeShort(methods.size());
+                for (final var method : methods) {
+                    out.writeByte(method.role);
+                    out.writeByte(method.element.getModifiers().contains(Modifier.STATIC) ? 1 : 0);
+                    out.writeInt(strings.indexOf(binaryName(method.element)));
+                    out.writeInt(strings.indexOf(method.element.getSimpleName().toString()));
+                    out.writeInt(strings.indexOf(descriptor(method.element)));
+                }
+                out.writeShort(toggle.getObservers().size());
+                for (final var observer : toggle.getObservers()) {
+                    out.writeInt(strings.indexOf(binaryName(observer)));
+                    out.writeInt(strings.indexOf(observer.getSimpleName().toString()));
+                }
+                writeNames(out, strings, toggle.getPrerequisites());
+                writeNames(out, strings, toggle.getGroups());
+            }
+            final var result = new ByteArrayOutputStream(body.size() + strings.byteSize() + 16);
+            final var header = new DataOutputStream(result);
+            header.writeInt(MAGIC);
+            header.writeShort(FORMAT_VERSION);
+            strings.write(header);
+            header.flush();
+            body.writeTo(result);
+            return result.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write manifest to memory", e);
+        }
+    }
+
+    String toJson() {
+        final var json = new StringBuilder(256 * toggles.size() + 64);
+        json.append("{\n  \"registryClass\": ").append(jsonString(registryClassName)).append(",\n  \"toggles\": [");
+        for (int i = 0; i < toggles.size(); ++i) {
+            final var toggle = toggles.get(i);
+            json.append((0 == i) ? "\n" : ",\n");
+            json.append("    {\n");
+            json.append("      \"name\": ").append(jsonString(toggle.getName())).append(",\n");
+            json.append("      \"ordinal\": ").append(toggle.isFrozen() ? "null" : String.valueOf(toggle.getOrdinal())).append(",\n");
+            json.append("      \"type\": ").append(jsonString(toggle.getType().name())).append(",\n");
+            json.append("      \"defaultValue\": ").append(effectiveValue(toggle)).append(",\n");
+            json.append("      \"frozen\": ").append(toggle.isFrozen()).append(",\n");
+            json.append("      \"expires\": ")
+                .append((null == toggle.getExpiryDate()) ? "null" : jsonString(toggle.getExpiryDate().toString())).append(",\n");
+            json.append("      \"description\": ").append(jsonString(toggle.getDescription())).append(",\n");
+            json.append("      \"registryMethod\": {\"method\": ").append(jsonString(registryMethodNames.get(i)))
+                .append(", \"descriptor\": ").append(jsonString(registryMethodDescriptor(toggle))).append("},\n");
+            json.append("      \"methods\": [");
+            final var methods = methodsWithRoles(toggle);
+            for (int j = 0; j < methods.size(); ++j) {
+                final var method = methods.get(j);
+                json.append((0 == j) ? "\n" : ",\n");
+                json.append("        {\"role\": ").append(jsonString(roleName(method.role)))
+                    .append(", \"class\": ").append(jsonString(binaryName(method.element)))
+                    .append(", \"method\": ").append(jsonString(method.element.getSimpleName().toString()))
+                    .append(", \"descriptor\": ").append(jsonString(descriptor(method.element)))
+                    .append(", \"static\": ").append(method.element.getModifiers().contains(Modifier.STATIC))
+                    .append('}');
+            }
+            json.append(methods.isEmpty() ? "],\n" : "\n      ],\n");
+            json.append("      \"observers\": [");
+            final var observers = toggle.getObservers();
+            for (int j = 0; j < observers.size(); ++j) {
+                final var observer = observers.get(j);
+                json.append((0 == j) ? "\n" : ",\n");
+                json.append("        {\"class\": ").append(jsonString(binaryName(observer)))
+                    .append(", \"method\": ").append(jsonString(observer.getSimpleName().toString()))
+                    .append('}');
+            }
+            json.append(observers.isEmpty() ? "],\n" : "\n      ],\n");
+            json.append("      \"requires\": ").append(jsonArray(toggle.getPrerequisites())).append(",\n");
+            json.append("      \"groups\": ").append(jsonArray(toggle.getGroups())).append('\n');
+            json.append("    }");
+        }
+        json.append(toggles.isEmpty() ? "]\n}\n" : "\n  ]\n}\n");
+        return json.toString();
+    }
+
+    /**
+     * Returns the value of the toggle at start-up, which is the permanent value for frozen toggles.
+     */
+    private static boolean effectiveValue(RegisteredToggle toggle) {
+        return toggle.isFrozen() ? toggle.getFrozenValue() : toggle.getDefaultValue();
+    }
+
+    private static void writeNames(DataOutputStream out, StringTable strings, Collection<String> names) throws IOException {
+        out.writeShort(names.size());
+        for (final var name : names) {
+            out.writeInt(strings.indexOf(name));
+        }
+    }
+
+    private static List<RoleMethod> methodsWithRoles(RegisteredToggle toggle) {
+        final var result = new ArrayList<RoleMethod>(toggle.getMethods().size());
+        if (InstrumentationType.FEATURE_METHOD_PAIR == toggle.getType()) {
+            result.add(new RoleMethod(ROLE_LEGACY, toggle.getPairMember(false)));
+            result.add(new RoleMethod(ROLE_FEATURE, toggle.getPairMember(true)));
+        } else {
+            for (final var method : toggle.getMethods()) {
+                result.add(new RoleMethod(ROLE_ACCESSOR, method));
+            }
+        }
+        return result;
+    }
+
+    private static String roleName(int role) {
+        return switch (role) {
+            case ROLE_LEGACY -> "legacy";
+            case ROLE_FEATURE -> "feature";
+            default -> "accessor";
+        };
+    }
+
+    private String binaryName(ExecutableElement method) {
+        return elementUtils.getBinaryName((TypeElement) method.getEnclosingElement()).toString();
+    }
+
+    /**
+     * Returns the JVM descriptor of the static registry method that replaces the annotated methods.
+     * The dispatcher of a pair of instance methods takes the target object as its first argument.
+     */
+    private String registryMethodDescriptor(RegisteredToggle toggle) {
+        if (InstrumentationType.FEATURE_METHOD_PAIR != toggle.getType()) {
+            return "()Z";
+        }
+        final var feature = toggle.getPairMember(true);
+        final var descriptor = descriptor(feature);
+        if (feature.getModifiers().contains(Modifier.STATIC)) {
+            return descriptor;
+        }
+        return "(L" + binaryName(feature).replace('.', '/') + ';' + descriptor.substring(1);
+    }
+
+    /**
+     * Returns the JVM descriptor of the method.
+     */
+    private String descriptor(ExecutableElement method) {
+        final var sb = new StringBuilder(32).append('(');
+        for (final var parameter : method.getParameters()) {
+            appendDescriptor(sb, parameter.asType());
+        }
+        sb.append(')');
+        appendDescriptor(sb, method.getReturnType());
+        return sb.toString();
+    }
+
+    private void appendDescriptor(StringBuilder sb, TypeMirror type) {
+        final var erasedType = typeUtils.erasure(type);
+        switch (erasedType.getKind()) {
+            case BOOLEAN -> sb.append('Z');
+            case BYTE -> sb.append('B');
+            case CHAR -> sb.append('C');
+            case SHORT -> sb.append('S');
+            case INT -> sb.append('I');
+            case LONG -> sb.append('J');
+            case FLOAT -> sb.append('F');
+            case DOUBLE -> sb.append('D');
+            case VOID -> sb.append('V');
+            case ARRAY -> {
+                sb.append('[');
+                appendDescriptor(sb, ((ArrayType) erasedType).getComponentType());
+            }
+            case DECLARED -> {
+                final var element = (TypeElement) ((DeclaredType) erasedType).asElement();
+                sb.append('L').append(elementUtils.getBinaryName(element).toString().replace('.', '/')).append(';');
+            }
+            default -> throw new IllegalArgumentException("Unsupported type " + type);
+        }
+    }
+
+    private static String jsonArray(Collection<String> values) {
+        final var sb = new StringBuilder(16 * values.size() + 2).append('[');
+        for (final var value : values) {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(jsonString(value));
+        }
+        return sb.append(']').toString();
+    }
+
+    private static String jsonString(String value) {
+        final var sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); ++i) {
+            final var c = value.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+
+    private static final class RoleMethod {
+        final int role;
+        final ExecutableElement element;
+
+        RoleMethod(int role, ExecutableElement element) {
+            this.role = role;
+            this.element = element;
+        }
+    }
+
+
+    private static final class StringTable {
+        private final Map<String, Integer> indexByString = new HashMap<>();
+        private final List<byte[]> encodedStrings = new ArrayList<>();
+        private int byteSize;
+
+        int indexOf(String value) {
+            return indexByString.computeIfAbsent(value, v -> {
+                final var bytes = v.getBytes(StandardCharsets.UTF_8);
+                encodedStrings.add(bytes);
+                byteSize += 4 + bytes.length;
+                return encodedStrings.size() - 1;
+            });
+        }
+
+        int byteSize() {
+            return byteSize;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(encodedStrings.size());
+            for (final var bytes : encodedStrings) {
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+
+}
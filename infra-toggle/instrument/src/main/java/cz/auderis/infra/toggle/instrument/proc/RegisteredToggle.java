@@ -1,14 +1,32 @@
 package cz.auderis.infra.toggle.instrument.proc;
 
+import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.TypeElement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 class RegisteredToggle {
 
     private final String name;
     private final InstrumentationType type;
 
+    private int ordinal = -1;
     private List<TypeElement> occurrences;
+    private List<ExecutableElement> methods;
+    private List<ExecutableElement> observers;
+    private boolean defaultValue;
+    private String description;
+    private ExecutableElement legacyMethod;
+    private ExecutableElement featureMethod;
+    private String legacyDescription;
+    private String featureDescription;
+    private Boolean frozenValue;
+    private LocalDate expiryDate;
+    private Set<String> prerequisites;
+    private Set<String> groups;
 
     RegisteredToggle(String name, InstrumentationType type) {
         assert null != name;
@@ -25,10 +43,196 @@ class RegisteredToggle {
         return type;
     }
 
+    /**
+     * Returns the dense ordinal of the toggle, or {@code -1} if ordinals
+     * have not been assigned yet or if the toggle is frozen.
+     */
+    int getOrdinal() {
+        return ordinal;
+    }
+
+    void setOrdinal(int ordinal) {
+        this.ordinal = ordinal;
+    }
+
     List<TypeElement> getOccurrences() {
         return (null != occurrences) ? occurrences : List.of();
     }
 
+    /**
+     * Returns methods annotated with the toggle; these are either toggle accessors
+     * or members of a feature method pair.
+     */
+    List<ExecutableElement> getMethods() {
+        return (null != methods) ? methods : List.of();
+    }
+
+    List<ExecutableElement> getObservers() {
+        return (null != observers) ? observers : List.of();
+    }
+
+    boolean isDefinedIn(TypeElement type) {
+        return getOccurrences().contains(type);
+    }
+
+    void addMethod(ExecutableElement method) {
+        assert null != method;
+        if (null == methods) {
+            methods = new ArrayList<>(2);
+        }
+        methods.add(method);
+        final var enclosingType = (TypeElement) method.getEnclosingElement();
+        if (!isDefinedIn(enclosingType)) {
+            if (null == occurrences) {
+                occurrences = new ArrayList<>(2);
+            }
+            occurrences.add(enclosingType);
+        }
+    }
+
+    void addObserver(ExecutableElement observer) {
+        assert null != observer;
+        if (null == observers) {
+            observers = new ArrayList<>(2);
+        }
+        if (!observers.contains(observer)) {
+            observers.add(observer);
+        }
+    }
+
+    boolean getDefaultValue() {
+        return defaultValue;
+    }
+
+    void setDefaultValue(boolean defaultValue) {
+        this.defaultValue = defaultValue;
+    }
+
+    /**
+     * Checks whether the toggle has a permanent value, in which case it is not
+     * part of the run-time registry.
+     */
+    boolean isFrozen() {
+        return null != frozenValue;
+    }
+
+    boolean getFrozenValue() {
+        assert null != frozenValue;
+        return frozenValue;
+    }
+
+    /**
+     * Sets the permanent value of the toggle, unless a different value has already been set.
+     *
+     * @return {@code false} if the value conflicts with the previously set one
+     */
+    boolean setFrozenValue(boolean value) {
+        if (null == frozenValue) {
+            frozenValue = value;
+        }
+        return frozenValue == value;
+    }
+
+    /**
+     * Returns the date after which the toggle is expired, or {@code null}
+     * if the toggle does not expire.
+     */
+    LocalDate getExpiryDate() {
+        return expiryDate;
+    }
+
+    /**
+     * Sets the expiration date of the toggle, unless a different date has already been set.
+     *
+     * @return {@code false} if the date conflicts with the previously set one
+     */
+    boolean setExpiryDate(LocalDate date) {
+        if (null == expiryDate) {
+            expiryDate = date;
+        }
+        return expiryDate.equals(date);
+    }
+
+    /**
+     * Returns names of toggles that must be enabled for this toggle to take effect,
+     * as declared at all occurrences of the toggle.
+     */
+    Set<String> getPrerequisites() {
+        return (null != prerequisites) ? prerequisites : Set.of();
+    }
+
+    void addPrerequisite(String prerequisiteName) {
+        assert null != prerequisiteName;
+        if (null == prerequisites) {
+            prerequisites = new LinkedHashSet<>(4);
+        }
+        prerequisites.add(prerequisiteName);
+    }
+
+    void removePrerequisite(String prerequisiteName) {
+        if (null != prerequisites) {
+            prerequisites.remove(prerequisiteName);
+        }
+    }
+
+    Set<String> getGroups() {
+        return (null != groups) ? groups : Set.of();
+    }
+
+    void addGroup(String groupName) {
+        assert null != groupName;
+        if (null == groups) {
+            groups = new LinkedHashSet<>(4);
+        }
+        groups.add(groupName);
+    }
+
+    String getDescription() {
+        if (InstrumentationType.FEATURE_METHOD_PAIR == type) {
+            return unifiedPairDescription();
+        }
+        return (null != description) ? description : "";
+    }
+
+    void setDescription(String description) {
+        if ((null == this.description) || this.description.isEmpty()) {
+            this.description = description;
+        }
+    }
+
+    ExecutableElement getPairMember(boolean flagValue) {
+        return flagValue ? featureMethod : legacyMethod;
+    }
+
+    void setPairMember(boolean flagValue, ExecutableElement method, String memberDescription) {
+        assert InstrumentationType.FEATURE_METHOD_PAIR == type;
+        if (flagValue) {
+            featureMethod = method;
+            featureDescription = memberDescription;
+        } else {
+            legacyMethod = method;
+            legacyDescription = memberDescription;
+        }
+        addMethod(method);
+    }
+
+    boolean isPairComplete() {
+        return (null != legacyMethod) && (null != featureMethod);
+    }
+
+    private String unifiedPairDescription() {
+        final boolean hasLegacy = (null != legacyDescription) && !legacyDescription.isEmpty();
+        final boolean hasFeature = (null != featureDescription) && !featureDescription.isEmpty();
+        if (hasLegacy && hasFeature) {
+            return legacyDescription + "\n\n" + featureDescription;
+        } else if (hasFeature) {
+            return featureDescription;
+        } else if (hasLegacy) {
+            return legacyDescription;
+        }
+        return "";
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj) {
@@ -1,15 +1,64 @@
 package cz.auderis.infra.toggle.instrument.proc;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
- * Created on 28.3.2023.
+ * Keeps track of feature toggles discovered during annotation processing.
  */
 class RegisteredToggleManager {
 
     private final Map<String, RegisteredToggle> toggleByName;
 
     public RegisteredToggleManager() {
-        toggleByName = Map.of();
+        toggleByName = new HashMap<>();
     }
+
+    /**
+     * Returns the toggle of the given name, registering it first if necessary.
+     * If the toggle is already registered with a different type, {@code null}
+     * is returned.
+     */
+    RegisteredToggle register(String name, InstrumentationType type) {
+        final var toggle = toggleByName.computeIfAbsent(name, n -> new RegisteredToggle(n, type));
+        return (type == toggle.getType()) ? toggle : null;
+    }
+
+    RegisteredToggle find(String name) {
+        return toggleByName.get(name);
+    }
+
+    boolean isEmpty() {
+        return toggleByName.isEmpty();
+    }
+
+    /**
+     * Returns all registered toggles sorted by name, so that the generated
+     * code does not depend on the order in which elements were processed.
+     */
+    List<RegisteredToggle> getToggles() {
+        final var result = new ArrayList<>(toggleByName.values());
+        result.sort(Comparator.comparing(RegisteredToggle::getName));
+        return result;
+    }
+
+    /**
+     * Assigns dense ordinals to all registered toggles that are not frozen, in the order
+     * of their names. The ordinals index the toggle state bitset at run time.
+     *
+     * @return toggles ordered by their ordinals, followed by frozen toggles ordered by their names
+     */
+    List<RegisteredToggle> assignOrdinals() {
+        final var toggles = getToggles();
+        toggles.sort(Comparator.comparing(RegisteredToggle::isFrozen));
+        for (int i = 0; i < toggles.size(); ++i) {
+            final var toggle = toggles.get(i);
+            toggle.setOrdinal(toggle.isFrozen() ? -1 : i);
+        }
+        return toggles;
+    }
+
 }
@@ -0,0 +1,630 @@
+package cz.auderis.infra.toggle.instrument.proc;
+
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.TypeVariable;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates source code of a class that holds the feature toggle registry
+ * of a single compilation unit set (typically a module) and provides static
+ * accessors of individual toggles.
+ * <p>
+ * Frozen toggles are not part of the registry: they are represented by boolean
+ * constants, and dispatchers of frozen feature method pairs invoke the selected
+ * implementation directly, so that the other implementation becomes dead code.
+ */
+class RegistrySourceWriter {
+
+    private static final int TOGGLES_PER_METHOD = 1000;
+
+    private final String packageName;
+    private final String simpleClassName;
+    private final List<RegisteredToggle> toggles;
+    private final Elements elementUtils;
+    private final Types typeUtils;
+    private final String[] constantNames;
+    private final String[] accessorNames;
+    private final String[] handleNames;
+    private final String[] dispatchHandleNames;
+    private final String[] dispatcherNames;
+    private final int dynamicCount;
+    private final boolean needsImplementationLookup;
+
+    RegistrySourceWriter(String qualifiedClassName, List<RegisteredToggle> toggles, Elements elementUtils, Types typeUtils) {
+        final int lastDot = qualifiedClassName.lastIndexOf('.');
+        this.packageName = (lastDot > 0) ? qualifiedClassName.substring(0, lastDot) : "";
+        this.simpleClassName = qualifiedClassName.substring(lastDot + 1);
+        this.toggles = toggles;
+        this.elementUtils = elementUtils;
+        this.typeUtils = typeUtils;
+        this.dynamicCount = (int) toggles.stream().filter(t -> !t.isFrozen()).count();
+        this.needsImplementationLookup = toggles.stream()
+                                                .filter(t -> InstrumentationType.FEATURE_METHOD_PAIR == t.getType())
+                                                .anyMatch(t -> !t.isFrozen() || !isDirectlyInvocable(frozenImplementation(t)));
+        this.constantNames = new String[toggles.size()];
+        this.accessorNames = new String[toggles.size()];
+        this.handleNames = new String[toggles.size()];
+        this.dispatchHandleNames = new String[toggles.size()];
+        this.dispatcherNames = new String[toggles.size()];
+        assignIdentifiers();
+    }
+
+    String getPackageName() {
+        return packageName;
+    }
+
+    String getQualifiedClassName() {
+        return packageName.isEmpty() ? simpleClassName : (packageName + '.' + simpleClassName);
+    }
+
+    /**
+     * Returns the names of the generated static methods that replace the annotated methods,
+     * i.e. the accessor of a feature toggle or the dispatcher of a feature method pair,
+     * in the order of the toggles.
+     */
+    List<String> getRegistryMethodNames() {
+        final var result = new ArrayList<String>(toggles.size());
+        for (int i = 0; i < toggles.size(); ++i) {
+            final var isPair = InstrumentationType.FEATURE_METHOD_PAIR == toggles.get(i).getType();
+            result.add(isPair ? dispatcherName(i) : accessorNames[i]);
+        }
+        return result;
+    }
+
+    void write(Writer out) throws IOException {
+        final var src = new StringBuilder(1024 + 512 * toggles.size());
+        if (!packageName.isEmpty()) {
+            src.append("package ").append(packageName).append(";\n\n");
+        }
+        src.append("import cz.auderis.infra.toggle.runtime.ToggleRegistry;\n\n");
+        src.append("import java.lang.invoke.MethodHandle;\n");
+        if (needsImplementationLookup) {
+            src.append("import java.lang.invoke.MethodHandles;\n");
+            src.append("import java.lang.invoke.MethodType;\n");
+            src.append("import java.lang.reflect.UndeclaredThrowableException;\n");
+        }
+        src.append('\n');
+        src.append("/**\n");
+        src.append(" * Registry of feature toggles.\n");
+        src.append(" * <p>\n");
+        src.append(" * Generated by {@code FeatureToggleProcessor}, do not edit.\n");
+        src.append(" */\n");
+        src.append("public final class ").append(simpleClassName).append(" {\n\n");
+
+        for (int i = 0; i < toggles.size(); ++i) {
+            final var toggle = toggles.get(i);
+            if (toggle.isFrozen()) {
+                src.append("    /** Permanent value of frozen feature toggle {@code ").append(javadocText(toggle.getName())).append("}. */\n");
+                src.append("    public static final boolean ").append(constantNames[i]).append(" = ")
+                   .append(toggle.getFrozenValue()).append(";\n");
+            } else {
+                assert toggle.getOrdinal() == i;
+                src.append("    /** Ordinal of feature toggle {@code ").append(javadocText(toggle.getName())).append("}. */\n");
+                src.append("    public static final int ").append(constantNames[i]).append(" = ").append(i).append(";\n");
+            }
+        }
+        if (!toggles.isEmpty()) {
+            src.append('\n');
+        }
+
+        src.append("    public static final ToggleRegistry REGISTRY = createRegistry();\n\n");
+
+        boolean handlesWritten = false;
+        for (int i = 0; i < dynamicCount; ++i) {
+            src.append("    private static final MethodHandle ").append(handleName(i))
+               .append(" = REGISTRY.readHandle(").append(constantNames[i]).append(");\n");
+            handlesWritten = true;
+        }
+        for (int i = 0; i < toggles.size(); ++i) {
+            final var toggle = toggles.get(i);
+            if (InstrumentationType.FEATURE_METHOD_PAIR != toggle.getType()) {
+                continue;
+            } else if (!toggle.isFrozen()) {
+                writeDispatchHandle(src, toggle, constantNames[i], dispatchHandleName(i));
+                handlesWritten = true;
+            } else if (!isDirectlyInvocable(frozenImplementation(toggle))) {
+                src.append("    private static final MethodHandle ").append(dispatchHandleName(i)).append(" =\n");
+                writeImplementationHandle(src, frozenImplementation(toggle));
+                src.append(";\n");
+                handlesWritten = true;
+            }
+        }
+        if (handlesWritten) {
+            src.append('\n');
+        }
+        writeObserverRegistration(src);
+
+        src.append("    private ").append(simpleClassName).append("() {\n");
+        src.append("        throw new AssertionError();\n");
+        src.append("    }\n");
+        writeRegistryFactory(src);
+
+        for (int i = 0; i < toggles.size(); ++i) {
+            final var toggle = toggles.get(i);
+            writeAccessor(src, toggle, toggle.isFrozen() ? constantNames[i] : handleName(i), accessorNames[i]);
+            if (InstrumentationType.FEATURE_METHOD_PAIR == toggle.getType()) {
+                writeDispatcher(src, toggle, dispatchHandleName(i), dispatcherName(i));
+            }
+        }
+        if (needsImplementationLookup) {
+            writeImplementationLookup(src);
+        }
+        src.append("\n}\n");
+        out.write(src.toString());
+    }
+
+    /**
+     * Writes the method that creates the registry. Toggles, their prerequisites and group
+     * memberships are defined by separate statements split into several methods, so that
+     * neither the depth of the expressions nor the size of the methods grows with the number
+     * of toggles.
+     */
+    private void writeRegistryFactory(StringBuilder src) {
+        final var indexByName = new HashMap<String, Integer>(2 * toggles.size());
+        for (int i = 0; i < toggles.size(); ++i) {
+            indexByName.put(toggles.get(i).getName(), i);
+        }
+        final var chunkCount = (dynamicCount + TOGGLES_PER_METHOD - 1) / TOGGLES_PER_METHOD;
+        src.append("\n    private static ToggleRegistry createRegistry() {\n");
+        src.append("        final ToggleRegistry.Builder builder = ToggleRegistry.builder(")
+           .append(literal(getQualifiedClassName())).append(");\n");
+        for (int chunk = 0; chunk < chunkCount; ++chunk) {
+            src.append("        defineToggles").append(chunk).append("(builder);\n");
+        }
+        src.append("        return builder.build();\n");
+        src.append("    }\n");
+        for (int chunk = 0; chunk < chunkCount; ++chunk) {
+            src.append("\n    private static void defineToggles").append(chunk).append("(ToggleRegistry.Builder builder) {\n");
+            final var end = Math.min(dynamicCount, (chunk + 1) * TOGGLES_PER_METHOD);
+            for (int i = chunk * TOGGLES_PER_METHOD; i < end; ++i) {
+                final var toggle = toggles.get(i);
+                src.append("        builder.toggle(").append(constantNames[i]).append(", ").append(literal(toggle.getName()))
+                   .append(", ").append(toggle.getDefaultValue()).append(");\n");
+                for (final var prerequisite : toggle.getPrerequisites()) {
+                    src.append("        builder.prerequisite(").append(constantNames[i]).append(", ")
+                       .append(constantNames[indexByName.get(prerequisite)]).append(");\n");
+                }
+                for (final var group : toggle.getGroups()) {
+                    src.append("        builder.group(").append(literal(group)).append(", ").append(constantNames[i]).append(");\n");
+                }
+            }
+            src.append("    }\n");
+        }
+    }
+
+    /**
+     * Writes the accessor of a toggle, which reads the toggle using the given method handle
+     * or, if the toggle is frozen, returns the given constant.
+     */
+    private void writeAccessor(StringBuilder src, RegisteredToggle toggle, String handleName, String methodName) {
+        src.append("\n    /**\n");
+        src.append("     * Returns the ").append(toggle.isFrozen() ? "permanent" : "current")
+           .append(" value of feature toggle {@code ").append(javadocText(toggle.getName())).append("}.\n");
+        final var description = toggle.getDescription();
+        if (!description.isEmpty()) {
+            src.append("     * <p>\n");
+            for (final var line : description.split("\n", -1)) {
+                src.append("     * ").append(line.isBlank() ? "<p>" : javadocText(line)).append('\n');
+            }
+        }
+        src.append("     *\n");
+        src.append("     * @return {@code true} if the feature is enabled\n");
+        src.append("     */\n");
+        src.append("    public static boolean ").append(methodName).append("() {\n");
+        if (toggle.isFrozen()) {
+            src.append("        return ").append(handleName).append(";\n");
+            src.append("    }\n");
+            return;
+        }
+        src.append("        try {\n");
+        src.append("            return (boolean) ").append(handleName).append(".invokeExact();\n");
+        src.append("        } catch (Throwable e) {\n");
+        src.append("            throw new IllegalStateException(\"Cannot read feature toggle\", e);\n");
+        src.append("        }\n");
+        src.append("    }\n");
+    }
+
+    private void writeObserverRegistration(StringBuilder src) {
+        final Map<ExecutableElement, List<String>> ordinalsByObserver = new LinkedHashMap<>();
+        for (int i = 0; i < toggles.size(); ++i) {
+            for (final var observer : toggles.get(i).getObservers()) {
+                ordinalsByObserver.computeIfAbsent(observer, o -> new ArrayList<>(2)).add(constantNames[i]);
+            }
+        }
+        if (ordinalsByObserver.isEmpty()) {
+            return;
+        }
+        src.append("    static {\n");
+        for (final var entry : ordinalsByObserver.entrySet()) {
+            final var observer = entry.getKey();
+            final var owner = (TypeElement) observer.getEnclosingElement();
+            src.append("        REGISTRY.addObserver(").append(owner.getQualifiedName()).append("::")
+               .append(observer.getSimpleName());
+            for (final var ordinalName : entry.getValue()) {
+                src.append(", ").append(ordinalName);
+            }
+            src.append(");\n");
+        }
+        src.append("    }\n\n");
+    }
+
+    private void writeDispatchHandle(StringBuilder src, RegisteredToggle toggle, String ordinalName, String handleName) {
+        src.append("    private static final MethodHandle ").append(handleName)
+           .append(" = REGISTRY.dispatchHandle(").append(ordinalName).append(",\n");
+        writeImplementationHandle(src, toggle.getPairMember(false));
+        src.append(",\n");
+        writeImplementationHandle(src, toggle.getPairMember(true));
+        src.append(");\n");
+    }
+
+    private void writeImplementationHandle(StringBuilder src, ExecutableElement method) {
+        final var owner = (TypeElement) method.getEnclosingElement();
+        src.append("            implementation(").append(owner.getQualifiedName()).append(".class, ")
+           .append(literal(method.getSimpleName().toString())).append(", ")
+           .append(method.getModifiers().contains(Modifier.STATIC)).append(", ")
+           .append(erasedName(method.getReturnType())).append(".class");
+        for (final var param : method.getParameters()) {
+            src.append(", ").append(erasedName(param.asType())).append(".class");
+        }
+        src.append(')');
+    }
+
+    private void writeDispatcher(StringBuilder src, RegisteredToggle toggle, String handleName, String methodName) {
+        final var legacy = toggle.getPairMember(false);
+        final var feature = toggle.getPairMember(true);
+        final var owner = (TypeElement) feature.getEnclosingElement();
+        final boolean isStatic = feature.getModifiers().contains(Modifier.STATIC);
+        final var params = feature.getParameters();
+        final var paramNames = new ArrayList<String>(params.size());
+        for (final var param : params) {
+            paramNames.add(param.getSimpleName().toString());
+        }
+        String receiverName = "target";
+        while (paramNames.contains(receiverName)) {
+            receiverName = receiverName + '_';
+        }
+
+        src.append("\n    /**\n");
+        if (toggle.isFrozen()) {
+            src.append("     * Invokes the implementation of frozen feature {@code ").append(javadocText(toggle.getName())).append("}:\n");
+            src.append("     * {@code ").append(owner.getSimpleName()).append('.')
+               .append(frozenImplementation(toggle).getSimpleName()).append("}.\n");
+        } else {
+            src.append("     * Invokes the active implementation of feature {@code ").append(javadocText(toggle.getName())).append("}:\n");
+            src.append("     * {@code ").append(owner.getSimpleName()).append('.').append(feature.getSimpleName())
+               .append("} if the feature is enabled, {@code ").append(owner.getSimpleName()).append('.')
+               .append(legacy.getSimpleName()).append("} otherwise.\n");
+        }
+        src.append("     */\n");
+        src.append("    public static ").append(typeName(feature.getReturnType())).append(' ').append(methodName).append('(');
+        final var args = new StringBuilder();
+        if (!isStatic) {
+            src.append(receiverTypeName(owner)).append(' ').append(receiverName);
+            args.append(receiverName);
+        }
+        for (int i = 0; i < params.size(); ++i) {
+            if ((i > 0) || !isStatic) {
+                src.append(", ");
+                args.append(", ");
+            }
+            final var paramType = params.get(i).asType();
+            if (feature.isVarArgs() && (i == params.size() - 1)) {
+                src.append(typeName(((ArrayType) paramType).getComponentType())).append("...");
+            } else {
+                src.append(typeName(paramType));
+            }
+            src.append(' ').append(paramNames.get(i));
+            args.append(paramNames.get(i));
+        }
+        src.append(')');
+        final var thrownTypes = declaredExceptions(legacy, feature);
+        for (int i = 0; i < thrownTypes.size(); ++i) {
+            src.append((0 == i) ? " throws " : ", ").append(erasedName(thrownTypes.get(i)));
+        }
+        src.append(" {\n");
+        final var returnType = feature.getReturnType();
+        if (toggle.isFrozen() && isDirectlyInvocable(frozenImplementation(toggle))) {
+            final var implementation = frozenImplementation(toggle);
+            src.append("        ");
+            if (TypeKind.VOID != returnType.getKind()) {
+                src.append("return ");
+            }
+            src.append(isStatic ? owner.getQualifiedName() : receiverName).append('.').append(implementation.getSimpleName())
+               .append('(').append(String.join(", ", paramNames)).append(");\n");
+            src.append("    }\n");
+            return;
+        }
+        src.append("        try {\n");
+        if (TypeKind.VOID == returnType.getKind()) {
+            src.append("            ").append(handleName).append(".invokeExact(").append(args).append(");\n");
+        } else {
+            src.append("            return (").append(erasedName(returnType)).append(") ")
+               .append(handleName).append(".invokeExact(").append(args).append(");\n");
+        }
+        src.append("        } catch (RuntimeException | Error e) {\n");
+        src.append("            throw e;\n");
+        src.append("        }");
+        boolean throwableCaught = false;
+        for (final var thrownType : thrownTypes) {
+            src.append(" catch (").append(erasedName(thrownType)).append(" e) {\n");
+            src.append("            throw e;\n");
+            src.append("        }");
+            throwableCaught |= isType(thrownType, "java.lang.Throwable");
+        }
+        if (!throwableCaught) {
+            src.append(" catch (Throwable e) {\n");
+            src.append("            throw new UndeclaredThrowableException(e);\n");
+            src.append("        }");
+        }
+        src.append('\n');
+        src.append("    }\n");
+    }
+
+    /**
+     * Returns the member of a frozen feature method pair that is selected by its permanent value.
+     */
+    private static ExecutableElement frozenImplementation(RegisteredToggle toggle) {
+        return toggle.getPairMember(toggle.getFrozenValue());
+    }
+
+    /**
+     * Checks whether the generated class is able to invoke the method directly, without
+     * a private lookup. Methods of generic classes are invoked through method handles,
+     * because the receiver of the dispatcher has a wildcard type.
+     */
+    private boolean isDirectlyInvocable(ExecutableElement method) {
+        final var owner = (TypeElement) method.getEnclosingElement();
+        final var modifiers = method.getModifiers();
+        if (modifiers.contains(Modifier.PRIVATE) || !owner.getTypeParameters().isEmpty()) {
+            return false;
+        }
+        return modifiers.contains(Modifier.PUBLIC)
+               || elementUtils.getPackageOf(owner).getQualifiedName().contentEquals(packageName);
+    }
+
+    private void writeImplementationLookup(StringBuilder src) {
+        src.append("\n    private static MethodHandle implementation(Class<?> owner, String name, boolean isStatic,\n");
+        src.append("                                               Class<?> returnType, Class<?>... parameterTypes) {\n");
+        src.append("        try {\n");
+        src.append("            final MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(owner, MethodHandles.lookup());\n");
+        src.append("            final MethodType type = MethodType.methodType(returnType, parameterTypes);\n");
+        src.append("            return isStatic ? lookup.findStatic(owner, name, type) : lookup.findVirtual(owner, name, type);\n");
+        src.append("        } catch (ReflectiveOperationException e) {\n");
+        src.append("            throw new IllegalStateException(\"Feature implementation not accessible: \" + owner.getName() + '.' + name, e);\n");
+        src.append("        }\n");
+        src.append("    }\n");
+    }
+
+    /**
+     * Collects exceptions declared by either of the feature methods, omitting
+     * unchecked exceptions and exceptions whose supertype is also declared.
+     * The result is ordered so that it may be used in a sequence of catch clauses.
+     */
+    private List<TypeMirror> declaredExceptions(ExecutableElement m1, ExecutableElement m2) {
+        final var candidates = new ArrayList<TypeMirror>(m1.getThrownTypes().size() + m2.getThrownTypes().size());
+        candidates.addAll(m1.getThrownTypes());
+        candidates.addAll(m2.getThrownTypes());
+        final var runtimeException = elementUtils.getTypeElement("java.lang.RuntimeException").asType();
+        final var error = elementUtils.getTypeElement("java.lang.Error").asType();
+        final var result = new ArrayList<TypeMirror>(candidates.size());
+        for (final var candidate : candidates) {
+            final var type = typeUtils.erasure(candidate);
+            if (typeUtils.isSubtype(type, runtimeException) || typeUtils.isSubtype(type, error)) {
+                continue;
+            }
+            boolean covered = false;
+            for (final var other : candidates) {
+                final var otherType = typeUtils.erasure(other);
+                if (!typeUtils.isSameType(type, otherType) && typeUtils.isSubtype(type, otherType)) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered && result.stream().noneMatch(t -> typeUtils.isSameType(t, type))) {
+                result.add(type);
+            }
+        }
+        return result;
+    }
+
+    private boolean isType(TypeMirror type, String qualifiedName) {
+        return (type instanceof DeclaredType declared)
+               && ((TypeElement) declared.asElement()).getQualifiedName().contentEquals(qualifiedName);
+    }
+
+    private String receiverTypeName(TypeElement owner) {
+        final var typeParams = owner.getTypeParameters();
+        if (typeParams.isEmpty()) {
+            return owner.getQualifiedName().toString();
+        }
+        final var sb = new StringBuilder(owner.getQualifiedName()).append('<');
+        for (int i = 0; i < typeParams.size(); ++i) {
+            sb.append((0 == i) ? "?" : ", ?");
+        }
+        return sb.append('>').toString();
+    }
+
+    /**
+     * Returns the source representation of a type, including type arguments.
+     * Types that refer to type variables are erased.
+     */
+    private String typeName(TypeMirror type) {
+        return containsTypeVariable(type) ? erasedName(type) : sourceName(type);
+    }
+
+    private String erasedName(TypeMirror type) {
+        return sourceName(typeUtils.erasure(type));
+    }
+
+    private String sourceName(TypeMirror type) {
+        switch (type.getKind()) {
+            case ARRAY:
+                return sourceName(((ArrayType) type).getComponentType()) + "[]";
+            case DECLARED:
+                final var declared = (DeclaredType) type;
+                final var sb = new StringBuilder(((TypeElement) declared.asElement()).getQualifiedName());
+                final var typeArgs = declared.getTypeArguments();
+                if (!typeArgs.isEmpty()) {
+                    sb.append('<');
+                    for (int i = 0; i < typeArgs.size(); ++i) {
+                        if (i > 0) {
+                            sb.append(", ");
+                        }
+                        sb.append(sourceName(typeArgs.get(i)));
+                    }
+                    sb.append('>');
+                }
+                return sb.toString();
+            case WILDCARD:
+                final var wildcard = (WildcardType) type;
+                if (null != wildcard.getExtendsBound()) {
+                    return "? extends " + sourceName(wildcard.getExtendsBound());
+                } else if (null != wildcard.getSuperBound()) {
+                    return "? super " + sourceName(wildcard.getSuperBound());
+                }
+                return "?";
+            case TYPEVAR:
+                return sourceName(typeUtils.erasure(type));
+            default:
+                // Primitive types and void
+                return type.getKind().name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static boolean containsTypeVariable(TypeMirror type) {
+        if (type instanceof TypeVariable) {
+            return true;
+        } else if (type instanceof ArrayType array) {
+            return containsTypeVariable(array.getComponentType());
+        } else if (type instanceof WildcardType wildcard) {
+            return ((null != wildcard.getExtendsBound()) && containsTypeVariable(wildcard.getExtendsBound()))
+                   || ((null != wildcard.getSuperBound()) && containsTypeVariable(wildcard.getSuperBound()));
+        } else if (type instanceof DeclaredType declared) {
+            for (final var typeArg : declared.getTypeArguments()) {
+                if (containsTypeVariable(typeArg)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private String handleName(int index) {
+        return handleNames[index];
+    }
+
+    private String dispatchHandleName(int index) {
+        return dispatchHandleNames[index];
+    }
+
+    private String dispatcherName(int index) {
+        return dispatcherNames[index];
+    }
+
+    /**
+     * Assigns the names of the generated members. Names of the constants and accessors are
+     * assigned first, so that they do not depend on the names derived from them, which are
+     * then reserved in the same namespaces, i.e. fields and methods, respectively.
+     */
+    private void assignIdentifiers() {
+        final Set<String> usedConstants = new HashSet<>();
+        final Set<String> usedMethods = new HashSet<>();
+        usedConstants.add("REGISTRY");
+        usedMethods.add("implementation");
+        usedMethods.add("createRegistry");
+        for (int i = 0; i < toggles.size(); ++i) {
+            final var words = splitWords(toggles.get(i).getName());
+            constantNames[i] = unique(constantName(words), usedConstants, i);
+            accessorNames[i] = unique(methodName(words), usedMethods, i);
+        }
+        for (int i = 0; i < toggles.size(); ++i) {
+            final var accessorName = accessorNames[i];
+            handleNames[i] = unique(constantNames[i] + "_HANDLE", usedConstants, i);
+            dispatchHandleNames[i] = unique(constantNames[i] + "_DISPATCH", usedConstants, i);
+            dispatcherNames[i] = unique("dispatch" + Character.toUpperCase(accessorName.charAt(0)) + accessorName.substring(1),
+                                        usedMethods, i);
+        }
+    }
+
+    private static String unique(String identifier, Set<String> used, int index) {
+        if (SourceVersion.isKeyword(identifier) || !SourceVersion.isIdentifier(identifier)) {
+            identifier = identifier + '_';
+        }
+        if (!used.add(identifier)) {
+            identifier = identifier + '_' + index;
+            while (!used.add(identifier)) {
+                identifier = identifier + '_';
+            }
+        }
+        return identifier;
+    }
+
+    private static List<String> splitWords(String name) {
+        final var words = name.split("[^\\p{Alnum}]+");
+        final var result = new ArrayList<String>(words.length);
+        for (final var word : words) {
+            if (!word.isEmpty()) {
+                result.add(word);
+            }
+        }
+        if (result.isEmpty() || !Character.isJavaIdentifierStart(result.get(0).charAt(0))) {
+            result.add(0, "feature");
+        }
+        return result;
+    }
+
+    private static String constantName(List<String> words) {
+        final var sb = new StringBuilder();
+        for (final var word : words) {
+            if (sb.length() > 0) {
+                sb.append('_');
+            }
+            sb.append(word.toUpperCase(Locale.ROOT));
+        }
+        return sb.toString();
+    }
+
+    private static String methodName(List<String> words) {
+        final var sb = new StringBuilder();
+        for (final var word : words) {
+            if (sb.length() == 0) {
+                sb.append(Character.toLowerCase(word.charAt(0))).append(word, 1, word.length());
+            } else {
+                sb.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+            }
+        }
+        return sb.toString();
+    }
+
+    private String literal(String value) {
+        return elementUtils.getConstantExpression(value);
+    }
+
+    private static String javadocText(String text) {
+        return text.replace("&", "&amp;")
+                   .replace("<", "&lt;")
+                   .replace(">", "&gt;")
+                   .replace("*/", "*&#47;")
+                   .replace("@", "&#64;");
+    }
+
+}
@@ -1,6 +1,9 @@
 module cz.auderis.infra.toggle.processor {
 
     requires java.compiler;
+    requires jdk.compiler;
     exports cz.auderis.infra.toggle.instrument.proc;
 
+    provides javax.annotation.processing.Processor with cz.auderis.infra.toggle.instrument.proc.FeatureToggleProcessor;
+
 }
@@ -0,0 +1,58 @@
+package cz.auderis.infra.toggle.instrument.proc;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class ClassFileInspectorTest {
+
+    @Test
+    void shouldFindConstantResults() throws IOException {
+        // When
+        final var enabled = constantResult("isEnabled");
+        final var disabled = constantResult("isDisabled");
+        // Then
+        assertThat("Wrong result of enabled method", enabled, is(Boolean.TRUE));
+        assertThat("Wrong result of disabled method", disabled, is(Boolean.FALSE));
+    }
+
+    @Test
+    void shouldIgnoreComputedResults() throws IOException {
+        // When
+        final var computed = constantResult("isComputed");
+        final var missing = constantResult("isMissing");
+        // Then
+        assertThat("Computed result found", computed, is(nullValue()));
+        assertThat("Result of missing method found", missing, is(nullValue()));
+    }
+
+    private static Boolean constantResult(String methodName) throws IOException {
+        try (final var in = ClassFileInspectorTest.class.getResourceAsStream("ClassFileInspectorTest$Accessors.class")) {
+            return ClassFileInspector.constantBooleanResult(in, methodName);
+        }
+    }
+
+
+    @SuppressWarnings("unused")
+    static class Accessors {
+        private static final long BIG_CONSTANT = 1L << 40;
+        private static final double RATIO = 0.5;
+
+        boolean isEnabled() {
+            return true;
+        }
+
+        boolean isDisabled() {
+            return false;
+        }
+
+        boolean isComputed() {
+            return BIG_CONSTANT * RATIO > System.nanoTime();
+        }
+    }
+
+}
@@ -50,8 +50,65 @@ public class FeatureMethodTest extends CommonProcessorTest {
         final var compilation = compileSources();
         // Then
         assertThat(compilation).failed();
-        assertThat(compilation).hadErrorContaining("Incompatible feature-relate annotations");
+        assertThat(compilation).hadErrorContaining("Incompatible feature-related annotations");
     }
 
+    @Test
+    void shouldGenerateDispatcher() {
+        // Given
+        addSource("TestClass", /* language=Java */ """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureMethod;
+                import java.io.IOException;
+                import java.util.List;
+                public class TestClass {
+                    @FeatureMethod(name="feature2", flagValue=false)
+                    private List<String> getOldValues(int x) throws IOException {
+                        return List.of("legacy");
+                    }
+                    @FeatureMethod(name="feature2", flagValue=true)
+                    private List<String> getValues(int x) throws IOException {
+                        return List.of("new");
+                    }
+                    @FeatureMethod(name="feature3", flagValue=false)
+                    static void oldLog(String... items) {
+                    }
+                    @FeatureMethod(name="feature3", flagValue=true)
+                    static void newLog(String... items) {
+                    }
+                }
+                """);
+        // When
+        final var compilation = compileSources();
+        // Then
+        assertThat(compilation).succeededWithoutWarnings();
+        final var registrySource = assertThat(compilation).generatedSourceFile("cz.auderis.test.FeatureToggles").contentsAsUtf8String();
+        registrySource.contains("public static java.util.List<java.lang.String> dispatchFeature2(cz.auderis.test.TestClass target, int x) throws java.io.IOException");
+        registrySource.contains("public static void dispatchFeature3(java.lang.String... items)");
+    }
+
+    @Test
+    void shouldRejectDifferentSignatures() {
+        // Given
+        addSource("TestClass", /* language=Java */ """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureMethod;
+                public class TestClass {
+                    @FeatureMethod(name="feature2", flagValue=false)
+                    private String getOldValue(int x) {
+                        return "legacy";
+                    }
+                    @FeatureMethod(name="feature2", flagValue=true)
+                    private String getValue(long x) {
+                        return "new";
+                    }
+                }
+                """);
+        // When
+        final var compilation = compileSources();
+        // Then
+        assertThat(compilation).failed();
+        assertThat(compilation).hadErrorContaining("identical signatures");
+    }
 
 }
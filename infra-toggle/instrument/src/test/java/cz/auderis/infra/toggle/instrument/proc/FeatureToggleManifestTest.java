@@ -0,0 +1,95 @@
+package cz.auderis.infra.toggle.instrument.proc;
+
+import cz.auderis.infra.toggle.manifest.ToggleManifest;
+import org.junit.jupiter.api.Test;
+
+import javax.tools.StandardLocation;
+import java.nio.ByteBuffer;
+
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class FeatureToggleManifestTest extends CommonProcessorTest {
+
+    @Test
+    void shouldGenerateBinaryManifest() throws Exception {
+        // Given
+        addSource("TestClass", /* language=Java */ """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureMethod;
+                import cz.auderis.infra.toggle.FeatureToggle;
+                import cz.auderis.infra.toggle.FeatureToggleObserver;
+                public class TestClass {
+                    @FeatureToggle(name="feature1", description="First feature")
+                    private boolean isFeature1Enabled() {
+                        return true;
+                    }
+                    @FeatureMethod(name="feature2", flagValue=false)
+                    String[] oldValues(int count, long[] data) {
+                        return null;
+                    }
+                    @FeatureMethod(name="feature2", flagValue=true)
+                    String[] newValues(int count, long[] data) {
+                        return null;
+                    }
+                    @FeatureToggleObserver("feature2")
+                    static void feature2Changed(String featureName, boolean newValue) {
+                    }
+                }
+                """);
+        // When
+        final var compilation = compileSources();
+        // Then
+        assertThat(compilation).succeeded();
+        final var manifestFile = compilation.generatedFile(StandardLocation.CLASS_OUTPUT, "META-INF/feature-toggles.ftm")
+                                            .orElseThrow();
+        final ToggleManifest manifest;
+        try (final var in = manifestFile.openInputStream()) {
+            manifest = ToggleManifest.read(ByteBuffer.wrap(in.readAllBytes()));
+        }
+        assertThat("Wrong registry class", manifest.getRegistryClassName(), is("cz.auderis.test.FeatureToggles"));
+        assertThat("Wrong number of toggles", manifest.getToggles().size(), is(2));
+        final var toggle = manifest.find("feature1").orElseThrow();
+        assertThat("Wrong toggle kind", toggle.getKind(), is(ToggleManifest.Kind.FEATURE_TOGGLE));
+        assertThat("Wrong default value", toggle.isDefaultEnabled(), is(true));
+        assertThat("Wrong description", toggle.getDescription(), is("First feature"));
+        assertThat("Wrong accessor", toggle.getAccessors().get(0).toString(), is("cz.auderis.test.TestClass::isFeature1Enabled()Z"));
+        assertThat("Wrong registry accessor", toggle.getRegistryMethod().orElseThrow().toString(), is("cz.auderis.test.FeatureToggles::feature1()Z"));
+        final var pair = manifest.find("feature2").orElseThrow();
+        assertThat("Wrong ordinal", pair.getOrdinal(), is(1));
+        assertThat("Wrong pair kind", pair.getKind(), is(ToggleManifest.Kind.FEATURE_METHOD_PAIR));
+        assertThat("Wrong legacy method", pair.getLegacyMethod().orElseThrow().getMethodName(), is("oldValues"));
+        assertThat("Wrong feature method", pair.getFeatureMethod().orElseThrow().getMethodName(), is("newValues"));
+        assertThat("Wrong descriptor", pair.getFeatureMethod().orElseThrow().getDescriptor(), is("(I[J)[Ljava/lang/String;"));
+        assertThat("Wrong dispatcher", pair.getRegistryMethod().orElseThrow().toString(),
+                   is("cz.auderis.test.FeatureToggles::dispatchFeature2(Lcz/auderis/test/TestClass;I[J)[Ljava/lang/String;"));
+        assertThat("Wrong observer", pair.getObservers().get(0).getMethodName(), is("feature2Changed"));
+    }
+
+    @Test
+    void shouldGenerateJsonManifest() {
+        // Given
+        addSource("TestClass", /* language=Java */ """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureToggle;
+                public class TestClass {
+                    @FeatureToggle(name="feature1", description="Quoted \\"feature\\"")
+                    private boolean isFeature1Enabled() {
+                        return false;
+                    }
+                }
+                """);
+        // When
+        final var compilation = compileSources();
+        // Then
+        assertThat(compilation).succeeded();
+        final var json = assertThat(compilation).generatedFile(StandardLocation.CLASS_OUTPUT, "META-INF/feature-toggles.json")
+                                                .contentsAsUtf8String();
+        json.contains("\"registryClass\": \"cz.auderis.test.FeatureToggles\"");
+        json.contains("\"name\": \"feature1\"");
+        json.contains("\"description\": \"Quoted \\\"feature\\\"\"");
+        json.contains("\"registryMethod\": {\"method\": \"feature1\", \"descriptor\": \"()Z\"}");
+    }
+
+}
@@ -1,7 +1,133 @@
 package cz.auderis.infra.toggle.instrument.proc;
 
-/**
- * Created on 28.3.2023.
- */
-public class FeatureToggleObserverTest {
+import org.junit.jupiter.api.Test;
+
+import static com.google.testing.compile.CompilationSubject.assertThat;
+
+public class FeatureToggleObserverTest extends CommonProcessorTest {
+
+    @Test
+    void shouldRegisterObserver() {
+        // Given
+        addSource("TestClass", /* language=Java */ """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureToggle;
+                import cz.auderis.infra.toggle.FeatureToggleObserver;
+                public class TestClass {
+                    @FeatureToggle(name="feature1")
+                    private boolean isFeature1Enabled() {
+                        return false;
+                    }
+                    @FeatureToggleObserver("feature1")
+                    static void feature1Changed(String featureName, boolean newValue) {
+                    }
+                }
+                """);
+        // When
+        final var compilation = compileSources();
+        // Then
+        assertThat(compilation).succeededWithoutWarnings();
+        assertThat(compilation).generatedSourceFile("cz.auderis.test.FeatureToggles")
+                               .contentsAsUtf8String()
+                               .contains("REGISTRY.addObserver(cz.auderis.test.TestClass::feature1Changed, FEATURE1);");
+    }
+
+    @Test
+    void shouldIgnoreNonStaticObserver() {
+        // Given
+        addSource("TestClass", /* language=Java */ """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureToggle;
+                import cz.auderis.infra.toggle.FeatureToggleObserver;
+                public class TestClass {
+                    @FeatureToggle(name="feature1")
+                    private boolean isFeature1Enabled() {
+                        return false;
+                    }
+                    @FeatureToggleObserver("feature1")
+                    void feature1Changed(String featureName, boolean newValue) {
+                    }
+                }
+                """);
+        // When
+        final var compilation = compileSources();
+        // Then
+        assertThat(compilation).succeededWithoutWarnings();
+        assertThat(compilation).generatedSourceFile("cz.auderis.test.FeatureToggles")
+                               .contentsAsUtf8String()
+                               .doesNotContain("addObserver");
+    }
+
+    @Test
+    void shouldRejectObserverOfUnknownToggle() {
+        // Given
+        addSource("TestClass", /* language=Java */ """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureToggle;
+                import cz.auderis.infra.toggle.FeatureToggleObserver;
+                public class TestClass {
+                    @FeatureToggle(name="feature1")
+                    private boolean isFeature1Enabled() {
+                        return false;
+                    }
+                    @FeatureToggleObserver({"feature1", "feature2"})
+                    static void featureChanged(String featureName, boolean newValue) {
+                    }
+                }
+                """);
+        // When
+        final var compilation = compileSources();
+        // Then
+        assertThat(compilation).failed();
+        assertThat(compilation).hadErrorContaining("Observed feature toggle 'feature2' is not defined");
+    }
+
+    @Test
+    void shouldRejectInvalidObserverSignature() {
+        // Given
+        addSource("TestClass", /* language=Java */ """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureToggle;
+                import cz.auderis.infra.toggle.FeatureToggleObserver;
+                public class TestClass {
+                    @FeatureToggle(name="feature1")
+                    private boolean isFeature1Enabled() {
+                        return false;
+                    }
+                    @FeatureToggleObserver("feature1")
+                    static void feature1Changed(boolean newValue) {
+                    }
+                }
+                """);
+        // When
+        final var compilation = compileSources();
+        // Then
+        assertThat(compilation).failed();
+        assertThat(compilation).hadErrorContaining("Feature toggle observer must have signature");
+    }
+
+    @Test
+    void shouldRejectPrivateObserver() {
+        // Given
+        addSource("TestClass", /* language=Java */ """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureToggle;
+                import cz.auderis.infra.toggle.FeatureToggleObserver;
+                public class TestClass {
+                    @FeatureToggle(name="feature1")
+                    private boolean isFeature1Enabled() {
+                        return false;
+                    }
+                    @FeatureToggleObserver("feature1")
+                    private static void feature1Changed(String featureName, boolean newValue) {
+                    }
+                }
+                """);
+        // When
+        final var compilation = compileSources();
+        // Then
+        assertThat(compilation).failed();
+        assertThat(compilation).hadErrorContaining("must not be private");
+    }
+
 }
@@ -77,4 +77,151 @@ public class FeatureToggleTest extends CommonProcessorTest {
         assertThat(compilation).succeededWithoutWarnings();
     }
 
+    @Test
+    void shouldGenerateToggleRegistry() {
+        // Given
+        addSource("TestClass", /* language=Java */ """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureToggle;
+                public class TestClass {
+                    @FeatureToggle(name="feature1")
+                    private boolean isFeature1Enabled() {
+                        return true;
+                    }
+                    @FeatureToggle(name="feature-2")
+                    boolean isFeature2Enabled() {
+                        return (false);
+                    }
+                }
+                """);
+        // When
+        final var compilation = compileSources();
+        // Then
+        assertThat(compilation).succeededWithoutWarnings();
+        final var registrySource = assertThat(compilation).generatedSourceFile("cz.auderis.test.FeatureToggles").contentsAsUtf8String();
+        registrySource.contains("public static final int FEATURE_2 = 0;");
+        registrySource.contains("public static final int FEATURE1 = 1;");
+        registrySource.contains(".toggle(FEATURE1, \"feature1\", true)");
+        registrySource.contains(".toggle(FEATURE_2, \"feature-2\", false)");
+        registrySource.contains("public static boolean feature1()");
+        registrySource.contains("public static boolean feature2()");
+    }
+
+    @Test
+    void shouldGenerateDistinctNamesOfDerivedMembers() {
+        // Given
+        addSource("TestClass", /* language=Java */ """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureMethod;
+                import cz.auderis.infra.toggle.FeatureToggle;
+                public class TestClass {
+                    @FeatureToggle(name="fast-path")
+                    boolean isFastPathEnabled() {
+                        return false;
+                    }
+                    @FeatureToggle(name="fast-path.handle")
+                    boolean isFastPathHandleEnabled() {
+                        return false;
+                    }
+                    @FeatureMethod(name="lookup", flagValue=false)
+                    static int oldLookup(int x) {
+                        return x;
+                    }
+                    @FeatureMethod(name="lookup", flagValue=true)
+                    static int newLookup(int x) {
+                        return -x;
+                    }
+                    @FeatureToggle(name="lookup-dispatch")
+                    boolean isLookupDispatchEnabled() {
+                        return false;
+                    }
+                    @FeatureToggle(name="dispatch-lookup")
+                    boolean isDispatchLookupEnabled() {
+                        return false;
+                    }
+                }
+                """);
+        // When
+        final var compilation = compileSources();
+        // Then
+        assertThat(compilation).succeededWithoutWarnings();
+        final var registrySource = assertThat(compilation).generatedSourceFile("cz.auderis.test.FeatureToggles").contentsAsUtf8String();
+        registrySource.contains("public static final int FAST_PATH_HANDLE = ");
+        registrySource.contains("private static final MethodHandle FAST_PATH_HANDLE_");
+        registrySource.contains("private static final MethodHandle LOOKUP_DISPATCH_");
+        registrySource.contains("public static boolean dispatchLookup()");
+        registrySource.contains("public static int dispatchLookup_");
+    }
+
+    @Test
+    void shouldGenerateRegistryWithConfiguredName() {
+        // Given
+        compiler = compiler.withOptions("-A" + FeatureToggleProcessor.OPTION_REGISTRY_CLASS + "=cz.auderis.test.gen.Toggles");
+        addSource("TestClass", /* language=Java */ """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureToggle;
+                public class TestClass {
+                    @FeatureToggle(name="feature1")
+                    private boolean isFeature1Enabled() {
+                        return false;
+                    }
+                }
+                """);
+        // When
+        final var compilation = compileSources();
+        // Then
+        assertThat(compilation).succeededWithoutWarnings();
+        assertThat(compilation).generatedSourceFile("cz.auderis.test.gen.Toggles");
+    }
+
+    @Test
+    void shouldWarnAboutUnknownDefaultValue() {
+        // Given
+        addSource("TestClass", /* language=Java */ """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureToggle;
+                public class TestClass {
+                    @FeatureToggle(name="feature1")
+                    boolean isFeature1Enabled() {
+                        return Boolean.getBoolean("feature1");
+                    }
+                }
+                """);
+        // When
+        final var compilation = compileSources();
+        // Then
+        assertThat(compilation).succeeded();
+        assertThat(compilation).hadWarningContaining("cannot be determined at compile time");
+    }
+
+    @Test
+    void shouldRejectConflictingDefaultValues() {
+        // Given
+        addSource("TestClass1", /* language=Java */ """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureToggle;
+                public class TestClass1 {
+                    @FeatureToggle(name="feature1")
+                    boolean isFeature1Enabled() {
+                        return false;
+                    }
+                }
+                """);
+        addSource("TestClass2", /* language=Java */ """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureToggle;
+                public class TestClass2 {
+                    @FeatureToggle(name="feature1")
+                    boolean isFeature1Enabled() {
+                        return true;
+                    }
+                }
+                """);
+        // When
+        final var compilation = compileSources();
+        // Then
+        assertThat(compilation).failed();
+        assertThat(compilation).hadErrorContaining("conflicting default values");
+    }
+
 }
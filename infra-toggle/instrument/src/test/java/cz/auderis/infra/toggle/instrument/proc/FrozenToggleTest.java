@@ -0,0 +1,229 @@
+package cz.auderis.infra.toggle.instrument.proc;
+
+import cz.auderis.infra.toggle.manifest.ToggleManifest;
+import cz.auderis.infra.toggle.runtime.ToggleRegistry;
+import org.junit.jupiter.api.Test;
+
+import javax.tools.StandardLocation;
+import java.nio.ByteBuffer;
+
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class FrozenToggleTest extends CommonProcessorTest {
+
+    private static final String CURRENT_DATE_OPTION = "-A" + FeatureToggleProcessor.OPTION_CURRENT_DATE + "=2025-06-15";
+
+    @Test
+    void shouldGenerateConstantForFrozenToggle() {
+        // Given
+        addSource("TestClass", /* language=Java */ """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureToggle;
+                import cz.auderis.infra.toggle.FrozenValue;
+                public class TestClass {
+                    @FeatureToggle(name="feature1")
+                    private boolean isFeature1Enabled() {
+                        return false;
+                    }
+                    @FeatureToggle(name="feature2", frozen=FrozenValue.ENABLED)
+                    private boolean isFeature2Enabled() {
+                        return false;
+                    }
+                }
+                """);
+        // When
+        final var compilation = compileSources();
+        // Then
+        assertThat(compilation).succeededWithoutWarnings();
+        final var registrySource = assertThat(compilation).generatedSourceFile("cz.auderis.test.FeatureToggles").contentsAsUtf8String();
+        registrySource.contains("public static final int FEATURE1 = 0;");
+        registrySource.contains("public static final boolean FEATURE2 = true;");
+        registrySource.contains("return FEATURE2;");
+        registrySource.doesNotContain("builder.toggle(FEATURE2");
+        registrySource.doesNotContain("FEATURE2_HANDLE");
+    }
+
+    @Test
+    void shouldInvokeSelectedImplementationOfFrozenPairDirectly() {
+        // Given
+        addSource("TestClass", /* language=Java */ """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureMethod;
+                import cz.auderis.infra.toggle.FrozenValue;
+                import java.io.IOException;
+                public class TestClass {
+                    @FeatureMethod(name="feature2", flagValue=false)
+                    String getOldValue(int x) throws IOException {
+                        return "legacy";
+                    }
+                    @FeatureMethod(name="feature2", flagValue=true, frozen=FrozenValue.ENABLED)
+                    String getNewValue(int x) {
+                        return "new";
+                    }
+                }
+                """);
+        // When
+        final var compilation = compileSources();
+        // Then
+        assertThat(compilation).succeededWithoutWarnings();
+        final var registrySource = assertThat(compilation).generatedSourceFile("cz.auderis.test.FeatureToggles").contentsAsUtf8String();
+        registrySource.contains("public static java.lang.String dispatchFeature2(cz.auderis.test.TestClass target, int x) throws java.io.IOException");
+        registrySource.contains("return target.getNewValue(x);");
+        registrySource.doesNotContain("getOldValue(");
+        registrySource.doesNotContain("MethodHandles");
+    }
+
+    @Test
+    void shouldLookUpPrivateImplementationOfFrozenPair() {
+        // Given
+        addSource("TestClass", /* language=Java */ """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureMethod;
+                import cz.auderis.infra.toggle.FrozenValue;
+                public class TestClass {
+                    @FeatureMethod(name="feature2", flagValue=false, frozen=FrozenValue.DISABLED)
+                    private static void oldLog(String message) {
+                    }
+                    @FeatureMethod(name="feature2", flagValue=true, frozen=FrozenValue.DISABLED)
+                    private static void newLog(String message) {
+                    }
+                }
+                """);
+        // When
+        final var compilation = compileSources();
+        // Then
+        assertThat(compilation).succeededWithoutWarnings();
+        final var registrySource = assertThat(compilation).generatedSourceFile("cz.auderis.test.FeatureToggles").contentsAsUtf8String();
+        registrySource.contains("implementation(cz.auderis.test.TestClass.class, \"oldLog\", true, void.class, java.lang.String.class)");
+        registrySource.doesNotContain("\"newLog\"");
+        registrySource.doesNotContain("REGISTRY.dispatchHandle");
+    }
+
+    @Test
+    void shouldRejectConflictingFrozenValues() {
+        // Given
+        addSource("TestClass", /* language=Java */ """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureMethod;
+                import cz.auderis.infra.toggle.FrozenValue;
+                public class TestClass {
+                    @FeatureMethod(name="feature2", flagValue=false, frozen=FrozenValue.DISABLED)
+                    static void oldLog(String message) {
+                    }
+                    @FeatureMethod(name="feature2", flagValue=true, frozen=FrozenValue.ENABLED)
+                    static void newLog(String message) {
+                    }
+                }
+                """);
+        // When
+        final var compilation = compileSources();
+        // Then
+        assertThat(compilation).failed();
+        assertThat(compilation).hadErrorContaining("Feature toggle 'feature2' has conflicting frozen values");
+    }
+
+    @Test
+    void shouldRejectExpiredToggle() {
+        // Given
+        addSource("TestClass", /* language=Java */ """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureToggle;
+                public class TestClass {
+                    @FeatureToggle(name="feature1", expires="2025-06-14")
+                    private boolean isFeature1Enabled() {
+                        return false;
+                    }
+                    @FeatureToggle(name="feature2", expires="2025-06-15")
+                    private boolean isFeature2Enabled() {
+                        return false;
+                    }
+                }
+                """);
+        // When
+        final var compilation = compiler.withOptions(CURRENT_DATE_OPTION).compile(sourceList);
+        // Then
+        assertThat(compilation).failed();
+        assertThat(compilation).hadErrorContaining("Feature toggle 'feature1' expired on 2025-06-14, freeze it or remove it");
+    }
+
+    @Test
+    void shouldWarnAboutExpiredFrozenToggle() {
+        // Given
+        addSource("TestClass", /* language=Java */ """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureToggle;
+                import cz.auderis.infra.toggle.FrozenValue;
+                public class TestClass {
+                    @FeatureToggle(name="feature1", expires="2025-01-31", frozen=FrozenValue.DISABLED)
+                    private boolean isFeature1Enabled() {
+                        return false;
+                    }
+                }
+                """);
+        // When
+        final var compilation = compiler.withOptions(CURRENT_DATE_OPTION).compile(sourceList);
+        // Then
+        assertThat(compilation).succeeded();
+        assertThat(compilation).hadWarningContaining("Feature toggle 'feature1' expired on 2025-01-31 and is frozen, it should be removed");
+    }
+
+    @Test
+    void shouldRejectInvalidExpiryDate() {
+        // Given
+        addSource("TestClass", /* language=Java */ """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureToggle;
+                public class TestClass {
+                    @FeatureToggle(name="feature1", expires="31.1.2025")
+                    private boolean isFeature1Enabled() {
+                        return false;
+                    }
+                }
+                """);
+        // When
+        final var compilation = compileSources();
+        // Then
+        assertThat(compilation).failed();
+        assertThat(compilation).hadErrorContaining("Invalid expiration date of feature toggle 'feature1'");
+    }
+
+    @Test
+    void shouldDescribeFrozenToggleInManifest() throws Exception {
+        // Given
+        addSource("TestClass", /* language=Java */ """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureToggle;
+                import cz.auderis.infra.toggle.FrozenValue;
+                public class TestClass {
+                    @FeatureToggle(name="feature1", frozen=FrozenValue.ENABLED, expires="2099-12-31")
+                    private boolean isFeature1Enabled() {
+                        return false;
+                    }
+                    @FeatureToggle(name="feature2")
+                    private boolean isFeature2Enabled() {
+                        return true;
+                    }
+                }
+                """);
+        // When
+        final var compilation = compileSources();
+        // Then
+        assertThat(compilation).succeeded();
+        final var manifestFile = compilation.generatedFile(StandardLocation.CLASS_OUTPUT, "META-INF/feature-toggles.ftm")
+                                            .orElseThrow();
+        final ToggleManifest manifest;
+        try (final var in = manifestFile.openInputStream()) {
+            manifest = ToggleManifest.read(ByteBuffer.wrap(in.readAllBytes()));
+        }
+        final var frozenToggle = manifest.find("feature1").orElseThrow();
+        assertThat("Not frozen", frozenToggle.isFrozen(), is(true));
+        assertThat("Wrong frozen value", frozenToggle.isDefaultEnabled(), is(true));
+        assertThat("Wrong ordinal", frozenToggle.getOrdinal(), is(-1));
+        assertThat("Wrong expiration date", frozenToggle.getExpiryDate().orElseThrow().toString(), is("2099-12-31"));
+        assertThat("Wrong ordinal", manifest.find("feature2").orElseThrow().getOrdinal(), is(0));
+        assertThat("Wrong registry size", ToggleRegistry.fromManifest(manifest).size(), is(1));
+    }
+
+}
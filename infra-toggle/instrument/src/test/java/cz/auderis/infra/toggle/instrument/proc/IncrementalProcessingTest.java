@@ -0,0 +1,178 @@
+package cz.auderis.infra.toggle.instrument.proc;
+
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.GradleRunner;
+import org.gradle.testkit.runner.TaskOutcome;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Builds a small project with Gradle and checks that changes of individual
+ * source files are compiled incrementally. The processor path and the classpath
+ * of the test project are provided by the build of this module.
+ */
+public class IncrementalProcessingTest {
+
+    private static final String PROCESSOR_PATH_PROPERTY = "infra.toggle.test.processorPath";
+    private static final String CLASSPATH_PROPERTY = "infra.toggle.test.classpath";
+    private static final String FULL_RECOMPILATION = "Full recompilation is required";
+    private static final String REGISTRY_PATH = "build/generated/sources/annotationProcessor/java/main/cz/auderis/test/FeatureToggles.java";
+    private static final String MANIFEST_PATH = "build/classes/java/main/META-INF/feature-toggles.json";
+
+    private Path projectDir;
+
+    @BeforeEach
+    void createProject() throws IOException {
+        final var processorPath = System.getProperty(PROCESSOR_PATH_PROPERTY);
+        final var classpath = System.getProperty(CLASSPATH_PROPERTY);
+        assumeTrue((null != processorPath) && (null != classpath), "Test project classpath not provided by the build");
+        projectDir = Files.createTempDirectory("incremental-processing");
+        write("settings.gradle", "rootProject.name = 'incremental-processing'\n");
+        write("build.gradle", """
+                plugins {
+                    id 'java'
+                }
+                dependencies {
+                    implementation files(%s)
+                    annotationProcessor files(%s)
+                }
+                tasks.withType(JavaCompile).configureEach {
+                    options.release = 17
+                }
+                """.formatted(pathList(classpath), pathList(processorPath)));
+        write("src/main/java/cz/auderis/test/ToggledService.java", """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureToggle;
+                public class ToggledService {
+                    @FeatureToggle(name="feature1")
+                    boolean isFeature1Enabled() {
+                        return true;
+                    }
+                }
+                """);
+        write("src/main/java/cz/auderis/test/PlainService.java", """
+                package cz.auderis.test;
+                public class PlainService {
+                    int value() {
+                        return 1;
+                    }
+                }
+                """);
+        write("src/main/java/cz/auderis/test/OtherService.java", """
+                package cz.auderis.test;
+                public class OtherService {
+                    int value() {
+                        return 2;
+                    }
+                }
+                """);
+    }
+
+    @AfterEach
+    void deleteProject() throws IOException {
+        if (null != projectDir) {
+            try (final var files = Files.walk(projectDir)) {
+                for (final var file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Test
+    void shouldCompileUnannotatedChangeIncrementally() throws IOException {
+        // Given
+        build();
+        final var otherClassTime = lastModified("build/classes/java/main/cz/auderis/test/OtherService.class");
+        // When
+        write("src/main/java/cz/auderis/test/PlainService.java", """
+                package cz.auderis.test;
+                public class PlainService {
+                    int value() {
+                        return 3;
+                    }
+                }
+                """);
+        final var result = build();
+        // Then
+        assertThat("Full recompilation", result.getOutput(), not(containsString(FULL_RECOMPILATION)));
+        assertThat("Unrelated class recompiled", lastModified("build/classes/java/main/cz/auderis/test/OtherService.class"), is(otherClassTime));
+        assertThat("Default value lost", read(REGISTRY_PATH), containsString("\"feature1\", true)"));
+        assertThat("Manifest lost", read(MANIFEST_PATH), containsString("\"name\": \"feature1\""));
+    }
+
+    @Test
+    void shouldRegenerateRegistryAfterAnnotatedChange() throws IOException {
+        // Given
+        build();
+        final var otherClassTime = lastModified("build/classes/java/main/cz/auderis/test/OtherService.class");
+        // When
+        write("src/main/java/cz/auderis/test/ToggledService.java", """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureToggle;
+                public class ToggledService {
+                    @FeatureToggle(name="feature1")
+                    boolean isFeature1Enabled() {
+                        return true;
+                    }
+                    @FeatureToggle(name="feature2")
+                    boolean isFeature2Enabled() {
+                        return false;
+                    }
+                }
+                """);
+        final var result = build();
+        // Then
+        assertThat("Full recompilation", result.getOutput(), not(containsString(FULL_RECOMPILATION)));
+        assertThat("Unrelated class recompiled", lastModified("build/classes/java/main/cz/auderis/test/OtherService.class"), is(otherClassTime));
+        assertThat("New toggle not registered", read(REGISTRY_PATH), containsString("\"feature2\", false)"));
+        assertThat("New toggle not in manifest", read(MANIFEST_PATH), containsString("\"name\": \"feature2\""));
+    }
+
+    private BuildResult build() {
+        final var result = GradleRunner.create()
+                                       .withProjectDir(projectDir.toFile())
+                                       .withArguments("compileJava", "--info", "--stacktrace")
+                                       .build();
+        assertThat("Compilation failed", result.task(":compileJava").getOutcome(), is(TaskOutcome.SUCCESS));
+        return result;
+    }
+
+    private void write(String relativePath, String content) throws IOException {
+        final var file = projectDir.resolve(relativePath);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+    }
+
+    private String read(String relativePath) throws IOException {
+        return Files.readString(projectDir.resolve(relativePath), StandardCharsets.UTF_8);
+    }
+
+    private long lastModified(String relativePath) throws IOException {
+        return Files.getLastModifiedTime(projectDir.resolve(relativePath)).toMillis();
+    }
+
+    private static String pathList(String path) {
+        return Stream.of(path.split(File.pathSeparator))
+                     .filter(element -> !element.isEmpty())
+                     .map(element -> "'" + element.replace("\\", "/") + "'")
+                     .collect(Collectors.joining(", "));
+    }
+
+}
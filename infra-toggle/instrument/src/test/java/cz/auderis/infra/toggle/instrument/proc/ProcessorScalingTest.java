@@ -0,0 +1,245 @@
+package cz.auderis.infra.toggle.instrument.proc;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.processing.Completion;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+/**
+ * Measures how the processing time and memory allocated by {@link FeatureToggleProcessor}
+ * grow with the size of the processed codebase. Synthetic codebases with a mix of feature
+ * toggles, feature method pairs and observers are processed with {@code -proc:only},
+ * so that only the annotation processing (including generation of the registry and
+ * the manifest) is measured, not the compilation of the sources.
+ * <p>
+ * The test fails if the cost per annotated method in the largest codebase exceeds
+ * the cost in the middle-sized one by more than {@value #MAX_GROWTH} times, i.e. if
+ * the processor scales notably worse than linearly.
+ */
+@Tag("performance")
+public class ProcessorScalingTest {
+
+    private static final int[] SIZES = {1_000, 10_000, 50_000};
+    private static final int METHODS_PER_CLASS = 50;
+    private static final int CLASSES_PER_PACKAGE = 10;
+    private static final int REPETITIONS = 3;
+    private static final double MAX_GROWTH = 2.0;
+
+    @Test
+    void shouldScaleLinearly() throws IOException {
+        // Given
+        measure(SIZES[0]);
+        final Map<Integer, Measurement> results = new LinkedHashMap<>();
+        // When
+        for (final var size : SIZES) {
+            results.put(size, measure(size));
+        }
+        // Then
+        System.out.printf("%10s %12s %14s %14s %16s%n", "methods", "process [ms]", "per method [us]", "alloc [MiB]", "per method [B]");
+        results.forEach((size, m) -> System.out.printf("%10d %12.1f %14.2f %14.1f %16d%n", size, m.nanos / 1e6,
+                                                       m.nanosPerMethod() / 1e3, m.allocatedBytes / 1048576.0, m.bytesPerMethod()));
+        final var base = results.get(SIZES[1]);
+        final var largest = results.get(SIZES[2]);
+        assertThat("Processing time grows faster than linearly", largest.nanosPerMethod(), lessThan(MAX_GROWTH * base.nanosPerMethod()));
+        if (largest.allocatedBytes > 0L) {
+            assertThat("Allocated memory grows faster than linearly",
+                       (double) largest.bytesPerMethod(), lessThan(MAX_GROWTH * base.bytesPerMethod()));
+        }
+    }
+
+    private static Measurement measure(int methodCount) throws IOException {
+        final var sources = syntheticCodebase(methodCount);
+        Measurement best = null;
+        for (int i = 0; i < REPETITIONS; ++i) {
+            final var measurement = process(sources, methodCount);
+            if ((null == best) || (measurement.nanos < best.nanos)) {
+                best = measurement;
+            }
+        }
+        return best;
+    }
+
+    private static Measurement process(List<JavaFileObject> sources, int methodCount) throws IOException {
+        final var outputDir = Files.createTempDirectory("toggle-scaling");
+        try {
+            final var compiler = ToolProvider.getSystemJavaCompiler();
+            final var diagnostics = new DiagnosticCollector<JavaFileObject>();
+            final var options = List.of("-proc:only", "-implicit:none",
+                                        "-classpath", System.getProperty("java.class.path"),
+                                        "-s", outputDir.toString(), "-d", outputDir.toString());
+            final var processor = new MeasuringProcessor(new FeatureToggleProcessor());
+            final var output = new StringWriter();
+            final var task = compiler.getTask(output, null, diagnostics, options, null, sources);
+            task.setProcessors(List.of(processor));
+            final var success = task.call();
+            assertThat("Processing failed: " + diagnostics.getDiagnostics() + output, success, is(true));
+            assertThat("Registry not generated", Files.exists(outputDir.resolve("cz/auderis/perf/FeatureToggles.java")), is(true));
+            return new Measurement(methodCount, processor.nanos, processor.allocatedBytes);
+        } finally {
+            try (final var files = Files.walk(outputDir)) {
+                for (final var file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Generates classes where every block of 10 annotated methods contains
+     * 7 feature toggles, 1 pair of feature methods and 1 observer.
+     */
+    private static List<JavaFileObject> syntheticCodebase(int methodCount) {
+        final var classCount = (methodCount + METHODS_PER_CLASS - 1) / METHODS_PER_CLASS;
+        final var result = new ArrayList<JavaFileObject>(classCount);
+        for (int c = 0; c < classCount; ++c) {
+            final var packageName = "cz.auderis.perf.p" + (c / CLASSES_PER_PACKAGE);
+            final var className = "Generated" + c;
+            final var src = new StringBuilder(100 * METHODS_PER_CLASS);
+            src.append("package ").append(packageName).append(";\n")
+               .append("import cz.auderis.infra.toggle.*;\n")
+               .append("public class ").append(className).append(" {\n");
+            final var methodsInClass = Math.min(METHODS_PER_CLASS, methodCount - c * METHODS_PER_CLASS);
+            for (int m = 0; m < methodsInClass; ++m) {
+                final var name = "feature-" + c + "-" + m;
+                switch (m % 10) {
+                    case 7 -> src.append("    @FeatureMethod(name=\"").append(name).append("\", flagValue=false)\n")
+                                 .append("    public String m").append(m).append("(int x) { return \"legacy\"; }\n");
+                    case 8 -> src.append("    @FeatureMethod(name=\"feature-").append(c).append('-').append(m - 1).append("\", flagValue=true)\n")
+                                 .append("    public String m").append(m).append("(int x) { return \"new\"; }\n");
+                    case 9 -> src.append("    @FeatureToggleObserver(\"feature-").append(c).append('-').append(m - 9).append("\")\n")
+                                 .append("    public static void m").append(m).append("(String name, boolean value) { }\n");
+                    default -> src.append("    @FeatureToggle(name=\"").append(name).append("\", description=\"Toggle ").append(name).append("\")\n")
+                                  .append("    boolean m").append(m).append("() { return ").append(0 == (m & 1)).append("; }\n");
+                }
+            }
+            src.append("}\n");
+            result.add(new SourceFile(packageName + '.' + className, src.toString()));
+        }
+        return result;
+    }
+
+
+    private static final class Measurement {
+        final int methodCount;
+        final long nanos;
+        final long allocatedBytes;
+
+        Measurement(int methodCount, long nanos, long allocatedBytes) {
+            this.methodCount = methodCount;
+            this.nanos = nanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        double nanosPerMethod() {
+            return (double) nanos / methodCount;
+        }
+
+        long bytesPerMethod() {
+            return allocatedBytes / methodCount;
+        }
+    }
+
+
+    private static final class SourceFile extends SimpleJavaFileObject {
+        private final String content;
+
+        SourceFile(String className, String content) {
+            super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.content = content;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return content;
+        }
+    }
+
+
+    /**
+     * Delegates to the measured processor and accumulates time and memory
+     * allocated by the current thread during its rounds.
+     */
+    private static final class MeasuringProcessor implements Processor {
+        private final Processor delegate;
+        private final com.sun.management.ThreadMXBean threadBean;
+        long nanos;
+        long allocatedBytes;
+
+        MeasuringProcessor(Processor delegate) {
+            this.delegate = delegate;
+            final var bean = ManagementFactory.getThreadMXBean();
+            this.threadBean = (bean instanceof com.sun.management.ThreadMXBean sunBean) && sunBean.isThreadAllocatedMemorySupported()
+                              ? sunBean : null;
+        }
+
+        @Override
+        public Set<String> getSupportedOptions() {
+            return delegate.getSupportedOptions();
+        }
+
+        @Override
+        public Set<String> getSupportedAnnotationTypes() {
+            return delegate.getSupportedAnnotationTypes();
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return delegate.getSupportedSourceVersion();
+        }
+
+        @Override
+        public void init(ProcessingEnvironment processingEnv) {
+            delegate.init(processingEnv);
+        }
+
+        @Override
+        public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+            final var threadId = Thread.currentThread().getId();
+            final var startBytes = (null != threadBean) ? threadBean.getThreadAllocatedBytes(threadId) : 0L;
+            final var start = System.nanoTime();
+            try {
+                return delegate.process(annotations, roundEnv);
+            } finally {
+                nanos += System.nanoTime() - start;
+                if (null != threadBean) {
+                    allocatedBytes += threadBean.getThreadAllocatedBytes(threadId) - startBytes;
+                }
+            }
+        }
+
+        @Override
+        public Iterable<? extends Completion> getCompletions(Element element, AnnotationMirror annotation,
+                                                             ExecutableElement member, String userText) {
+            return delegate.getCompletions(element, annotation, member, userText);
+        }
+    }
+
+}
@@ -0,0 +1,198 @@
+package cz.auderis.infra.toggle.instrument.proc;
+
+import com.google.testing.compile.Compilation;
+import cz.auderis.infra.toggle.manifest.ToggleManifest;
+import cz.auderis.infra.toggle.runtime.ToggleRegistry;
+import org.junit.jupiter.api.Test;
+
+import javax.tools.StandardLocation;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class TogglePrerequisiteTest extends CommonProcessorTest {
+
+    @Test
+    void shouldDefinePrerequisitesAndGroupsInRegistry() {
+        // Given
+        addSource("TestClass", /* language=Java */ """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureToggle;
+                public class TestClass {
+                    @FeatureToggle(name="feature1", groups="checkout")
+                    static boolean isFeature1Enabled() {
+                        return false;
+                    }
+                    @FeatureToggle(name="feature2", requires="feature1", groups={"checkout", "beta"})
+                    static boolean isFeature2Enabled() {
+                        return false;
+                    }
+                }
+                """);
+        // When
+        final var compilation = compileSources();
+        // Then
+        assertThat(compilation).succeededWithoutWarnings();
+        final var registrySource = assertThat(compilation).generatedSourceFile("cz.auderis.test.FeatureToggles").contentsAsUtf8String();
+        registrySource.contains("builder.prerequisite(FEATURE2, FEATURE1);");
+        registrySource.contains("builder.group(\"checkout\", FEATURE1);");
+        registrySource.contains("builder.group(\"checkout\", FEATURE2);");
+        registrySource.contains("builder.group(\"beta\", FEATURE2);");
+        registrySource.doesNotContain("builder.prerequisite(FEATURE1");
+    }
+
+    @Test
+    void shouldCombinePrerequisitesOfFeatureMethods() throws Exception {
+        // Given
+        addSource("TestClass", /* language=Java */ """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureMethod;
+                import cz.auderis.infra.toggle.FeatureToggle;
+                public class TestClass {
+                    @FeatureToggle(name="feature1")
+                    static boolean isFeature1Enabled() {
+                        return false;
+                    }
+                    @FeatureToggle(name="feature2")
+                    static boolean isFeature2Enabled() {
+                        return false;
+                    }
+                    @FeatureMethod(name="feature3", flagValue=false, requires="feature1")
+                    String getOldValue() {
+                        return "legacy";
+                    }
+                    @FeatureMethod(name="feature3", flagValue=true, requires="feature2", groups="beta")
+                    String getNewValue() {
+                        return "new";
+                    }
+                }
+                """);
+        // When
+        final var compilation = compileSources();
+        // Then
+        assertThat(compilation).succeeded();
+        final var manifest = readManifest(compilation);
+        final var entry = manifest.find("feature3").orElseThrow();
+        assertThat("Wrong prerequisites", entry.getPrerequisites(), is(List.of("feature1", "feature2")));
+        assertThat("Wrong groups", entry.getGroups(), is(List.of("beta")));
+        final var registry = ToggleRegistry.fromManifest(manifest);
+        registry.setEnabled("feature3", true);
+        registry.setEnabled("feature1", true);
+        assertThat("Prerequisite ignored", registry.isEnabled("feature3"), is(false));
+        registry.setEnabled("feature2", true);
+        assertThat("Prerequisites not satisfied", registry.isEnabled("feature3"), is(true));
+    }
+
+    @Test
+    void shouldRejectPrerequisiteCycle() {
+        // Given
+        addSource("TestClass", /* language=Java */ """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureToggle;
+                public class TestClass {
+                    @FeatureToggle(name="feature1", requires="feature3")
+                    static boolean isFeature1Enabled() {
+                        return false;
+                    }
+                    @FeatureToggle(name="feature2", requires="feature1")
+                    static boolean isFeature2Enabled() {
+                        return false;
+                    }
+                    @FeatureToggle(name="feature3", requires="feature2")
+                    static boolean isFeature3Enabled() {
+                        return false;
+                    }
+                }
+                """);
+        // When
+        final var compilation = compileSources();
+        // Then
+        assertThat(compilation).failed();
+        assertThat(compilation).hadErrorContaining("Feature toggle prerequisites form a cycle: feature1 -> feature3 -> feature2 -> feature1");
+    }
+
+    @Test
+    void shouldRejectUnknownPrerequisite() {
+        // Given
+        addSource("TestClass", /* language=Java */ """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureToggle;
+                public class TestClass {
+                    @FeatureToggle(name="feature1", requires="feature2")
+                    static boolean isFeature1Enabled() {
+                        return false;
+                    }
+                }
+                """);
+        // When
+        final var compilation = compileSources();
+        // Then
+        assertThat(compilation).failed();
+        assertThat(compilation).hadErrorContaining("Prerequisite 'feature2' of feature toggle 'feature1' is not defined");
+    }
+
+    @Test
+    void shouldResolveFrozenPrerequisites() throws Exception {
+        // Given
+        addSource("TestClass", /* language=Java */ """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureToggle;
+                import cz.auderis.infra.toggle.FrozenValue;
+                public class TestClass {
+                    @FeatureToggle(name="feature1", frozen=FrozenValue.ENABLED)
+                    static boolean isFeature1Enabled() {
+                        return true;
+                    }
+                    @FeatureToggle(name="feature2", requires="feature1")
+                    static boolean isFeature2Enabled() {
+                        return false;
+                    }
+                }
+                """);
+        // When
+        final var compilation = compileSources();
+        // Then
+        assertThat(compilation).succeeded();
+        final var registrySource = assertThat(compilation).generatedSourceFile("cz.auderis.test.FeatureToggles").contentsAsUtf8String();
+        registrySource.doesNotContain("builder.prerequisite(");
+        assertThat("Frozen prerequisite kept", readManifest(compilation).find("feature2").orElseThrow().getPrerequisites(),
+                   is(List.of()));
+    }
+
+    @Test
+    void shouldRejectPrerequisiteFrozenAsDisabled() {
+        // Given
+        addSource("TestClass", /* language=Java */ """
+                package cz.auderis.test;
+                import cz.auderis.infra.toggle.FeatureToggle;
+                import cz.auderis.infra.toggle.FrozenValue;
+                public class TestClass {
+                    @FeatureToggle(name="feature1", frozen=FrozenValue.DISABLED)
+                    static boolean isFeature1Enabled() {
+                        return false;
+                    }
+                    @FeatureToggle(name="feature2", requires="feature1")
+                    static boolean isFeature2Enabled() {
+                        return false;
+                    }
+                }
+                """);
+        // When
+        final var compilation = compileSources();
+        // Then
+        assertThat(compilation).failed();
+        assertThat(compilation).hadErrorContaining("Prerequisite 'feature1' of feature toggle 'feature2' is frozen as disabled");
+    }
+
+    private static ToggleManifest readManifest(Compilation compilation) throws Exception {
+        final var manifestFile = compilation.generatedFile(StandardLocation.CLASS_OUTPUT, "META-INF/feature-toggles.ftm")
+                                            .orElseThrow();
+        try (final var in = manifestFile.openInputStream()) {
+            return ToggleManifest.read(ByteBuffer.wrap(in.readAllBytes()));
+        }
+    }
+
+}
@@ -0,0 +1,548 @@
+package cz.auderis.infra.toggle.manifest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Description of all feature toggles of a module, generated at build time
+ * by the feature toggle annotation processor together with the registry class.
+ * The manifest allows to discover toggles, their default values, observers and
+ * feature method pairs without loading the annotated classes or scanning them
+ * for annotations. The run-time library creates a registry from the manifest
+ * with {@code ToggleRegistry.fromManifest()}.
+ * <p>
+ * The binary manifest is stored in resource {@value #RESOURCE_NAME}; a JSON
+ * rendering of the same information for humans is stored in resource
+ * {@value #JSON_RESOURCE_NAME}. All numbers in the binary form are big-endian,
+ * strings are stored once in a string table and referenced by their index
+ * ({@code -1} denotes a missing string):
+ * <pre>
+ * int    magic 0x4654474D ("FTGM")
+ * short  format version (4; versions 1 to 3 are also accepted)
+ * int    string count, then for each string: int byte length, UTF-8 bytes
+ * int    registry class name index
+ * int    toggle count, then for each toggle in the order of ordinals, followed by frozen toggles:
+ *   int    name index
+ *   byte   kind (0 = feature toggle, 1 = feature method pair)
+ *   byte   flags (bit 0 = default value, bit 1 = frozen)
+ *   int    description index
+ *   int    expiration date index, ISO-8601 date (since version 2)
+ *   int    registry method name index, int registry method descriptor index (since version 3)
+ *   short  method count, then for each method:
+ *     byte   role (0 = accessor, 1 = legacy implementation, 2 = new feature implementation)
+ *     byte   flags (bit 0 = static)
+ *     int    binary class name index, int method name index, int descriptor index
+ *   short  observer count, then for each observer:
+ *     int    binary class name index, int method name index
+ *   short  prerequisite count, then for each prerequisite: int toggle name index (since version 4)
+ *   short  group count, then for each group: int group name index (since version 4)
+ * </pre>
+ * Frozen toggles have a permanent value and are not part of the registry,
+ * so they have no ordinal. They are neither prerequisites of other toggles,
+ * nor have prerequisites of their own.
+ *
+ * @author Boleslav Bobcik
+ */
+public final class ToggleManifest {
+
+    /**
+     * Name of the resource holding the binary manifest.
+     */
+    public static final String RESOURCE_NAME = "META-INF/feature-toggles.ftm";
+
+    /**
+     * Name of the resource holding the JSON rendering of the manifest.
+     */
+    public static final String JSON_RESOURCE_NAME = "META-INF/feature-toggles.json";
+
+    /**
+     * Identification of the binary manifest format.
+     */
+    public static final int MAGIC = 0x4654474D;
+
+    /**
+     * Current version of the binary manifest format.
+     */
+    public static final int FORMAT_VERSION = 4;
+
+    private static final String OBSERVER_DESCRIPTOR = "(Ljava/lang/String;Z)V";
+    private static final long MAPPING_THRESHOLD = 64L * 1024L;
+
+    private final String registryClassName;
+    private final List<Entry> entries;
+
+    private ToggleManifest(String registryClassName, List<Entry> entries) {
+        this.registryClassName = registryClassName;
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Loads manifests of all modules visible to the class loader.
+     *
+     * @param classLoader class loader used to find the manifest resources
+     * @return list of loaded manifests
+     * @throws IOException if any of the manifests cannot be read or is not valid
+     */
+    public static List<ToggleManifest> loadAll(ClassLoader classLoader) throws IOException {
+        final var resources = classLoader.getResources(RESOURCE_NAME);
+        final var result = new ArrayList<ToggleManifest>();
+        while (resources.hasMoreElements()) {
+            result.add(load(resources.nextElement()));
+        }
+        return result;
+    }
+
+    /**
+     * Loads a manifest. Large manifests stored directly in the file system are
+     * memory-mapped rather than read.
+     *
+     * @param manifestUrl location of the binary manifest
+     * @return loaded manifest
+     * @throws IOException if the manifest cannot be read or is not valid
+     */
+    public static ToggleManifest load(URL manifestUrl) throws IOException {
+        if ("file".equals(manifestUrl.getProtocol())) {
+            final Path path;
+            try {
+                path = Path.of(manifestUrl.toURI());
+            } catch (URISyntaxException e) {
+                throw new IOException("Invalid manifest location " + manifestUrl, e);
+            }
+            try (final var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                final var size = channel.size();
+                if (size >= MAPPING_THRESHOLD) {
+                    return read(channel.map(FileChannel.MapMode.READ_ONLY, 0L, size));
+                }
+            }
+        }
+        try (final InputStream in = manifestUrl.openStream()) {
+            return read(ByteBuffer.wrap(in.readAllBytes()));
+        }
+    }
+
+    /**
+     * Parses a binary manifest.
+     *
+     * @param buffer buffer with the manifest data, starting at its current position
+     * @return parsed manifest
+     * @throws IOException if the manifest is not valid
+     */
+    public static ToggleManifest read(ByteBuffer buffer) throws IOException {
+        final var in = buffer.duplicate();
+        try {
+            if (MAGIC != in.getInt()) {
+                throw new IOException("Not a feature toggle manifest");
+            }
+            final var version = in.getShort();
+            if ((version < 1) || (version > FORMAT_VERSION)) {
+                throw new IOException("Unsupported feature toggle manifest version " + version);
+            }
+            final var strings = new String[checkCount(in.getInt())];
+            for (int i = 0; i < strings.length; ++i) {
+                final var bytes = new byte[checkCount(in.getInt())];
+                in.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            final var registryClassName = requiredString(strings, in.getInt());
+            final var toggleCount = checkCount(in.getInt());
+            final var entries = new ArrayList<Entry>(toggleCount);
+            int ordinal = 0;
+            for (int i = 0; i < toggleCount; ++i) {
+                final var entry = readEntry(in, strings, version, ordinal, registryClassName);
+                if (!entry.frozen) {
+                    ++ordinal;
+                }
+                entries.add(entry);
+            }
+            return new ToggleManifest(registryClassName, entries);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Corrupted feature toggle manifest", e);
+        }
+    }
+
+    /**
+     * Returns the fully qualified name of the generated registry class.
+     *
+     * @return registry class name
+     */
+    public String getRegistryClassName() {
+        return registryClassName;
+    }
+
+    /**
+     * Returns descriptions of all toggles, ordered by their ordinals and followed
+     * by frozen toggles.
+     *
+     * @return unmodifiable list of toggles
+     */
+    public List<Entry> getToggles() {
+        return entries;
+    }
+
+    /**
+     * Finds the description of a toggle.
+     *
+     * @param toggleName name of the toggle
+     * @return toggle description, empty if the toggle is not defined in the manifest
+     */
+    public Optional<Entry> find(String toggleName) {
+        Objects.requireNonNull(toggleName);
+        for (final var entry : entries) {
+            if (toggleName.equals(entry.name)) {
+                return Optional.of(entry);
+            }
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public String toString() {
+        return "ToggleManifest[" + registryClassName + ", toggles=" + entries.size() + "]";
+    }
+
+    private static Entry readEntry(ByteBuffer in, String[] strings, int version, int ordinal, String registryClassName)
+            throws IOException {
+        final var name = requiredString(strings, in.getInt());
+        final var kindCode = in.get();
+        if ((kindCode < 0) || (kindCode >= Kind.VALUES.length)) {
+            throw new IOException("Invalid kind of feature toggle " + name);
+        }
+        final var flags = in.get();
+        final var defaultValue = 0 != (flags & 1);
+        final var frozen = 0 != (flags & 2);
+        final var description = string(strings, in.getInt());
+        LocalDate expiryDate = null;
+        if (version >= 2) {
+            final var expiryText = string(strings, in.getInt());
+            try {
+                expiryDate = (null != expiryText) ? LocalDate.parse(expiryText) : null;
+            } catch (DateTimeException e) {
+                throw new IOException("Invalid expiration date of feature toggle " + name, e);
+            }
+        }
+        MethodReference registryMethod = null;
+        if (version >= 3) {
+            registryMethod = new MethodReference(registryClassName, requiredString(strings, in.getInt()),
+                                                 requiredString(strings, in.getInt()), true);
+        }
+        final var methodCount = in.getShort() & 0xFFFF;
+        final var accessors = new ArrayList<MethodReference>(methodCount);
+        MethodReference legacyMethod = null;
+        MethodReference featureMethod = null;
+        for (int i = 0; i < methodCount; ++i) {
+            final var role = in.get();
+            final var isStatic = 0 != (in.get() & 1);
+            final var method = new MethodReference(requiredString(strings, in.getInt()), requiredString(strings, in.getInt()),
+                                                   requiredString(strings, in.getInt()), isStatic);
+            switch (role) {
+                case 0 -> accessors.add(method);
+                case 1 -> legacyMethod = method;
+                case 2 -> featureMethod = method;
+                default -> throw new IOException("Invalid method role of feature toggle " + name);
+            }
+        }
+        final var observerCount = in.getShort() & 0xFFFF;
+        final var observers = new ArrayList<MethodReference>(observerCount);
+        for (int i = 0; i < observerCount; ++i) {
+            observers.add(new MethodReference(requiredString(strings, in.getInt()), requiredString(strings, in.getInt()),
+                                              OBSERVER_DESCRIPTOR, true));
+        }
+        List<String> prerequisites = List.of();
+        List<String> groups = List.of();
+        if (version >= 4) {
+            prerequisites = readNames(in, strings);
+            groups = readNames(in, strings);
+        }
+        return new Entry(name, frozen ? -1 : ordinal, Kind.VALUES[kindCode], defaultValue, frozen, expiryDate, description,
+                         accessors, legacyMethod, featureMethod, registryMethod, observers, prerequisites, groups);
+    }
+
+    private static List<String> readNames(ByteBuffer in, String[] strings) throws IOException {
+        final var count = in.getShort() & 0xFFFF;
+        final var names = new String[count];
+        for (int i = 0; i < count; ++i) {
+            names[i] = requiredString(strings, in.getInt());
+        }
+        return List.of(names);
+    }
+
+    private static String string(String[] strings, int index) {
+        return (-1 == index) ? null : strings[index];
+    }
+
+    private static String requiredString(String[] strings, int index) throws IOException {
+        if (-1 == index) {
+            throw new IOException("Corrupted feature toggle manifest");
+        }
+        return strings[index];
+    }
+
+    private static int checkCount(int count) throws IOException {
+        if (count < 0) {
+            throw new IOException("Corrupted feature toggle manifest");
+        }
+        return count;
+    }
+
+
+    /**
+     * Kind of a feature toggle.
+     */
+    public enum Kind {
+        /**
+         * Toggle defined by {@code @FeatureToggle} annotated accessor methods.
+         */
+        FEATURE_TOGGLE,
+        /**
+         * Toggle that selects an implementation from a pair of
+         * {@code @FeatureMethod} annotated methods.
+         */
+        FEATURE_METHOD_PAIR;
+
+        private static final Kind[] VALUES = values();
+    }
+
+
+    /**
+     * Description of a single feature toggle.
+     */
+    public static final class Entry {
+        private final String name;
+        private final int ordinal;
+        private final Kind kind;
+        private final boolean defaultValue;
+        private final boolean frozen;
+        private final LocalDate expiryDate;
+        private final String description;
+        private final List<MethodReference> accessors;
+        private final MethodReference legacyMethod;
+        private final MethodReference featureMethod;
+        private final MethodReference registryMethod;
+        private final List<MethodReference> observers;
+        private final List<String> prerequisites;
+        private final List<String> groups;
+
+        Entry(String name, int ordinal, Kind kind, boolean defaultValue, boolean frozen, LocalDate expiryDate, String description,
+              List<MethodReference> accessors, MethodReference legacyMethod, MethodReference featureMethod,
+              MethodReference registryMethod, List<MethodReference> observers, List<String> prerequisites, List<String> groups) {
+            this.name = name;
+            this.ordinal = ordinal;
+            this.kind = kind;
+            this.defaultValue = defaultValue;
+            this.frozen = frozen;
+            this.expiryDate = expiryDate;
+            this.description = (null != description) ? description : "";
+            this.accessors = Collections.unmodifiableList(accessors);
+            this.legacyMethod = legacyMethod;
+            this.featureMethod = featureMethod;
+            this.registryMethod = registryMethod;
+            this.observers = Collections.unmodifiableList(observers);
+            this.prerequisites = prerequisites;
+            this.groups = groups;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the ordinal of the toggle in the registry.
+         *
+         * @return toggle ordinal, or {@code -1} if the toggle is frozen
+         */
+        public int getOrdinal() {
+            return ordinal;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public boolean isDefaultEnabled() {
+            return defaultValue;
+        }
+
+        /**
+         * Checks whether the toggle has a permanent value. A frozen toggle is not part
+         * of the registry and its value is returned by {@link #isDefaultEnabled()}.
+         *
+         * @return {@code true} if the toggle is frozen
+         */
+        public boolean isFrozen() {
+            return frozen;
+        }
+
+        /**
+         * Returns the date after which the toggle is considered expired.
+         *
+         * @return expiration date, empty if the toggle does not expire
+         */
+        public Optional<LocalDate> getExpiryDate() {
+            return Optional.ofNullable(expiryDate);
+        }
+
+        /**
+         * Returns the description of the toggle, or an empty string if the toggle
+         * has no description.
+         *
+         * @return toggle description
+         */
+        public String getDescription() {
+            return description;
+        }
+
+        /**
+         * Returns the annotated accessor methods of a {@linkplain Kind#FEATURE_TOGGLE feature toggle}.
+         *
+         * @return unmodifiable list of accessors
+         */
+        public List<MethodReference> getAccessors() {
+            return accessors;
+        }
+
+        /**
+         * Returns the implementation used when a {@linkplain Kind#FEATURE_METHOD_PAIR feature method pair}
+         * is disabled.
+         *
+         * @return legacy implementation, empty for toggles of other kinds
+         */
+        public Optional<MethodReference> getLegacyMethod() {
+            return Optional.ofNullable(legacyMethod);
+        }
+
+        /**
+         * Returns the implementation used when a {@linkplain Kind#FEATURE_METHOD_PAIR feature method pair}
+         * is enabled.
+         *
+         * @return new feature implementation, empty for toggles of other kinds
+         */
+        public Optional<MethodReference> getFeatureMethod() {
+            return Optional.ofNullable(featureMethod);
+        }
+
+        /**
+         * Returns the static method of the generated registry class that replaces calls
+         * of the annotated methods: the accessor of a {@linkplain Kind#FEATURE_TOGGLE feature toggle},
+         * or the dispatcher of a {@linkplain Kind#FEATURE_METHOD_PAIR feature method pair}, which
+         * takes the target object as its first argument if the pair consists of instance methods.
+         *
+         * @return registry method, empty if the manifest was produced by an older annotation processor
+         */
+        public Optional<MethodReference> getRegistryMethod() {
+            return Optional.ofNullable(registryMethod);
+        }
+
+        /**
+         * Returns the static observer methods of the toggle.
+         *
+         * @return unmodifiable list of observers
+         */
+        public List<MethodReference> getObservers() {
+            return observers;
+        }
+
+        /**
+         * Returns names of the toggles that must be enabled for this toggle to take effect.
+         *
+         * @return unmodifiable list of direct prerequisites
+         */
+        public List<String> getPrerequisites() {
+            return prerequisites;
+        }
+
+        /**
+         * Returns names of the groups the toggle belongs to.
+         *
+         * @return unmodifiable list of group names
+         */
+        public List<String> getGroups() {
+            return groups;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry[" + ordinal + ":" + name + ", " + kind + ", default=" + defaultValue + (frozen ? ", frozen" : "") + "]";
+        }
+    }
+
+
+    /**
+     * Symbolic reference to a method.
+     */
+    public static final class MethodReference {
+        private final String className;
+        private final String methodName;
+        private final String descriptor;
+        private final boolean isStatic;
+
+        MethodReference(String className, String methodName, String descriptor, boolean isStatic) {
+            this.className = Objects.requireNonNull(className);
+            this.methodName = Objects.requireNonNull(methodName);
+            this.descriptor = Objects.requireNonNull(descriptor);
+            this.isStatic = isStatic;
+        }
+
+        /**
+         * Returns the binary name of the class that declares the method.
+         *
+         * @return binary class name
+         */
+        public String getClassName() {
+            return className;
+        }
+
+        public String getMethodName() {
+            return methodName;
+        }
+
+        /**
+         * Returns the method descriptor as defined by the JVM specification.
+         *
+         * @return method descriptor
+         */
+        public String getDescriptor() {
+            return descriptor;
+        }
+
+        public boolean isStatic() {
+            return isStatic;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            } else if (obj instanceof MethodReference other) {
+                return className.equals(other.className) && methodName.equals(other.methodName)
+                       && descriptor.equals(other.descriptor) && (isStatic == other.isStatic);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(className, methodName, descriptor);
+        }
+
+        @Override
+        public String toString() {
+            return className + "::" + methodName + descriptor;
+        }
+    }
+
+}
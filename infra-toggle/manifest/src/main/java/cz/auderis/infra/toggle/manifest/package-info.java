@@ -0,0 +1,8 @@
+/**
+ * Binary manifest describing the feature toggles of a module, written by the feature
+ * toggle annotation processor. The manifest is read both at run time and by the build
+ * logic, so this package depends on nothing but the Java platform.
+ *
+ * @author Boleslav Bobcik
+ */
+package cz.auderis.infra.toggle.manifest;
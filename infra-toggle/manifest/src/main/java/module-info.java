@@ -0,0 +1,5 @@
+module cz.auderis.infra.toggle.manifest {
+
+    exports cz.auderis.infra.toggle.manifest;
+
+}
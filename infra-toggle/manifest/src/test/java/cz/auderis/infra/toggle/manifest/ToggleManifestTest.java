@@ -0,0 +1,173 @@
+package cz.auderis.infra.toggle.manifest;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ToggleManifestTest {
+
+    @Test
+    void shouldReadManifest() throws Exception {
+        // Given
+        final var data = manifest(3);
+        // When
+        final var manifest = ToggleManifest.read(ByteBuffer.wrap(data));
+        // Then
+        assertThat("Wrong registry class", manifest.getRegistryClassName(), is("test.Toggles"));
+        assertThat("Wrong number of toggles", manifest.getToggles().size(), is(3));
+        assertThat("Wrong toggle name", manifest.getToggles().get(1).getName(), is("feature1"));
+        assertThat("Wrong default value", manifest.getToggles().get(1).isDefaultEnabled(), is(true));
+        assertThat("Toggle not found", manifest.find("feature2").isPresent(), is(true));
+        assertThat("Unknown toggle found", manifest.find("feature3").isPresent(), is(false));
+        assertThat("Wrong registry method", manifest.getToggles().get(2).getRegistryMethod().orElseThrow().toString(),
+                   is("test.Toggles::feature2()Z"));
+    }
+
+    @Test
+    void shouldReadFrozenToggles() throws Exception {
+        // Given
+        final var data = manifest(ToggleManifest.FORMAT_VERSION, 4, 2);
+        // When
+        final var manifest = ToggleManifest.read(ByteBuffer.wrap(data));
+        // Then
+        final var frozenEntry = manifest.find("feature3").orElseThrow();
+        assertThat("Not frozen", frozenEntry.isFrozen(), is(true));
+        assertThat("Wrong frozen value", frozenEntry.isDefaultEnabled(), is(true));
+        assertThat("Wrong ordinal", frozenEntry.getOrdinal(), is(-1));
+        assertThat("Wrong expiration date", frozenEntry.getExpiryDate().orElseThrow(), is(LocalDate.of(2030, 1, 31)));
+        assertThat("Dynamic toggle frozen", manifest.find("feature1").orElseThrow().isFrozen(), is(false));
+        assertThat("Wrong ordinal", manifest.find("feature1").orElseThrow().getOrdinal(), is(1));
+    }
+
+    @Test
+    void shouldReadPrerequisitesAndGroups() throws Exception {
+        // Given
+        final var data = manifest(4);
+        // When
+        final var manifest = ToggleManifest.read(ByteBuffer.wrap(data));
+        // Then
+        assertThat("Wrong prerequisites", manifest.getToggles().get(2).getPrerequisites(), is(List.of("feature1")));
+        assertThat("Wrong prerequisites", manifest.getToggles().get(1).getPrerequisites(), is(List.of()));
+        assertThat("Wrong groups", manifest.getToggles().get(3).getGroups(), is(List.of("odd")));
+        assertThat("Wrong groups", manifest.getToggles().get(0).getGroups(), is(List.of()));
+    }
+
+    @Test
+    void shouldReadFormatVersion1() throws Exception {
+        // Given
+        final var data = manifest(1, 3, 0);
+        // When
+        final var manifest = ToggleManifest.read(ByteBuffer.wrap(data));
+        // Then
+        assertThat("Wrong number of toggles", manifest.getToggles().size(), is(3));
+        assertThat("Wrong default value", manifest.getToggles().get(1).isDefaultEnabled(), is(true));
+        assertThat("Expiration date present", manifest.getToggles().get(1).getExpiryDate().isPresent(), is(false));
+        assertThat("Registry method present", manifest.getToggles().get(1).getRegistryMethod().isPresent(), is(false));
+        assertThat("Groups present", manifest.getToggles().get(1).getGroups().isEmpty(), is(true));
+    }
+
+    @Test
+    void shouldMapLargeManifest() throws Exception {
+        // Given
+        final var file = Files.createTempFile("feature-toggles", ".ftm");
+        try {
+            Files.write(file, manifest(5000));
+            // When
+            final var manifest = ToggleManifest.load(file.toUri().toURL());
+            // Then
+            assertThat("Manifest too small", Files.size(file) > 64 * 1024, is(true));
+            assertThat("Wrong number of toggles", manifest.getToggles().size(), is(5000));
+            assertThat("Wrong toggle name", manifest.getToggles().get(4999).getName(), is("feature4999"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void shouldRejectInvalidManifest() throws Exception {
+        // Given
+        final var data = manifest(3);
+        final var truncatedData = Arrays.copyOf(data, data.length - 1);
+        final var invalidData = data.clone();
+        invalidData[0] = 0;
+        // When / Then
+        assertThrows(IOException.class, () -> ToggleManifest.read(ByteBuffer.wrap(truncatedData)));
+        assertThrows(IOException.class, () -> ToggleManifest.read(ByteBuffer.wrap(invalidData)));
+    }
+
+    private static byte[] manifest(int toggleCount) throws IOException {
+        return manifest(ToggleManifest.FORMAT_VERSION, toggleCount, 0);
+    }
+
+    /**
+     * Creates a manifest whose last {@code frozenCount} toggles are frozen and expire on 2030-01-31.
+     * Accessors of the toggles in the registry class have the same names as the toggles.
+     * Toggle {@code feature2} requires {@code feature1} and the toggles with odd numbers
+     * belong to group {@code odd}, unless they are frozen.
+     */
+    private static byte[] manifest(int version, int toggleCount, int frozenCount) throws IOException {
+        final var bytes = new ByteArrayOutputStream();
+        try (final var out = new DataOutputStream(bytes)) {
+            out.writeInt(ToggleManifest.MAGIC);
+            out.writeShort(version);
+            out.writeInt(4 + toggleCount);
+            writeString(out, "test.Toggles");
+            for (int i = 0; i < toggleCount; ++i) {
+                writeString(out, "feature" + i);
+            }
+            writeString(out, "2030-01-31");
+            writeString(out, "()Z");
+            writeString(out, "odd");
+            out.writeInt(0);
+            out.writeInt(toggleCount);
+            for (int i = 0; i < toggleCount; ++i) {
+                final var frozen = (i >= toggleCount - frozenCount);
+                out.writeInt(1 + i);
+                out.writeByte(0);
+                out.writeByte((i & 1) | (frozen ? 2 : 0));
+                out.writeInt(-1);
+                if (version >= 2) {
+                    out.writeInt(frozen ? 1 + toggleCount : -1);
+                }
+                if (version >= 3) {
+                    out.writeInt(1 + i);
+                    out.writeInt(2 + toggleCount);
+                }
+                out.writeShort(0);
+                out.writeShort(0);
+                if (version >= 4) {
+                    final var requiresPrevious = (2 == i) && !frozen;
+                    out.writeShort(requiresPrevious ? 1 : 0);
+                    if (requiresPrevious) {
+                        out.writeInt(i);
+                    }
+                    final var inGroup = (1 == (i & 1)) && !frozen;
+                    out.writeShort(inGroup ? 1 : 0);
+                    if (inGroup) {
+                        out.writeInt(3 + toggleCount);
+                    }
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        final var bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+}
@@ -0,0 +1,88 @@
+package cz.auderis.infra.toggle.runtime;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Toggle values decoded by {@link ToggleStateCodec}. The values are read directly
+ * from the bitset in the source buffer, which is neither copied nor modified,
+ * so the content of the buffer must not change while the state is in use.
+ * Toggles with ordinals beyond the encoded bitset are disabled.
+ *
+ * @author Boleslav Bobcik
+ */
+public final class EncodedToggleState {
+
+    private final int size;
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final int length;
+    private final long version;
+
+    EncodedToggleState(int size, ByteBuffer buffer, int offset, int length, long version) {
+        this.size = size;
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        this.version = version;
+    }
+
+    /**
+     * Returns the number of toggles in the registry.
+     *
+     * @return number of toggles
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the version of the sending registry at the time the values were taken.
+     *
+     * @return registry version of the sender
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the effective value of the toggle as decided by the sender.
+     *
+     * @param ordinal ordinal of the toggle
+     * @return toggle value
+     * @throws IndexOutOfBoundsException if the ordinal is not valid
+     */
+    public boolean isEnabled(int ordinal) {
+        if ((ordinal < 0) || (ordinal >= size)) {
+            throw new IndexOutOfBoundsException("Invalid toggle ordinal: " + ordinal);
+        }
+        final int index = ordinal >>> 3;
+        return (index < length) && (0 != (buffer.get(offset + index) & (1 << (ordinal & 7))));
+    }
+
+    /**
+     * Converts the values to a snapshot, e.g. to {@linkplain ToggleRegistry#runWithSnapshot(ToggleSnapshot, Runnable)
+     * run a request} with them. The snapshot has the version of the sending registry.
+     *
+     * @return snapshot of the values
+     */
+    public ToggleSnapshot toSnapshot() {
+        final var words = new long[ToggleStateTable.wordCount(size)];
+        for (int i = 0; i < length; ++i) {
+            words[i >>> 3] |= (long) Byte.toUnsignedInt(buffer.get(offset + i)) << ((i & 7) << 3);
+        }
+        if (0 != (size & 63)) {
+            words[words.length - 1] &= (1L << size) - 1L;
+        }
+        return new ToggleSnapshot(size, words, version);
+    }
+
+    @Override
+    public String toString() {
+        final var sb = new StringBuilder(size + 40).append("EncodedToggleState[v").append(version).append(", ");
+        for (int i = 0; i < size; ++i) {
+            sb.append(isEnabled(i) ? '1' : '0');
+        }
+        return sb.append(']').toString();
+    }
+
+}
@@ -0,0 +1,39 @@
+package cz.auderis.infra.toggle.runtime;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event emitted for a sampled call of a feature method pair dispatcher.
+ * The duration of the event is the duration of the invoked implementation. The events
+ * are emitted only while {@linkplain ToggleRegistry#startDispatchRecording(int) dispatch
+ * recording} is active.
+ */
+@Name(FeatureDispatchEvent.NAME)
+@Label("Feature Method Dispatch")
+@Category("Feature Toggles")
+@Description("Invocation of an implementation of a feature method pair")
+@StackTrace(false)
+final class FeatureDispatchEvent extends Event {
+
+    static final String NAME = "cz.auderis.infra.toggle.FeatureDispatch";
+
+    @Label("Registry")
+    String registry;
+
+    @Label("Toggle")
+    String toggle;
+
+    @Label("Feature Implementation")
+    @Description("True if the new feature implementation was invoked, false for the legacy one")
+    boolean featureImplementation;
+
+    @Label("Failed")
+    @Description("True if the implementation threw an exception")
+    boolean failed;
+
+}
@@ -0,0 +1,89 @@
+package cz.auderis.infra.toggle.runtime;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Wraps implementations of feature method pairs so that their invocations are
+ * recorded as {@link FeatureDispatchEvent}s. Only a random 1-in-N subset of
+ * invocations is recorded; the wrapper is linked into the dispatch call sites
+ * only while the recording is active, so that dispatchers have no overhead
+ * otherwise.
+ */
+final class FeatureDispatchRecorder {
+
+    private static final MethodHandle BEGIN;
+    private static final MethodHandle END;
+
+    static {
+        try {
+            final var lookup = MethodHandles.lookup();
+            BEGIN = lookup.findVirtual(FeatureDispatchRecorder.class, "begin",
+                                       MethodType.methodType(FeatureDispatchEvent.class, String.class, boolean.class));
+            END = lookup.findStatic(FeatureDispatchRecorder.class, "end",
+                                    MethodType.methodType(void.class, Throwable.class, FeatureDispatchEvent.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final String registryName;
+    private final int samplingInterval;
+    private final int samplingMask;
+
+    FeatureDispatchRecorder(String registryName, int samplingInterval) {
+        if ((samplingInterval < 1) || (0 != (samplingInterval & (samplingInterval - 1)))) {
+            throw new IllegalArgumentException("Sampling interval must be a positive power of two: " + samplingInterval);
+        }
+        this.registryName = registryName;
+        this.samplingInterval = samplingInterval;
+        this.samplingMask = samplingInterval - 1;
+    }
+
+    /**
+     * Returns a method handle of the same type as the implementation, which records
+     * sampled invocations of the implementation.
+     */
+    MethodHandle wrap(MethodHandle implementation, String toggleName, boolean featureImplementation) {
+        final var type = implementation.type();
+        final var body = MethodHandles.dropArguments(implementation, 0, FeatureDispatchEvent.class);
+        final MethodHandle cleanup;
+        if (void.class == type.returnType()) {
+            cleanup = END;
+        } else {
+            final var result = MethodHandles.dropArguments(MethodHandles.identity(type.returnType()), 0, Throwable.class);
+            cleanup = MethodHandles.foldArguments(MethodHandles.dropArguments(result, 2, FeatureDispatchEvent.class),
+                                                  MethodHandles.dropArguments(END, 1, type.returnType()));
+        }
+        final var begin = MethodHandles.insertArguments(BEGIN, 0, this, toggleName, featureImplementation);
+        return MethodHandles.foldArguments(MethodHandles.tryFinally(body, cleanup), begin);
+    }
+
+    private FeatureDispatchEvent begin(String toggleName, boolean featureImplementation) {
+        if ((1 != samplingInterval) && (0 != (ThreadLocalRandom.current().nextInt() & samplingMask))) {
+            return null;
+        }
+        final var event = new FeatureDispatchEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.registry = registryName;
+        event.toggle = toggleName;
+        event.featureImplementation = featureImplementation;
+        event.begin();
+        return event;
+    }
+
+    private static void end(Throwable failure, FeatureDispatchEvent event) {
+        if (null != event) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.failed = (null != failure);
+                event.commit();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,192 @@
+package cz.auderis.infra.toggle.runtime;
+
+import cz.auderis.infra.tools.concurrent.VirtualThreadSupport;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+
+/**
+ * Shadow execution of a feature method pair, see {@link ShadowExecution}. The wrapper
+ * of an implementation first tests whether the call is sampled; calls that are not
+ * sampled invoke the implementation directly, without boxing their arguments.
+ * The wrapper is linked into the dispatch call sites only while the shadow execution
+ * is active, so that dispatchers have no overhead otherwise.
+ */
+final class FeatureShadow {
+
+    /**
+     * Source of changes made by the automatic revert, as reported in Flight Recorder events.
+     */
+    static final String SOURCE_SHADOW = "shadow";
+
+    private static final int REVERT_CHECK_INTERVAL = 64;
+    private static final double REVERT_PERCENTILE = 99.0;
+    private static final MethodHandle SAMPLE;
+    private static final MethodHandle CALL;
+
+    static {
+        try {
+            final var lookup = MethodHandles.lookup();
+            SAMPLE = lookup.findVirtual(FeatureShadow.class, "sample", MethodType.methodType(boolean.class));
+            CALL = lookup.findVirtual(FeatureShadow.class, "call", MethodType.methodType(Object.class,
+                    MethodHandle.class, MethodHandle.class, boolean.class, Object[].class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final ToggleRegistry registry;
+    private final int ordinal;
+    private final int samplingMask;
+    private final Executor executor;
+    private final BiPredicate<Object, Object> resultEquivalence;
+    private final double revertMargin;
+    private final long revertMinSamples;
+    private final AtomicLongArray legacyLatency;
+    private final AtomicLongArray featureLatency;
+    private final LongAdder matchCount;
+    private final LongAdder mismatchCount;
+    private final LongAdder droppedCount;
+    private final AtomicLong completedCount;
+    private final AtomicBoolean reverted;
+
+    FeatureShadow(ToggleRegistry registry, int ordinal, ShadowExecution settings) {
+        this.registry = registry;
+        this.ordinal = ordinal;
+        this.samplingMask = settings.getSamplingInterval() - 1;
+        this.executor = settings.getExecutor().orElseGet(DefaultExecutor::get);
+        this.resultEquivalence = settings.getResultEquivalence();
+        this.revertMargin = settings.getRevertMargin();
+        this.revertMinSamples = settings.getRevertMinSamples();
+        this.legacyLatency = new AtomicLongArray(LatencyHistogram.BUCKET_COUNT);
+        this.featureLatency = new AtomicLongArray(LatencyHistogram.BUCKET_COUNT);
+        this.matchCount = new LongAdder();
+        this.mismatchCount = new LongAdder();
+        this.droppedCount = new LongAdder();
+        this.completedCount = new AtomicLong();
+        this.reverted = new AtomicBoolean();
+    }
+
+    /**
+     * Returns a method handle of the same type as the implementation, which invokes
+     * the implementation and, for sampled calls, also the shadowed implementation.
+     */
+    MethodHandle wrap(MethodHandle implementation, MethodHandle shadowedImplementation, boolean featureImplementation) {
+        final var type = implementation.type();
+        final var parameterCount = type.parameterCount();
+        final var genericType = MethodType.methodType(Object.class, Object[].class);
+        final var spreadImplementation = implementation.asSpreader(Object[].class, parameterCount).asType(genericType);
+        final var spreadShadow = shadowedImplementation.asSpreader(Object[].class, parameterCount).asType(genericType);
+        final var shadowedCall = MethodHandles.insertArguments(CALL, 0, this, spreadImplementation, spreadShadow,
+                                                               featureImplementation)
+                                              .asCollector(Object[].class, parameterCount)
+                                              .asType(type);
+        final var test = MethodHandles.dropArguments(SAMPLE.bindTo(this), 0, type.parameterList());
+        return MethodHandles.guardWithTest(test, shadowedCall, implementation);
+    }
+
+    ShadowStatistics statistics() {
+        return new ShadowStatistics(registry.nameOf(ordinal), LatencyHistogram.copyOf(legacyLatency),
+                                    LatencyHistogram.copyOf(featureLatency), matchCount.sum(), mismatchCount.sum(),
+                                    droppedCount.sum(), reverted.get());
+    }
+
+    private boolean sample() {
+        return (0 == samplingMask) || (0 == (ThreadLocalRandom.current().nextInt() & samplingMask));
+    }
+
+    private Object call(MethodHandle implementation, MethodHandle shadowedImplementation, boolean featureImplementation,
+                        Object[] arguments) throws Throwable {
+        Object result = null;
+        Throwable failure = null;
+        final var start = System.nanoTime();
+        try {
+            result = (Object) implementation.invokeExact(arguments);
+        } catch (Throwable e) {
+            failure = e;
+        }
+        record(featureImplementation, System.nanoTime() - start);
+        final var actualResult = result;
+        final var actualFailure = failure;
+        try {
+            executor.execute(() -> shadow(shadowedImplementation, !featureImplementation, arguments, actualResult,
+                                          actualFailure));
+        } catch (RejectedExecutionException e) {
+            droppedCount.increment();
+        }
+        if (null != failure) {
+            throw failure;
+        }
+        return result;
+    }
+
+    private void shadow(MethodHandle implementation, boolean featureImplementation, Object[] arguments,
+                        Object actualResult, Throwable actualFailure) {
+        Object result = null;
+        Throwable failure = null;
+        final var start = System.nanoTime();
+        try {
+            result = (Object) implementation.invokeExact(arguments);
+        } catch (Throwable e) {
+            failure = e;
+        }
+        record(featureImplementation, System.nanoTime() - start);
+        final boolean equal;
+        if ((null != failure) || (null != actualFailure)) {
+            equal = (null != failure) && (null != actualFailure) && (failure.getClass() == actualFailure.getClass());
+        } else {
+            equal = resultEquivalence.test(actualResult, result);
+        }
+        (equal ? matchCount : mismatchCount).increment();
+        final var completed = completedCount.incrementAndGet();
+        if ((revertMinSamples > 0L) && (0L == completed % Math.min(REVERT_CHECK_INTERVAL, revertMinSamples))) {
+            checkRevert();
+        }
+    }
+
+    private void record(boolean featureImplementation, long nanos) {
+        (featureImplementation ? featureLatency : legacyLatency).getAndIncrement(LatencyHistogram.bucketIndex(nanos));
+    }
+
+    /**
+     * Disables the toggle if the new feature implementation is too slow. The toggle is reverted
+     * only if it is enabled, so that shadowing a disabled toggle does not count as a revert.
+     */
+    private void checkRevert() {
+        if (reverted.get() || !registry.currentValue(ordinal)) {
+            return;
+        }
+        final var legacy = LatencyHistogram.copyOf(legacyLatency);
+        final var feature = LatencyHistogram.copyOf(featureLatency);
+        if ((legacy.getCount() < revertMinSamples) || (feature.getCount() < revertMinSamples)) {
+            return;
+        }
+        final var legacyP99 = legacy.getValueAtPercentile(REVERT_PERCENTILE);
+        final var featureP99 = feature.getValueAtPercentile(REVERT_PERCENTILE);
+        if ((featureP99 > legacyP99 * (1.0 + revertMargin)) && reverted.compareAndSet(false, true)) {
+            registry.setEnabled(ordinal, false, SOURCE_SHADOW);
+        }
+    }
+
+
+    /**
+     * Holder of the default executor, which is created only when needed.
+     */
+    private static final class DefaultExecutor {
+        private static final Executor INSTANCE = VirtualThreadSupport.newExecutor("feature-toggle-shadow-");
+
+        static Executor get() {
+            return INSTANCE;
+        }
+    }
+
+}
@@ -0,0 +1,313 @@
+package cz.auderis.infra.toggle.runtime;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps toggle values of a registry in sync with a file. The file is watched for
+ * changes using a {@link WatchService}; whenever it is modified or replaced, it is
+ * parsed in a background thread and all values are applied to the registry
+ * {@linkplain ToggleRegistry#setEnabled(Map) atomically}, so that readers never
+ * block and snapshots never contain a partially applied file.
+ * <p>
+ * The file is either a properties file, where keys are toggle names and values are
+ * {@code true} or {@code false}, or (if its name ends with {@code .json}) a JSON
+ * object with toggle names as keys and boolean values. Toggles that are not listed
+ * in the file keep their current values; toggles that are not defined in the registry
+ * are ignored, so a single file may be shared by several applications. If the file
+ * cannot be parsed, the registry is not changed at all.
+ * <p>
+ * To replace the file atomically, write a temporary file in the same directory
+ * and rename it to the watched name.
+ *
+ * @author Boleslav Bobcik
+ */
+public final class FileToggleSource implements AutoCloseable {
+
+    private static final System.Logger LOG = System.getLogger(FileToggleSource.class.getName());
+
+    /**
+     * Editors and copy tools often produce several events for a single change;
+     * events that arrive within this delay are coalesced into one reload.
+     */
+    private static final long SETTLE_DELAY_MILLIS = 50L;
+
+    private final ToggleRegistry registry;
+    private final Path file;
+    private final boolean json;
+    private final WatchService watchService;
+    private final Thread watcher;
+
+    private FileToggleSource(ToggleRegistry registry, Path file) throws IOException {
+        this.registry = registry;
+        this.file = file;
+        this.json = file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".json");
+        this.watchService = file.getFileSystem().newWatchService();
+        this.watcher = new Thread(this::watch, "feature-toggle-file-watcher");
+        this.watcher.setDaemon(true);
+    }
+
+    /**
+     * Applies toggle values from a file and starts watching it for changes. If the file
+     * does not exist yet, the registry is not changed until the file is created.
+     *
+     * @param registry registry to update
+     * @param file watched file
+     * @return running source, which should be closed when no longer needed
+     * @throws IOException if the file cannot be read or parsed, or if its directory cannot be watched
+     */
+    public static FileToggleSource watch(ToggleRegistry registry, Path file) throws IOException {
+        Objects.requireNonNull(registry);
+        final var absoluteFile = file.toAbsolutePath().normalize();
+        final var source = new FileToggleSource(registry, absoluteFile);
+        try {
+            absoluteFile.getParent().register(source.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                                              StandardWatchEventKinds.ENTRY_MODIFY);
+            source.reload();
+        } catch (IOException | RuntimeException e) {
+            source.watchService.close();
+            throw e;
+        }
+        source.watcher.start();
+        return source;
+    }
+
+    /**
+     * Returns the watched file.
+     *
+     * @return absolute path of the file
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Reads the file and applies its values to the registry, regardless of whether
+     * the file has changed. If the file does not exist, the registry is not changed.
+     *
+     * @return registry version after the values were applied
+     * @throws IOException if the file cannot be read or parsed; the registry is not changed in such case
+     */
+    public long reload() throws IOException {
+        final String content;
+        try {
+            content = Files.readString(file, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return registry.getVersion();
+        }
+        final var values = json ? parseJson(content) : parseProperties(content);
+        final var unknownNames = new TreeSet<String>();
+        for (final var names = values.keySet().iterator(); names.hasNext(); ) {
+            final var name = names.next();
+            if (!registry.isDefined(name)) {
+                unknownNames.add(name);
+                names.remove();
+            }
+        }
+        if (!unknownNames.isEmpty()) {
+            LOG.log(System.Logger.Level.INFO, "Ignoring feature toggles not defined in {0}: {1}", registry.getName(), unknownNames);
+        }
+        return registry.update(-1L, values, "file:" + file);
+    }
+
+    /**
+     * Stops watching the file. The values applied so far remain in effect.
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        if (Thread.currentThread() != watcher) {
+            try {
+                watcher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FileToggleSource[" + file + " -> " + registry.getName() + ']';
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                boolean changed = processEvents(watchService.take());
+                WatchKey key;
+                while (null != (key = watchService.poll(SETTLE_DELAY_MILLIS, TimeUnit.MILLISECONDS))) {
+                    changed |= processEvents(key);
+                }
+                if (changed) {
+                    try {
+                        reload();
+                    } catch (IOException | RuntimeException e) {
+                        LOG.log(System.Logger.Level.WARNING, "Cannot apply feature toggles from " + file, e);
+                    }
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // Source closed
+        }
+    }
+
+    /**
+     * Checks whether the events of the key concern the watched file and re-arms the key.
+     */
+    private boolean processEvents(WatchKey key) {
+        boolean changed = false;
+        for (final var event : key.pollEvents()) {
+            changed |= (StandardWatchEventKinds.OVERFLOW == event.kind()) || file.getFileName().equals(event.context());
+        }
+        if (!key.reset()) {
+            LOG.log(System.Logger.Level.WARNING, "Directory of {0} is no longer watched", file);
+        }
+        return changed;
+    }
+
+    private static Map<String, Boolean> parseProperties(String content) throws IOException {
+        final var properties = new Properties();
+        properties.load(new StringReader(content));
+        final var result = new LinkedHashMap<String, Boolean>(2 * properties.size());
+        for (final var name : properties.stringPropertyNames()) {
+            result.put(name, parseBoolean(name, properties.getProperty(name).strip()));
+        }
+        return result;
+    }
+
+    private static boolean parseBoolean(String name, String value) throws IOException {
+        if ("true".equalsIgnoreCase(value)) {
+            return true;
+        } else if ("false".equalsIgnoreCase(value)) {
+            return false;
+        }
+        throw new IOException("Invalid value of feature toggle " + name + ": " + value);
+    }
+
+    /**
+     * Parses a JSON object whose members all have boolean values.
+     */
+    private static Map<String, Boolean> parseJson(String content) throws IOException {
+        final var parser = new JsonObjectParser(content);
+        final var result = new LinkedHashMap<String, Boolean>();
+        parser.expect('{');
+        if (!parser.consume('}')) {
+            do {
+                final var name = parser.string();
+                parser.expect(':');
+                if (null != result.put(name, parser.bool())) {
+                    throw parser.error("Duplicate feature toggle " + name);
+                }
+            } while (parser.consume(','));
+            parser.expect('}');
+        }
+        parser.expectEnd();
+        return result;
+    }
+
+
+    private static final class JsonObjectParser {
+        private final String text;
+        private int position;
+
+        JsonObjectParser(String text) {
+            this.text = text;
+        }
+
+        void expect(char c) throws IOException {
+            if (!consume(c)) {
+                throw error("Expected '" + c + "'");
+            }
+        }
+
+        boolean consume(char c) {
+            skipWhitespace();
+            if ((position < text.length()) && (c == text.charAt(position))) {
+                ++position;
+                return true;
+            }
+            return false;
+        }
+
+        void expectEnd() throws IOException {
+            skipWhitespace();
+            if (position != text.length()) {
+                throw error("Unexpected content");
+            }
+        }
+
+        boolean bool() throws IOException {
+            skipWhitespace();
+            if (text.startsWith("true", position)) {
+                position += 4;
+                return true;
+            } else if (text.startsWith("false", position)) {
+                position += 5;
+                return false;
+            }
+            throw error("Expected boolean value");
+        }
+
+        String string() throws IOException {
+            expect('"');
+            final var sb = new StringBuilder();
+            while (position < text.length()) {
+                final var c = text.charAt(position++);
+                if ('"' == c) {
+                    return sb.toString();
+                } else if ('\\' != c) {
+                    sb.append(c);
+                } else if (position < text.length()) {
+                    final var escaped = text.charAt(position++);
+                    switch (escaped) {
+                        case '"', '\\', '/' -> sb.append(escaped);
+                        case 'b' -> sb.append('\b');
+                        case 'f' -> sb.append('\f');
+                        case 'n' -> sb.append('\n');
+                        case 'r' -> sb.append('\r');
+                        case 't' -> sb.append('\t');
+                        case 'u' -> {
+                            if (position + 4 > text.length()) {
+                                throw error("Invalid escape sequence");
+                            }
+                            try {
+                                sb.append((char) Integer.parseInt(text, position, position + 4, 16));
+                            } catch (NumberFormatException e) {
+                                throw error("Invalid escape sequence");
+                            }
+                            position += 4;
+                        }
+                        default -> throw error("Invalid escape sequence");
+                    }
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        IOException error(String message) {
+            return new IOException(message + " at position " + position);
+        }
+
+        private void skipWhitespace() {
+            while ((position < text.length()) && (" \t\r\n".indexOf(text.charAt(position)) >= 0)) {
+                ++position;
+            }
+        }
+    }
+
+}
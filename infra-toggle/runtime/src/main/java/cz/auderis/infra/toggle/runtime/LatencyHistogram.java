@@ -0,0 +1,115 @@
+package cz.auderis.infra.toggle.runtime;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Immutable histogram of latencies in nanoseconds. The histogram is log-linear:
+ * values below {@value #SUB_BUCKET_COUNT} have buckets of their own, larger values
+ * fall into one of {@value #SUB_BUCKET_COUNT} equally wide buckets of their power
+ * of two, so the relative error of a reported value is below 3.2&nbsp;%.
+ *
+ * @author Boleslav Bobcik
+ * @see ShadowStatistics
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Number of buckets that cover all non-negative {@code long} values.
+     */
+    static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final long[] counts;
+    private final long totalCount;
+
+    private LatencyHistogram(long[] counts) {
+        this.counts = counts;
+        long total = 0L;
+        for (final var count : counts) {
+            total += count;
+        }
+        this.totalCount = total;
+    }
+
+    /**
+     * Copies the current bucket counts of a histogram that is being recorded.
+     */
+    static LatencyHistogram copyOf(AtomicLongArray buckets) {
+        assert BUCKET_COUNT == buckets.length();
+        final var counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            counts[i] = buckets.get(i);
+        }
+        return new LatencyHistogram(counts);
+    }
+
+    /**
+     * Returns the index of the bucket that holds the value; negative values are
+     * recorded as zero.
+     */
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) Math.max(value, 0L);
+        }
+        final var shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) - SUB_BUCKET_COUNT);
+    }
+
+    /**
+     * Returns the highest value that falls into the bucket.
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final var shift = index / SUB_BUCKET_COUNT - 1;
+        final long subBucket = SUB_BUCKET_COUNT + (index % SUB_BUCKET_COUNT);
+        final var upperBound = ((subBucket + 1L) << shift) - 1L;
+        return (upperBound >= 0L) ? upperBound : Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return value count
+     */
+    public long getCount() {
+        return totalCount;
+    }
+
+    /**
+     * Returns the value below which the given percentage of recorded values falls.
+     * The value is the upper bound of the bucket that holds the percentile, so that
+     * the reported latency is never lower than the actual one.
+     *
+     * @param percentile percentile in range {@code [0, 100]}, e.g. {@code 99.0}
+     * @return latency in nanoseconds, or {@code 0} if no value was recorded
+     * @throws IllegalArgumentException if the percentile is out of range
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (!(percentile >= 0.0) || (percentile > 100.0)) {
+            throw new IllegalArgumentException("Invalid percentile: " + percentile);
+        }
+        if (0L == totalCount) {
+            return 0L;
+        }
+        final var rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * totalCount));
+        long seen = 0L;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return bucketUpperBound(i);
+            }
+        }
+        throw new AssertionError();
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram[count=" + totalCount + ", p50=" + getValueAtPercentile(50.0) + "ns, p99="
+               + getValueAtPercentile(99.0) + "ns]";
+    }
+
+}
@@ -0,0 +1,113 @@
+package cz.auderis.infra.toggle.runtime;
+
+import cz.auderis.infra.tools.concurrent.VirtualThreadSupport;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Replication transport that connects registries running in the same JVM, intended
+ * for tests and as a reference for implementations of {@link ToggleReplicationTransport}.
+ * <p>
+ * Every subscriber has its own queue of pending deltas, drained by a task of the executor
+ * (virtual threads by default), so a delta is never delivered in the thread that published
+ * it and a slow subscriber does not delay the others. Deltas are delivered to every
+ * subscriber exactly once and in the order of publication, including the publisher itself.
+ *
+ * @author Boleslav Bobcik
+ */
+public final class LoopbackReplicationTransport implements ToggleReplicationTransport {
+
+    private static final System.Logger LOG = System.getLogger(LoopbackReplicationTransport.class.getName());
+
+    private final Executor executor;
+    private final CopyOnWriteArrayList<LoopbackSubscription> subscriptions;
+
+    /**
+     * Creates a transport that delivers deltas on virtual threads, if supported
+     * by the JVM, or on daemon platform threads.
+     */
+    public LoopbackReplicationTransport() {
+        this(VirtualThreadSupport.newExecutor("feature-toggle-loopback-"));
+    }
+
+    /**
+     * Creates a transport that delivers deltas using the given executor.
+     *
+     * @param executor executor of delivery tasks
+     */
+    public LoopbackReplicationTransport(Executor executor) {
+        this.executor = Objects.requireNonNull(executor);
+        this.subscriptions = new CopyOnWriteArrayList<>();
+    }
+
+    @Override
+    public void publish(ToggleDelta delta) {
+        Objects.requireNonNull(delta);
+        for (final var subscription : subscriptions) {
+            subscription.enqueue(delta);
+        }
+    }
+
+    @Override
+    public Subscription subscribe(Consumer<ToggleDelta> receiver) {
+        final var subscription = new LoopbackSubscription(Objects.requireNonNull(receiver));
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    @Override
+    public String toString() {
+        return "LoopbackReplicationTransport[subscribers=" + subscriptions.size() + ']';
+    }
+
+
+    private final class LoopbackSubscription implements Subscription {
+        private final Consumer<ToggleDelta> receiver;
+        private final Queue<ToggleDelta> pending;
+        private final AtomicBoolean scheduled;
+
+        LoopbackSubscription(Consumer<ToggleDelta> receiver) {
+            this.receiver = receiver;
+            this.pending = new ConcurrentLinkedQueue<>();
+            this.scheduled = new AtomicBoolean();
+        }
+
+        void enqueue(ToggleDelta delta) {
+            pending.add(delta);
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this::drain);
+            }
+        }
+
+        /**
+         * Delivers all pending deltas. The loop guarantees that a delta enqueued
+         * while the previous ones were being delivered is not left behind.
+         */
+        private void drain() {
+            do {
+                ToggleDelta delta;
+                while (null != (delta = pending.poll())) {
+                    try {
+                        receiver.accept(delta);
+                    } catch (RuntimeException e) {
+                        LOG.log(System.Logger.Level.WARNING, "Cannot deliver " + delta, e);
+                    }
+                }
+                scheduled.set(false);
+            } while (!pending.isEmpty() && scheduled.compareAndSet(false, true));
+        }
+
+        @Override
+        public void close() {
+            subscriptions.remove(this);
+            pending.clear();
+        }
+    }
+
+}
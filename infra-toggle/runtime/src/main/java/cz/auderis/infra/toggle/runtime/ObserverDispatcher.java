@@ -0,0 +1,214 @@
+package cz.auderis.infra.toggle.runtime;
+
+import cz.auderis.infra.tools.concurrent.VirtualThreadSupport;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Delivers toggle change notifications to observers asynchronously. The thread
+ * that changes a toggle only marks the toggle as dirty for every interested
+ * observer and schedules a delivery task if none is pending; the callbacks are
+ * executed by the executor (virtual threads by default).
+ * <p>
+ * Notifications are coalesced: if a toggle changes several times before the
+ * delivery task of an observer runs, the observer is called only once with
+ * the latest value. Notifications of a single observer are never executed
+ * concurrently, while different observers are notified in parallel.
+ * Every delivered notification is reported as a {@link ToggleObserverEvent}.
+ */
+final class ObserverDispatcher {
+
+    private static final System.Logger LOG = System.getLogger(ObserverDispatcher.class.getName());
+    private static final Registration[] NO_REGISTRATIONS = new Registration[0];
+
+    private final ToggleRegistry registry;
+    private volatile Executor executor;
+    private volatile Registration[] registrations;
+
+    ObserverDispatcher(ToggleRegistry registry) {
+        this.registry = registry;
+        this.registrations = NO_REGISTRATIONS;
+    }
+
+    void setExecutor(Executor executor) {
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    /**
+     * Registers an observer whose delivered values start at the current values of the toggles.
+     * The caller holds the update lock of the registry, so that no change is applied between
+     * reading the current values and publishing the registration, which would make the observer
+     * miss the change or receive it twice.
+     */
+    synchronized void addObserver(ToggleObserver observer, int[] ordinals) {
+        Objects.requireNonNull(observer);
+        final var registration = new Registration(observer, registry.size());
+        for (final var ordinal : ordinals) {
+            if ((ordinal < 0) || (ordinal >= registry.size())) {
+                throw new IndexOutOfBoundsException("Invalid toggle ordinal: " + ordinal);
+            }
+            registration.observe(ordinal, registry.currentValue(ordinal));
+        }
+        final var current = registrations;
+        final var updated = new Registration[current.length + 1];
+        System.arraycopy(current, 0, updated, 0, current.length);
+        updated[current.length] = registration;
+        registrations = updated;
+    }
+
+    synchronized boolean removeObserver(ToggleObserver observer) {
+        final var current = registrations;
+        for (int i = 0; i < current.length; ++i) {
+            if (current[i].observer == observer) {
+                final var updated = new Registration[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                registrations = updated;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean hasObservers() {
+        return 0 != registrations.length;
+    }
+
+    /**
+     * Records a change of the toggle. This method is called by the thread
+     * that changed the toggle and never executes the callbacks itself.
+     */
+    void toggleChanged(int ordinal) {
+        for (final var registration : registrations) {
+            if (registration.markDirty(ordinal)) {
+                registration.schedule(this);
+            }
+        }
+    }
+
+    private Executor executor() {
+        var result = executor;
+        if (null == result) {
+            synchronized (this) {
+                result = executor;
+                if (null == result) {
+                    result = VirtualThreadSupport.newExecutor("feature-toggle-observer-");
+                    executor = result;
+                }
+            }
+        }
+        return result;
+    }
+
+
+    private static final class Registration {
+        private final ToggleObserver observer;
+        private final long[] observed;
+        private final long[] delivered;
+        private final AtomicLongArray dirty;
+        private final AtomicBoolean scheduled;
+        private volatile long scheduledNanos;
+
+        Registration(ToggleObserver observer, int toggleCount) {
+            final int words = ToggleStateTable.wordCount(toggleCount);
+            this.observer = observer;
+            this.observed = new long[words];
+            this.delivered = new long[words];
+            this.dirty = new AtomicLongArray(words);
+            this.scheduled = new AtomicBoolean();
+        }
+
+        void observe(int ordinal, boolean currentValue) {
+            observed[ordinal >>> 6] |= (1L << ordinal);
+            if (currentValue) {
+                delivered[ordinal >>> 6] |= (1L << ordinal);
+            }
+        }
+
+        boolean markDirty(int ordinal) {
+            final long mask = 1L << ordinal;
+            final int index = ordinal >>> 6;
+            if (0L == (observed[index] & mask)) {
+                return false;
+            }
+            dirty.getAndUpdate(index, w -> w | mask);
+            return true;
+        }
+
+        void schedule(ObserverDispatcher dispatcher) {
+            if (scheduled.compareAndSet(false, true)) {
+                scheduledNanos = System.nanoTime();
+                dispatcher.executor().execute(() -> drain(dispatcher.registry));
+            }
+        }
+
+        /**
+         * Delivers all pending notifications. The loop guarantees that a toggle marked
+         * dirty while the previous batch was being delivered is not left behind.
+         */
+        private void drain(ToggleRegistry registry) {
+            do {
+                try {
+                    for (int index = 0; index < delivered.length; ++index) {
+                        long pending = dirty.getAndSet(index, 0L);
+                        while (0L != pending) {
+                            final int bit = Long.numberOfTrailingZeros(pending);
+                            pending &= pending - 1;
+                            deliver(registry, (index << 6) + bit);
+                        }
+                    }
+                } finally {
+                    scheduled.set(false);
+                }
+            } while (hasDirty() && scheduled.compareAndSet(false, true));
+        }
+
+        private void deliver(ToggleRegistry registry, int ordinal) {
+            final long mask = 1L << ordinal;
+            final int index = ordinal >>> 6;
+            final boolean value = registry.currentValue(ordinal);
+            if (value == (0L != (delivered[index] & mask))) {
+                // The toggle was flipped back before the notification was delivered
+                return;
+            }
+            delivered[index] ^= mask;
+            final var toggleName = registry.nameOf(ordinal);
+            final var event = new ToggleObserverEvent();
+            final var delay = event.isEnabled() ? (System.nanoTime() - scheduledNanos) : 0L;
+            event.begin();
+            Throwable failure = null;
+            try {
+                observer.toggleChanged(toggleName, value);
+            } catch (Throwable e) {
+                failure = e;
+                LOG.log(System.Logger.Level.WARNING, "Feature toggle observer failed", e);
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.registry = registry.getName();
+                event.toggle = toggleName;
+                event.value = value;
+                event.observer = observer.getClass();
+                event.delay = delay;
+                event.failed = (null != failure);
+                event.commit();
+            }
+            if (failure instanceof VirtualMachineError vmError) {
+                throw vmError;
+            }
+        }
+
+        private boolean hasDirty() {
+            for (int i = 0; i < dirty.length(); ++i) {
+                if (0L != dirty.get(i)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+}
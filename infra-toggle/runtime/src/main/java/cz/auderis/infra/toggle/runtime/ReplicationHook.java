@@ -0,0 +1,40 @@
+package cz.auderis.infra.toggle.runtime;
+
+/**
+ * Connection of a registry to the {@link ToggleReplicator} that publishes its changes.
+ * At most one replicator may be attached to a registry. The hook is accessed only while
+ * holding the update lock of the registry, so the replicator learns about the changes
+ * in the order in which they were applied.
+ */
+final class ReplicationHook {
+
+    private final String registryName;
+    private ToggleReplicator replicator;
+
+    ReplicationHook(String registryName) {
+        this.registryName = registryName;
+    }
+
+    /**
+     * Attaches a replicator, or detaches the current one if {@code null}.
+     *
+     * @throws IllegalStateException if another replicator is attached
+     */
+    void attach(ToggleReplicator newReplicator) {
+        if ((null != newReplicator) && (null != replicator)) {
+            throw new IllegalStateException("Registry " + registryName + " is already replicated");
+        }
+        replicator = newReplicator;
+    }
+
+    /**
+     * Passes applied changes to the attached replicator, if any. The new value of toggle
+     * {@code ordinals[i]} is held in bit {@code i} of the bitset {@code newValues}.
+     */
+    void changesApplied(int[] ordinals, int count, long[] newValues) {
+        if (null != replicator) {
+            replicator.changesApplied(ordinals, count, newValues);
+        }
+    }
+
+}
@@ -0,0 +1,227 @@
+package cz.auderis.infra.toggle.runtime;
+
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.function.Supplier;
+
+/**
+ * Provides bindings of values to the dynamic scope of an action. When the running
+ * JVM supports {@code java.lang.ScopedValue} (final since Java 25), the bindings use it;
+ * the library is compiled for Java 17, so the API is looked up dynamically. On older
+ * JVMs a {@link ThreadLocal} that is set for the duration of the action is used instead.
+ * Unlike a scoped value, the thread-local binding is not inherited by structured
+ * subtasks.
+ */
+final class ScopedValueSupport {
+
+    private static final int SCOPED_VALUE_RELEASE = 25;
+    private static final ScopedValueApi SCOPED_VALUE_API = ScopedValueApi.find();
+
+    private ScopedValueSupport() {
+        throw new AssertionError();
+    }
+
+    static <T> Binding<T> newBinding() {
+        return (null != SCOPED_VALUE_API) ? new ScopedValueBinding<>(SCOPED_VALUE_API) : new ThreadLocalBinding<>();
+    }
+
+
+    /**
+     * Value bound to the dynamic scope of an action.
+     */
+    interface Binding<T> {
+
+        /**
+         * Returns the value bound to the current scope, or {@code null} if the value is not bound.
+         */
+        T get();
+
+        /**
+         * Runs the action with the value bound to its dynamic scope.
+         */
+        void run(T value, Runnable action);
+
+        /**
+         * Runs the action with the value bound to its dynamic scope and returns its result.
+         */
+        <R> R call(T value, Supplier<R> action);
+    }
+
+
+    private static final class ThreadLocalBinding<T> implements Binding<T> {
+        private final ThreadLocal<T> local = new ThreadLocal<>();
+
+        @Override
+        public T get() {
+            return local.get();
+        }
+
+        @Override
+        public void run(T value, Runnable action) {
+            final var previous = local.get();
+            local.set(value);
+            try {
+                action.run();
+            } finally {
+                restore(previous);
+            }
+        }
+
+        @Override
+        public <R> R call(T value, Supplier<R> action) {
+            final var previous = local.get();
+            local.set(value);
+            try {
+                return action.get();
+            } finally {
+                restore(previous);
+            }
+        }
+
+        private void restore(T previous) {
+            if (null != previous) {
+                local.set(previous);
+            } else {
+                local.remove();
+            }
+        }
+    }
+
+
+    private static final class ScopedValueBinding<T> implements Binding<T> {
+        private final ScopedValueApi api;
+        private final Object scopedValue;
+
+        ScopedValueBinding(ScopedValueApi api) {
+            this.api = api;
+            this.scopedValue = api.newInstance();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get() {
+            final var value = api.orElse(scopedValue, ScopedValueApi.UNBOUND);
+            return (ScopedValueApi.UNBOUND != value) ? (T) value : null;
+        }
+
+        @Override
+        public void run(T value, Runnable action) {
+            api.run(scopedValue, value, action);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <R> R call(T value, Supplier<R> action) {
+            return (R) api.call(scopedValue, value, action);
+        }
+    }
+
+
+    private static final class ScopedValueApi {
+        static final Object UNBOUND = new Object();
+
+        private final MethodHandle newInstance;
+        private final MethodHandle orElse;
+        private final MethodHandle where;
+        private final MethodHandle run;
+        private final MethodHandle call;
+
+        private ScopedValueApi(MethodHandle newInstance, MethodHandle orElse, MethodHandle where, MethodHandle run,
+                               MethodHandle call) {
+            this.newInstance = newInstance;
+            this.orElse = orElse;
+            this.where = where;
+            this.run = run;
+            this.call = call;
+        }
+
+        /**
+         * Looks up the scoped value API, or returns {@code null} if the JVM does not provide it.
+         * Preview versions of the API are not used, since they differ between Java releases.
+         * The result of an action is returned through {@code ScopedValue.CallableOp}, which
+         * is implemented by a lambda that delegates to a {@link Supplier}.
+         */
+        static ScopedValueApi find() {
+            if (Runtime.version().feature() < SCOPED_VALUE_RELEASE) {
+                return null;
+            }
+            try {
+                final var scopedValueType = Class.forName("java.lang.ScopedValue");
+                final var carrierType = Class.forName("java.lang.ScopedValue$Carrier");
+                final var callableOpType = Class.forName("java.lang.ScopedValue$CallableOp");
+                final var lookup = MethodHandles.publicLookup();
+                final var privateLookup = MethodHandles.lookup();
+                final var callableOp = LambdaMetafactory.metafactory(privateLookup, "call",
+                        MethodType.methodType(callableOpType, Supplier.class), MethodType.methodType(Object.class),
+                        privateLookup.findVirtual(Supplier.class, "get", MethodType.methodType(Object.class)),
+                        MethodType.methodType(Object.class)).getTarget();
+                final var genericValue = MethodType.methodType(Object.class, Object.class, Object.class);
+                return new ScopedValueApi(
+                        lookup.findStatic(scopedValueType, "newInstance", MethodType.methodType(scopedValueType))
+                              .asType(MethodType.methodType(Object.class)),
+                        lookup.findVirtual(scopedValueType, "orElse", MethodType.methodType(Object.class, Object.class))
+                              .asType(genericValue),
+                        lookup.findStatic(scopedValueType, "where", MethodType.methodType(carrierType, scopedValueType, Object.class))
+                              .asType(genericValue),
+                        lookup.findVirtual(carrierType, "run", MethodType.methodType(void.class, Runnable.class))
+                              .asType(MethodType.methodType(void.class, Object.class, Runnable.class)),
+                        MethodHandles.filterArguments(lookup.findVirtual(carrierType, "call",
+                                                                         MethodType.methodType(Object.class, callableOpType)),
+                                                      1, callableOp)
+                                     .asType(MethodType.methodType(Object.class, Object.class, Supplier.class)));
+            } catch (ReflectiveOperationException | LambdaConversionException | RuntimeException e) {
+                return null;
+            }
+        }
+
+        Object newInstance() {
+            try {
+                return (Object) newInstance.invokeExact();
+            } catch (Throwable e) {
+                throw new IllegalStateException("Cannot create scoped value", e);
+            }
+        }
+
+        Object orElse(Object scopedValue, Object other) {
+            try {
+                return (Object) orElse.invokeExact(scopedValue, other);
+            } catch (Throwable e) {
+                throw new IllegalStateException("Cannot read scoped value", e);
+            }
+        }
+
+        void run(Object scopedValue, Object value, Runnable action) {
+            final var carrier = carrier(scopedValue, value);
+            try {
+                run.invokeExact(carrier, action);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Unexpected checked exception", e);
+            }
+        }
+
+        Object call(Object scopedValue, Object value, Supplier<?> action) {
+            final var carrier = carrier(scopedValue, value);
+            try {
+                return (Object) call.invokeExact(carrier, action);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Unexpected checked exception", e);
+            }
+        }
+
+        private Object carrier(Object scopedValue, Object value) {
+            try {
+                return (Object) where.invokeExact(scopedValue, value);
+            } catch (Throwable e) {
+                throw new IllegalStateException("Cannot bind scoped value", e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,208 @@
+package cz.auderis.infra.toggle.runtime;
+
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.function.BiPredicate;
+
+/**
+ * Settings of the shadow execution of a feature method pair. While a toggle is shadowed,
+ * a random 1-in-N subset of the calls of its {@linkplain ToggleRegistry#dispatchHandle(int,
+ * java.lang.invoke.MethodHandle, java.lang.invoke.MethodHandle) dispatchers} also runs
+ * the implementation that is not selected by the toggle, on a separate executor and
+ * with the same arguments. The result of the shadow call is compared with the result
+ * of the actual call and discarded; exceptions thrown by the shadow call are never
+ * propagated to the caller. Latencies of both implementations are recorded.
+ * <p>
+ * Both implementations run for every sampled call, so the shadowed implementation
+ * must not have observable side effects, and the arguments must be safe to use
+ * from another thread.
+ * <p>
+ * Optionally, the toggle is automatically disabled when the new feature implementation
+ * turns out to be slower than the legacy one, i.e. when its 99th percentile latency
+ * exceeds the 99th percentile latency of the legacy implementation by more than
+ * the configured margin.
+ *
+ * @author Boleslav Bobcik
+ * @see ToggleRegistry#startShadowExecution(int, ShadowExecution)
+ */
+public final class ShadowExecution {
+
+    private final int samplingInterval;
+    private final Executor executor;
+    private final BiPredicate<Object, Object> resultEquivalence;
+    private final double revertMargin;
+    private final long revertMinSamples;
+
+    private ShadowExecution(Builder builder) {
+        this.samplingInterval = builder.samplingInterval;
+        this.executor = builder.executor;
+        this.resultEquivalence = builder.resultEquivalence;
+        this.revertMargin = builder.revertMargin;
+        this.revertMinSamples = builder.revertMinSamples;
+    }
+
+    /**
+     * Creates a builder of shadow execution settings. By default, every call is shadowed,
+     * shadow calls run on virtual threads if the JVM supports them, results are compared
+     * with {@link Objects#deepEquals(Object, Object)} and the toggle is never reverted.
+     *
+     * @return new builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the sampling interval; value {@code 1} means that every call is shadowed.
+     *
+     * @return sampling interval
+     */
+    public int getSamplingInterval() {
+        return samplingInterval;
+    }
+
+    /**
+     * Returns the executor of the shadow calls.
+     *
+     * @return executor, or empty if the default executor is used
+     */
+    public Optional<Executor> getExecutor() {
+        return Optional.ofNullable(executor);
+    }
+
+    /**
+     * Returns the predicate that decides whether the results of both implementations are equal.
+     *
+     * @return result equivalence
+     */
+    public BiPredicate<Object, Object> getResultEquivalence() {
+        return resultEquivalence;
+    }
+
+    /**
+     * Checks whether the toggle is disabled when the new feature implementation is too slow.
+     *
+     * @return {@code true} if the automatic revert is enabled
+     */
+    public boolean isAutoRevert() {
+        return revertMinSamples > 0L;
+    }
+
+    /**
+     * Returns the allowed relative difference of the 99th percentile latencies of
+     * the new feature implementation and the legacy one, e.g. {@code 0.2} for 20&nbsp;%.
+     *
+     * @return revert margin
+     */
+    public double getRevertMargin() {
+        return revertMargin;
+    }
+
+    /**
+     * Returns the number of calls of each implementation that must be recorded
+     * before the latencies are compared.
+     *
+     * @return minimum number of samples, {@code 0} if the automatic revert is disabled
+     */
+    public long getRevertMinSamples() {
+        return revertMinSamples;
+    }
+
+    @Override
+    public String toString() {
+        final var sb = new StringBuilder("ShadowExecution[1/").append(samplingInterval);
+        if (isAutoRevert()) {
+            sb.append(", revert margin=").append(revertMargin).append(" after ").append(revertMinSamples).append(" samples");
+        }
+        return sb.append(']').toString();
+    }
+
+
+    /**
+     * Builder of shadow execution settings.
+     */
+    public static final class Builder {
+        private int samplingInterval;
+        private Executor executor;
+        private BiPredicate<Object, Object> resultEquivalence;
+        private double revertMargin;
+        private long revertMinSamples;
+
+        private Builder() {
+            this.samplingInterval = 1;
+            this.resultEquivalence = Objects::deepEquals;
+        }
+
+        /**
+         * Shadows only a random 1-in-N subset of calls.
+         *
+         * @param samplingInterval sampling interval, must be a positive power of two; {@code 1} shadows all calls
+         * @return this builder
+         * @throws IllegalArgumentException if the sampling interval is not a positive power of two
+         */
+        public Builder samplingInterval(int samplingInterval) {
+            if ((samplingInterval < 1) || (0 != (samplingInterval & (samplingInterval - 1)))) {
+                throw new IllegalArgumentException("Sampling interval must be a positive power of two: " + samplingInterval);
+            }
+            this.samplingInterval = samplingInterval;
+            return this;
+        }
+
+        /**
+         * Defines the executor of the shadow calls. If the executor rejects a shadow call,
+         * the call is dropped.
+         *
+         * @param executor executor of the shadow calls
+         * @return this builder
+         */
+        public Builder executor(Executor executor) {
+            this.executor = Objects.requireNonNull(executor);
+            return this;
+        }
+
+        /**
+         * Defines how the results of both implementations are compared.
+         *
+         * @param resultEquivalence predicate that returns {@code true} if the results are equal
+         * @return this builder
+         */
+        public Builder resultEquivalence(BiPredicate<Object, Object> resultEquivalence) {
+            this.resultEquivalence = Objects.requireNonNull(resultEquivalence);
+            return this;
+        }
+
+        /**
+         * Disables the toggle when the 99th percentile latency of the new feature implementation
+         * exceeds the one of the legacy implementation by more than the margin. The latencies are
+         * compared only after both implementations were called at least the given number of times.
+         * The toggle is reverted at most once during the shadow execution.
+         *
+         * @param margin allowed relative difference of the latencies, e.g. {@code 0.2} for 20&nbsp;%
+         * @param minSamples minimum number of recorded calls of each implementation
+         * @return this builder
+         * @throws IllegalArgumentException if the margin is negative or if the number of samples is not positive
+         */
+        public Builder autoRevert(double margin, long minSamples) {
+            if (!(margin >= 0.0) || Double.isInfinite(margin)) {
+                throw new IllegalArgumentException("Invalid revert margin: " + margin);
+            }
+            if (minSamples <= 0L) {
+                throw new IllegalArgumentException("Invalid minimum number of samples: " + minSamples);
+            }
+            this.revertMargin = margin;
+            this.revertMinSamples = minSamples;
+            return this;
+        }
+
+        /**
+         * Creates the settings.
+         *
+         * @return shadow execution settings
+         */
+        public ShadowExecution build() {
+            return new ShadowExecution(this);
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+package cz.auderis.infra.toggle.runtime;
+
+/**
+ * Immutable copy of the statistics of a shadow execution of a feature method pair.
+ * Latencies of both implementations include calls made by the dispatchers as well as
+ * shadow calls; comparisons count only the shadow calls that completed.
+ *
+ * @author Boleslav Bobcik
+ * @see ToggleRegistry#shadowStatistics(int)
+ */
+public final class ShadowStatistics {
+
+    private final String toggleName;
+    private final LatencyHistogram legacyLatency;
+    private final LatencyHistogram featureLatency;
+    private final long matchCount;
+    private final long mismatchCount;
+    private final long droppedCount;
+    private final boolean reverted;
+
+    ShadowStatistics(String toggleName, LatencyHistogram legacyLatency, LatencyHistogram featureLatency,
+                     long matchCount, long mismatchCount, long droppedCount, boolean reverted) {
+        this.toggleName = toggleName;
+        this.legacyLatency = legacyLatency;
+        this.featureLatency = featureLatency;
+        this.matchCount = matchCount;
+        this.mismatchCount = mismatchCount;
+        this.droppedCount = droppedCount;
+        this.reverted = reverted;
+    }
+
+    /**
+     * Returns the name of the shadowed toggle.
+     *
+     * @return toggle name
+     */
+    public String getToggleName() {
+        return toggleName;
+    }
+
+    /**
+     * Returns the latencies of the legacy implementation.
+     *
+     * @return latency histogram
+     */
+    public LatencyHistogram getLegacyLatency() {
+        return legacyLatency;
+    }
+
+    /**
+     * Returns the latencies of the new feature implementation.
+     *
+     * @return latency histogram
+     */
+    public LatencyHistogram getFeatureLatency() {
+        return featureLatency;
+    }
+
+    /**
+     * Returns the number of shadow calls whose result was equal to the result of the actual call.
+     * Calls where both implementations threw an exception of the same class are considered equal.
+     *
+     * @return number of matching results
+     */
+    public long getMatchCount() {
+        return matchCount;
+    }
+
+    /**
+     * Returns the number of shadow calls whose result differed from the result of the actual call.
+     *
+     * @return number of differing results
+     */
+    public long getMismatchCount() {
+        return mismatchCount;
+    }
+
+    /**
+     * Returns the number of shadow calls rejected by the executor.
+     *
+     * @return number of dropped shadow calls
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Checks whether the toggle was disabled because the new feature implementation was too slow.
+     *
+     * @return {@code true} if the toggle was reverted
+     */
+    public boolean isReverted() {
+        return reverted;
+    }
+
+    @Override
+    public String toString() {
+        return "ShadowStatistics[" + toggleName + ", legacy=" + legacyLatency + ", feature=" + featureLatency
+               + ", matches=" + matchCount + ", mismatches=" + mismatchCount + ", dropped=" + droppedCount
+               + (reverted ? ", reverted]" : "]");
+    }
+
+}
@@ -0,0 +1,165 @@
+package cz.auderis.infra.toggle.runtime;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Snapshot scopes of a registry. A snapshot of the toggle values is bound to the dynamic
+ * scope of an action, so that all reads of the toggles within the action return the values
+ * of the snapshot even if the toggles are changed concurrently. The snapshot is bound using
+ * {@code java.lang.ScopedValue} when the JVM provides it, otherwise using a thread-local
+ * variable, which is not visible to other threads started by the action (see {@link ScopedValueSupport}).
+ * <p>
+ * The call sites of the toggles check for the bound snapshot only while at least one scope
+ * of the registry runs, so every read through a handle costs one scope lookup; when the last
+ * scope exits, the call sites are relinked to the constant values and the reads have no
+ * overhead again. The number of running scopes changes from and to zero only while holding
+ * the update lock of the registry, and the call sites are linked before any scope becomes
+ * visible to them.
+ */
+final class SnapshotScopes {
+
+    private static final MethodHandle SCOPED_VALUE;
+
+    static {
+        try {
+            SCOPED_VALUE = MethodHandles.lookup().findVirtual(SnapshotScopes.class, "scopedValue",
+                                                              MethodType.methodType(boolean.class, int.class, boolean.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final ToggleStateTable state;
+    private final TogglePrerequisites prerequisites;
+    private final Object updateLock;
+    private final Linker linker;
+    private final ScopedValueSupport.Binding<ToggleSnapshot> binding;
+    private final AtomicInteger activeCount;
+
+    /**
+     * Creates the scopes of a registry.
+     *
+     * @param updateLock lock that serializes all changes of the registry
+     * @param linker relinks the call sites of all toggles when the first scope is entered or the last one exits
+     */
+    SnapshotScopes(ToggleStateTable state, TogglePrerequisites prerequisites, Object updateLock, Linker linker) {
+        this.state = state;
+        this.prerequisites = prerequisites;
+        this.updateLock = updateLock;
+        this.linker = linker;
+        this.binding = ScopedValueSupport.newBinding();
+        this.activeCount = new AtomicInteger();
+    }
+
+    /**
+     * Returns the snapshot bound to the current scope, or {@code null} if the thread
+     * does not run in a snapshot scope. Unless any scope runs, no binding is looked up.
+     */
+    ToggleSnapshot bound() {
+        return (0 != activeCount.get()) ? binding.get() : null;
+    }
+
+    /**
+     * Runs an action with the current toggle values, or within the enclosing scope
+     * if the thread already runs in one.
+     */
+    void run(Runnable action) {
+        if (null != bound()) {
+            action.run();
+            return;
+        }
+        enter();
+        try {
+            binding.run(state.snapshot(), action);
+        } finally {
+            exit();
+        }
+    }
+
+    /**
+     * Runs an action with the given toggle values, replacing the snapshot of an enclosing scope.
+     */
+    void run(ToggleSnapshot snapshot, Runnable action) {
+        enter();
+        try {
+            binding.run(snapshot, action);
+        } finally {
+            exit();
+        }
+    }
+
+    /**
+     * Runs an action with the current toggle values and returns its result, or runs it
+     * within the enclosing scope if the thread already runs in one.
+     */
+    <T> T call(Supplier<T> action) {
+        if (null != bound()) {
+            return action.get();
+        }
+        enter();
+        try {
+            return binding.call(state.snapshot(), action);
+        } finally {
+            exit();
+        }
+    }
+
+    /**
+     * Returns a method handle of type {@code (boolean)boolean} that returns the effective
+     * value of a toggle in the snapshot bound to the current scope, or its argument
+     * (the current value the call site is linked with) if no snapshot is bound.
+     */
+    MethodHandle reader(int ordinal) {
+        return MethodHandles.insertArguments(SCOPED_VALUE, 0, this, ordinal);
+    }
+
+    private void enter() {
+        for (var count = activeCount.get(); 0 != count; count = activeCount.get()) {
+            if (activeCount.compareAndSet(count, count + 1)) {
+                return;
+            }
+        }
+        synchronized (updateLock) {
+            if (0 == activeCount.get()) {
+                linker.linkScopes(true);
+            }
+            activeCount.incrementAndGet();
+        }
+    }
+
+    private void exit() {
+        for (var count = activeCount.get(); count > 1; count = activeCount.get()) {
+            if (activeCount.compareAndSet(count, count - 1)) {
+                return;
+            }
+        }
+        synchronized (updateLock) {
+            if (0 == activeCount.decrementAndGet()) {
+                linker.linkScopes(false);
+            }
+        }
+    }
+
+    private boolean scopedValue(int ordinal, boolean currentValue) {
+        final var scopeSnapshot = binding.get();
+        return (null != scopeSnapshot) ? prerequisites.isEnabled(scopeSnapshot, ordinal) : currentValue;
+    }
+
+
+    /**
+     * Relinks the call sites of all toggles of the registry.
+     */
+    @FunctionalInterface
+    interface Linker {
+        /**
+         * Links the call sites either to check for the bound snapshot, or to the constant values.
+         * Called while holding the update lock of the registry.
+         */
+        void linkScopes(boolean scoped);
+    }
+
+}
@@ -0,0 +1,141 @@
+package cz.auderis.infra.toggle.runtime;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Access counters of feature toggles. Access counts are kept in {@link LongAdder}s,
+ * which count uncontended accesses in a single field and spread contended ones
+ * among cells picked by the accessing threads, so that concurrent readers of
+ * the same toggle do not keep updating a shared counter.
+ * <p>
+ * The read path never calls the system clock, except for the first access of
+ * a toggle. The last access time is taken from a coarse clock, which is updated
+ * every {@value #CLOCK_RESOLUTION_MILLIS} ms by a daemon thread, and is written
+ * at most once per clock update, so it is accurate to the resolution of the clock.
+ * <p>
+ * In sampling mode, only a random 1-in-N subset of accesses is recorded
+ * and the reported counts are estimates.
+ */
+final class ToggleAccessCounters {
+
+    static final long CLOCK_RESOLUTION_MILLIS = 10L;
+    private static final MethodHandle RECORD;
+    private static final MethodHandle RECORD_SAMPLED;
+
+    static {
+        try {
+            final var lookup = MethodHandles.lookup();
+            final var type = MethodType.methodType(void.class, int.class);
+            RECORD = lookup.findVirtual(ToggleAccessCounters.class, "record", type);
+            RECORD_SAMPLED = lookup.findVirtual(ToggleAccessCounters.class, "recordSampled", type);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final int size;
+    private final int samplingInterval;
+    private final int samplingMask;
+    private final LongAdder[] counts;
+    private final AtomicLongArray firstAccess;
+    private final AtomicLongArray lastAccess;
+
+    ToggleAccessCounters(int size, int samplingInterval) {
+        if ((samplingInterval < 1) || (0 != (samplingInterval & (samplingInterval - 1)))) {
+            throw new IllegalArgumentException("Sampling interval must be a positive power of two: " + samplingInterval);
+        }
+        this.size = size;
+        this.samplingInterval = samplingInterval;
+        this.samplingMask = samplingInterval - 1;
+        this.counts = new LongAdder[size];
+        for (int i = 0; i < size; ++i) {
+            counts[i] = new LongAdder();
+        }
+        this.firstAccess = new AtomicLongArray(size);
+        this.lastAccess = new AtomicLongArray(size);
+        CoarseClock.start();
+    }
+
+    int getSamplingInterval() {
+        return samplingInterval;
+    }
+
+    /**
+     * Returns a method handle of type {@code ()void} that records an access
+     * of the toggle.
+     */
+    MethodHandle recorder(int ordinal) {
+        final var record = (1 == samplingInterval) ? RECORD : RECORD_SAMPLED;
+        return MethodHandles.insertArguments(record, 0, this, ordinal);
+    }
+
+    void record(int ordinal) {
+        counts[ordinal].increment();
+        final var now = CoarseClock.millis;
+        if (lastAccess.getOpaque(ordinal) != now) {
+            lastAccess.setOpaque(ordinal, now);
+            if (0L == firstAccess.getOpaque(ordinal)) {
+                firstAccess.compareAndSet(ordinal, 0L, System.currentTimeMillis());
+            }
+        }
+    }
+
+    void recordSampled(int ordinal) {
+        if (0 == (ThreadLocalRandom.current().nextInt() & samplingMask)) {
+            record(ordinal);
+        }
+    }
+
+    ToggleAccessSnapshot snapshot() {
+        final var countValues = new long[size];
+        final var firstAccessValues = new long[size];
+        final var lastAccessValues = new long[size];
+        for (int ordinal = 0; ordinal < size; ++ordinal) {
+            final var count = counts[ordinal].sum();
+            if (0L == count) {
+                continue;
+            }
+            countValues[ordinal] = count;
+            final var first = firstAccess.get(ordinal);
+            firstAccessValues[ordinal] = first;
+            // The coarse clock may lag behind the precise time of the first access
+            lastAccessValues[ordinal] = Math.max(first, lastAccess.get(ordinal));
+        }
+        return new ToggleAccessSnapshot(samplingInterval, countValues, firstAccessValues, lastAccessValues);
+    }
+
+
+    /**
+     * Wall clock of millisecond resolution, updated periodically by a daemon thread,
+     * which is started when the access tracking is used for the first time.
+     */
+    private static final class CoarseClock implements Runnable {
+        static volatile long millis = System.currentTimeMillis();
+
+        static {
+            final var thread = new Thread(new CoarseClock(), "feature-toggle-clock");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        static void start() {
+            // Initializes the class
+        }
+
+        @Override
+        public void run() {
+            final var resolutionNanos = CLOCK_RESOLUTION_MILLIS * 1_000_000L;
+            while (true) {
+                LockSupport.parkNanos(resolutionNanos);
+                millis = System.currentTimeMillis();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+package cz.auderis.infra.toggle.runtime;
+
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Immutable copy of feature toggle access statistics, indexed by toggle ordinals.
+ * If the statistics were collected in sampling mode, the access counts are
+ * estimates obtained by multiplying the number of recorded accesses by
+ * the sampling interval, and the access times are those of the first and last
+ * recorded access.
+ *
+ * @author Boleslav Bobcik
+ */
+public final class ToggleAccessSnapshot {
+
+    private final int samplingInterval;
+    private final long[] counts;
+    private final long[] firstAccess;
+    private final long[] lastAccess;
+
+    ToggleAccessSnapshot(int samplingInterval, long[] counts, long[] firstAccess, long[] lastAccess) {
+        assert (counts.length == firstAccess.length) && (counts.length == lastAccess.length);
+        this.samplingInterval = samplingInterval;
+        this.counts = counts;
+        this.firstAccess = firstAccess;
+        this.lastAccess = lastAccess;
+    }
+
+    static ToggleAccessSnapshot empty(int size) {
+        return new ToggleAccessSnapshot(1, new long[size], new long[size], new long[size]);
+    }
+
+    /**
+     * Returns the number of toggles in the snapshot.
+     *
+     * @return number of toggles
+     */
+    public int size() {
+        return counts.length;
+    }
+
+    /**
+     * Returns the sampling interval used when collecting the statistics;
+     * value {@code 1} means that every access was recorded.
+     *
+     * @return sampling interval
+     */
+    public int getSamplingInterval() {
+        return samplingInterval;
+    }
+
+    /**
+     * Returns the (estimated) number of accesses of the toggle.
+     *
+     * @param ordinal ordinal of the toggle
+     * @return access count
+     * @throws IndexOutOfBoundsException if the ordinal is not valid
+     */
+    public long getAccessCount(int ordinal) {
+        return counts[ordinal] * samplingInterval;
+    }
+
+    /**
+     * Checks whether any access of the toggle was recorded.
+     *
+     * @param ordinal ordinal of the toggle
+     * @return {@code true} if the toggle was accessed
+     * @throws IndexOutOfBoundsException if the ordinal is not valid
+     */
+    public boolean isAccessed(int ordinal) {
+        return 0L != counts[ordinal];
+    }
+
+    /**
+     * Returns the time of the first recorded access of the toggle.
+     *
+     * @param ordinal ordinal of the toggle
+     * @return time of the first access, empty if the toggle was not accessed
+     * @throws IndexOutOfBoundsException if the ordinal is not valid
+     */
+    public Optional<Instant> getFirstAccessTime(int ordinal) {
+        return toInstant(firstAccess[ordinal]);
+    }
+
+    /**
+     * Returns the time of the last recorded access of the toggle.
+     *
+     * @param ordinal ordinal of the toggle
+     * @return time of the last access, empty if the toggle was not accessed
+     * @throws IndexOutOfBoundsException if the ordinal is not valid
+     */
+    public Optional<Instant> getLastAccessTime(int ordinal) {
+        return toInstant(lastAccess[ordinal]);
+    }
+
+    /**
+     * Returns ordinals of toggles without any recorded access.
+     *
+     * @return ordinals in ascending order
+     */
+    public int[] getUnaccessedOrdinals() {
+        int unaccessed = 0;
+        for (final var count : counts) {
+            if (0L == count) {
+                ++unaccessed;
+            }
+        }
+        final var result = new int[unaccessed];
+        for (int ordinal = 0, i = 0; i < unaccessed; ++ordinal) {
+            if (0L == counts[ordinal]) {
+                result[i++] = ordinal;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "ToggleAccessSnapshot[toggles=" + counts.length + ", unaccessed=" + getUnaccessedOrdinals().length
+               + ", samplingInterval=" + samplingInterval + "]";
+    }
+
+    private static Optional<Instant> toInstant(long epochMillis) {
+        return (0L != epochMillis) ? Optional.of(Instant.ofEpochMilli(epochMillis)) : Optional.empty();
+    }
+
+}
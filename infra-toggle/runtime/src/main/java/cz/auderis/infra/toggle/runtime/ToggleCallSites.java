@@ -0,0 +1,276 @@
+package cz.auderis.infra.toggle.runtime;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MutableCallSite;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+
+/**
+ * Call sites of the toggles of a registry. Every toggle is backed by a {@link MutableCallSite}
+ * whose target is a constant method handle returning the current toggle value. When the generated
+ * code stores the dynamic invoker of the call site in a {@code static final} field, the JIT compiler
+ * treats the toggle value as a constant and folds the dependent branches away. Changing the toggle
+ * value relinks the call site, which deoptimizes only the code that depends on that particular toggle.
+ * A {@link java.lang.invoke.SwitchPoint} is not used, because it can be invalidated only once,
+ * whereas toggles may be flipped back and forth.
+ * <p>
+ * The same mechanism is used for pairs of feature methods: the call site of a dispatcher
+ * has directly the active implementation as its target, so that after warm-up a call through
+ * the dispatcher is inlined exactly like a direct call of that implementation.
+ * <p>
+ * Access recording, dispatch recording, shadow execution and snapshot scopes are linked
+ * into the call sites only while they are active, so that the handles have no overhead
+ * otherwise. The call sites are relinked only while holding the update lock of the registry,
+ * so that they always reflect the last state stored in the table; all methods that change
+ * the links must be called while holding that lock.
+ */
+final class ToggleCallSites {
+
+    private final ToggleSlot[] slots;
+    private final IntPredicate values;
+
+    /**
+     * Creates the call sites of all toggles of a registry.
+     *
+     * @param values provides the current effective values of the toggles
+     * @param scopeReaders provides the readers of the snapshot bound to the current scope,
+     *                     see {@link SnapshotScopes#reader(int)}
+     */
+    ToggleCallSites(int size, IntPredicate values, IntFunction<MethodHandle> scopeReaders) {
+        this.slots = new ToggleSlot[size];
+        this.values = values;
+        for (int ordinal = 0; ordinal < size; ++ordinal) {
+            slots[ordinal] = new ToggleSlot(ordinal, values.test(ordinal), scopeReaders.apply(ordinal));
+        }
+    }
+
+    MethodHandle readHandle(int ordinal) {
+        return slots[ordinal].readHandle;
+    }
+
+    /**
+     * Creates a dispatcher of a feature method pair, linked to the current value of the toggle.
+     *
+     * @return dispatch handle with the same type as the implementations
+     */
+    MethodHandle addDispatcher(int ordinal, String toggleName, MethodHandle legacyImplementation,
+                               MethodHandle featureImplementation) {
+        return slots[ordinal].addDispatcher(values.test(ordinal), toggleName, legacyImplementation, featureImplementation);
+    }
+
+    /**
+     * Relinks the call sites of toggles to their current values.
+     */
+    void relink(int[] ordinals, int count) {
+        final var sites = new ArrayList<MutableCallSite>(count);
+        for (int i = 0; i < count; ++i) {
+            final var ordinal = ordinals[i];
+            slots[ordinal].relink(values.test(ordinal), sites);
+        }
+        sync(sites);
+    }
+
+    /**
+     * Links or unlinks the access recorders to all call sites.
+     */
+    void track(ToggleAccessCounters counters) {
+        final var sites = new ArrayList<MutableCallSite>();
+        for (int ordinal = 0; ordinal < slots.length; ++ordinal) {
+            slots[ordinal].track(values.test(ordinal), counters, sites);
+        }
+        sync(sites);
+    }
+
+    /**
+     * Links or unlinks the dispatch event recorder to all dispatch call sites.
+     */
+    void recordDispatches(FeatureDispatchRecorder recorder) {
+        final var sites = new ArrayList<MutableCallSite>();
+        for (int ordinal = 0; ordinal < slots.length; ++ordinal) {
+            slots[ordinal].recordDispatches(values.test(ordinal), recorder, sites);
+        }
+        sync(sites);
+    }
+
+    /**
+     * Returns the shadow execution linked to the dispatch call sites of a toggle, or {@code null}.
+     */
+    FeatureShadow shadow(int ordinal) {
+        return slots[ordinal].shadow;
+    }
+
+    /**
+     * Links or unlinks a shadow execution to the dispatch call sites of a toggle.
+     */
+    void shadow(int ordinal, FeatureShadow shadow) {
+        final var sites = new ArrayList<MutableCallSite>();
+        slots[ordinal].shadow(values.test(ordinal), shadow, sites);
+        sync(sites);
+    }
+
+    /**
+     * Links all call sites either to check for the snapshot bound to the current scope,
+     * or to the constant values.
+     */
+    void linkScopes(boolean scoped) {
+        final var sites = new ArrayList<MutableCallSite>(slots.length);
+        for (int ordinal = 0; ordinal < slots.length; ++ordinal) {
+            slots[ordinal].linkScope(scoped, values.test(ordinal), sites);
+        }
+        sync(sites);
+    }
+
+    private static void sync(List<MutableCallSite> sites) {
+        if (!sites.isEmpty()) {
+            MutableCallSite.syncAll(sites.toArray(new MutableCallSite[0]));
+        }
+    }
+
+
+    private static final class ToggleSlot {
+        private final int ordinal;
+        private final MutableCallSite site;
+        private final MethodHandle readHandle;
+        private final List<FeatureDispatcher> dispatchers;
+        private final MethodHandle scopeReader;
+        private MethodHandle recorder;
+        private boolean scoped;
+        private FeatureDispatchRecorder dispatchRecorder;
+        private FeatureShadow shadow;
+
+        /**
+         * Creates a slot of a toggle.
+         *
+         * @param scopeReader reader of the snapshot bound to the current scope, of type {@code (boolean)boolean}
+         */
+        ToggleSlot(int ordinal, boolean initialValue, MethodHandle scopeReader) {
+            this.ordinal = ordinal;
+            this.scopeReader = scopeReader;
+            this.site = new MutableCallSite(readTarget(initialValue, null, null));
+            this.readHandle = site.dynamicInvoker();
+            this.dispatchers = new ArrayList<>(0);
+        }
+
+        /**
+         * Links or unlinks the access recorder to all call sites of the toggle.
+         */
+        void track(boolean value, ToggleAccessCounters counters, List<MutableCallSite> relinkedSites) {
+            final var newRecorder = (null != counters) ? counters.recorder(ordinal) : null;
+            if ((null != newRecorder) || (null != recorder)) {
+                recorder = newRecorder;
+                relink(value, relinkedSites);
+            }
+        }
+
+        /**
+         * Links or unlinks the dispatch event recorder to the dispatch call sites of the toggle.
+         */
+        void recordDispatches(boolean value, FeatureDispatchRecorder newRecorder, List<MutableCallSite> relinkedSites) {
+            final var changed = (newRecorder != dispatchRecorder);
+            dispatchRecorder = newRecorder;
+            if (changed && !dispatchers.isEmpty()) {
+                relink(value, relinkedSites);
+            }
+        }
+
+        /**
+         * Links or unlinks the shadow execution to the dispatch call sites of the toggle.
+         */
+        void shadow(boolean value, FeatureShadow newShadow, List<MutableCallSite> relinkedSites) {
+            final var changed = (newShadow != shadow);
+            shadow = newShadow;
+            if (changed && !dispatchers.isEmpty()) {
+                relink(value, relinkedSites);
+            }
+        }
+
+        MethodHandle addDispatcher(boolean value, String toggleName, MethodHandle legacyImplementation,
+                                   MethodHandle featureImplementation) {
+            final var dispatcher = new FeatureDispatcher(toggleName, legacyImplementation, featureImplementation);
+            dispatcher.relink(value, recorder, dispatchRecorder, shadow, scopedRead());
+            dispatchers.add(dispatcher);
+            return dispatcher.site.dynamicInvoker();
+        }
+
+        /**
+         * Links or unlinks the reader of the snapshot bound to the current scope to all call sites of the toggle.
+         */
+        void linkScope(boolean newScoped, boolean value, List<MutableCallSite> relinkedSites) {
+            scoped = newScoped;
+            relink(value, relinkedSites);
+        }
+
+        /**
+         * Relinks the call sites to the new toggle value; the relinked call sites are added
+         * to the list and must be synchronized by the caller.
+         */
+        void relink(boolean value, List<MutableCallSite> relinkedSites) {
+            final var scopedRead = scopedRead();
+            site.setTarget(readTarget(value, recorder, scopedRead));
+            relinkedSites.add(site);
+            for (final var dispatcher : dispatchers) {
+                dispatcher.relink(value, recorder, dispatchRecorder, shadow, scopedRead);
+                relinkedSites.add(dispatcher.site);
+            }
+        }
+
+        private MethodHandle scopedRead() {
+            return scoped ? scopeReader : null;
+        }
+
+        private static MethodHandle readTarget(boolean value, MethodHandle recorder, MethodHandle scopedRead) {
+            final var read = (null != scopedRead)
+                             ? MethodHandles.insertArguments(scopedRead, 0, value)
+                             : MethodHandles.constant(boolean.class, value);
+            return (null != recorder) ? MethodHandles.foldArguments(read, recorder) : read;
+        }
+    }
+
+
+    private static final class FeatureDispatcher {
+        private final String toggleName;
+        private final MethodHandle legacyImplementation;
+        private final MethodHandle featureImplementation;
+        private final MutableCallSite site;
+
+        FeatureDispatcher(String toggleName, MethodHandle legacyImplementation, MethodHandle featureImplementation) {
+            this.toggleName = toggleName;
+            this.legacyImplementation = legacyImplementation;
+            this.featureImplementation = featureImplementation;
+            this.site = new MutableCallSite(legacyImplementation.type());
+        }
+
+        /**
+         * Links the implementation selected by the toggle value or, while any snapshot scope runs,
+         * a test that selects the implementation by the value in the bound snapshot.
+         */
+        void relink(boolean enabled, MethodHandle recorder, FeatureDispatchRecorder dispatchRecorder, FeatureShadow shadow,
+                    MethodHandle scopedRead) {
+            final MethodHandle implementation;
+            if (null != scopedRead) {
+                final var test = MethodHandles.dropArguments(MethodHandles.insertArguments(scopedRead, 0, enabled),
+                                                             0, site.type().parameterList());
+                implementation = MethodHandles.guardWithTest(test, implementation(true, dispatchRecorder, shadow),
+                                                             implementation(false, dispatchRecorder, shadow));
+            } else {
+                implementation = implementation(enabled, dispatchRecorder, shadow);
+            }
+            site.setTarget((null != recorder) ? MethodHandles.foldArguments(implementation, recorder) : implementation);
+        }
+
+        private MethodHandle implementation(boolean enabled, FeatureDispatchRecorder dispatchRecorder, FeatureShadow shadow) {
+            var implementation = enabled ? featureImplementation : legacyImplementation;
+            if (null != dispatchRecorder) {
+                implementation = dispatchRecorder.wrap(implementation, toggleName, enabled);
+            }
+            if (null != shadow) {
+                implementation = shadow.wrap(implementation, enabled ? legacyImplementation : featureImplementation, enabled);
+            }
+            return implementation;
+        }
+    }
+
+}
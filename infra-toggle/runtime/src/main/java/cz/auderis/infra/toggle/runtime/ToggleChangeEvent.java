@@ -0,0 +1,79 @@
+package cz.auderis.infra.toggle.runtime;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event emitted for every toggle whose value is changed. The duration
+ * of the event covers the whole change, i.e. updating the state, relinking and
+ * synchronizing the call sites and scheduling the observer notifications; all toggles
+ * changed atomically share the same duration and registry version. The observers
+ * themselves are notified asynchronously and are recorded by {@link ToggleObserverEvent}.
+ */
+@Name(ToggleChangeEvent.NAME)
+@Label("Feature Toggle Change")
+@Category("Feature Toggles")
+@Description("Change of a feature toggle value")
+@StackTrace(false)
+final class ToggleChangeEvent extends Event {
+
+    static final String NAME = "cz.auderis.infra.toggle.ToggleChange";
+
+    @Label("Registry")
+    String registry;
+
+    @Label("Toggle")
+    String toggle;
+
+    @Label("Old Value")
+    boolean oldValue;
+
+    @Label("New Value")
+    boolean newValue;
+
+    @Label("Source")
+    @Description("Origin of the change, e.g. api, jmx or the watched file")
+    String source;
+
+    @Label("Registry Version")
+    long version;
+
+    /**
+     * Begins events of a change of several toggles.
+     *
+     * @return started events, or {@code null} if the event is not enabled
+     */
+    static ToggleChangeEvent[] beginAll(int count) {
+        final var first = new ToggleChangeEvent();
+        if (!first.isEnabled()) {
+            return null;
+        }
+        final var events = new ToggleChangeEvent[count];
+        events[0] = first;
+        for (int i = 1; i < count; ++i) {
+            events[i] = new ToggleChangeEvent();
+        }
+        for (final var event : events) {
+            event.begin();
+        }
+        return events;
+    }
+
+    void complete(String registryName, String toggleName, boolean enabled, String changeSource, long registryVersion) {
+        end();
+        if (shouldCommit()) {
+            registry = registryName;
+            toggle = toggleName;
+            oldValue = !enabled;
+            newValue = enabled;
+            source = changeSource;
+            version = registryVersion;
+            commit();
+        }
+    }
+
+}
@@ -0,0 +1,131 @@
+package cz.auderis.infra.toggle.runtime;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Change of one or more toggles of a registry, replicated between the nodes of
+ * a cluster. A delta contains only the toggles that were actually changed, together
+ * with the node where the change originated and its replication version.
+ * <p>
+ * The replication version is a logical (Lamport) clock: every node increments it
+ * for each local change and advances it past the version of every delta it receives,
+ * so a change made after another one was observed always has a higher version.
+ * Deltas are ordered by their version and then by the identifier of the origin node;
+ * this order is total and the same on all nodes.
+ *
+ * @author Boleslav Bobcik
+ * @see ToggleReplicator
+ */
+public final class ToggleDelta {
+
+    private final String registryName;
+    private final String origin;
+    private final long version;
+    private final Map<String, Boolean> values;
+
+    private ToggleDelta(String registryName, String origin, long version, Map<String, Boolean> values) {
+        this.registryName = registryName;
+        this.origin = origin;
+        this.version = version;
+        this.values = values;
+    }
+
+    /**
+     * Creates a delta, typically when it is received by a replication transport.
+     *
+     * @param registryName name of the replicated registry
+     * @param origin identifier of the node where the change originated
+     * @param version replication version of the change
+     * @param values new toggle values indexed by toggle names
+     * @return new delta
+     * @throws IllegalArgumentException if the version is not positive or if there are no values
+     */
+    public static ToggleDelta of(String registryName, String origin, long version, Map<String, Boolean> values) {
+        Objects.requireNonNull(registryName);
+        Objects.requireNonNull(origin);
+        if (version <= 0L) {
+            throw new IllegalArgumentException("Invalid replication version: " + version);
+        }
+        if (values.isEmpty()) {
+            throw new IllegalArgumentException("Empty toggle delta");
+        }
+        final var valuesCopy = new LinkedHashMap<String, Boolean>(2 * values.size());
+        for (final var entry : values.entrySet()) {
+            valuesCopy.put(Objects.requireNonNull(entry.getKey()), Objects.requireNonNull(entry.getValue()));
+        }
+        return new ToggleDelta(registryName, origin, version, Collections.unmodifiableMap(valuesCopy));
+    }
+
+    /**
+     * Returns the name of the replicated registry.
+     *
+     * @return registry name
+     */
+    public String getRegistryName() {
+        return registryName;
+    }
+
+    /**
+     * Returns the identifier of the node where the change originated.
+     *
+     * @return node identifier
+     */
+    public String getOrigin() {
+        return origin;
+    }
+
+    /**
+     * Returns the replication version of the change.
+     *
+     * @return positive replication version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the new values of the changed toggles.
+     *
+     * @return unmodifiable map of toggle values indexed by toggle names
+     */
+    public Map<String, Boolean> getValues() {
+        return values;
+    }
+
+    /**
+     * Checks whether this delta is ordered after a change with the given version and origin.
+     *
+     * @param otherVersion replication version of the other change
+     * @param otherOrigin origin of the other change
+     * @return {@code true} if this delta supersedes the other change
+     */
+    public boolean supersedes(long otherVersion, String otherOrigin) {
+        return (version > otherVersion) || ((version == otherVersion) && (origin.compareTo(otherOrigin) > 0));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        } else if (!(obj instanceof ToggleDelta)) {
+            return false;
+        }
+        final var other = (ToggleDelta) obj;
+        return (version == other.version) && registryName.equals(other.registryName)
+               && origin.equals(other.origin) && values.equals(other.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(registryName, origin, version, values);
+    }
+
+    @Override
+    public String toString() {
+        return "ToggleDelta[" + registryName + ", origin=" + origin + ", version=" + version + ", " + values + ']';
+    }
+
+}
@@ -0,0 +1,60 @@
+package cz.auderis.infra.toggle.runtime;
+
+import java.util.List;
+
+/**
+ * Named group of toggles that are enabled or disabled at once. The group mask covers
+ * its members together with all their prerequisites, so checking whether the whole group
+ * is effectively enabled is a single masked comparison regardless of the group size.
+ */
+final class ToggleGroup {
+
+    private final int[] ordinals;
+    private final List<String> memberNames;
+    private final ToggleMask mask;
+
+    /**
+     * Creates a group of toggles.
+     *
+     * @param ordinals ordinals of the members in ascending order
+     * @param prerequisiteClosures bitsets of the transitive prerequisites, as used by {@link TogglePrerequisites}
+     */
+    ToggleGroup(int[] ordinals, List<String> toggleNames, long[][] prerequisiteClosures) {
+        this.ordinals = ordinals;
+        final var names = new String[ordinals.length];
+        final var words = new long[ToggleStateTable.wordCount(toggleNames.size())];
+        for (int i = 0; i < ordinals.length; ++i) {
+            final var ordinal = ordinals[i];
+            names[i] = toggleNames.get(ordinal);
+            final var closure = prerequisiteClosures[ordinal];
+            if (null == closure) {
+                words[ordinal >>> 6] |= 1L << ordinal;
+            } else {
+                for (int w = 0; w < words.length; ++w) {
+                    words[w] |= closure[w];
+                }
+            }
+        }
+        this.memberNames = List.of(names);
+        this.mask = ToggleMask.of(words);
+    }
+
+    /**
+     * Returns a copy of the ordinals of the members.
+     */
+    int[] ordinals() {
+        return ordinals.clone();
+    }
+
+    List<String> memberNames() {
+        return memberNames;
+    }
+
+    /**
+     * Returns the mask of the members and all their prerequisites.
+     */
+    ToggleMask mask() {
+        return mask;
+    }
+
+}
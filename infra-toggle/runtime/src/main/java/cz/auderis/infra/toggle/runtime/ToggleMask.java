@@ -0,0 +1,54 @@
+package cz.auderis.infra.toggle.runtime;
+
+/**
+ * Immutable set of toggle ordinals, stored as the non-zero words of a bitset
+ * compatible with {@link ToggleStateTable}. Toggles that depend on each other
+ * usually have close ordinals, so a mask typically consists of a single word
+ * and checking it against the state costs one load and one comparison.
+ */
+final class ToggleMask {
+
+    private final int[] wordIndices;
+    private final long[] wordBits;
+
+    private ToggleMask(int[] wordIndices, long[] wordBits) {
+        this.wordIndices = wordIndices;
+        this.wordBits = wordBits;
+    }
+
+    /**
+     * Creates a mask from the words of a bitset indexed by toggle ordinals.
+     */
+    static ToggleMask of(long[] words) {
+        int count = 0;
+        for (final var word : words) {
+            if (0L != word) {
+                ++count;
+            }
+        }
+        final var indices = new int[count];
+        final var bits = new long[count];
+        count = 0;
+        for (int i = 0; i < words.length; ++i) {
+            if (0L != words[i]) {
+                indices[count] = i;
+                bits[count++] = words[i];
+            }
+        }
+        return new ToggleMask(indices, bits);
+    }
+
+    /**
+     * Checks whether all toggles of the mask are set in the bitset.
+     */
+    boolean isSubsetOf(long[] words) {
+        for (int i = 0; i < wordIndices.length; ++i) {
+            final var bits = wordBits[i];
+            if (bits != (words[wordIndices[i]] & bits)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,21 @@
+package cz.auderis.infra.toggle.runtime;
+
+/**
+ * Receives notifications about changes of feature toggles. The signature matches
+ * methods annotated with {@link cz.auderis.infra.toggle.FeatureToggleObserver},
+ * so the generated registry passes method references of such methods directly.
+ *
+ * @author Boleslav Bobcik
+ */
+@FunctionalInterface
+public interface ToggleObserver {
+
+    /**
+     * Called when the value of an observed toggle changes.
+     *
+     * @param featureName name of the toggle
+     * @param newValue current value of the toggle
+     */
+    void toggleChanged(String featureName, boolean newValue);
+
+}
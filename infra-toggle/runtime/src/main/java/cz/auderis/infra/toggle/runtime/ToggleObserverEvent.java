@@ -0,0 +1,45 @@
+package cz.auderis.infra.toggle.runtime;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event emitted for every notification delivered to a toggle observer.
+ * The duration of the event is the duration of the observer callback; the delay is
+ * the time the notification waited for the executor.
+ */
+@Name(ToggleObserverEvent.NAME)
+@Label("Feature Toggle Observer Notification")
+@Category("Feature Toggles")
+@Description("Notification of a feature toggle observer about a changed value")
+@StackTrace(false)
+final class ToggleObserverEvent extends Event {
+
+    static final String NAME = "cz.auderis.infra.toggle.ObserverNotification";
+
+    @Label("Registry")
+    String registry;
+
+    @Label("Toggle")
+    String toggle;
+
+    @Label("Value")
+    boolean value;
+
+    @Label("Observer")
+    Class<?> observer;
+
+    @Label("Delay")
+    @Description("Time between scheduling the delivery task and calling the observer")
+    @Timespan(Timespan.NANOSECONDS)
+    long delay;
+
+    @Label("Failed")
+    boolean failed;
+
+}
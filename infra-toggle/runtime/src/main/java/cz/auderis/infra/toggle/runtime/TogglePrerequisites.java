@@ -0,0 +1,131 @@
+package cz.auderis.infra.toggle.runtime;
+
+import java.util.Arrays;
+
+/**
+ * Prerequisites of the toggles of a registry. A toggle with prerequisites is effectively
+ * enabled only if it is enabled together with all its prerequisites, direct and transitive.
+ * The transitive prerequisites are resolved once when the registry is built into a mask
+ * of the toggle and all its prerequisites, so that evaluating a toggle with prerequisites
+ * is a single acquire load of the bitset followed by a masked comparison.
+ * <p>
+ * For every toggle, the toggles that require it are known as well, so that a change
+ * of a toggle re-evaluates only the toggles whose effective value may have changed.
+ */
+final class TogglePrerequisites {
+
+    private final ToggleMask[] effectiveMasks;
+    private final int[][] dependents;
+    private final boolean empty;
+
+    /**
+     * Creates the prerequisites from the bitsets of transitive prerequisites.
+     *
+     * @param prerequisiteClosures bitset of every toggle and all its prerequisites, indexed by toggle
+     *                             ordinals, or {@code null} for a toggle without prerequisites
+     */
+    TogglePrerequisites(long[][] prerequisiteClosures) {
+        this.effectiveMasks = new ToggleMask[prerequisiteClosures.length];
+        this.dependents = dependentsOf(prerequisiteClosures);
+        boolean anyPrerequisites = false;
+        for (int ordinal = 0; ordinal < prerequisiteClosures.length; ++ordinal) {
+            if (null != prerequisiteClosures[ordinal]) {
+                effectiveMasks[ordinal] = ToggleMask.of(prerequisiteClosures[ordinal]);
+                anyPrerequisites = true;
+            }
+        }
+        this.empty = !anyPrerequisites;
+    }
+
+    /**
+     * Returns the effective value of a toggle in the current state.
+     */
+    boolean isEnabled(ToggleStateTable state, int ordinal) {
+        final var mask = effectiveMasks[ordinal];
+        return (null == mask) ? state.get(ordinal) : state.allSet(mask);
+    }
+
+    /**
+     * Returns the effective value of a toggle in a snapshot.
+     */
+    boolean isEnabled(ToggleSnapshot snapshot, int ordinal) {
+        final var mask = effectiveMasks[ordinal];
+        return (null == mask) ? snapshot.isEnabled(ordinal) : snapshot.containsAll(mask);
+    }
+
+    /**
+     * Returns a snapshot with the effective values of the toggles in the source snapshot,
+     * or the source snapshot itself if no toggle has prerequisites.
+     */
+    ToggleSnapshot effective(ToggleSnapshot source) {
+        if (empty) {
+            return source;
+        }
+        final var words = source.toLongArray();
+        for (int ordinal = 0; ordinal < effectiveMasks.length; ++ordinal) {
+            final var mask = effectiveMasks[ordinal];
+            if ((null != mask) && !source.containsAll(mask)) {
+                words[ordinal >>> 6] &= ~(1L << ordinal);
+            }
+        }
+        return new ToggleSnapshot(effectiveMasks.length, words, source.getVersion());
+    }
+
+    /**
+     * Returns the changed toggles followed by the toggles that require any of them.
+     */
+    int[] affectedOrdinals(int[] changedOrdinals, int count) {
+        if (empty) {
+            return Arrays.copyOf(changedOrdinals, count);
+        }
+        final var included = new boolean[effectiveMasks.length];
+        var result = new int[2 * count];
+        int size = 0;
+        for (int i = 0; i < count; ++i) {
+            final var ordinal = changedOrdinals[i];
+            if (!included[ordinal]) {
+                included[ordinal] = true;
+                result[size++] = ordinal;
+            }
+        }
+        for (int i = 0; i < count; ++i) {
+            for (final var dependent : dependents[changedOrdinals[i]]) {
+                if (!included[dependent]) {
+                    included[dependent] = true;
+                    if (size == result.length) {
+                        result = Arrays.copyOf(result, 2 * size);
+                    }
+                    result[size++] = dependent;
+                }
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Inverts the transitive prerequisites, so that for every toggle it is known
+     * which toggles must be re-evaluated when it changes.
+     */
+    private static int[][] dependentsOf(long[][] prerequisiteClosures) {
+        final var result = new int[prerequisiteClosures.length][];
+        Arrays.fill(result, new int[0]);
+        for (int ordinal = 0; ordinal < prerequisiteClosures.length; ++ordinal) {
+            final var closure = prerequisiteClosures[ordinal];
+            if (null == closure) {
+                continue;
+            }
+            for (int word = 0; word < closure.length; ++word) {
+                for (long bits = closure[word]; 0L != bits; bits &= bits - 1L) {
+                    final var prerequisite = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    if (prerequisite != ordinal) {
+                        final var dependents = result[prerequisite];
+                        result[prerequisite] = Arrays.copyOf(dependents, dependents.length + 1);
+                        result[prerequisite][dependents.length] = ordinal;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,1129 @@
+package cz.auderis.infra.toggle.runtime;
+
+import cz.auderis.infra.toggle.manifest.ToggleManifest;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.invoke.MethodHandle;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Holds the run-time state of all feature toggles defined in a single module.
+ * An instance is normally created by the class generated by the feature toggle
+ * annotation processor, which also provides static accessor methods for
+ * the individual toggles.
+ * <p>
+ * Every toggle has a dense ordinal assigned by the annotation processor. Values
+ * of all toggles are stored in a single immutable bitset indexed by the ordinals,
+ * which is replaced as a whole with a single compare-and-set whenever any toggle
+ * changes. Reading a toggle by its ordinal therefore never blocks and costs just
+ * two memory loads; names are used only to look up ordinals.
+ * <p>
+ * The generated code reads the toggles through {@linkplain #readHandle(int) read handles}
+ * and calls feature method pairs through {@linkplain #dispatchHandle(int, MethodHandle, MethodHandle)
+ * dispatch handles}. Both are backed by call sites linked to the current toggle values,
+ * so that the JIT compiler treats the values as constants; reading a toggle through
+ * the handle is as cheap as reading a {@code static final boolean} field, while changing
+ * a toggle deoptimizes the dependent code and should be a rare event.
+ * <p>
+ * All changes are serialized and every change increments the registry version.
+ * Several toggles may be changed {@linkplain #setEnabled(Map) atomically}:
+ * neither {@link #isEnabled(int)} nor a {@linkplain #snapshot() snapshot} ever
+ * observe just a part of such change, and all affected call sites are synchronized
+ * at once. Every change is reported as a JDK Flight Recorder event
+ * {@code cz.auderis.infra.toggle.ToggleChange}. The registry may be
+ * managed remotely through a single {@linkplain #registerMBean() MXBean}.
+ * <p>
+ * Further features are described where they are controlled:
+ * {@linkplain Builder#prerequisite(int, int) prerequisites} and {@linkplain Builder#group(String, int...) groups},
+ * {@linkplain #addObserver(ToggleObserver, int...) observers},
+ * {@linkplain #runWithSnapshot(Runnable) snapshot scopes},
+ * {@linkplain #setRollout(int, ToggleRollout) rollouts},
+ * {@linkplain #startAccessTracking(int) access tracking},
+ * {@linkplain #startDispatchRecording(int) dispatch recording},
+ * {@linkplain #startShadowExecution(int, ShadowExecution) shadow execution}
+ * and {@linkplain ToggleReplicator replication}.
+ *
+ * @author Boleslav Bobcik
+ */
+public final class ToggleRegistry {
+
+    /**
+     * JMX domain of the management interfaces of toggle registries.
+     */
+    public static final String MBEAN_DOMAIN = "cz.auderis.infra.toggle";
+
+    /**
+     * Source of changes made by the public methods, as reported in Flight Recorder events.
+     */
+    static final String SOURCE_API = "api";
+
+    private final String name;
+    private final List<String> toggleNames;
+    private final Map<String, Integer> ordinalByName;
+    private final ToggleStateTable state;
+    private final TogglePrerequisites prerequisites;
+    private final Map<String, ToggleGroup> groups;
+    private final Object updateLock;
+    private final SnapshotScopes scopes;
+    private final ToggleCallSites callSites;
+    private final ToggleRolloutTable rollouts;
+    private final ObserverDispatcher observers;
+    private final ReplicationHook replication;
+    private volatile ToggleAccessCounters accessCounters;
+
+    private ToggleRegistry(String name, List<String> toggleNames, boolean[] defaultValues, long[][] prerequisiteClosures,
+                           Map<String, int[]> groupOrdinals) {
+        this.name = name;
+        this.toggleNames = List.copyOf(toggleNames);
+        this.ordinalByName = new HashMap<>(2 * toggleNames.size());
+        for (int ordinal = 0; ordinal < toggleNames.size(); ++ordinal) {
+            ordinalByName.put(toggleNames.get(ordinal), ordinal);
+        }
+        this.state = new ToggleStateTable(toggleNames.size(), defaultValues);
+        this.prerequisites = new TogglePrerequisites(prerequisiteClosures);
+        final var groupMap = new LinkedHashMap<String, ToggleGroup>(2 * groupOrdinals.size());
+        for (final var entry : groupOrdinals.entrySet()) {
+            groupMap.put(entry.getKey(), new ToggleGroup(entry.getValue(), this.toggleNames, prerequisiteClosures));
+        }
+        this.groups = Collections.unmodifiableMap(groupMap);
+        this.updateLock = new Object();
+        this.scopes = new SnapshotScopes(state, prerequisites, updateLock, this::linkScopes);
+        this.callSites = new ToggleCallSites(toggleNames.size(), this::currentValue, scopes::reader);
+        this.rollouts = new ToggleRolloutTable(this.toggleNames);
+        this.observers = new ObserverDispatcher(this);
+        this.replication = new ReplicationHook(name);
+    }
+
+    /**
+     * Creates a builder of a new registry.
+     *
+     * @param registryName identifier of the registry, typically the name of the generated class
+     * @return new registry builder
+     */
+    public static Builder builder(String registryName) {
+        return new Builder(registryName);
+    }
+
+    /**
+     * Creates a new registry with the toggles described by a manifest, set to their
+     * default values. The registry uses the same ordinals, prerequisites and groups as
+     * the generated registry class and, like the generated registry, does not contain
+     * frozen toggles.
+     *
+     * @param manifest manifest of the toggles
+     * @return new toggle registry
+     */
+    public static ToggleRegistry fromManifest(ToggleManifest manifest) {
+        final var builder = builder(manifest.getRegistryClassName());
+        final var groupMembers = new LinkedHashMap<String, List<String>>();
+        for (final var entry : manifest.getToggles()) {
+            if (!entry.isFrozen()) {
+                builder.toggle(entry.getOrdinal(), entry.getName(), entry.isDefaultEnabled());
+                for (final var group : entry.getGroups()) {
+                    groupMembers.computeIfAbsent(group, g -> new ArrayList<>()).add(entry.getName());
+                }
+            }
+        }
+        for (final var entry : manifest.getToggles()) {
+            if (!entry.isFrozen()) {
+                for (final var prerequisite : entry.getPrerequisites()) {
+                    builder.prerequisite(entry.getName(), prerequisite);
+                }
+            }
+        }
+        groupMembers.forEach((group, members) -> builder.group(group, members.toArray(new String[0])));
+        return builder.build();
+    }
+
+    /**
+     * Returns the identifier of the registry.
+     *
+     * @return registry name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of toggles defined in this registry. Valid toggle ordinals
+     * are {@code 0} to {@code size() - 1}.
+     *
+     * @return number of toggles
+     */
+    public int size() {
+        return toggleNames.size();
+    }
+
+    /**
+     * Returns names of all toggles defined in this registry, ordered by their ordinals.
+     *
+     * @return unmodifiable list of toggle names
+     */
+    public List<String> getToggleNames() {
+        return toggleNames;
+    }
+
+    /**
+     * Checks whether the toggle is defined in this registry.
+     *
+     * @param toggleName name of the toggle
+     * @return {@code true} if the toggle is known
+     */
+    public boolean isDefined(String toggleName) {
+        return ordinalByName.containsKey(toggleName);
+    }
+
+    /**
+     * Returns the ordinal of a toggle.
+     *
+     * @param toggleName name of the toggle
+     * @return toggle ordinal
+     * @throws IllegalArgumentException if the toggle is not defined
+     */
+    public int ordinalOf(String toggleName) {
+        final var ordinal = ordinalByName.get(Objects.requireNonNull(toggleName));
+        if (null == ordinal) {
+            throw new IllegalArgumentException("Unknown feature toggle: " + toggleName);
+        }
+        return ordinal;
+    }
+
+    /**
+     * Returns the name of a toggle.
+     *
+     * @param ordinal ordinal of the toggle
+     * @return toggle name
+     * @throws IndexOutOfBoundsException if the ordinal is not valid
+     */
+    public String nameOf(int ordinal) {
+        return toggleNames.get(ordinal);
+    }
+
+    /**
+     * Returns the current effective value of a toggle, i.e. whether the toggle
+     * is enabled together with all its prerequisites. For a toggle with prerequisites,
+     * the whole evaluation is a single masked comparison of the current bitset.
+     * Within a {@linkplain #runWithSnapshot(Runnable) snapshot scope}, the value
+     * is taken from the snapshot instead.
+     *
+     * @param ordinal ordinal of the toggle
+     * @return current effective toggle value
+     * @throws IndexOutOfBoundsException if the ordinal is not valid
+     */
+    public boolean isEnabled(int ordinal) {
+        final var scopeSnapshot = scopes.bound();
+        return (null != scopeSnapshot) ? prerequisites.isEnabled(scopeSnapshot, ordinal) : prerequisites.isEnabled(state, ordinal);
+    }
+
+    /**
+     * Returns the current effective value of a toggle. This method performs a lookup
+     * by name and is not intended for hot code paths; use the accessors of
+     * the generated registry class instead.
+     *
+     * @param toggleName name of the toggle
+     * @return current effective toggle value
+     * @throws IllegalArgumentException if the toggle is not defined
+     * @see #isEnabled(int)
+     */
+    public boolean isEnabled(String toggleName) {
+        return isEnabled(ordinalOf(toggleName));
+    }
+
+    /**
+     * Returns the value the toggle was set to, regardless of its prerequisites
+     * and of the current snapshot scope. This is the value held in
+     * {@linkplain #snapshot() snapshots}.
+     *
+     * @param ordinal ordinal of the toggle
+     * @return current toggle value
+     * @throws IndexOutOfBoundsException if the ordinal is not valid
+     */
+    public boolean isSet(int ordinal) {
+        return state.get(ordinal);
+    }
+
+    /**
+     * Evaluates a toggle for an entity identified by a numeric key. The toggle
+     * is enabled for the entity if it is effectively enabled and either has no rollout,
+     * or the key falls into its rollout. Rollouts of the prerequisites are not taken
+     * into account. The evaluation neither allocates nor locks.
+     *
+     * @param ordinal ordinal of the toggle
+     * @param entityKey key of the entity, e.g. user identifier
+     * @return {@code true} if the toggle is enabled for the entity
+     * @throws IndexOutOfBoundsException if the ordinal is not valid
+     */
+    public boolean isEnabledFor(int ordinal, long entityKey) {
+        return isEnabled(ordinal) && rollouts.includes(ordinal, entityKey);
+    }
+
+    /**
+     * Evaluates a toggle for an entity identified by a textual key. The key
+     * is hashed directly from its characters, so that the evaluation neither
+     * allocates nor locks.
+     *
+     * @param ordinal ordinal of the toggle
+     * @param entityKey key of the entity, e.g. user name
+     * @return {@code true} if the toggle is enabled for the entity
+     * @throws IndexOutOfBoundsException if the ordinal is not valid
+     * @see #isEnabledFor(int, long)
+     */
+    public boolean isEnabledFor(int ordinal, CharSequence entityKey) {
+        Objects.requireNonNull(entityKey);
+        return isEnabled(ordinal) && rollouts.includes(ordinal, entityKey);
+    }
+
+    /**
+     * Returns the rollout of a toggle.
+     *
+     * @param ordinal ordinal of the toggle
+     * @return rollout of the toggle, or empty if the toggle applies to all entities
+     * @throws IndexOutOfBoundsException if the ordinal is not valid
+     */
+    public Optional<ToggleRollout> getRollout(int ordinal) {
+        return Optional.ofNullable(rollouts.get(ordinal));
+    }
+
+    /**
+     * Restricts a toggle to a subset of entities. The rollout affects only the evaluation
+     * {@linkplain #isEnabledFor(int, long) for entities}; the toggle value, its read handles
+     * and dispatch handles are not affected. If the rollout changes, the registry
+     * version is incremented.
+     *
+     * @param ordinal ordinal of the toggle
+     * @param rollout new rollout of the toggle, or {@code null} to apply the toggle to all entities
+     * @throws IndexOutOfBoundsException if the ordinal is not valid
+     */
+    public void setRollout(int ordinal, ToggleRollout rollout) {
+        Objects.checkIndex(ordinal, toggleNames.size());
+        synchronized (updateLock) {
+            if (rollouts.set(ordinal, rollout)) {
+                state.incrementVersion();
+            }
+        }
+    }
+
+    /**
+     * Restricts a toggle identified by its name to a subset of entities.
+     *
+     * @param toggleName name of the toggle
+     * @param rollout new rollout of the toggle, or {@code null} to apply the toggle to all entities
+     * @throws IllegalArgumentException if the toggle is not defined
+     * @see #setRollout(int, ToggleRollout)
+     */
+    public void setRollout(String toggleName, ToggleRollout rollout) {
+        setRollout(ordinalOf(toggleName), rollout);
+    }
+
+    /**
+     * Changes the value of a toggle. If the effective value of the toggle or of any
+     * toggle that requires it changes, the code that was compiled with the previous
+     * value is deoptimized.
+     *
+     * @param ordinal ordinal of the toggle
+     * @param enabled new toggle value
+     * @return previous toggle value, regardless of its prerequisites
+     * @throws IndexOutOfBoundsException if the ordinal is not valid
+     */
+    public boolean setEnabled(int ordinal, boolean enabled) {
+        return setEnabled(ordinal, enabled, SOURCE_API);
+    }
+
+    /**
+     * Changes the value of a toggle identified by its name.
+     *
+     * @param toggleName name of the toggle
+     * @param enabled new toggle value
+     * @return previous toggle value
+     * @throws IllegalArgumentException if the toggle is not defined
+     * @see #setEnabled(int, boolean)
+     */
+    public boolean setEnabled(String toggleName, boolean enabled) {
+        return setEnabled(ordinalOf(toggleName), enabled);
+    }
+
+    /**
+     * Changes values of several toggles atomically; concurrent readers using
+     * {@link #isEnabled(int)} or {@link #snapshot()} observe either all or none
+     * of the changes, and they never wait for the change to complete. The call sites
+     * of all changed toggles are relinked before any of them is synchronized,
+     * although the code reading individual toggles through their handles may still
+     * observe the new values one by one.
+     *
+     * @param values new toggle values indexed by toggle names
+     * @return registry version after the change
+     * @throws IllegalArgumentException if any of the toggles is not defined; no toggle is changed in such case
+     */
+    public long setEnabled(Map<String, Boolean> values) {
+        return update(-1L, values, SOURCE_API);
+    }
+
+    /**
+     * Changes values of several toggles atomically, provided that the registry version
+     * is equal to the expected one. This allows to make changes based on a previously
+     * captured snapshot without the risk of overwriting concurrent changes.
+     *
+     * @param expectedVersion expected registry version
+     * @param values new toggle values indexed by toggle names
+     * @return {@code true} if the registry had the expected version and the values were applied
+     * @throws IllegalArgumentException if any of the toggles is not defined
+     * @see #setEnabled(Map)
+     */
+    public boolean compareAndSetEnabled(long expectedVersion, Map<String, Boolean> values) {
+        if (expectedVersion < 0L) {
+            throw new IllegalArgumentException("Invalid registry version: " + expectedVersion);
+        }
+        return update(expectedVersion, values, SOURCE_API) >= 0L;
+    }
+
+    /**
+     * Returns names of all toggle groups, in the order of their definition.
+     *
+     * @return unmodifiable set of group names
+     */
+    public Set<String> getGroupNames() {
+        return groups.keySet();
+    }
+
+    /**
+     * Returns names of the toggles that belong to a group.
+     *
+     * @param groupName name of the group
+     * @return unmodifiable list of toggle names, ordered by their ordinals
+     * @throws IllegalArgumentException if the group is not defined
+     */
+    public List<String> getGroupMembers(String groupName) {
+        return group(groupName).memberNames();
+    }
+
+    /**
+     * Checks whether all toggles of a group are effectively enabled. The check is
+     * a single masked comparison of the current bitset, regardless of the group size.
+     *
+     * @param groupName name of the group
+     * @return {@code true} if all toggles of the group and their prerequisites are enabled
+     * @throws IllegalArgumentException if the group is not defined
+     */
+    public boolean isGroupEnabled(String groupName) {
+        final var mask = group(groupName).mask();
+        final var scopeSnapshot = scopes.bound();
+        return (null != scopeSnapshot) ? scopeSnapshot.containsAll(mask) : state.allSet(mask);
+    }
+
+    /**
+     * Enables or disables all toggles of a group atomically. Prerequisites of the
+     * toggles that are not members of the group are not changed.
+     *
+     * @param groupName name of the group
+     * @param enabled new value of the group toggles
+     * @return registry version after the change
+     * @throws IllegalArgumentException if the group is not defined
+     * @see #setEnabled(Map)
+     */
+    public long setGroupEnabled(String groupName, boolean enabled) {
+        final var ordinals = group(groupName).ordinals();
+        final var newValues = new long[ToggleStateTable.wordCount(ordinals.length)];
+        if (enabled) {
+            Arrays.fill(newValues, ~0L);
+        }
+        synchronized (updateLock) {
+            applyChanges(ordinals, ordinals.length, newValues, SOURCE_API);
+            return getVersion();
+        }
+    }
+
+    /**
+     * Returns the version of the registry, which is the number of changes applied
+     * so far. An atomic change of several toggles counts as a single change.
+     *
+     * @return registry version
+     */
+    public long getVersion() {
+        return state.version();
+    }
+
+    /**
+     * Captures the current values of all toggles. The snapshot is consistent,
+     * i.e. it reflects the state of the registry at a single version.
+     *
+     * @return snapshot of toggle values
+     */
+    public ToggleSnapshot snapshot() {
+        return state.snapshot();
+    }
+
+    /**
+     * Runs an action with consistent toggle values. The values of all toggles are
+     * captured once when the action starts and bound to its dynamic scope, so that
+     * all reads of the toggles within the action, including the {@linkplain #readHandle(int)
+     * read handles} and {@linkplain #dispatchHandle(int, MethodHandle, MethodHandle) dispatch
+     * handles} used by the generated registry, return the captured values even if the toggles
+     * are changed concurrently. If the current thread already runs in a snapshot scope of this
+     * registry, the action simply runs within that scope.
+     * <p>
+     * The values are bound using {@code java.lang.ScopedValue} when the JVM provides it,
+     * otherwise using a thread-local variable, which is not visible to other threads
+     * started by the action. While any scope runs, every read through a handle costs
+     * one scope lookup.
+     *
+     * @param action action to run
+     */
+    public void runWithSnapshot(Runnable action) {
+        scopes.run(Objects.requireNonNull(action));
+    }
+
+    /**
+     * Runs an action with the given toggle values, typically the values decided by
+     * a calling service and {@linkplain ToggleStateCodec decoded} from its request.
+     * The snapshot is bound to the dynamic scope of the action the same way as in
+     * {@link #runWithSnapshot(Runnable)}, and replaces the snapshot of an enclosing scope.
+     * Prerequisites of toggles are evaluated against the given values.
+     *
+     * @param snapshot toggle values to use
+     * @param action action to run
+     * @throws IllegalArgumentException if the snapshot does not match the size of the registry
+     */
+    public void runWithSnapshot(ToggleSnapshot snapshot, Runnable action) {
+        Objects.requireNonNull(action);
+        if (snapshot.size() != toggleNames.size()) {
+            throw new IllegalArgumentException("Snapshot of " + snapshot.size() + " toggles does not match registry " + name);
+        }
+        scopes.run(snapshot, action);
+    }
+
+    /**
+     * Runs an action with consistent toggle values and returns its result.
+     *
+     * @param action action to run
+     * @param <T> type of the result
+     * @return result of the action
+     * @see #runWithSnapshot(Runnable)
+     */
+    public <T> T callWithSnapshot(Supplier<T> action) {
+        return scopes.call(Objects.requireNonNull(action));
+    }
+
+    /**
+     * Returns the snapshot bound to the current {@linkplain #runWithSnapshot(Runnable) snapshot scope}.
+     *
+     * @return snapshot used by the current scope, empty if the thread does not run in a snapshot scope
+     */
+    public Optional<ToggleSnapshot> scopedSnapshot() {
+        return Optional.ofNullable(scopes.bound());
+    }
+
+    /**
+     * Returns a method handle of type {@code ()boolean} that returns the current
+     * value of the toggle. The handle is meant to be stored in a {@code static final}
+     * field, so that the JIT compiler may treat the toggle value as a constant.
+     *
+     * @param ordinal ordinal of the toggle
+     * @return toggle read handle
+     * @throws IndexOutOfBoundsException if the ordinal is not valid
+     */
+    public MethodHandle readHandle(int ordinal) {
+        return callSites.readHandle(ordinal);
+    }
+
+    /**
+     * Creates a method handle that invokes either the legacy or the new implementation
+     * of a feature, depending on the current value of the toggle. The handle is relinked
+     * whenever the toggle changes, so that it never evaluates the toggle value itself.
+     * Similarly to {@link #readHandle(int)}, the handle is meant to be stored
+     * in a {@code static final} field.
+     *
+     * @param ordinal ordinal of the toggle
+     * @param legacyImplementation handle invoked when the toggle is disabled
+     * @param featureImplementation handle invoked when the toggle is enabled
+     * @return dispatch handle with the same type as the implementations
+     * @throws IndexOutOfBoundsException if the ordinal is not valid
+     * @throws IllegalArgumentException if the handle types differ
+     */
+    public MethodHandle dispatchHandle(int ordinal, MethodHandle legacyImplementation, MethodHandle featureImplementation) {
+        Objects.requireNonNull(legacyImplementation);
+        Objects.requireNonNull(featureImplementation);
+        if (!legacyImplementation.type().equals(featureImplementation.type())) {
+            throw new IllegalArgumentException("Feature implementations of " + nameOf(ordinal) + " have different types: "
+                                               + legacyImplementation.type() + ", " + featureImplementation.type());
+        }
+        synchronized (updateLock) {
+            return callSites.addDispatcher(ordinal, nameOf(ordinal), legacyImplementation.asFixedArity(),
+                                           featureImplementation.asFixedArity());
+        }
+    }
+
+    /**
+     * Registers an observer of one or more toggles. The observer is called
+     * asynchronously after a change of any of the toggles. If a toggle changes
+     * several times before the observer is called, only the latest value is
+     * delivered; a toggle that returns to its previously delivered value is
+     * not reported at all.
+     *
+     * @param observer observer to register
+     * @param ordinals ordinals of the observed toggles
+     * @throws IndexOutOfBoundsException if any of the ordinals is not valid
+     */
+    public void addObserver(ToggleObserver observer, int... ordinals) {
+        synchronized (updateLock) {
+            observers.addObserver(observer, ordinals);
+        }
+    }
+
+    /**
+     * Unregisters an observer.
+     *
+     * @param observer observer to unregister
+     * @return {@code true} if the observer was registered
+     */
+    public boolean removeObserver(ToggleObserver observer) {
+        return observers.removeObserver(observer);
+    }
+
+    /**
+     * Defines the executor that runs observer callbacks. By default, callbacks
+     * run on virtual threads if the JVM supports them, otherwise on daemon
+     * platform threads.
+     *
+     * @param executor executor of observer callbacks
+     */
+    public void setObserverExecutor(Executor executor) {
+        observers.setExecutor(executor);
+    }
+
+    /**
+     * Starts recording accesses of the toggles and discards previously collected
+     * access statistics. Accesses are counted by {@link java.util.concurrent.atomic.LongAdder}s,
+     * so that concurrent readers of the same toggle rarely contend, and the last access
+     * times are taken from a coarse clock of 10&nbsp;ms resolution. For very hot
+     * toggles, the sampling interval {@code N} may be set to record only a random
+     * 1-in-N subset of accesses.
+     * <p>
+     * The recording code is linked into the call sites only while the tracking is active,
+     * so the handles have no overhead otherwise. Starting or stopping the tracking relinks
+     * all call sites and therefore deoptimizes the code that reads the toggles.
+     *
+     * @param samplingInterval sampling interval, must be a positive power of two; {@code 1} records all accesses
+     * @throws IllegalArgumentException if the sampling interval is not a positive power of two
+     */
+    public void startAccessTracking(int samplingInterval) {
+        final var counters = new ToggleAccessCounters(toggleNames.size(), samplingInterval);
+        synchronized (updateLock) {
+            accessCounters = counters;
+            callSites.track(counters);
+        }
+    }
+
+    /**
+     * Stops recording accesses of the toggles. Statistics collected so far
+     * remain available through {@link #accessSnapshot()}.
+     */
+    public void stopAccessTracking() {
+        synchronized (updateLock) {
+            callSites.track(null);
+        }
+    }
+
+    /**
+     * Starts emitting Flight Recorder events {@code cz.auderis.infra.toggle.FeatureDispatch}
+     * for calls of feature method dispatchers. Every event records the invoked implementation
+     * and the duration of the call; for hot dispatchers, the sampling interval {@code N}
+     * may be set to record only a random 1-in-N subset of calls. The events are emitted
+     * only if they are enabled in a running recording.
+     * <p>
+     * Starting or stopping the recording relinks the dispatch call sites and therefore
+     * deoptimizes the code that calls the dispatchers.
+     *
+     * @param samplingInterval sampling interval, must be a positive power of two; {@code 1} records all calls
+     * @throws IllegalArgumentException if the sampling interval is not a positive power of two
+     */
+    public void startDispatchRecording(int samplingInterval) {
+        final var recorder = new FeatureDispatchRecorder(name, samplingInterval);
+        synchronized (updateLock) {
+            callSites.recordDispatches(recorder);
+        }
+    }
+
+    /**
+     * Stops emitting Flight Recorder events for calls of feature method dispatchers.
+     */
+    public void stopDispatchRecording() {
+        synchronized (updateLock) {
+            callSites.recordDispatches(null);
+        }
+    }
+
+    /**
+     * Starts the shadow execution of the feature method pairs dispatched by a toggle:
+     * sampled calls of its dispatchers also run the implementation that is not selected
+     * by the toggle on a separate executor, compare the results and record the latencies
+     * of both implementations. If the toggle is already shadowed, the previous shadow
+     * execution is replaced and its statistics are discarded.
+     * <p>
+     * Starting or stopping the shadow execution relinks the dispatch call sites of the toggle
+     * and therefore deoptimizes the code that calls the dispatchers.
+     *
+     * @param ordinal ordinal of the toggle
+     * @param settings settings of the shadow execution
+     * @throws IndexOutOfBoundsException if the ordinal is not valid
+     */
+    public void startShadowExecution(int ordinal, ShadowExecution settings) {
+        Objects.requireNonNull(settings);
+        Objects.checkIndex(ordinal, toggleNames.size());
+        synchronized (updateLock) {
+            callSites.shadow(ordinal, new FeatureShadow(this, ordinal, settings));
+        }
+    }
+
+    /**
+     * Starts the shadow execution of the feature method pairs dispatched by a toggle
+     * identified by its name.
+     *
+     * @param toggleName name of the toggle
+     * @param settings settings of the shadow execution
+     * @throws IllegalArgumentException if the toggle is not defined
+     * @see #startShadowExecution(int, ShadowExecution)
+     */
+    public void startShadowExecution(String toggleName, ShadowExecution settings) {
+        startShadowExecution(ordinalOf(toggleName), settings);
+    }
+
+    /**
+     * Stops the shadow execution of a toggle.
+     *
+     * @param ordinal ordinal of the toggle
+     * @return final statistics of the shadow execution, or empty if the toggle was not shadowed
+     * @throws IndexOutOfBoundsException if the ordinal is not valid
+     */
+    public Optional<ShadowStatistics> stopShadowExecution(int ordinal) {
+        synchronized (updateLock) {
+            final var shadow = callSites.shadow(ordinal);
+            if (null == shadow) {
+                return Optional.empty();
+            }
+            callSites.shadow(ordinal, null);
+            return Optional.of(shadow.statistics());
+        }
+    }
+
+    /**
+     * Captures the statistics of the current shadow execution of a toggle.
+     *
+     * @param ordinal ordinal of the toggle
+     * @return statistics of the shadow execution, or empty if the toggle is not shadowed
+     * @throws IndexOutOfBoundsException if the ordinal is not valid
+     */
+    public Optional<ShadowStatistics> shadowStatistics(int ordinal) {
+        final FeatureShadow shadow;
+        synchronized (updateLock) {
+            shadow = callSites.shadow(ordinal);
+        }
+        return (null != shadow) ? Optional.of(shadow.statistics()) : Optional.empty();
+    }
+
+    /**
+     * Captures the access statistics collected since the last start of access tracking.
+     * If the tracking was never started, the returned snapshot contains no accesses.
+     *
+     * @return snapshot of access statistics
+     */
+    public ToggleAccessSnapshot accessSnapshot() {
+        final var counters = accessCounters;
+        return (null != counters) ? counters.snapshot() : ToggleAccessSnapshot.empty(toggleNames.size());
+    }
+
+    /**
+     * Registers the management interface of this registry in the platform MBean server.
+     *
+     * @return name of the registered MBean
+     * @throws JMException if the registration fails, e.g. because an MBean with the same name already exists
+     * @see #registerMBean(MBeanServer)
+     */
+    public ObjectName registerMBean() throws JMException {
+        return registerMBean(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    /**
+     * Registers the management interface of this registry in an MBean server. A single
+     * {@link ToggleRegistryMXBean} is registered for the whole registry, with object name
+     * {@code cz.auderis.infra.toggle:type=ToggleRegistry,name=<registry name>}.
+     *
+     * @param server target MBean server
+     * @return name of the registered MBean
+     * @throws JMException if the registration fails, e.g. because an MBean with the same name already exists
+     */
+    public ObjectName registerMBean(MBeanServer server) throws JMException {
+        final var objectName = new ObjectName(MBEAN_DOMAIN + ":type=ToggleRegistry,name=" + ObjectName.quote(name));
+        final var mbean = new StandardMBean(new ToggleRegistryManagement(this), ToggleRegistryMXBean.class, true);
+        return server.registerMBean(mbean, objectName).getObjectName();
+    }
+
+    @Override
+    public String toString() {
+        return "ToggleRegistry[" + name + ", toggles=" + toggleNames.size() + "]";
+    }
+
+
+    /**
+     * Returns the current effective value of a toggle, ignoring the snapshot scope.
+     */
+    boolean currentValue(int ordinal) {
+        return prerequisites.isEnabled(state, ordinal);
+    }
+
+    /**
+     * Captures the effective values of all toggles, taken from the bound snapshot
+     * within a snapshot scope.
+     */
+    ToggleSnapshot effectiveSnapshot() {
+        final var scopeSnapshot = scopes.bound();
+        return prerequisites.effective((null != scopeSnapshot) ? scopeSnapshot : state.snapshot());
+    }
+
+    /**
+     * Runs an action while holding the lock that serializes all changes of the registry.
+     */
+    <T> T withUpdateLock(Supplier<T> action) {
+        synchronized (updateLock) {
+            return action.get();
+        }
+    }
+
+    /**
+     * Attaches the replicator that is notified about every change of the registry,
+     * or detaches the current one if {@code null}.
+     *
+     * @throws IllegalStateException if another replicator is attached
+     */
+    void setReplicator(ToggleReplicator newReplicator) {
+        synchronized (updateLock) {
+            replication.attach(newReplicator);
+        }
+    }
+
+    /**
+     * Changes the value of a toggle on behalf of the given source.
+     *
+     * @see #setEnabled(int, boolean)
+     */
+    boolean setEnabled(int ordinal, boolean enabled, String source) {
+        Objects.checkIndex(ordinal, toggleNames.size());
+        synchronized (updateLock) {
+            final var oldValue = state.get(ordinal);
+            if (oldValue != enabled) {
+                applyChanges(new int[] { ordinal }, 1, enabled ? new long[] { ~0L } : new long[1], source);
+            }
+            return oldValue;
+        }
+    }
+
+    /**
+     * Changes values of several toggles atomically on behalf of the given source.
+     *
+     * @return registry version after the change, or {@code -1} if the expected version
+     *         is not negative and the registry has a different version
+     */
+    long update(long expectedVersion, Map<String, Boolean> values, String source) {
+        final var ordinals = new int[values.size()];
+        final var newValues = new long[ToggleStateTable.wordCount(values.size())];
+        int count = 0;
+        for (final var entry : values.entrySet()) {
+            final var ordinal = ordinalOf(entry.getKey());
+            if (entry.getValue()) {
+                newValues[count >>> 6] |= 1L << count;
+            }
+            ordinals[count++] = ordinal;
+        }
+        synchronized (updateLock) {
+            if ((expectedVersion >= 0L) && (expectedVersion != getVersion())) {
+                return -1L;
+            }
+            applyChanges(ordinals, count, newValues, source);
+            return getVersion();
+        }
+    }
+
+    /**
+     * Applies changes of toggles, where the new value of toggle {@code ordinals[i]} is held
+     * in bit {@code i} of the bitset {@code newValues}. Toggles that already have the required
+     * value are skipped; if no toggle changes, the registry version remains the same.
+     * Call sites and observers are updated for the toggles whose effective value changed,
+     * which may include toggles that require the changed ones.
+     */
+    private void applyChanges(int[] ordinals, int count, long[] newValues, String source) {
+        assert Thread.holdsLock(updateLock);
+        int changeCount = 0;
+        for (int i = 0; i < count; ++i) {
+            final var newValue = 0L != (newValues[i >>> 6] & (1L << i));
+            if (state.get(ordinals[i]) != newValue) {
+                ordinals[changeCount] = ordinals[i];
+                if (newValue) {
+                    newValues[changeCount >>> 6] |= 1L << changeCount;
+                } else {
+                    newValues[changeCount >>> 6] &= ~(1L << changeCount);
+                }
+                ++changeCount;
+            }
+        }
+        if (0 == changeCount) {
+            return;
+        }
+        final var events = ToggleChangeEvent.beginAll(changeCount);
+        final var affected = prerequisites.affectedOrdinals(ordinals, changeCount);
+        final var oldValues = new boolean[affected.length];
+        for (int i = 0; i < affected.length; ++i) {
+            oldValues[i] = currentValue(affected[i]);
+        }
+        final var version = state.setAll(ordinals, changeCount, newValues);
+        int effectiveChangeCount = 0;
+        for (int i = 0; i < affected.length; ++i) {
+            if (currentValue(affected[i]) != oldValues[i]) {
+                affected[effectiveChangeCount++] = affected[i];
+            }
+        }
+        callSites.relink(affected, effectiveChangeCount);
+        if (observers.hasObservers()) {
+            for (int i = 0; i < effectiveChangeCount; ++i) {
+                observers.toggleChanged(affected[i]);
+            }
+        }
+        replication.changesApplied(ordinals, changeCount, newValues);
+        if (null != events) {
+            for (int i = 0; i < changeCount; ++i) {
+                events[i].complete(name, toggleNames.get(ordinals[i]), 0L != (newValues[i >>> 6] & (1L << i)), source, version);
+            }
+        }
+    }
+
+    private void linkScopes(boolean scoped) {
+        assert Thread.holdsLock(updateLock);
+        callSites.linkScopes(scoped);
+    }
+
+    private ToggleGroup group(String groupName) {
+        final var group = groups.get(Objects.requireNonNull(groupName));
+        if (null == group) {
+            throw new IllegalArgumentException("Unknown feature toggle group: " + groupName);
+        }
+        return group;
+    }
+
+
+    /**
+     * Builder of {@link ToggleRegistry} instances. Toggles must be defined in the order
+     * of their ordinals.
+     */
+    public static final class Builder {
+        private final String registryName;
+        private final List<String> toggleNames;
+        private final Map<String, Integer> definedOrdinals;
+        private final Map<Integer, Set<Integer>> prerequisites;
+        private final Map<String, Set<Integer>> groups;
+        private boolean[] defaultValues;
+
+        Builder(String registryName) {
+            this.registryName = Objects.requireNonNull(registryName);
+            this.toggleNames = new ArrayList<>();
+            this.definedOrdinals = new HashMap<>();
+            this.prerequisites = new HashMap<>();
+            this.groups = new LinkedHashMap<>();
+            this.defaultValues = new boolean[16];
+        }
+
+        /**
+         * Defines a new toggle.
+         *
+         * @param ordinal expected ordinal of the toggle, which must be equal to the number of toggles defined so far
+         * @param toggleName unique name of the toggle
+         * @param defaultValue initial value of the toggle
+         * @return this builder
+         * @throws IllegalArgumentException if the toggle is already defined or the ordinal is not the next one
+         */
+        public Builder toggle(int ordinal, String toggleName, boolean defaultValue) {
+            Objects.requireNonNull(toggleName);
+            if (ordinal != toggleNames.size()) {
+                throw new IllegalArgumentException("Feature toggle " + toggleName + " has unexpected ordinal " + ordinal);
+            } else if (null != definedOrdinals.putIfAbsent(toggleName, ordinal)) {
+                throw new IllegalArgumentException("Duplicate feature toggle: " + toggleName);
+            }
+            if (ordinal == defaultValues.length) {
+                defaultValues = Arrays.copyOf(defaultValues, 2 * ordinal);
+            }
+            toggleNames.add(toggleName);
+            defaultValues[ordinal] = defaultValue;
+            return this;
+        }
+
+        /**
+         * Defines a new toggle with the next available ordinal.
+         *
+         * @param toggleName unique name of the toggle
+         * @param defaultValue initial value of the toggle
+         * @return this builder
+         * @throws IllegalArgumentException if the toggle is already defined
+         */
+        public Builder toggle(String toggleName, boolean defaultValue) {
+            return toggle(toggleNames.size(), toggleName, defaultValue);
+        }
+
+        /**
+         * Declares that a toggle is effectively enabled only if another toggle is enabled
+         * as well. The toggles need not be defined yet, they are verified when the registry
+         * is built.
+         *
+         * @param ordinal ordinal of the dependent toggle
+         * @param prerequisiteOrdinal ordinal of the required toggle
+         * @return this builder
+         */
+        public Builder prerequisite(int ordinal, int prerequisiteOrdinal) {
+            prerequisites.computeIfAbsent(ordinal, o -> new LinkedHashSet<>(4)).add(prerequisiteOrdinal);
+            return this;
+        }
+
+        /**
+         * Declares that a toggle is effectively enabled only if another toggle is enabled
+         * as well. Both toggles must already be defined.
+         *
+         * @param toggleName name of the dependent toggle
+         * @param prerequisiteName name of the required toggle
+         * @return this builder
+         * @throws IllegalArgumentException if any of the toggles is not defined
+         */
+        public Builder prerequisite(String toggleName, String prerequisiteName) {
+            return prerequisite(definedOrdinal(toggleName), definedOrdinal(prerequisiteName));
+        }
+
+        /**
+         * Adds toggles to a group, creating the group if necessary. The toggles need not
+         * be defined yet, they are verified when the registry is built.
+         *
+         * @param groupName name of the group
+         * @param ordinals ordinals of the group members
+         * @return this builder
+         * @throws IllegalArgumentException if no member is specified
+         */
+        public Builder group(String groupName, int... ordinals) {
+            Objects.requireNonNull(groupName);
+            if (0 == ordinals.length) {
+                throw new IllegalArgumentException("Feature toggle group " + groupName + " has no members");
+            }
+            final var members = groups.computeIfAbsent(groupName, g -> new LinkedHashSet<>());
+            for (final var ordinal : ordinals) {
+                members.add(ordinal);
+            }
+            return this;
+        }
+
+        /**
+         * Adds toggles to a group, creating the group if necessary. The toggles must
+         * already be defined.
+         *
+         * @param groupName name of the group
+         * @param toggleNames names of the group members
+         * @return this builder
+         * @throws IllegalArgumentException if no member is specified or if any of the toggles is not defined
+         */
+        public Builder group(String groupName, String... toggleNames) {
+            final var ordinals = new int[toggleNames.length];
+            for (int i = 0; i < toggleNames.length; ++i) {
+                ordinals[i] = definedOrdinal(toggleNames[i]);
+            }
+            return group(groupName, ordinals);
+        }
+
+        /**
+         * Creates the registry.
+         *
+         * @return new registry
+         * @throws IllegalArgumentException if a prerequisite or a group refers to an undefined toggle,
+         *                                  or if the prerequisites form a cycle
+         */
+        public ToggleRegistry build() {
+            final var size = toggleNames.size();
+            for (final var entry : prerequisites.entrySet()) {
+                checkOrdinal(entry.getKey());
+                entry.getValue().forEach(this::checkOrdinal);
+            }
+            final var groupOrdinals = new LinkedHashMap<String, int[]>(2 * groups.size());
+            for (final var entry : groups.entrySet()) {
+                final var ordinals = entry.getValue().stream().mapToInt(Integer::intValue).sorted().toArray();
+                for (final var ordinal : ordinals) {
+                    checkOrdinal(ordinal);
+                }
+                groupOrdinals.put(entry.getKey(), ordinals);
+            }
+            final var closures = new long[size][];
+            for (final var ordinal : prerequisites.keySet()) {
+                prerequisiteClosure(ordinal, closures, new ArrayList<>());
+            }
+            return new ToggleRegistry(registryName, toggleNames, defaultValues, closures, groupOrdinals);
+        }
+
+        /**
+         * Computes the bitset of the toggle and all its transitive prerequisites,
+         * or returns {@code null} if the toggle has no prerequisites.
+         *
+         * @param path toggles whose closures are being computed, used to detect cycles
+         */
+        private long[] prerequisiteClosure(int ordinal, long[][] closures, List<Integer> path) {
+            final var direct = prerequisites.get(ordinal);
+            if ((null == direct) || (null != closures[ordinal])) {
+                return closures[ordinal];
+            }
+            final var cycleStart = path.indexOf(ordinal);
+            if (cycleStart >= 0) {
+                final var cycle = new StringBuilder("Feature toggle prerequisites form a cycle: ");
+                for (final var member : path.subList(cycleStart, path.size())) {
+                    cycle.append(toggleNames.get(member)).append(" -> ");
+                }
+                throw new IllegalArgumentException(cycle.append(toggleNames.get(ordinal)).toString());
+            }
+            path.add(ordinal);
+            final var result = new long[ToggleStateTable.wordCount(toggleNames.size())];
+            result[ordinal >>> 6] |= 1L << ordinal;
+            for (final int prerequisite : direct) {
+                final var transitive = prerequisiteClosure(prerequisite, closures, path);
+                if (null == transitive) {
+                    result[prerequisite >>> 6] |= 1L << prerequisite;
+                } else {
+                    for (int i = 0; i < result.length; ++i) {
+                        result[i] |= transitive[i];
+                    }
+                }
+            }
+            path.remove(path.size() - 1);
+            closures[ordinal] = result;
+            return result;
+        }
+
+        private int definedOrdinal(String toggleName) {
+            final var ordinal = definedOrdinals.get(Objects.requireNonNull(toggleName));
+            if (null == ordinal) {
+                throw new IllegalArgumentException("Unknown feature toggle: " + toggleName);
+            }
+            return ordinal;
+        }
+
+        private void checkOrdinal(int ordinal) {
+            if ((ordinal < 0) || (ordinal >= toggleNames.size())) {
+                throw new IllegalArgumentException("Undefined feature toggle ordinal: " + ordinal);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+package cz.auderis.infra.toggle.runtime;
+
+/**
+ * Management interface of a {@link ToggleRegistry}. A single MXBean is registered
+ * for the whole registry, regardless of the number of toggles it contains.
+ *
+ * @author Boleslav Bobcik
+ * @see ToggleRegistry#registerMBean()
+ */
+public interface ToggleRegistryMXBean {
+
+    /**
+     * Returns the identifier of the registry.
+     *
+     * @return registry name
+     */
+    String getName();
+
+    /**
+     * Returns the number of changes applied to the registry so far.
+     *
+     * @return registry version
+     */
+    long getVersion();
+
+    /**
+     * Returns the number of toggles in the registry.
+     *
+     * @return number of toggles
+     */
+    int getToggleCount();
+
+    /**
+     * Returns names of all toggles ordered by their ordinals.
+     *
+     * @return toggle names
+     */
+    String[] getToggleNames();
+
+    /**
+     * Returns names of the currently enabled toggles.
+     *
+     * @return names of enabled toggles
+     */
+    String[] getEnabledToggles();
+
+    /**
+     * Returns a consistent view of values of all toggles together with
+     * the registry version.
+     *
+     * @return current registry state
+     */
+    ToggleRegistryState getState();
+
+    /**
+     * Returns the current value of a toggle.
+     *
+     * @param toggleName name of the toggle
+     * @return current toggle value
+     * @throws IllegalArgumentException if the toggle is not defined
+     */
+    boolean isEnabled(String toggleName);
+
+    /**
+     * Changes the value of a toggle.
+     *
+     * @param toggleName name of the toggle
+     * @param enabled new toggle value
+     * @return previous toggle value
+     * @throws IllegalArgumentException if the toggle is not defined
+     */
+    boolean setEnabled(String toggleName, boolean enabled);
+
+    /**
+     * Enables and disables several toggles in a single atomic change.
+     *
+     * @param enabledToggles names of toggles to enable, may be {@code null}
+     * @param disabledToggles names of toggles to disable, may be {@code null}
+     * @return registry version after the change
+     * @throws IllegalArgumentException if any of the toggles is not defined or is listed in both arrays
+     */
+    long update(String[] enabledToggles, String[] disabledToggles);
+
+    /**
+     * Enables and disables several toggles in a single atomic change,
+     * provided that the registry has the expected version.
+     *
+     * @param expectedVersion expected registry version
+     * @param enabledToggles names of toggles to enable, may be {@code null}
+     * @param disabledToggles names of toggles to disable, may be {@code null}
+     * @return {@code true} if the change was applied
+     * @throws IllegalArgumentException if any of the toggles is not defined or is listed in both arrays
+     */
+    boolean compareAndUpdate(long expectedVersion, String[] enabledToggles, String[] disabledToggles);
+
+    /**
+     * Starts recording accesses of the toggles, discarding previous statistics.
+     *
+     * @param samplingInterval sampling interval, a positive power of two
+     * @see ToggleRegistry#startAccessTracking(int)
+     */
+    void startAccessTracking(int samplingInterval);
+
+    /**
+     * Stops recording accesses of the toggles.
+     */
+    void stopAccessTracking();
+
+    /**
+     * Starts emitting Flight Recorder events for calls of feature method dispatchers.
+     *
+     * @param samplingInterval sampling interval, a positive power of two
+     * @see ToggleRegistry#startDispatchRecording(int)
+     */
+    void startDispatchRecording(int samplingInterval);
+
+    /**
+     * Stops emitting Flight Recorder events for calls of feature method dispatchers.
+     */
+    void stopDispatchRecording();
+
+    /**
+     * Returns names of toggles without any recorded access since the start of access tracking.
+     *
+     * @return names of unaccessed toggles
+     */
+    String[] getUnaccessedToggles();
+
+}
@@ -0,0 +1,131 @@
+package cz.auderis.infra.toggle.runtime;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Implementation of the management interface of a toggle registry.
+ */
+final class ToggleRegistryManagement implements ToggleRegistryMXBean {
+
+    private static final String[] NO_NAMES = new String[0];
+
+    /**
+     * Source of changes made through JMX, as reported in Flight Recorder events.
+     */
+    static final String SOURCE_JMX = "jmx";
+
+    private final ToggleRegistry registry;
+
+    ToggleRegistryManagement(ToggleRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public String getName() {
+        return registry.getName();
+    }
+
+    @Override
+    public long getVersion() {
+        return registry.getVersion();
+    }
+
+    @Override
+    public int getToggleCount() {
+        return registry.size();
+    }
+
+    @Override
+    public String[] getToggleNames() {
+        return registry.getToggleNames().toArray(NO_NAMES);
+    }
+
+    @Override
+    public String[] getEnabledToggles() {
+        return getState().getEnabledToggles();
+    }
+
+    @Override
+    public ToggleRegistryState getState() {
+        final var snapshot = registry.snapshot();
+        final var enabled = new ArrayList<String>(snapshot.countEnabled());
+        final var disabled = new ArrayList<String>(snapshot.size() - snapshot.countEnabled());
+        for (int ordinal = 0; ordinal < snapshot.size(); ++ordinal) {
+            (snapshot.isEnabled(ordinal) ? enabled : disabled).add(registry.nameOf(ordinal));
+        }
+        return new ToggleRegistryState(snapshot.getVersion(), enabled.toArray(NO_NAMES), disabled.toArray(NO_NAMES));
+    }
+
+    @Override
+    public boolean isEnabled(String toggleName) {
+        return registry.isEnabled(toggleName);
+    }
+
+    @Override
+    public boolean setEnabled(String toggleName, boolean enabled) {
+        return registry.setEnabled(registry.ordinalOf(toggleName), enabled, SOURCE_JMX);
+    }
+
+    @Override
+    public long update(String[] enabledToggles, String[] disabledToggles) {
+        return registry.update(-1L, changes(enabledToggles, disabledToggles), SOURCE_JMX);
+    }
+
+    @Override
+    public boolean compareAndUpdate(long expectedVersion, String[] enabledToggles, String[] disabledToggles) {
+        if (expectedVersion < 0L) {
+            throw new IllegalArgumentException("Invalid registry version: " + expectedVersion);
+        }
+        return registry.update(expectedVersion, changes(enabledToggles, disabledToggles), SOURCE_JMX) >= 0L;
+    }
+
+    @Override
+    public void startAccessTracking(int samplingInterval) {
+        registry.startAccessTracking(samplingInterval);
+    }
+
+    @Override
+    public void stopAccessTracking() {
+        registry.stopAccessTracking();
+    }
+
+    @Override
+    public void startDispatchRecording(int samplingInterval) {
+        registry.startDispatchRecording(samplingInterval);
+    }
+
+    @Override
+    public void stopDispatchRecording() {
+        registry.stopDispatchRecording();
+    }
+
+    @Override
+    public String[] getUnaccessedToggles() {
+        final var ordinals = registry.accessSnapshot().getUnaccessedOrdinals();
+        final var result = new String[ordinals.length];
+        for (int i = 0; i < ordinals.length; ++i) {
+            result[i] = registry.nameOf(ordinals[i]);
+        }
+        return result;
+    }
+
+    private static Map<String, Boolean> changes(String[] enabledToggles, String[] disabledToggles) {
+        final var result = new HashMap<String, Boolean>();
+        if (null != enabledToggles) {
+            for (final var toggleName : enabledToggles) {
+                result.put(toggleName, Boolean.TRUE);
+            }
+        }
+        if (null != disabledToggles) {
+            for (final var toggleName : disabledToggles) {
+                if (Boolean.TRUE.equals(result.put(toggleName, Boolean.FALSE))) {
+                    throw new IllegalArgumentException("Feature toggle " + toggleName + " cannot be both enabled and disabled");
+                }
+            }
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,68 @@
+package cz.auderis.infra.toggle.runtime;
+
+import javax.management.openmbean.CompositeData;
+import java.util.Arrays;
+
+/**
+ * Values of all toggles of a registry at a single registry version, as exposed
+ * by {@link ToggleRegistryMXBean}.
+ *
+ * @author Boleslav Bobcik
+ */
+public final class ToggleRegistryState {
+
+    private final long version;
+    private final String[] enabledToggles;
+    private final String[] disabledToggles;
+
+    public ToggleRegistryState(long version, String[] enabledToggles, String[] disabledToggles) {
+        this.version = version;
+        this.enabledToggles = enabledToggles.clone();
+        this.disabledToggles = disabledToggles.clone();
+    }
+
+    /**
+     * Reconstructs the state from its open type representation; used by MXBean proxies.
+     *
+     * @param data composite data
+     * @return reconstructed state
+     */
+    public static ToggleRegistryState from(CompositeData data) {
+        return new ToggleRegistryState((Long) data.get("version"),
+                                       (String[]) data.get("enabledToggles"),
+                                       (String[]) data.get("disabledToggles"));
+    }
+
+    /**
+     * Returns the registry version the state corresponds to.
+     *
+     * @return registry version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns names of enabled toggles, ordered by their ordinals.
+     *
+     * @return names of enabled toggles
+     */
+    public String[] getEnabledToggles() {
+        return enabledToggles.clone();
+    }
+
+    /**
+     * Returns names of disabled toggles, ordered by their ordinals.
+     *
+     * @return names of disabled toggles
+     */
+    public String[] getDisabledToggles() {
+        return disabledToggles.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "ToggleRegistryState[v" + version + ", enabled=" + Arrays.toString(enabledToggles) + "]";
+    }
+
+}
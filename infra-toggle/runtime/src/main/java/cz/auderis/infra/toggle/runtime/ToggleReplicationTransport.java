@@ -0,0 +1,53 @@
+package cz.auderis.infra.toggle.runtime;
+
+import java.util.function.Consumer;
+
+/**
+ * Service provider interface of the transport that distributes {@linkplain ToggleDelta toggle deltas}
+ * between the nodes of a cluster, such as a message broker topic or a multicast group.
+ * <p>
+ * The transport must deliver every published delta to all subscribers at least once.
+ * Deltas may be delivered more than once and in any order, since {@link ToggleReplicator}
+ * applies them idempotently according to their replication versions. Deltas published
+ * by a node may also be delivered back to that node.
+ * <p>
+ * {@link #publish(ToggleDelta)} is called while the registry holds its update lock,
+ * so it must not block and it must not deliver deltas to the subscribers in the calling
+ * thread. {@link LoopbackReplicationTransport} is a reference implementation that
+ * connects nodes running in the same JVM.
+ *
+ * @author Boleslav Bobcik
+ */
+public interface ToggleReplicationTransport {
+
+    /**
+     * Sends a delta to all subscribers, asynchronously.
+     *
+     * @param delta delta of a local change
+     */
+    void publish(ToggleDelta delta);
+
+    /**
+     * Registers a receiver of deltas. Deltas are passed to a single receiver one at a time.
+     *
+     * @param receiver receiver of deltas
+     * @return subscription, which cancels the delivery when closed
+     */
+    Subscription subscribe(Consumer<ToggleDelta> receiver);
+
+
+    /**
+     * Subscription of a receiver of deltas.
+     */
+    interface Subscription extends AutoCloseable {
+
+        /**
+         * Stops delivering deltas to the receiver. A delta that is being delivered
+         * is not interrupted.
+         */
+        @Override
+        void close();
+
+    }
+
+}
@@ -0,0 +1,168 @@
+package cz.auderis.infra.toggle.runtime;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+
+/**
+ * Keeps toggle values of a registry in sync with the registries of the same name
+ * on other nodes of a cluster. Every change of the registry, regardless of whether it
+ * was made through the API, JMX or a {@link FileToggleSource}, is published through
+ * a {@link ToggleReplicationTransport} as a {@link ToggleDelta} that contains only
+ * the changed toggles; deltas received from other nodes are applied to the registry
+ * {@linkplain ToggleRegistry#setEnabled(java.util.Map) atomically}.
+ * <p>
+ * For every toggle, the replicator remembers the version and origin of the change
+ * that set its current value. A received delta changes only the toggles whose last
+ * change it {@linkplain ToggleDelta#supersedes(long, String) supersedes}, so applying
+ * a delta is idempotent, deltas delivered out of order have the same effect as if
+ * they were delivered in order, and concurrent changes made on different nodes
+ * converge to the same value everywhere (the last writer wins). Toggles that are
+ * not defined in the local registry are ignored, so nodes running different
+ * versions of an application may share a transport.
+ * <p>
+ * Only changes are replicated; a node that joins the cluster starts with the default
+ * values of its registry (or with the values of a shared file) and receives the changes
+ * made from then on.
+ *
+ * @author Boleslav Bobcik
+ */
+public final class ToggleReplicator implements AutoCloseable {
+
+    /**
+     * Prefix of the source of changes applied from received deltas, followed by the origin node,
+     * as reported in Flight Recorder events.
+     */
+    static final String SOURCE_PREFIX = "replication:";
+
+    private final ToggleRegistry registry;
+    private final ToggleReplicationTransport transport;
+    private final String nodeId;
+
+    // Guarded by the update lock of the registry
+    private final long[] toggleVersions;
+    private final String[] toggleOrigins;
+    private long clock;
+    private boolean applyingDelta;
+
+    private volatile ToggleReplicationTransport.Subscription subscription;
+
+    private ToggleReplicator(ToggleRegistry registry, ToggleReplicationTransport transport, String nodeId) {
+        this.registry = registry;
+        this.transport = transport;
+        this.nodeId = nodeId;
+        this.toggleVersions = new long[registry.size()];
+        this.toggleOrigins = new String[registry.size()];
+        Arrays.fill(toggleOrigins, "");
+    }
+
+    /**
+     * Starts replicating changes of a registry. A registry may be replicated
+     * by a single replicator at a time.
+     *
+     * @param registry replicated registry
+     * @param transport transport connecting the nodes of the cluster
+     * @param nodeId identifier of the local node, unique within the cluster
+     * @return running replicator, which should be closed when no longer needed
+     * @throws IllegalStateException if the registry is already replicated
+     */
+    public static ToggleReplicator start(ToggleRegistry registry, ToggleReplicationTransport transport, String nodeId) {
+        Objects.requireNonNull(transport);
+        if (nodeId.isEmpty()) {
+            throw new IllegalArgumentException("Empty node identifier");
+        }
+        final var replicator = new ToggleReplicator(registry, transport, nodeId);
+        registry.setReplicator(replicator);
+        replicator.subscription = transport.subscribe(replicator::receive);
+        return replicator;
+    }
+
+    /**
+     * Returns the identifier of the local node.
+     *
+     * @return node identifier
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Returns the replication version of the latest change made or received by this node.
+     *
+     * @return replication version, {@code 0} if no change was replicated yet
+     */
+    public long getVersion() {
+        return registry.withUpdateLock(() -> clock);
+    }
+
+    /**
+     * Stops replicating the registry. The values applied so far remain in effect.
+     */
+    @Override
+    public void close() {
+        final var currentSubscription = subscription;
+        if (null != currentSubscription) {
+            subscription = null;
+            currentSubscription.close();
+            registry.setReplicator(null);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ToggleReplicator[" + registry.getName() + ", node=" + nodeId + ']';
+    }
+
+    /**
+     * Publishes a change of the registry, where the new value of toggle {@code ordinals[i]}
+     * is held in bit {@code i} of the bitset {@code newValues}. Called by the registry
+     * while holding its update lock.
+     */
+    void changesApplied(int[] ordinals, int count, long[] newValues) {
+        if (applyingDelta) {
+            return;
+        }
+        final var version = ++clock;
+        final var values = new LinkedHashMap<String, Boolean>(2 * count);
+        for (int i = 0; i < count; ++i) {
+            final var ordinal = ordinals[i];
+            values.put(registry.nameOf(ordinal), 0L != (newValues[i >>> 6] & (1L << i)));
+            toggleVersions[ordinal] = version;
+            toggleOrigins[ordinal] = nodeId;
+        }
+        transport.publish(ToggleDelta.of(registry.getName(), nodeId, version, values));
+    }
+
+    /**
+     * Applies the toggles of a received delta that supersede their last change.
+     */
+    void receive(ToggleDelta delta) {
+        if (nodeId.equals(delta.getOrigin()) || !registry.getName().equals(delta.getRegistryName())) {
+            return;
+        }
+        registry.withUpdateLock(() -> {
+            clock = Math.max(clock, delta.getVersion());
+            final var values = new LinkedHashMap<String, Boolean>(2 * delta.getValues().size());
+            for (final var entry : delta.getValues().entrySet()) {
+                if (registry.isDefined(entry.getKey())) {
+                    final var ordinal = registry.ordinalOf(entry.getKey());
+                    if (delta.supersedes(toggleVersions[ordinal], toggleOrigins[ordinal])) {
+                        toggleVersions[ordinal] = delta.getVersion();
+                        toggleOrigins[ordinal] = delta.getOrigin();
+                        values.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            if (!values.isEmpty()) {
+                applyingDelta = true;
+                try {
+                    registry.update(-1L, values, SOURCE_PREFIX + delta.getOrigin());
+                } finally {
+                    applyingDelta = false;
+                }
+            }
+            return null;
+        });
+    }
+
+}
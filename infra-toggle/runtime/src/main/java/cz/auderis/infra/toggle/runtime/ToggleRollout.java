@@ -0,0 +1,180 @@
+package cz.auderis.infra.toggle.runtime;
+
+/**
+ * Restricts an enabled toggle to a subset of entities, such as users or tenants.
+ * Every entity key is hashed into one of {@value #BUCKET_COUNT} buckets and
+ * the toggle is enabled for the entity if its bucket falls into the rollout
+ * range {@code [fromBucket, toBucket)}.
+ * <p>
+ * The hash is stable, i.e. the same key always falls into the same bucket of
+ * a given toggle, even across JVM restarts. Buckets of different toggles are
+ * independent, because the hash is seeded with the toggle name. Consequently,
+ * when a rollout of a toggle is widened from {@code [0, a)} to {@code [0, b)},
+ * the entities that had the feature enabled keep it enabled.
+ * <p>
+ * Computing the bucket requires neither allocation nor locking, so the evaluation
+ * is suitable for per-request checks.
+ *
+ * @author Boleslav Bobcik
+ * @see ToggleRegistry#setRollout(int, ToggleRollout)
+ */
+public final class ToggleRollout {
+
+    /**
+     * Number of buckets the entity keys are hashed into; a single bucket
+     * represents 0.01&nbsp;% of entities.
+     */
+    public static final int BUCKET_COUNT = 10_000;
+
+    private static final long MIX_MULTIPLIER_1 = 0xFF51AFD7ED558CCDL;
+    private static final long MIX_MULTIPLIER_2 = 0xC4CEB9FE1A85EC53L;
+    private static final long CHAR_SEED = 0x9E3779B97F4A7C15L;
+
+    private final int fromBucket;
+    private final int toBucket;
+
+    private ToggleRollout(int fromBucket, int toBucket) {
+        this.fromBucket = fromBucket;
+        this.toBucket = toBucket;
+    }
+
+    /**
+     * Creates a rollout to a percentage of entities. The percentage is rounded
+     * to the nearest multiple of 0.01.
+     *
+     * @param percent percentage of entities, between 0 and 100
+     * @return rollout covering buckets {@code [0, percent * 100)}
+     * @throws IllegalArgumentException if the percentage is out of range
+     */
+    public static ToggleRollout percentage(double percent) {
+        if (!((percent >= 0.0) && (percent <= 100.0))) {
+            throw new IllegalArgumentException("Invalid rollout percentage: " + percent);
+        }
+        return new ToggleRollout(0, (int) Math.round(percent * (BUCKET_COUNT / 100)));
+    }
+
+    /**
+     * Creates a rollout to a range of buckets. Disjoint ranges of the same toggle
+     * target disjoint sets of entities, which is useful e.g. for A/B testing.
+     *
+     * @param fromBucket first bucket of the range, inclusive
+     * @param toBucket last bucket of the range, exclusive
+     * @return rollout covering buckets {@code [fromBucket, toBucket)}
+     * @throws IllegalArgumentException if the range is not within {@code [0, BUCKET_COUNT]}
+     */
+    public static ToggleRollout buckets(int fromBucket, int toBucket) {
+        if ((fromBucket < 0) || (fromBucket > toBucket) || (toBucket > BUCKET_COUNT)) {
+            throw new IllegalArgumentException("Invalid rollout bucket range: [" + fromBucket + ", " + toBucket + ")");
+        }
+        return new ToggleRollout(fromBucket, toBucket);
+    }
+
+    /**
+     * Returns the first bucket of the rollout.
+     *
+     * @return first bucket, inclusive
+     */
+    public int getFromBucket() {
+        return fromBucket;
+    }
+
+    /**
+     * Returns the end of the bucket range of the rollout.
+     *
+     * @return last bucket, exclusive
+     */
+    public int getToBucket() {
+        return toBucket;
+    }
+
+    /**
+     * Returns the percentage of entities covered by the rollout.
+     *
+     * @return percentage of entities, between 0 and 100
+     */
+    public double getPercentage() {
+        return (toBucket - fromBucket) / (BUCKET_COUNT / 100.0);
+    }
+
+    /**
+     * Checks whether the bucket is covered by the rollout.
+     *
+     * @param bucket bucket of an entity
+     * @return {@code true} if the bucket falls into the rollout range
+     */
+    public boolean includes(int bucket) {
+        return (bucket >= fromBucket) && (bucket < toBucket);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        } else if (obj instanceof ToggleRollout other) {
+            return (fromBucket == other.fromBucket) && (toBucket == other.toBucket);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * fromBucket + toBucket;
+    }
+
+    @Override
+    public String toString() {
+        return "ToggleRollout[" + getPercentage() + "%, buckets " + fromBucket + ".." + toBucket + ']';
+    }
+
+    /**
+     * Returns the bucket of a numeric entity key.
+     */
+    static int bucketOf(long seed, long entityKey) {
+        return (int) Long.remainderUnsigned(mix(seed ^ mix(entityKey)), BUCKET_COUNT);
+    }
+
+    /**
+     * Returns the bucket of a textual entity key. Only the characters of the key
+     * are used, so instances of different {@link CharSequence} implementations
+     * with the same content fall into the same bucket.
+     */
+    static int bucketOf(long seed, CharSequence entityKey) {
+        return (int) Long.remainderUnsigned(mix(seed ^ hash(entityKey)), BUCKET_COUNT);
+    }
+
+    /**
+     * Computes a 64-bit hash of the characters, processing four characters at a time.
+     */
+    static long hash(CharSequence text) {
+        final var length = text.length();
+        long hash = CHAR_SEED ^ length;
+        int i = 0;
+        for (; i + 4 <= length; i += 4) {
+            final long block = text.charAt(i)
+                               | ((long) text.charAt(i + 1) << 16)
+                               | ((long) text.charAt(i + 2) << 32)
+                               | ((long) text.charAt(i + 3) << 48);
+            hash = Long.rotateLeft(hash ^ mix(block), 27) * 5L + CHAR_SEED;
+        }
+        if (i < length) {
+            long block = 0L;
+            for (int shift = 0; i < length; ++i, shift += 16) {
+                block |= (long) text.charAt(i) << shift;
+            }
+            hash ^= mix(block);
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Finalization step of the MurmurHash3 algorithm, which makes every bit
+     * of the result depend on every bit of the input.
+     */
+    private static long mix(long value) {
+        long h = value;
+        h = (h ^ (h >>> 33)) * MIX_MULTIPLIER_1;
+        h = (h ^ (h >>> 33)) * MIX_MULTIPLIER_2;
+        return h ^ (h >>> 33);
+    }
+
+}
@@ -0,0 +1,63 @@
+package cz.auderis.infra.toggle.runtime;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Rollouts of the toggles of a registry, see {@link ToggleRollout}. The bucket hash
+ * of every toggle is seeded by its name once when the registry is created, and
+ * the rollouts are read without locking, so that evaluating a toggle for an entity
+ * neither allocates nor locks. A rollout affects only the evaluation for entities;
+ * toggle values, read handles and dispatch handles are not affected.
+ */
+final class ToggleRolloutTable {
+
+    private final long[] seeds;
+    private final AtomicReferenceArray<ToggleRollout> rollouts;
+
+    ToggleRolloutTable(List<String> toggleNames) {
+        this.seeds = new long[toggleNames.size()];
+        for (int ordinal = 0; ordinal < seeds.length; ++ordinal) {
+            seeds[ordinal] = ToggleRollout.hash(toggleNames.get(ordinal));
+        }
+        this.rollouts = new AtomicReferenceArray<>(seeds.length);
+    }
+
+    /**
+     * Returns the rollout of a toggle, or {@code null} if the toggle applies to all entities.
+     */
+    ToggleRollout get(int ordinal) {
+        return rollouts.get(ordinal);
+    }
+
+    /**
+     * Changes the rollout of a toggle. Changes must be serialized by the caller.
+     *
+     * @return {@code true} if the rollout changed
+     */
+    boolean set(int ordinal, ToggleRollout rollout) {
+        if (Objects.equals(rollouts.get(ordinal), rollout)) {
+            return false;
+        }
+        rollouts.set(ordinal, rollout);
+        return true;
+    }
+
+    /**
+     * Checks whether an entity falls into the rollout of an enabled toggle.
+     */
+    boolean includes(int ordinal, long entityKey) {
+        final var rollout = rollouts.get(ordinal);
+        return (null == rollout) || rollout.includes(ToggleRollout.bucketOf(seeds[ordinal], entityKey));
+    }
+
+    /**
+     * Checks whether an entity falls into the rollout of an enabled toggle.
+     */
+    boolean includes(int ordinal, CharSequence entityKey) {
+        final var rollout = rollouts.get(ordinal);
+        return (null == rollout) || rollout.includes(ToggleRollout.bucketOf(seeds[ordinal], entityKey));
+    }
+
+}
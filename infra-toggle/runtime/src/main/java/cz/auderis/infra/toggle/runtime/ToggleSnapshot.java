@@ -0,0 +1,112 @@
+package cz.auderis.infra.toggle.runtime;
+
+import java.util.Arrays;
+
+/**
+ * Immutable copy of the values of all toggles in a registry, indexed by
+ * toggle ordinals. The snapshot is consistent and identifies the registry
+ * version it was taken at; two snapshots are equal if they hold the same
+ * toggle values, regardless of their versions.
+ *
+ * @author Boleslav Bobcik
+ */
+public final class ToggleSnapshot {
+
+    private final int size;
+    private final long[] words;
+    private final long version;
+
+    ToggleSnapshot(int size, long[] words, long version) {
+        assert words.length == ToggleStateTable.wordCount(size);
+        this.size = size;
+        this.words = words;
+        this.version = version;
+    }
+
+    /**
+     * Returns the number of toggles in the snapshot.
+     *
+     * @return number of toggles
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the version of the registry at the time the snapshot was taken.
+     *
+     * @return registry version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the value of the toggle at the time the snapshot was taken.
+     *
+     * @param ordinal ordinal of the toggle
+     * @return toggle value
+     * @throws IndexOutOfBoundsException if the ordinal is not valid
+     */
+    public boolean isEnabled(int ordinal) {
+        if ((ordinal < 0) || (ordinal >= size)) {
+            throw new IndexOutOfBoundsException("Invalid toggle ordinal: " + ordinal);
+        }
+        return 0L != (words[ordinal >>> 6] & (1L << ordinal));
+    }
+
+    /**
+     * Checks whether all toggles of the mask are enabled in the snapshot.
+     */
+    boolean containsAll(ToggleMask mask) {
+        return mask.isSubsetOf(words);
+    }
+
+    /**
+     * Returns the number of enabled toggles.
+     *
+     * @return number of enabled toggles
+     */
+    public int countEnabled() {
+        int count = 0;
+        for (final var word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the snapshot as an array of 64-bit words, where bit {@code n % 64}
+     * of word {@code n / 64} holds the value of toggle with ordinal {@code n}.
+     *
+     * @return copy of the bitset words
+     */
+    public long[] toLongArray() {
+        return words.clone();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        } else if (obj instanceof ToggleSnapshot other) {
+            return (size == other.size) && Arrays.equals(words, other.words);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * size + Arrays.hashCode(words);
+    }
+
+    @Override
+    public String toString() {
+        final var sb = new StringBuilder(size + 32).append("ToggleSnapshot[v").append(version).append(", ");
+        for (int i = 0; i < size; ++i) {
+            sb.append(isEnabled(i) ? '1' : '0');
+        }
+        return sb.append(']').toString();
+    }
+
+}
@@ -0,0 +1,236 @@
+package cz.auderis.infra.toggle.runtime;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.zip.CRC32C;
+
+/**
+ * Compact wire encoding of the effective toggle values of a registry, used to propagate
+ * the toggle decisions made by one service to the services it calls. The values are
+ * encoded as a bitset indexed by toggle ordinals, so both sides must use registries
+ * generated from the same manifest; this is verified by a fingerprint of the toggle names.
+ * A registry of a few dozen toggles is typically encoded in less than 16 bytes.
+ * <p>
+ * All numbers are big-endian, variable-length numbers are unsigned LEB128 (seven bits
+ * per byte, least significant group first, high bit set on all bytes except the last):
+ * <pre>
+ * byte     format version (1)
+ * int      fingerprint of the registry, CRC-32C of the UTF-8 toggle names in the order
+ *          of ordinals, each followed by a zero byte
+ * varlong  registry version the values were taken at
+ * varint   bitset length in bytes, then the bitset: bit {@code n % 8} of byte {@code n / 8}
+ *          holds the effective value of toggle with ordinal {@code n}; trailing zero bytes
+ *          are omitted
+ * </pre>
+ * The textual form, suitable for a header of a request such as {@value #HEADER_NAME},
+ * is the URL-safe Base64 encoding of the binary form without padding.
+ * <p>
+ * Decoding does not copy the bitset; the returned {@link EncodedToggleState} reads
+ * the values directly from the source buffer. The receiving service usually
+ * {@linkplain ToggleRegistry#runWithSnapshot(ToggleSnapshot, Runnable) runs the request}
+ * with the decoded values.
+ *
+ * @author Boleslav Bobcik
+ */
+public final class ToggleStateCodec {
+
+    /**
+     * Current version of the wire format.
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    /**
+     * Recommended name of the request header that carries the textual form.
+     */
+    public static final String HEADER_NAME = "X-Feature-Toggles";
+
+    private static final int MAX_VARLONG_LENGTH = 10;
+    private static final int MAX_VARINT_LENGTH = 5;
+    private static final Base64.Encoder TEXT_ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder TEXT_DECODER = Base64.getUrlDecoder();
+
+    private final ToggleRegistry registry;
+    private final int fingerprint;
+    private final int maxBitsetLength;
+
+    private ToggleStateCodec(ToggleRegistry registry) {
+        this.registry = registry;
+        this.fingerprint = fingerprintOf(registry);
+        this.maxBitsetLength = (registry.size() + 7) >>> 3;
+    }
+
+    /**
+     * Creates a codec of the values of a registry. The codec is immutable and
+     * is meant to be created once per registry.
+     *
+     * @param registry source and target registry of the values
+     * @return new codec
+     */
+    public static ToggleStateCodec of(ToggleRegistry registry) {
+        return new ToggleStateCodec(Objects.requireNonNull(registry));
+    }
+
+    /**
+     * Returns the fingerprint of the toggles of the registry, as stored in the encoded form.
+     *
+     * @return registry fingerprint
+     */
+    public int getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Returns the maximum length of the binary form produced by this codec.
+     *
+     * @return maximum encoded length in bytes
+     */
+    public int maxEncodedLength() {
+        return 1 + Integer.BYTES + MAX_VARLONG_LENGTH + MAX_VARINT_LENGTH + maxBitsetLength;
+    }
+
+    /**
+     * Writes the effective values of all toggles to the buffer. Within a
+     * {@linkplain ToggleRegistry#runWithSnapshot(Runnable) snapshot scope},
+     * the values of the bound snapshot are written.
+     *
+     * @param target target buffer, its position is advanced past the written bytes
+     * @throws BufferOverflowException if the buffer does not have enough remaining space
+     * @see #maxEncodedLength()
+     */
+    public void encode(ByteBuffer target) {
+        encode(registry.effectiveSnapshot(), target);
+    }
+
+    /**
+     * Writes the values of a snapshot of the registry to the buffer.
+     *
+     * @param snapshot values to write
+     * @param target target buffer, its position is advanced past the written bytes
+     * @throws IllegalArgumentException if the snapshot does not match the registry size
+     * @throws BufferOverflowException if the buffer does not have enough remaining space
+     */
+    public void encode(ToggleSnapshot snapshot, ByteBuffer target) {
+        if (snapshot.size() != registry.size()) {
+            throw new IllegalArgumentException("Snapshot of " + snapshot.size() + " toggles does not match registry "
+                                               + registry.getName());
+        }
+        final var words = snapshot.toLongArray();
+        int bitsetLength = maxBitsetLength;
+        while ((bitsetLength > 0) && (0 == byteOf(words, bitsetLength - 1))) {
+            --bitsetLength;
+        }
+        target.put((byte) FORMAT_VERSION);
+        target.putInt(fingerprint);
+        putVarLong(target, snapshot.getVersion());
+        putVarLong(target, bitsetLength);
+        for (int i = 0; i < bitsetLength; ++i) {
+            target.put(byteOf(words, i));
+        }
+    }
+
+    /**
+     * Encodes the effective values of all toggles to the textual form.
+     *
+     * @return URL-safe Base64 encoding of the values
+     * @see #encode(ByteBuffer)
+     */
+    public String encodeToString() {
+        final var buffer = ByteBuffer.allocate(maxEncodedLength());
+        encode(buffer);
+        final var bytes = new byte[buffer.position()];
+        buffer.flip().get(bytes);
+        return TEXT_ENCODER.encodeToString(bytes);
+    }
+
+    /**
+     * Decodes the values from the buffer. The bitset is not copied, so the buffer
+     * content must not be changed while the decoded state is in use.
+     *
+     * @param source source buffer, its position is advanced past the decoded bytes
+     * @return decoded toggle values
+     * @throws IllegalArgumentException if the data are malformed, use an unsupported format version
+     *                                  or were encoded for a registry with different toggles
+     */
+    public EncodedToggleState decode(ByteBuffer source) {
+        try {
+            final var version = Byte.toUnsignedInt(source.get());
+            if (FORMAT_VERSION != version) {
+                throw new IllegalArgumentException("Unsupported toggle state format version " + version);
+            }
+            final var encodedFingerprint = source.getInt();
+            if (fingerprint != encodedFingerprint) {
+                throw new IllegalArgumentException(String.format("Toggle state fingerprint %08x does not match registry %s",
+                                                                 encodedFingerprint, registry.getName()));
+            }
+            final var registryVersion = getVarLong(source);
+            final var bitsetLength = getVarLong(source);
+            if ((bitsetLength < 0L) || (bitsetLength > maxBitsetLength)) {
+                throw new IllegalArgumentException("Toggle state bitset too long: " + bitsetLength);
+            }
+            final var offset = source.position();
+            if (bitsetLength > source.limit() - offset) {
+                throw new IllegalArgumentException("Truncated toggle state");
+            }
+            source.position(offset + (int) bitsetLength);
+            return new EncodedToggleState(registry.size(), source, offset, (int) bitsetLength, registryVersion);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated toggle state", e);
+        }
+    }
+
+    /**
+     * Decodes the values from the textual form.
+     *
+     * @param text URL-safe Base64 encoding of the values, with or without padding
+     * @return decoded toggle values
+     * @throws IllegalArgumentException if the text is not valid Base64, or if the data are malformed,
+     *                                  use an unsupported format version or were encoded for a registry
+     *                                  with different toggles
+     */
+    public EncodedToggleState decode(String text) {
+        final var source = ByteBuffer.wrap(TEXT_DECODER.decode(text));
+        final var state = decode(source);
+        if (source.hasRemaining()) {
+            throw new IllegalArgumentException("Unexpected data after toggle state");
+        }
+        return state;
+    }
+
+    private static int fingerprintOf(ToggleRegistry registry) {
+        final var crc = new CRC32C();
+        for (final var toggleName : registry.getToggleNames()) {
+            crc.update(toggleName.getBytes(StandardCharsets.UTF_8));
+            crc.update(0);
+        }
+        return (int) crc.getValue();
+    }
+
+    private static byte byteOf(long[] words, int index) {
+        return (byte) (words[index >>> 3] >>> ((index & 7) << 3));
+    }
+
+    private static void putVarLong(ByteBuffer target, long value) {
+        while (0L != (value & ~0x7FL)) {
+            target.put((byte) ((value & 0x7FL) | 0x80L));
+            value >>>= 7;
+        }
+        target.put((byte) value);
+    }
+
+    private static long getVarLong(ByteBuffer source) {
+        long value = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final var b = source.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed variable-length number in toggle state");
+    }
+
+}
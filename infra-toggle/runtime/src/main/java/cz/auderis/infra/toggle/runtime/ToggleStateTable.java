@@ -0,0 +1,154 @@
+package cz.auderis.infra.toggle.runtime;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free bitset that holds values of toggles indexed by their ordinals.
+ * The bitset is immutable and every change replaces it as a whole with
+ * a single compare-and-set, so that a change of several toggles becomes
+ * visible to all readers at once. Reading a toggle is a single acquire load
+ * of the current bitset followed by a load of the word that contains its bit;
+ * readers never wait for writers.
+ * <p>
+ * The table also holds a version, which is incremented by every change
+ * and always matches the toggle values it is read with.
+ */
+final class ToggleStateTable {
+
+    private final int size;
+    private final int wordCount;
+
+    /**
+     * Words of the bitset followed by the version; a published array is never modified.
+     */
+    private final AtomicReference<long[]> current;
+
+    ToggleStateTable(int size) {
+        this(size, new boolean[Math.max(size, 0)]);
+    }
+
+    ToggleStateTable(int size, boolean[] initialValues) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Negative size");
+        }
+        this.size = size;
+        this.wordCount = wordCount(size);
+        final var words = new long[wordCount + 1];
+        for (int ordinal = 0; ordinal < size; ++ordinal) {
+            if (initialValues[ordinal]) {
+                words[ordinal >>> 6] |= 1L << ordinal;
+            }
+        }
+        this.current = new AtomicReference<>(words);
+    }
+
+    static int wordCount(int size) {
+        return (size + 63) >>> 6;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean get(int ordinal) {
+        final int index = wordIndex(ordinal);
+        return 0L != (current.getAcquire()[index] & (1L << ordinal));
+    }
+
+    /**
+     * Checks whether all toggles of the mask are set, using a single acquire load
+     * of the current bitset.
+     */
+    boolean allSet(ToggleMask mask) {
+        return mask.isSubsetOf(current.getAcquire());
+    }
+
+    long version() {
+        return current.getAcquire()[wordCount];
+    }
+
+    /**
+     * Sets the bit of the toggle and returns its previous value.
+     */
+    boolean set(int ordinal, boolean value) {
+        final int index = wordIndex(ordinal);
+        final long mask = 1L << ordinal;
+        while (true) {
+            final var words = current.getAcquire();
+            final boolean oldValue = (0L != (words[index] & mask));
+            if (oldValue == value) {
+                return oldValue;
+            }
+            final var updated = words.clone();
+            updated[index] ^= mask;
+            ++updated[wordCount];
+            if (current.compareAndSet(words, updated)) {
+                return oldValue;
+            }
+        }
+    }
+
+    /**
+     * Sets the bits of toggles {@code ordinals[i]} to the values held in bit {@code i}
+     * of the bitset {@code newValues}, all at once, and returns the new version.
+     */
+    long setAll(int[] ordinals, int count, long[] newValues) {
+        for (int i = 0; i < count; ++i) {
+            wordIndex(ordinals[i]);
+        }
+        while (true) {
+            final var words = current.getAcquire();
+            final var updated = words.clone();
+            for (int i = 0; i < count; ++i) {
+                final var ordinal = ordinals[i];
+                if (0L != (newValues[i >>> 6] & (1L << i))) {
+                    updated[ordinal >>> 6] |= 1L << ordinal;
+                } else {
+                    updated[ordinal >>> 6] &= ~(1L << ordinal);
+                }
+            }
+            ++updated[wordCount];
+            if (current.compareAndSet(words, updated)) {
+                return updated[wordCount];
+            }
+        }
+    }
+
+    /**
+     * Increments the version without changing any toggle and returns the new version.
+     */
+    long incrementVersion() {
+        while (true) {
+            final var words = current.getAcquire();
+            final var updated = words.clone();
+            ++updated[wordCount];
+            if (current.compareAndSet(words, updated)) {
+                return updated[wordCount];
+            }
+        }
+    }
+
+    /**
+     * Copies the words of the bitset into an array.
+     */
+    long[] copyWords() {
+        return Arrays.copyOf(current.getAcquire(), wordCount);
+    }
+
+    /**
+     * Captures the current values together with their version.
+     */
+    ToggleSnapshot snapshot() {
+        final var words = current.getAcquire();
+        return new ToggleSnapshot(size, Arrays.copyOf(words, wordCount), words[wordCount]);
+    }
+
+    private int wordIndex(int ordinal) {
+        if ((ordinal < 0) || (ordinal >= size)) {
+            throw new IndexOutOfBoundsException("Invalid toggle ordinal: " + ordinal);
+        }
+        return ordinal >>> 6;
+    }
+
+}
@@ -0,0 +1,9 @@
+/**
+ * Run-time support for feature toggles. Classes in this package are used
+ * by the code generated by the feature toggle annotation processor and
+ * by tools that manage feature toggle state while the application is running.
+ *
+ * @author Boleslav Bobcik
+ * @since 2023
+ */
+package cz.auderis.infra.toggle.runtime;
@@ -0,0 +1,11 @@
+module cz.auderis.infra.toggle.runtime {
+
+    requires transitive cz.auderis.infra.toggle;
+    requires transitive cz.auderis.infra.toggle.manifest;
+    requires transitive java.management;
+    requires jdk.jfr;
+    requires cz.auderis.infra.tools;
+
+    exports cz.auderis.infra.toggle.runtime;
+
+}
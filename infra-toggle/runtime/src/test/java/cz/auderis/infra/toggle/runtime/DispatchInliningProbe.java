@@ -0,0 +1,79 @@
+package cz.auderis.infra.toggle.runtime;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Program executed by {@link DispatchInliningTest} in a separate JVM with
+ * inlining diagnostics enabled. It mirrors the code generated for a feature
+ * method pair and compares it with a direct call of an equivalent method.
+ */
+public class DispatchInliningProbe {
+
+    static final int ITERATIONS = 200_000;
+
+    static final ToggleRegistry REGISTRY = ToggleRegistry.builder("probe").toggle("feature", false).build();
+    static final MethodHandle DISPATCH;
+
+    static {
+        try {
+            final var lookup = MethodHandles.lookup();
+            final var type = MethodType.methodType(int.class, int.class);
+            DISPATCH = REGISTRY.dispatchHandle(0,
+                    lookup.findStatic(DispatchInliningProbe.class, "legacyImpl", type),
+                    lookup.findStatic(DispatchInliningProbe.class, "featureImpl", type));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    static int legacyImpl(int x) {
+        return x + 1;
+    }
+
+    static int featureImpl(int x) {
+        return x + 2;
+    }
+
+    static int directImpl(int x) {
+        return x + 2;
+    }
+
+    static int dispatch(int x) {
+        try {
+            return (int) DISPATCH.invokeExact(x);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static int dispatchLoop(int n) {
+        int sum = 0;
+        for (int i = 0; i < n; ++i) {
+            sum += dispatch(i);
+        }
+        return sum;
+    }
+
+    static int directLoop(int n) {
+        int sum = 0;
+        for (int i = 0; i < n; ++i) {
+            sum += directImpl(i);
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) {
+        REGISTRY.setEnabled("feature", true);
+        long checksum = 0;
+        for (int round = 0; round < 20; ++round) {
+            checksum += dispatchLoop(ITERATIONS);
+            checksum += directLoop(ITERATIONS);
+        }
+        System.out.println("checksum=" + checksum);
+    }
+
+}
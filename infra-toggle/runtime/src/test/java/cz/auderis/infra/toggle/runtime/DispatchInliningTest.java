@@ -0,0 +1,61 @@
+package cz.auderis.infra.toggle.runtime;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Verifies that the JIT compiler inlines the implementation of a feature method
+ * invoked through the dispatch handle the same way as a direct call. The probe
+ * program is executed in a separate JVM with {@code -XX:+PrintInlining}.
+ */
+public class DispatchInliningTest {
+
+    private static final Pattern FEATURE_INLINED = inlinedMethodPattern("featureImpl");
+    private static final Pattern DIRECT_INLINED = inlinedMethodPattern("directImpl");
+
+    @Test
+    void shouldInlineDispatchedImplementationLikeDirectCall() throws Exception {
+        // Given
+        final var javaBinary = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        final var command = List.of(javaBinary,
+                "-cp", System.getProperty("java.class.path"),
+                "-XX:+UnlockDiagnosticVMOptions",
+                "-XX:+PrintInlining",
+                "-XX:-TieredCompilation",
+                "-Xbatch",
+                DispatchInliningProbe.class.getName());
+        // When
+        final var output = runProcess(command);
+        // Then
+        assertThat("Direct call not inlined:\n" + output, DIRECT_INLINED.matcher(output).find(), is(true));
+        assertThat("Dispatched call not inlined:\n" + output, FEATURE_INLINED.matcher(output).find(), is(true));
+    }
+
+    private static Pattern inlinedMethodPattern(String methodName) {
+        return Pattern.compile("DispatchInliningProbe::" + methodName + "\\b.*\\binline \\(hot\\)");
+    }
+
+    private static String runProcess(List<String> command) throws IOException, InterruptedException {
+        final var process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        final byte[] output;
+        try (final var in = process.getInputStream()) {
+            output = in.readAllBytes();
+        }
+        if (!process.waitFor(2, TimeUnit.MINUTES)) {
+            process.destroyForcibly();
+            throw new IllegalStateException("Probe did not finish in time");
+        }
+        assertThat("Probe failed", process.exitValue(), is(0));
+        return new String(output, StandardCharsets.UTF_8);
+    }
+
+}
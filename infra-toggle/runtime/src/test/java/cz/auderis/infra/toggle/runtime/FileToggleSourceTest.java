@@ -0,0 +1,191 @@
+package cz.auderis.infra.toggle.runtime;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class FileToggleSourceTest {
+
+    private static final long TIMEOUT_MILLIS = 10_000L;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void shouldApplyInitialFileContent() throws IOException {
+        // Given
+        final var registry = createRegistry();
+        final var file = Files.writeString(directory.resolve("toggles.properties"), "feature1 = true\nfeature3=false\n");
+        // When
+        try (final var source = FileToggleSource.watch(registry, file)) {
+            // Then
+            assertThat("Wrong file", source.getFile(), is(file.toAbsolutePath()));
+            assertThat("Wrong value of feature1", registry.isEnabled("feature1"), is(true));
+            assertThat("Wrong value of feature2", registry.isEnabled("feature2"), is(false));
+            assertThat("Wrong value of feature3", registry.isEnabled("feature3"), is(false));
+        }
+    }
+
+    @Test
+    void shouldApplyModifiedFile() throws Exception {
+        // Given
+        final var registry = createRegistry();
+        final var file = Files.writeString(directory.resolve("toggles.properties"), "feature1=true\n");
+        try (final var ignored = FileToggleSource.watch(registry, file)) {
+            // When
+            Files.writeString(file, "feature1=false\nfeature2=true\n");
+            // Then
+            awaitCondition(() -> registry.isEnabled("feature2"));
+            assertThat("Wrong value of feature1", registry.isEnabled("feature1"), is(false));
+        }
+    }
+
+    @Test
+    void shouldApplyReplacedJsonFile() throws Exception {
+        // Given
+        final var registry = createRegistry();
+        final var file = directory.resolve("toggles.json");
+        try (final var ignored = FileToggleSource.watch(registry, file)) {
+            final var tempFile = Files.writeString(directory.resolve("toggles.tmp"),
+                                                   "{ \"feature1\": true, \"feature\\u0032\": true, \"feature3\": false }");
+            // When
+            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+            // Then
+            awaitCondition(() -> registry.isEnabled("feature1"));
+            assertThat("Wrong value of feature2", registry.isEnabled("feature2"), is(true));
+            assertThat("Wrong value of feature3", registry.isEnabled("feature3"), is(false));
+        }
+    }
+
+    @Test
+    void shouldKeepStateWhenFileIsInvalid() throws Exception {
+        // Given
+        final var registry = createRegistry();
+        final var file = Files.writeString(directory.resolve("toggles.json"), "{\"feature1\": true}");
+        try (final var source = FileToggleSource.watch(registry, file)) {
+            final var version = registry.getVersion();
+            // When
+            Files.writeString(file, "{\"feature1\": false, \"feature2\": yes}");
+            final var exception = assertThrows(IOException.class, source::reload);
+            Files.writeString(file, "{\"feature2\": true}");
+            // Then
+            awaitCondition(() -> registry.isEnabled("feature2"));
+            assertThat("Wrong message", exception.getMessage(), is("Expected boolean value at position 32"));
+            assertThat("Wrong value of feature1", registry.isEnabled("feature1"), is(true));
+            assertThat("Wrong version", registry.getVersion(), is(version + 1L));
+        }
+    }
+
+    @Test
+    void shouldRejectInvalidInitialFile() throws IOException {
+        // Given
+        final var registry = createRegistry();
+        final var file = Files.writeString(directory.resolve("toggles.properties"), "feature1=maybe\n");
+        // When / Then
+        assertThrows(IOException.class, () -> FileToggleSource.watch(registry, file));
+        assertThat("Registry changed", registry.getVersion(), is(0L));
+    }
+
+    @Test
+    void shouldIgnoreUndefinedToggles() throws IOException {
+        // Given
+        final var registry = createRegistry();
+        final var file = Files.writeString(directory.resolve("toggles.properties"), "other.feature=true\nfeature3=true\n");
+        // When
+        try (final var ignored = FileToggleSource.watch(registry, file)) {
+            // Then
+            assertThat("Wrong value of feature3", registry.isEnabled("feature3"), is(true));
+            assertThat("Wrong version", registry.getVersion(), is(1L));
+        }
+    }
+
+    @Test
+    void shouldApplyFileCreatedLater() throws Exception {
+        // Given
+        final var registry = createRegistry();
+        final var file = directory.resolve("toggles.properties");
+        try (final var ignored = FileToggleSource.watch(registry, file)) {
+            assertThat("Registry changed", registry.getVersion(), is(0L));
+            // When
+            Files.writeString(file, "feature2=true\n");
+            // Then
+            awaitCondition(() -> registry.isEnabled("feature2"));
+        }
+    }
+
+    @Test
+    void shouldNeverExposePartiallyAppliedFile() throws Exception {
+        // Given
+        final var registry = createRegistry();
+        final var file = directory.resolve("toggles.properties");
+        final var stop = new AtomicBoolean();
+        final var inconsistencies = new AtomicInteger();
+        final var reader = new Thread(() -> {
+            while (!stop.get()) {
+                final var snapshot = registry.snapshot();
+                if (snapshot.isEnabled(0) != snapshot.isEnabled(2)) {
+                    inconsistencies.incrementAndGet();
+                }
+            }
+        });
+        try (final var source = FileToggleSource.watch(registry, file)) {
+            reader.start();
+            // When
+            for (int i = 0; i < 200; ++i) {
+                final var value = (0 == (i & 1));
+                final var tempFile = Files.writeString(directory.resolve("toggles.tmp"),
+                                                       "feature1=" + value + "\nfeature3=" + value + "\n");
+                Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+                source.reload();
+            }
+        } finally {
+            stop.set(true);
+            reader.join();
+        }
+        // Then
+        assertThat("Inconsistent snapshots", inconsistencies.get(), is(0));
+    }
+
+    @Test
+    void shouldStopWatchingWhenClosed() throws Exception {
+        // Given
+        final var registry = createRegistry();
+        final var file = Files.writeString(directory.resolve("toggles.properties"), "feature1=true\n");
+        final var source = FileToggleSource.watch(registry, file);
+        // When
+        source.close();
+        Files.writeString(file, "feature1=false\n");
+        TimeUnit.MILLISECONDS.sleep(200L);
+        // Then
+        assertThat("Change applied after close", registry.isEnabled("feature1"), is(true));
+    }
+
+    private static ToggleRegistry createRegistry() {
+        return ToggleRegistry.builder("test")
+                             .toggle("feature1", false)
+                             .toggle("feature2", false)
+                             .toggle("feature3", false)
+                             .build();
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        final var deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            assertThat("Change not applied in time", System.currentTimeMillis() < deadline, is(true));
+            TimeUnit.MILLISECONDS.sleep(10L);
+        }
+    }
+
+}
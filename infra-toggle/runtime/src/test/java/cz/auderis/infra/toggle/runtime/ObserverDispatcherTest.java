@@ -0,0 +1,189 @@
+package cz.auderis.infra.toggle.runtime;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+public class ObserverDispatcherTest {
+
+    @Test
+    void shouldCoalesceRepeatedChanges() {
+        // Given
+        final var registry = ToggleRegistry.builder("test").toggle("feature1", false).build();
+        final var executor = new QueueExecutor();
+        final var notifications = new ArrayList<String>();
+        registry.setObserverExecutor(executor);
+        registry.addObserver((name, value) -> notifications.add(name + "=" + value), 0);
+        // When
+        registry.setEnabled(0, true);
+        registry.setEnabled(0, false);
+        registry.setEnabled(0, true);
+        executor.runAll();
+        // Then
+        assertThat("Delivery not coalesced", executor.executedTasks, is(1));
+        assertThat("Wrong notifications", notifications, contains("feature1=true"));
+    }
+
+    @Test
+    void shouldSkipChangeThatWasReverted() {
+        // Given
+        final var registry = ToggleRegistry.builder("test").toggle("feature1", false).build();
+        final var executor = new QueueExecutor();
+        final var notifications = new ArrayList<String>();
+        registry.setObserverExecutor(executor);
+        registry.addObserver((name, value) -> notifications.add(name + "=" + value), 0);
+        // When
+        registry.setEnabled(0, true);
+        registry.setEnabled(0, false);
+        executor.runAll();
+        // Then
+        assertThat("Reverted change delivered", notifications.isEmpty(), is(true));
+    }
+
+    @Test
+    void shouldNotifyOnlyObservedToggles() {
+        // Given
+        final var registry = ToggleRegistry.builder("test")
+                                           .toggle("feature1", false)
+                                           .toggle("feature2", false)
+                                           .build();
+        final var executor = new QueueExecutor();
+        final var notifications = new ArrayList<String>();
+        registry.setObserverExecutor(executor);
+        registry.addObserver((name, value) -> notifications.add(name + "=" + value), 1);
+        // When
+        registry.setEnabled(0, true);
+        registry.setEnabled(1, true);
+        executor.runAll();
+        // Then
+        assertThat("Wrong notifications", notifications, contains("feature2=true"));
+    }
+
+    @Test
+    void shouldNotRunCallbacksInChangingThread() throws Exception {
+        // Given
+        final var builder = ToggleRegistry.builder("test");
+        for (int i = 0; i < 500; ++i) {
+            builder.toggle("feature" + i, false);
+        }
+        final var registry = builder.build();
+        final var ordinals = new int[500];
+        for (int i = 0; i < ordinals.length; ++i) {
+            ordinals[i] = i;
+        }
+        final var changingThread = Thread.currentThread();
+        final var callbacksInChangingThread = new AtomicInteger();
+        final var delivered = new CountDownLatch(500);
+        registry.addObserver((name, value) -> {
+            if (Thread.currentThread() == changingThread) {
+                callbacksInChangingThread.incrementAndGet();
+            }
+            delivered.countDown();
+        }, ordinals);
+        // When
+        for (int i = 0; i < 500; ++i) {
+            registry.setEnabled(i, true);
+        }
+        // Then
+        assertThat("Notifications not delivered", delivered.await(1, TimeUnit.MINUTES), is(true));
+        assertThat("Callback executed by changing thread", callbacksInChangingThread.get(), is(0));
+    }
+
+    @Test
+    void shouldContinueAfterObserverFailure() {
+        // Given
+        final var registry = ToggleRegistry.builder("test")
+                                           .toggle("feature1", false)
+                                           .toggle("feature2", false)
+                                           .build();
+        final var executor = new QueueExecutor();
+        final List<String> notifications = new ArrayList<>();
+        registry.setObserverExecutor(executor);
+        registry.addObserver((name, value) -> {
+            notifications.add(name);
+            throw new IllegalStateException("Observer failure");
+        }, 0, 1);
+        // When
+        registry.setEnabled(0, true);
+        registry.setEnabled(1, true);
+        executor.runAll();
+        // Then
+        assertThat("Wrong notifications", notifications, contains("feature1", "feature2"));
+    }
+
+    @Test
+    void shouldKeepNotifyingAfterObserverError() {
+        // Given
+        final var registry = ToggleRegistry.builder("test")
+                                           .toggle("feature1", false)
+                                           .toggle("feature2", false)
+                                           .build();
+        final var executor = new QueueExecutor();
+        final List<String> notifications = new ArrayList<>();
+        registry.setObserverExecutor(executor);
+        registry.addObserver((name, value) -> {
+            notifications.add(name);
+            if (name.equals("feature1")) {
+                throw new AssertionError("Observer error");
+            }
+        }, 0, 1);
+        // When
+        registry.setEnabled(0, true);
+        executor.runAll();
+        registry.setEnabled(1, true);
+        executor.runAll();
+        // Then
+        assertThat("Wrong notifications", notifications, contains("feature1", "feature2"));
+    }
+
+    @Test
+    void shouldStopNotifyingRemovedObserver() {
+        // Given
+        final var registry = ToggleRegistry.builder("test").toggle("feature1", false).build();
+        final var executor = new QueueExecutor();
+        final var notifications = new ArrayList<String>();
+        final ToggleObserver observer = (name, value) -> notifications.add(name);
+        registry.setObserverExecutor(executor);
+        registry.addObserver(observer, 0);
+        // When
+        final var removed = registry.removeObserver(observer);
+        registry.setEnabled(0, true);
+        executor.runAll();
+        // Then
+        assertThat("Observer not removed", removed, is(true));
+        assertThat("Removed observer notified", notifications.isEmpty(), is(true));
+        assertThat("Task scheduled for removed observer", executor.executedTasks, is(not(1)));
+    }
+
+
+    static class QueueExecutor implements Executor {
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+        int executedTasks;
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            Runnable task;
+            while (null != (task = tasks.poll())) {
+                ++executedTasks;
+                task.run();
+            }
+        }
+    }
+
+}
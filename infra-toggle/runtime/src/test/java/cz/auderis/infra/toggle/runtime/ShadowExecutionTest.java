@@ -0,0 +1,148 @@
+package cz.auderis.infra.toggle.runtime;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ShadowExecutionTest {
+
+    private static final MethodType IMPLEMENTATION_TYPE = MethodType.methodType(String.class, int.class);
+
+    @Test
+    void shouldCompareResultsOfBothImplementations() throws Throwable {
+        // Given
+        final var registry = createRegistry(false);
+        final var dispatcher = registry.dispatchHandle(0, implementation("legacy"), implementation("feature"));
+        registry.startShadowExecution("feature1", ShadowExecution.builder().executor(Runnable::run).build());
+        // When
+        final var result = (String) dispatcher.invokeExact(4);
+        final var otherResult = (String) dispatcher.invokeExact(5);
+        // Then
+        final var statistics = registry.shadowStatistics(0).orElseThrow();
+        assertThat("Wrong result", result, is("even"));
+        assertThat("Wrong result", otherResult, is("legacy"));
+        assertThat("Wrong match count", statistics.getMatchCount(), is(1L));
+        assertThat("Wrong mismatch count", statistics.getMismatchCount(), is(1L));
+        assertThat("Wrong legacy call count", statistics.getLegacyLatency().getCount(), is(2L));
+        assertThat("Wrong feature call count", statistics.getFeatureLatency().getCount(), is(2L));
+    }
+
+    @Test
+    void shouldNotPropagateShadowFailure() throws Throwable {
+        // Given
+        final var registry = createRegistry(false);
+        final var failure = MethodHandles.dropArguments(
+                MethodHandles.throwException(String.class, IllegalStateException.class)
+                             .bindTo(new IllegalStateException("Broken feature")), 0, int.class);
+        final var dispatcher = registry.dispatchHandle(0, implementation("legacy"), failure);
+        registry.startShadowExecution(0, ShadowExecution.builder().executor(Runnable::run).build());
+        // When
+        final var result = (String) dispatcher.invokeExact(1);
+        // Then
+        assertThat("Wrong result", result, is("legacy"));
+        assertThat("Failure not counted", registry.shadowStatistics(0).orElseThrow().getMismatchCount(), is(1L));
+    }
+
+    @Test
+    void shouldRevertSlowFeature() throws Throwable {
+        // Given
+        final var registry = createRegistry(true);
+        final var slowFeature = MethodHandles.filterReturnValue(implementation("feature"),
+                MethodHandles.lookup().findStatic(ShadowExecutionTest.class, "slow",
+                                                  MethodType.methodType(String.class, String.class)));
+        final var dispatcher = registry.dispatchHandle(0, implementation("legacy"), slowFeature);
+        registry.startShadowExecution(0, ShadowExecution.builder()
+                                                        .executor(Runnable::run)
+                                                        .autoRevert(0.5, 10L)
+                                                        .build());
+        // When
+        for (int i = 0; i < 10; ++i) {
+            final var slowResult = (String) dispatcher.invokeExact(1);
+        }
+        final var result = (String) dispatcher.invokeExact(1);
+        // Then
+        assertThat("Toggle not reverted", registry.isEnabled(0), is(false));
+        assertThat("Revert not reported", registry.shadowStatistics(0).orElseThrow().isReverted(), is(true));
+        assertThat("Reverted toggle not relinked", result, is("legacy"));
+    }
+
+    @Test
+    void shouldUnlinkShadowExecution() throws Throwable {
+        // Given
+        final var registry = createRegistry(true);
+        final var dispatcher = registry.dispatchHandle(0, implementation("legacy"), implementation("feature"));
+        registry.startShadowExecution(0, ShadowExecution.builder().executor(Runnable::run).build());
+        final var result = (String) dispatcher.invokeExact(2);
+        // When
+        final var statistics = registry.stopShadowExecution(0).orElseThrow();
+        final var unshadowedResult = (String) dispatcher.invokeExact(2);
+        // Then
+        assertThat("Wrong result", result, is("even"));
+        assertThat("Wrong result", unshadowedResult, is("even"));
+        assertThat("Wrong final statistics", statistics.getMatchCount(), is(1L));
+        assertThat("Statistics still available", registry.shadowStatistics(0).isPresent(), is(false));
+        assertThat("Shadow execution stopped twice", registry.stopShadowExecution(0).isPresent(), is(false));
+    }
+
+    @Test
+    void shouldRejectInvalidSettings() {
+        // Given
+        final var builder = ShadowExecution.builder();
+        // When / Then
+        assertThrows(IllegalArgumentException.class, () -> builder.samplingInterval(3));
+        assertThrows(IllegalArgumentException.class, () -> builder.autoRevert(-0.1, 100L));
+        assertThrows(IllegalArgumentException.class, () -> builder.autoRevert(0.1, 0L));
+    }
+
+    @Test
+    void shouldReportPercentilesWithinBucketPrecision() {
+        // Given
+        final var buckets = new AtomicLongArray(LatencyHistogram.BUCKET_COUNT);
+        for (long value = 1L; value <= 1000L; ++value) {
+            buckets.incrementAndGet(LatencyHistogram.bucketIndex(value * 1000L));
+        }
+        buckets.incrementAndGet(LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+        // When
+        final var histogram = LatencyHistogram.copyOf(buckets);
+        // Then
+        assertThat("Wrong count", histogram.getCount(), is(1001L));
+        assertThat("Wrong median", histogram.getValueAtPercentile(50.0),
+                   is(allOf(greaterThanOrEqualTo(500_000L), lessThanOrEqualTo(516_000L))));
+        assertThat("Wrong p99", histogram.getValueAtPercentile(99.0),
+                   is(allOf(greaterThanOrEqualTo(991_000L), lessThanOrEqualTo(1_023_000L))));
+        assertThat("Wrong maximum", histogram.getValueAtPercentile(100.0), is(Long.MAX_VALUE));
+    }
+
+    private static ToggleRegistry createRegistry(boolean enabled) {
+        return ToggleRegistry.builder("test").toggle("feature1", enabled).build();
+    }
+
+    private static MethodHandle implementation(String name) throws ReflectiveOperationException {
+        return MethodHandles.lookup().findStatic(ShadowExecutionTest.class, name, IMPLEMENTATION_TYPE);
+    }
+
+    private static String legacy(int value) {
+        return (0 == value % 2) ? "even" : "legacy";
+    }
+
+    private static String feature(int value) {
+        return (0 == value % 2) ? "even" : "feature";
+    }
+
+    private static String slow(String value) {
+        LockSupport.parkNanos(2_000_000L);
+        return value;
+    }
+
+}
@@ -0,0 +1,132 @@
+package cz.auderis.infra.toggle.runtime;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.time.Instant;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ToggleAccessTrackingTest {
+
+    @Test
+    void shouldReportNoAccessWithoutTracking() throws Throwable {
+        // Given
+        final var registry = ToggleRegistry.builder("test").toggle("feature1", false).build();
+        final MethodHandle handle = registry.readHandle(0);
+        // When
+        final var value = (boolean) handle.invokeExact();
+        final var snapshot = registry.accessSnapshot();
+        // Then
+        assertThat("Wrong value", value, is(false));
+        assertThat("Access recorded", snapshot.isAccessed(0), is(false));
+        assertThat("Wrong access count", snapshot.getAccessCount(0), is(0L));
+        assertThat("Access time present", snapshot.getFirstAccessTime(0).isPresent(), is(false));
+    }
+
+    @Test
+    void shouldCountReadAccesses() throws Throwable {
+        // Given
+        final var registry = ToggleRegistry.builder("test")
+                                           .toggle("feature1", false)
+                                           .toggle("feature2", true)
+                                           .toggle("feature3", false)
+                                           .build();
+        final MethodHandle handle = registry.readHandle(1);
+        final var start = Instant.now().minusMillis(1L);
+        // When
+        registry.startAccessTracking(1);
+        boolean value = false;
+        for (int i = 0; i < 1000; ++i) {
+            value = (boolean) handle.invokeExact();
+        }
+        final var snapshot = registry.accessSnapshot();
+        // Then
+        assertThat("Wrong value", value, is(true));
+        assertThat("Wrong access count", snapshot.getAccessCount(1), is(1000L));
+        assertThat("Wrong unaccessed toggles", snapshot.getUnaccessedOrdinals(), is(new int[] {0, 2}));
+        final var firstAccess = snapshot.getFirstAccessTime(1).orElseThrow();
+        final var lastAccess = snapshot.getLastAccessTime(1).orElseThrow();
+        assertThat("Wrong first access", firstAccess.isAfter(start), is(true));
+        assertThat("Wrong last access", lastAccess.isBefore(firstAccess), is(false));
+    }
+
+    @Test
+    void shouldKeepTrackingAfterToggleChange() throws Throwable {
+        // Given
+        final var registry = ToggleRegistry.builder("test").toggle("feature1", false).build();
+        final MethodHandle handle = registry.readHandle(0);
+        registry.startAccessTracking(1);
+        // When
+        final var oldValue = (boolean) handle.invokeExact();
+        registry.setEnabled(0, true);
+        final var newValue = (boolean) handle.invokeExact();
+        // Then
+        assertThat("Wrong old value", oldValue, is(false));
+        assertThat("Wrong new value", newValue, is(true));
+        assertThat("Wrong access count", registry.accessSnapshot().getAccessCount(0), is(2L));
+    }
+
+    @Test
+    void shouldCountDispatches() throws Throwable {
+        // Given
+        final var registry = ToggleRegistry.builder("test").toggle("feature1", false).build();
+        final var dispatcher = registry.dispatchHandle(0,
+                MethodHandles.constant(String.class, "legacy"),
+                MethodHandles.constant(String.class, "new"));
+        registry.startAccessTracking(1);
+        // When
+        final var result = (String) dispatcher.invokeExact();
+        // Then
+        assertThat("Wrong result", result, is("legacy"));
+        assertThat("Wrong access count", registry.accessSnapshot().getAccessCount(0), is(1L));
+    }
+
+    @Test
+    void shouldStopRecordingAndKeepStatistics() throws Throwable {
+        // Given
+        final var registry = ToggleRegistry.builder("test").toggle("feature1", false).build();
+        final MethodHandle handle = registry.readHandle(0);
+        registry.startAccessTracking(1);
+        // When
+        final var firstValue = (boolean) handle.invokeExact();
+        registry.stopAccessTracking();
+        final var secondValue = (boolean) handle.invokeExact();
+        // Then
+        assertThat("Wrong values", firstValue || secondValue, is(false));
+        assertThat("Wrong access count", registry.accessSnapshot().getAccessCount(0), is(1L));
+    }
+
+    @Test
+    void shouldEstimateSampledAccesses() throws Throwable {
+        // Given
+        final var registry = ToggleRegistry.builder("test").toggle("feature1", false).build();
+        final MethodHandle handle = registry.readHandle(0);
+        registry.startAccessTracking(16);
+        // When
+        for (int i = 0; i < 160_000; ++i) {
+            final var value = (boolean) handle.invokeExact();
+            assert !value;
+        }
+        final var snapshot = registry.accessSnapshot();
+        // Then
+        assertThat("Wrong sampling interval", snapshot.getSamplingInterval(), is(16));
+        assertThat("Wrong estimate", snapshot.getAccessCount(0), allOf(greaterThan(140_000L), lessThan(180_000L)));
+    }
+
+    @Test
+    void shouldRejectInvalidSamplingInterval() {
+        // Given
+        final var registry = ToggleRegistry.builder("test").toggle("feature1", false).build();
+        // When / Then
+        assertThrows(IllegalArgumentException.class, () -> registry.startAccessTracking(0));
+        assertThrows(IllegalArgumentException.class, () -> registry.startAccessTracking(10));
+    }
+
+}
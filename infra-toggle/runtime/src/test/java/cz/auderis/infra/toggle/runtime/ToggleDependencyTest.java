@@ -0,0 +1,198 @@
+package cz.auderis.infra.toggle.runtime;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ToggleDependencyTest {
+
+    @Test
+    void shouldRequireTransitivePrerequisites() {
+        // Given
+        final var registry = ToggleRegistry.builder("test")
+                                           .toggle("base", false)
+                                           .toggle("feature", true)
+                                           .toggle("extension", true)
+                                           .prerequisite("feature", "base")
+                                           .prerequisite("extension", "feature")
+                                           .build();
+        // When
+        final var initialValue = registry.isEnabled("extension");
+        registry.setEnabled("base", true);
+        final var enabledValue = registry.isEnabled("extension");
+        registry.setEnabled("feature", false);
+        // Then
+        assertThat("Missing prerequisite ignored", initialValue, is(false));
+        assertThat("Satisfied prerequisites ignored", enabledValue, is(true));
+        assertThat("Transitive prerequisite ignored", registry.isEnabled("extension"), is(false));
+        assertThat("Raw value affected by prerequisite", registry.isSet(registry.ordinalOf("extension")), is(true));
+        assertThat("Snapshot affected by prerequisite", registry.snapshot().isEnabled(2), is(true));
+    }
+
+    @Test
+    void shouldRelinkDependentCallSites() throws Throwable {
+        // Given
+        final var registry = ToggleRegistry.builder("test")
+                                           .toggle("base", false)
+                                           .toggle("feature", true)
+                                           .prerequisite(1, 0)
+                                           .build();
+        final var readHandle = registry.readHandle(1);
+        final var dispatcher = registry.dispatchHandle(1,
+                MethodHandles.constant(String.class, "legacy"),
+                MethodHandles.constant(String.class, "new"));
+        final var initialValue = (boolean) readHandle.invokeExact();
+        final var initialResult = (String) dispatcher.invokeExact();
+        // When
+        registry.setEnabled("base", true);
+        // Then
+        assertThat("Wrong initial value", initialValue, is(false));
+        assertThat("Wrong initial implementation", initialResult, is("legacy"));
+        assertThat("Read handle not relinked", (boolean) readHandle.invokeExact(), is(true));
+        assertThat("Dispatcher not relinked", (String) dispatcher.invokeExact(), is("new"));
+    }
+
+    @Test
+    void shouldNotifyObserversOfEffectiveChanges() {
+        // Given
+        final var registry = ToggleRegistry.builder("test")
+                                           .toggle("base", false)
+                                           .toggle("feature", false)
+                                           .prerequisite(1, 0)
+                                           .build();
+        final var notifications = new ArrayList<String>();
+        registry.setObserverExecutor(Runnable::run);
+        registry.addObserver((name, value) -> notifications.add(name + "=" + value), 1);
+        // When
+        registry.setEnabled("feature", true);
+        registry.setEnabled("base", true);
+        registry.setEnabled("base", false);
+        // Then
+        assertThat("Wrong notifications", notifications, contains("feature=true", "feature=false"));
+    }
+
+    @Test
+    void shouldEvaluatePrerequisitesForEntities() {
+        // Given
+        final var registry = ToggleRegistry.builder("test")
+                                           .toggle("base", false)
+                                           .toggle("feature", true)
+                                           .prerequisite(1, 0)
+                                           .build();
+        // When
+        final var disabledValue = registry.isEnabledFor(1, 42L);
+        registry.setEnabled("base", true);
+        // Then
+        assertThat("Missing prerequisite ignored", disabledValue, is(false));
+        assertThat("Wrong value for entity", registry.isEnabledFor(1, "user42"), is(true));
+    }
+
+    @Test
+    void shouldSupportPrerequisitesAcrossWords() {
+        // Given
+        final var builder = ToggleRegistry.builder("test");
+        for (int i = 0; i < 200; ++i) {
+            builder.toggle("feature" + i, true);
+        }
+        builder.prerequisite(5, 150).prerequisite(150, 70);
+        final var registry = builder.build();
+        // When
+        registry.setEnabled(70, false);
+        // Then
+        assertThat("Prerequisite in other word ignored", registry.isEnabled(5), is(false));
+        assertThat("Unrelated toggle affected", registry.isEnabled(6), is(true));
+        assertThat("Dependent toggle not affected", registry.isEnabled(150), is(false));
+    }
+
+    @Test
+    void shouldRejectPrerequisiteCycle() {
+        // Given
+        final var builder = ToggleRegistry.builder("test")
+                                          .toggle("feature1", false)
+                                          .toggle("feature2", false)
+                                          .toggle("feature3", false)
+                                          .prerequisite(0, 1)
+                                          .prerequisite(1, 2)
+                                          .prerequisite(2, 0);
+        // When
+        final var e = assertThrows(IllegalArgumentException.class, builder::build);
+        // Then
+        assertThat("Wrong message", e.getMessage(),
+                   is("Feature toggle prerequisites form a cycle: feature1 -> feature2 -> feature3 -> feature1"));
+    }
+
+    @Test
+    void shouldRejectUndefinedPrerequisite() {
+        // Given
+        final var builder = ToggleRegistry.builder("test").toggle("feature1", false);
+        // When / Then
+        assertThrows(IllegalArgumentException.class, () -> builder.prerequisite("feature1", "feature2"));
+        assertThrows(IllegalArgumentException.class, () -> builder.prerequisite(0, 1).build());
+        assertThrows(IllegalArgumentException.class,
+                     () -> ToggleRegistry.builder("test").toggle("feature1", false).prerequisite(0, 0).build());
+    }
+
+    @Test
+    void shouldEnableGroupAtOnce() {
+        // Given
+        final var registry = ToggleRegistry.builder("test")
+                                           .toggle("base", false)
+                                           .toggle("feature1", false)
+                                           .toggle("feature2", false)
+                                           .prerequisite(2, 0)
+                                           .group("checkout", "feature1", "feature2")
+                                           .build();
+        final var version = registry.getVersion();
+        // When
+        final var newVersion = registry.setGroupEnabled("checkout", true);
+        final var enabledWithoutPrerequisite = registry.isGroupEnabled("checkout");
+        registry.setEnabled("base", true);
+        // Then
+        assertThat("Wrong group names", registry.getGroupNames(), is(Set.of("checkout")));
+        assertThat("Wrong group members", registry.getGroupMembers("checkout"), is(List.of("feature1", "feature2")));
+        assertThat("Group not changed atomically", newVersion, is(version + 1L));
+        assertThat("Prerequisite of group member ignored", enabledWithoutPrerequisite, is(false));
+        assertThat("Group not enabled", registry.isGroupEnabled("checkout"), is(true));
+        assertThat("Prerequisite changed with group", registry.snapshot().isEnabled(0), is(true));
+    }
+
+    @Test
+    void shouldRejectUnknownGroup() {
+        // Given
+        final var registry = ToggleRegistry.builder("test")
+                                           .toggle("feature1", false)
+                                           .group("group1", 0)
+                                           .build();
+        // When / Then
+        assertThrows(IllegalArgumentException.class, () -> registry.isGroupEnabled("group2"));
+        assertThrows(IllegalArgumentException.class, () -> registry.setGroupEnabled("group2", true));
+        assertThrows(IllegalArgumentException.class, () -> ToggleRegistry.builder("test").group("group1", 0).build());
+    }
+
+    @Test
+    void shouldNotAffectTogglesOutsideDependencies() {
+        // Given
+        final var registry = ToggleRegistry.builder("test")
+                                           .toggle("base", true)
+                                           .toggle("feature", true)
+                                           .toggle("other", false)
+                                           .prerequisite(1, 0)
+                                           .build();
+        // When
+        final var version = registry.setEnabled(Map.of("base", false, "other", true));
+        // Then
+        assertThat("Wrong version", version, is(1L));
+        assertThat("Dependent toggle not disabled", registry.isEnabled("feature"), is(false));
+        assertThat("Independent toggle not changed", registry.isEnabled("other"), is(true));
+    }
+
+}
@@ -0,0 +1,167 @@
+package cz.auderis.infra.toggle.runtime;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ToggleFlightRecorderTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void shouldRecordToggleChanges() throws Exception {
+        // Given
+        final var registry = ToggleRegistry.builder("test")
+                                           .toggle("feature1", false)
+                                           .toggle("feature2", true)
+                                           .toggle("feature3", false)
+                                           .build();
+        final var values = new LinkedHashMap<String, Boolean>();
+        values.put("feature1", true);
+        values.put("feature2", false);
+        values.put("feature3", false);
+        // When
+        final List<RecordedEvent> events;
+        try (final var recording = new Recording()) {
+            recording.enable(ToggleChangeEvent.NAME);
+            recording.start();
+            registry.setEnabled(values);
+            events = stopAndRead(recording, ToggleChangeEvent.NAME);
+        }
+        // Then
+        assertThat("Wrong number of events", events.size(), is(2));
+        final var event = events.stream().filter(e -> "feature2".equals(e.getString("toggle"))).findFirst().orElseThrow();
+        assertThat("Wrong registry", event.getString("registry"), is("test"));
+        assertThat("Wrong old value", event.getBoolean("oldValue"), is(true));
+        assertThat("Wrong new value", event.getBoolean("newValue"), is(false));
+        assertThat("Wrong source", event.getString("source"), is(ToggleRegistry.SOURCE_API));
+        assertThat("Wrong version", event.getLong("version"), is(1L));
+    }
+
+    @Test
+    void shouldRecordObserverNotifications() throws Exception {
+        // Given
+        final var registry = ToggleRegistry.builder("test").toggle("feature1", false).build();
+        final var observer = new FailingObserver();
+        registry.setObserverExecutor(Runnable::run);
+        registry.addObserver(observer, 0);
+        // When
+        final List<RecordedEvent> events;
+        try (final var recording = new Recording()) {
+            recording.enable(ToggleObserverEvent.NAME);
+            recording.start();
+            registry.setEnabled(0, true);
+            events = stopAndRead(recording, ToggleObserverEvent.NAME);
+        }
+        // Then
+        assertThat("Wrong number of events", events.size(), is(1));
+        final var event = events.get(0);
+        assertThat("Wrong toggle", event.getString("toggle"), is("feature1"));
+        assertThat("Wrong value", event.getBoolean("value"), is(true));
+        assertThat("Wrong observer", event.getClass("observer").getName(), is(FailingObserver.class.getName()));
+        assertThat("Failure not recorded", event.getBoolean("failed"), is(true));
+    }
+
+    @Test
+    void shouldRecordDispatchesOnlyWhileRecordingIsActive() throws Throwable {
+        // Given
+        final var registry = ToggleRegistry.builder("test").toggle("feature1", false).build();
+        final var dispatcher = registry.dispatchHandle(0, implementation("legacyImplementation"), implementation("featureImplementation"));
+        // When
+        final List<RecordedEvent> events;
+        try (final var recording = new Recording()) {
+            recording.enable(FeatureDispatchEvent.NAME);
+            recording.start();
+            invoke(dispatcher, 3);
+            registry.startDispatchRecording(1);
+            invoke(dispatcher, 10);
+            registry.setEnabled(0, true);
+            invoke(dispatcher, 5);
+            assertThrows(IllegalArgumentException.class, () -> {
+                final var ignored = (int) dispatcher.invokeExact(-1);
+            });
+            registry.stopDispatchRecording();
+            invoke(dispatcher, 7);
+            events = stopAndRead(recording, FeatureDispatchEvent.NAME);
+        }
+        // Then
+        final var eventsByImplementation = events.stream().collect(Collectors.partitioningBy(e -> e.getBoolean("featureImplementation")));
+        assertThat("Wrong legacy dispatch count", eventsByImplementation.get(false).size(), is(10));
+        assertThat("Wrong feature dispatch count", eventsByImplementation.get(true).size(), is(6));
+        assertThat("Wrong toggle", events.get(0).getString("toggle"), is("feature1"));
+        assertThat("Wrong failure count", events.stream().filter(e -> e.getBoolean("failed")).count(), is(1L));
+    }
+
+    @Test
+    void shouldSampleDispatches() throws Throwable {
+        // Given
+        final var registry = ToggleRegistry.builder("test").toggle("feature1", true).build();
+        final var dispatcher = registry.dispatchHandle(0, implementation("legacyImplementation"), implementation("featureImplementation"));
+        // When
+        final List<RecordedEvent> events;
+        try (final var recording = new Recording()) {
+            recording.enable(FeatureDispatchEvent.NAME);
+            recording.start();
+            registry.startDispatchRecording(16);
+            invoke(dispatcher, 16_000);
+            events = stopAndRead(recording, FeatureDispatchEvent.NAME);
+        }
+        // Then
+        assertThat("Wrong number of sampled dispatches", (events.size() > 500) && (events.size() < 1500), is(true));
+        assertThrows(IllegalArgumentException.class, () -> registry.startDispatchRecording(3));
+    }
+
+    static final class FailingObserver implements ToggleObserver {
+        @Override
+        public void toggleChanged(String toggleName, boolean newValue) {
+            throw new IllegalStateException("Observer failure");
+        }
+    }
+
+    static int legacyImplementation(int x) {
+        return x;
+    }
+
+    static int featureImplementation(int x) {
+        if (x < 0) {
+            throw new IllegalArgumentException("Negative argument");
+        }
+        return 2 * x;
+    }
+
+    private static MethodHandle implementation(String name) throws ReflectiveOperationException {
+        return MethodHandles.lookup().findStatic(ToggleFlightRecorderTest.class, name, MethodType.methodType(int.class, int.class));
+    }
+
+    private static void invoke(MethodHandle dispatcher, int count) throws Throwable {
+        for (int i = 0; i < count; ++i) {
+            final var ignored = (int) dispatcher.invokeExact(i);
+        }
+    }
+
+    private List<RecordedEvent> stopAndRead(Recording recording, String eventName) throws IOException {
+        recording.stop();
+        final var file = directory.resolve("recording.jfr");
+        recording.dump(file);
+        return RecordingFile.readAllEvents(file).stream()
+                            .filter(e -> eventName.equals(e.getEventType().getName()))
+                            .collect(Collectors.toList());
+    }
+
+}
@@ -0,0 +1,103 @@
+package cz.auderis.infra.toggle.runtime;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ToggleRegistryManagementTest {
+
+    private ToggleRegistry registry;
+    private MBeanServer server;
+
+    @BeforeEach
+    void createRegistry() {
+        registry = ToggleRegistry.builder("test")
+                                 .toggle("feature1", false)
+                                 .toggle("feature2", true)
+                                 .toggle("feature3", false)
+                                 .build();
+        server = MBeanServerFactory.newMBeanServer();
+    }
+
+    @Test
+    void shouldRegisterSingleMBean() throws Exception {
+        // When
+        final var name = registry.registerMBean(server);
+        // Then
+        assertThat("Wrong object name", name, is(new ObjectName("cz.auderis.infra.toggle:type=ToggleRegistry,name=\"test\"")));
+        assertThat("Wrong number of MBeans", server.queryNames(new ObjectName("cz.auderis.infra.toggle:*"), null).size(), is(1));
+        assertThat("Wrong toggle count", server.getAttribute(name, "ToggleCount"), is(3));
+    }
+
+    @Test
+    void shouldProvideConsistentState() throws Exception {
+        // Given
+        final var proxy = JMX.newMXBeanProxy(server, registry.registerMBean(server), ToggleRegistryMXBean.class);
+        registry.setEnabled(0, true);
+        // When
+        final var state = proxy.getState();
+        // Then
+        assertThat("Wrong version", state.getVersion(), is(1L));
+        assertThat("Wrong enabled toggles", state.getEnabledToggles(), is(new String[] {"feature1", "feature2"}));
+        assertThat("Wrong disabled toggles", state.getDisabledToggles(), is(new String[] {"feature3"}));
+    }
+
+    @Test
+    void shouldUpdateSeveralToggles() throws Exception {
+        // Given
+        final var proxy = JMX.newMXBeanProxy(server, registry.registerMBean(server), ToggleRegistryMXBean.class);
+        // When
+        final var version = proxy.update(new String[] {"feature1", "feature3"}, new String[] {"feature2"});
+        // Then
+        assertThat("Wrong version", version, is(1L));
+        assertThat("Wrong enabled toggles", proxy.getEnabledToggles(), is(new String[] {"feature1", "feature3"}));
+        assertThat("Registry not changed", registry.isEnabled("feature2"), is(false));
+    }
+
+    @Test
+    void shouldRejectStaleUpdate() throws Exception {
+        // Given
+        final var proxy = JMX.newMXBeanProxy(server, registry.registerMBean(server), ToggleRegistryMXBean.class);
+        final var version = proxy.getVersion();
+        proxy.setEnabled("feature3", true);
+        // When
+        final var result = proxy.compareAndUpdate(version, new String[] {"feature1"}, null);
+        // Then
+        assertThat("Stale update applied", result, is(false));
+        assertThat("Wrong value", registry.isEnabled("feature1"), is(false));
+    }
+
+    @Test
+    void shouldRejectConflictingUpdate() throws Exception {
+        // Given
+        final var proxy = JMX.newMXBeanProxy(server, registry.registerMBean(server), ToggleRegistryMXBean.class);
+        // When / Then
+        assertThrows(IllegalArgumentException.class, () -> proxy.update(new String[] {"feature1"}, new String[] {"feature1"}));
+        assertThat("Version changed", proxy.getVersion(), is(0L));
+    }
+
+    @Test
+    void shouldReportUnaccessedToggles() throws Throwable {
+        // Given
+        final var proxy = JMX.newMXBeanProxy(server, registry.registerMBean(server), ToggleRegistryMXBean.class);
+        final var handle = registry.readHandle(1);
+        // When
+        proxy.startAccessTracking(1);
+        final var value = (boolean) handle.invokeExact();
+        // Then
+        assertThat("Wrong value", value, is(true));
+        assertThat("Wrong unaccessed toggles", proxy.getUnaccessedToggles(), is(new String[] {"feature1", "feature3"}));
+        proxy.stopAccessTracking();
+        assertThat("No toggle accessed", proxy.getUnaccessedToggles().length, is(2));
+        assertThat("Wrong toggle names", proxy.getToggleNames(), is(new String[] {"feature1", "feature2", "feature3"}));
+    }
+
+}
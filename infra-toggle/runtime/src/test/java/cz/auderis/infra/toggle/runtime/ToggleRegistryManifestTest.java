@@ -0,0 +1,109 @@
+package cz.auderis.infra.toggle.runtime;
+
+import cz.auderis.infra.toggle.manifest.ToggleManifest;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class ToggleRegistryManifestTest {
+
+    @Test
+    void shouldCreateRegistry() throws Exception {
+        // Given
+        final var manifest = ToggleManifest.read(ByteBuffer.wrap(manifest(3, 0)));
+        // When
+        final var registry = ToggleRegistry.fromManifest(manifest);
+        // Then
+        assertThat("Wrong registry name", registry.getName(), is("test.Toggles"));
+        assertThat("Wrong ordinal", registry.ordinalOf("feature2"), is(2));
+        assertThat("Wrong value", registry.isEnabled("feature1"), is(true));
+        assertThat("Wrong value", registry.isEnabled("feature2"), is(false));
+    }
+
+    @Test
+    void shouldSkipFrozenToggles() throws Exception {
+        // Given
+        final var manifest = ToggleManifest.read(ByteBuffer.wrap(manifest(4, 2)));
+        // When
+        final var registry = ToggleRegistry.fromManifest(manifest);
+        // Then
+        assertThat("Wrong registry size", registry.size(), is(2));
+        assertThat("Frozen toggle in registry", registry.isDefined("feature3"), is(false));
+        assertThat("Wrong ordinal", registry.ordinalOf("feature1"), is(1));
+    }
+
+    @Test
+    void shouldApplyPrerequisitesAndGroups() throws Exception {
+        // Given
+        final var manifest = ToggleManifest.read(ByteBuffer.wrap(manifest(4, 0)));
+        // When
+        final var registry = ToggleRegistry.fromManifest(manifest);
+        registry.setEnabled("feature2", true);
+        final var enabledWithPrerequisite = registry.isEnabled("feature2");
+        registry.setEnabled("feature1", false);
+        // Then
+        assertThat("Prerequisite not satisfied", enabledWithPrerequisite, is(true));
+        assertThat("Prerequisite ignored", registry.isEnabled("feature2"), is(false));
+        assertThat("Wrong group members", registry.getGroupMembers("odd"), is(List.of("feature1", "feature3")));
+    }
+
+    /**
+     * Creates a manifest whose last {@code frozenCount} toggles are frozen. Toggles with odd
+     * numbers are enabled by default and belong to group {@code odd}, unless they are frozen;
+     * toggle {@code feature2} requires {@code feature1}.
+     */
+    private static byte[] manifest(int toggleCount, int frozenCount) throws IOException {
+        final var bytes = new ByteArrayOutputStream();
+        try (final var out = new DataOutputStream(bytes)) {
+            out.writeInt(ToggleManifest.MAGIC);
+            out.writeShort(ToggleManifest.FORMAT_VERSION);
+            out.writeInt(3 + toggleCount);
+            writeString(out, "test.Toggles");
+            for (int i = 0; i < toggleCount; ++i) {
+                writeString(out, "feature" + i);
+            }
+            writeString(out, "()Z");
+            writeString(out, "odd");
+            out.writeInt(0);
+            out.writeInt(toggleCount);
+            for (int i = 0; i < toggleCount; ++i) {
+                final var frozen = (i >= toggleCount - frozenCount);
+                out.writeInt(1 + i);
+                out.writeByte(0);
+                out.writeByte((i & 1) | (frozen ? 2 : 0));
+                out.writeInt(-1);
+                out.writeInt(-1);
+                out.writeInt(1 + i);
+                out.writeInt(1 + toggleCount);
+                out.writeShort(0);
+                out.writeShort(0);
+                final var requiresPrevious = (2 == i) && !frozen;
+                out.writeShort(requiresPrevious ? 1 : 0);
+                if (requiresPrevious) {
+                    out.writeInt(i);
+                }
+                final var inGroup = (1 == (i & 1)) && !frozen;
+                out.writeShort(inGroup ? 1 : 0);
+                if (inGroup) {
+                    out.writeInt(2 + toggleCount);
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        final var bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+}
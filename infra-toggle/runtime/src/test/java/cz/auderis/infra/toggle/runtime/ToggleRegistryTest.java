@@ -0,0 +1,235 @@
+package cz.auderis.infra.toggle.runtime;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ToggleRegistryTest {
+
+    @Test
+    void shouldProvideDefaultValues() {
+        // Given
+        final var registry = ToggleRegistry.builder("test")
+                                           .toggle("feature1", false)
+                                           .toggle("feature2", true)
+                                           .build();
+        // When
+        final var names = registry.getToggleNames();
+        // Then
+        assertThat("Wrong toggle names", names, containsInAnyOrder("feature1", "feature2"));
+        assertThat("Wrong value of feature1", registry.isEnabled("feature1"), is(false));
+        assertThat("Wrong value of feature2", registry.isEnabled("feature2"), is(true));
+    }
+
+    @Test
+    void shouldReflectChangesInReadHandle() throws Throwable {
+        // Given
+        final var registry = ToggleRegistry.builder("test").toggle("feature1", false).build();
+        final MethodHandle handle = registry.readHandle(0);
+        // When
+        final var oldValue = registry.setEnabled("feature1", true);
+        // Then
+        assertThat("Wrong previous value", oldValue, is(false));
+        assertThat("Handle not relinked", (boolean) handle.invokeExact(), is(true));
+        assertThat("Wrong value", registry.isEnabled("feature1"), is(true));
+        // When
+        registry.setEnabled("feature1", false);
+        // Then
+        assertThat("Handle not relinked", (boolean) handle.invokeExact(), is(false));
+    }
+
+    @Test
+    void shouldRejectUnknownToggle() {
+        // Given
+        final var registry = ToggleRegistry.builder("test").toggle("feature1", false).build();
+        // When / Then
+        assertThrows(IllegalArgumentException.class, () -> registry.isEnabled("feature2"));
+        assertThrows(IllegalArgumentException.class, () -> registry.setEnabled("feature2", true));
+    }
+
+    @Test
+    void shouldRejectDuplicateToggle() {
+        // Given
+        final var builder = ToggleRegistry.builder("test").toggle("feature1", false);
+        // When / Then
+        assertThrows(IllegalArgumentException.class, () -> builder.toggle("feature1", true));
+    }
+
+    @Test
+    void shouldDispatchToActiveImplementation() throws Throwable {
+        // Given
+        final var registry = ToggleRegistry.builder("test").toggle("feature1", false).build();
+        final var type = MethodType.methodType(String.class);
+        final var dispatcher = registry.dispatchHandle(0,
+                MethodHandles.constant(String.class, "legacy"),
+                MethodHandles.constant(String.class, "new"));
+        // When
+        final var legacyResult = (String) dispatcher.invokeExact();
+        registry.setEnabled("feature1", true);
+        final var newResult = (String) dispatcher.invokeExact();
+        // Then
+        assertThat("Wrong dispatcher type", dispatcher.type(), is(type));
+        assertThat("Wrong legacy result", legacyResult, is("legacy"));
+        assertThat("Wrong new result", newResult, is("new"));
+    }
+
+    @Test
+    void shouldRejectIncompatibleImplementations() {
+        // Given
+        final var registry = ToggleRegistry.builder("test").toggle("feature1", false).build();
+        // When / Then
+        assertThrows(IllegalArgumentException.class, () -> registry.dispatchHandle(0,
+                MethodHandles.constant(String.class, "legacy"),
+                MethodHandles.constant(Integer.class, 1)));
+    }
+
+    @Test
+    void shouldAssignOrdinalsInDefinitionOrder() {
+        // Given
+        final var registry = ToggleRegistry.builder("test")
+                                           .toggle(0, "feature1", false)
+                                           .toggle(1, "feature2", true)
+                                           .build();
+        // When
+        final var ordinal1 = registry.ordinalOf("feature1");
+        final var ordinal2 = registry.ordinalOf("feature2");
+        // Then
+        assertThat("Wrong ordinal of feature1", ordinal1, is(0));
+        assertThat("Wrong ordinal of feature2", ordinal2, is(1));
+        assertThat("Wrong name of ordinal 1", registry.nameOf(1), is("feature2"));
+        assertThat("Wrong value of ordinal 1", registry.isEnabled(1), is(true));
+    }
+
+    @Test
+    void shouldRejectUnexpectedOrdinal() {
+        // Given
+        final var builder = ToggleRegistry.builder("test").toggle(0, "feature1", false);
+        // When / Then
+        assertThrows(IllegalArgumentException.class, () -> builder.toggle(2, "feature2", true));
+    }
+
+    @Test
+    void shouldCaptureSnapshot() {
+        // Given
+        final var builder = ToggleRegistry.builder("test");
+        for (int i = 0; i < 100; ++i) {
+            builder.toggle("feature" + i, 0 == i % 3);
+        }
+        final var registry = builder.build();
+        // When
+        final var snapshot = registry.snapshot();
+        registry.setEnabled(1, true);
+        // Then
+        assertThat("Wrong snapshot size", snapshot.size(), is(100));
+        assertThat("Wrong number of enabled toggles", snapshot.countEnabled(), is(34));
+        assertThat("Snapshot changed", snapshot.isEnabled(1), is(false));
+        assertThat("Wrong value in snapshot", snapshot.isEnabled(99), is(true));
+        assertThat("Registry not changed", registry.isEnabled(1), is(true));
+    }
+
+    @Test
+    void shouldChangeSeveralTogglesAtomically() throws Throwable {
+        // Given
+        final var registry = ToggleRegistry.builder("test")
+                                           .toggle("feature1", false)
+                                           .toggle("feature2", true)
+                                           .toggle("feature3", false)
+                                           .build();
+        final MethodHandle handle = registry.readHandle(0);
+        final var initialVersion = registry.getVersion();
+        // When
+        final var version = registry.setEnabled(Map.of("feature1", true, "feature2", false));
+        final var snapshot = registry.snapshot();
+        // Then
+        assertThat("Version not incremented", version, is(initialVersion + 1L));
+        assertThat("Wrong snapshot version", snapshot.getVersion(), is(version));
+        assertThat("Wrong value of feature1", snapshot.isEnabled(0), is(true));
+        assertThat("Wrong value of feature2", snapshot.isEnabled(1), is(false));
+        assertThat("Wrong value of feature3", snapshot.isEnabled(2), is(false));
+        assertThat("Handle not relinked", (boolean) handle.invokeExact(), is(true));
+    }
+
+    @Test
+    void shouldNotChangeVersionWithoutChange() {
+        // Given
+        final var registry = ToggleRegistry.builder("test").toggle("feature1", false).build();
+        final var initialVersion = registry.getVersion();
+        // When
+        registry.setEnabled(0, false);
+        final var version = registry.setEnabled(Map.of("feature1", false));
+        // Then
+        assertThat("Version changed", version, is(initialVersion));
+    }
+
+    @Test
+    void shouldRejectAtomicChangeOfUnknownToggle() {
+        // Given
+        final var registry = ToggleRegistry.builder("test").toggle("feature1", false).build();
+        final var changes = new LinkedHashMap<String, Boolean>();
+        changes.put("feature1", true);
+        changes.put("feature2", true);
+        // When / Then
+        assertThrows(IllegalArgumentException.class, () -> registry.setEnabled(changes));
+        assertThat("Partial change applied", registry.isEnabled(0), is(false));
+        assertThat("Version changed", registry.getVersion(), is(0L));
+    }
+
+    @Test
+    void shouldApplyChangeOnlyAtExpectedVersion() {
+        // Given
+        final var registry = ToggleRegistry.builder("test")
+                                           .toggle("feature1", false)
+                                           .toggle("feature2", false)
+                                           .build();
+        final var snapshot = registry.snapshot();
+        registry.setEnabled(1, true);
+        // When
+        final var staleResult = registry.compareAndSetEnabled(snapshot.getVersion(), Map.of("feature1", true));
+        final var currentResult = registry.compareAndSetEnabled(registry.getVersion(), Map.of("feature1", true));
+        // Then
+        assertThat("Stale change applied", staleResult, is(false));
+        assertThat("Current change not applied", currentResult, is(true));
+        assertThat("Wrong value", registry.isEnabled(0), is(true));
+    }
+
+    @Test
+    void shouldNeverCaptureIncompleteAtomicChange() throws Exception {
+        // Given
+        final var builder = ToggleRegistry.builder("test");
+        for (int i = 0; i < 130; ++i) {
+            builder.toggle("feature" + i, false);
+        }
+        final var registry = builder.build();
+        final var enable = Map.of("feature0", true, "feature70", true, "feature129", true);
+        final var disable = Map.of("feature0", false, "feature70", false, "feature129", false);
+        final var inconsistentSnapshots = new AtomicInteger();
+        final var reader = new Thread(() -> {
+            for (int i = 0; i < 20_000; ++i) {
+                final var snapshot = registry.snapshot();
+                final var enabledCount = snapshot.countEnabled();
+                if ((0 != enabledCount) && (3 != enabledCount)) {
+                    inconsistentSnapshots.incrementAndGet();
+                }
+            }
+        });
+        // When
+        reader.start();
+        for (int i = 0; reader.isAlive(); ++i) {
+            registry.setEnabled((0 == (i & 1)) ? enable : disable);
+        }
+        reader.join();
+        // Then
+        assertThat("Incomplete change captured", inconsistentSnapshots.get(), is(0));
+    }
+
+}
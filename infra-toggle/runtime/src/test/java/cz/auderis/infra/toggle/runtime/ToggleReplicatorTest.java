@@ -0,0 +1,179 @@
+package cz.auderis.infra.toggle.runtime;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ToggleReplicatorTest {
+
+    private static final long TIMEOUT_MILLIS = 10_000L;
+
+    @Test
+    void shouldPropagateChangesToOtherNodes() throws Exception {
+        // Given
+        final var transport = new LoopbackReplicationTransport();
+        final var registryA = createRegistry();
+        final var registryB = createRegistry();
+        final var registryC = createRegistry();
+        try (final var ignoredA = ToggleReplicator.start(registryA, transport, "nodeA");
+             final var ignoredB = ToggleReplicator.start(registryB, transport, "nodeB");
+             final var ignoredC = ToggleReplicator.start(registryC, transport, "nodeC")) {
+            // When
+            registryA.setEnabled(Map.of("feature1", true, "feature2", true));
+            awaitCondition(() -> registryB.isEnabled("feature2"));
+            registryB.setEnabled("feature2", false);
+            // Then
+            awaitCondition(() -> !registryA.isEnabled("feature2") && !registryC.isEnabled("feature2"));
+            assertThat("Wrong value of feature1", registryC.isEnabled("feature1"), is(true));
+            assertThat("Wrong value of feature3", registryC.isEnabled("feature3"), is(false));
+        }
+    }
+
+    @Test
+    void shouldPublishOnlyLocalChanges() {
+        // Given
+        final var transport = new RecordingTransport();
+        final var registry = createRegistry();
+        registry.setEnabled("feature3", true);
+        try (final var replicator = ToggleReplicator.start(registry, transport, "nodeA")) {
+            // When
+            final var values = new LinkedHashMap<String, Boolean>();
+            values.put("feature1", true);
+            values.put("feature3", true);
+            registry.setEnabled(values);
+            registry.setEnabled("feature1", true);
+            transport.deliver(ToggleDelta.of("test", "nodeB", 5L, Map.of("feature2", true)));
+            registry.setEnabled("feature1", false);
+            // Then
+            assertThat("Wrong number of published deltas", transport.published.size(), is(2));
+            assertThat("Wrong delta", transport.published.get(0), is(ToggleDelta.of("test", "nodeA", 1L, Map.of("feature1", true))));
+            assertThat("Wrong delta", transport.published.get(1), is(ToggleDelta.of("test", "nodeA", 6L, Map.of("feature1", false))));
+            assertThat("Received delta not applied", registry.isEnabled("feature2"), is(true));
+            assertThat("Wrong replication version", replicator.getVersion(), is(6L));
+        }
+    }
+
+    @Test
+    void shouldApplyDeltasIdempotentlyRegardlessOfOrder() {
+        // Given
+        final var transport = new RecordingTransport();
+        final var registry = createRegistry();
+        final var older = ToggleDelta.of("test", "nodeB", 1L, Map.of("feature1", false, "feature2", true));
+        final var newer = ToggleDelta.of("test", "nodeC", 2L, Map.of("feature1", true));
+        try (final var ignored = ToggleReplicator.start(registry, transport, "nodeA")) {
+            // When
+            transport.deliver(newer);
+            final var version = registry.getVersion();
+            transport.deliver(newer);
+            transport.deliver(older);
+            // Then
+            assertThat("Older delta overwrote newer one", registry.isEnabled("feature1"), is(true));
+            assertThat("Wrong value of feature2", registry.isEnabled("feature2"), is(true));
+            assertThat("Duplicate delta applied", registry.getVersion(), is(version + 1L));
+            assertThat("Received delta published", transport.published.isEmpty(), is(true));
+        }
+    }
+
+    @Test
+    void shouldConvergeOnConcurrentChanges() {
+        // Given
+        final var pendingDeliveries = new ArrayList<Runnable>();
+        final var transport = new LoopbackReplicationTransport(pendingDeliveries::add);
+        final var registryA = createRegistry();
+        final var registryB = createRegistry();
+        try (final var ignoredA = ToggleReplicator.start(registryA, transport, "nodeA");
+             final var ignoredB = ToggleReplicator.start(registryB, transport, "nodeB")) {
+            // When
+            registryA.setEnabled("feature1", true);
+            registryA.setEnabled("feature2", true);
+            registryB.setEnabled("feature1", true);
+            registryB.setEnabled("feature1", false);
+            registryB.setEnabled("feature3", true);
+            pendingDeliveries.forEach(Runnable::run);
+            // Then
+            assertThat("Nodes not converged", registryA.snapshot(), is(registryB.snapshot()));
+            assertThat("Wrong winner of concurrent change", registryA.isEnabled("feature1"), is(false));
+        }
+    }
+
+    @Test
+    void shouldIgnoreUnknownTogglesAndOtherRegistries() {
+        // Given
+        final var transport = new RecordingTransport();
+        final var registry = createRegistry();
+        try (final var ignored = ToggleReplicator.start(registry, transport, "nodeA")) {
+            // When
+            transport.deliver(ToggleDelta.of("test", "nodeB", 1L, Map.of("feature1", true, "feature9", true)));
+            transport.deliver(ToggleDelta.of("other", "nodeB", 2L, Map.of("feature2", true)));
+            transport.deliver(ToggleDelta.of("test", "nodeA", 3L, Map.of("feature3", true)));
+            // Then
+            assertThat("Wrong value of feature1", registry.isEnabled("feature1"), is(true));
+            assertThat("Delta of other registry applied", registry.isEnabled("feature2"), is(false));
+            assertThat("Own delta applied", registry.isEnabled("feature3"), is(false));
+        }
+    }
+
+    @Test
+    void shouldStopReplicationWhenClosed() {
+        // Given
+        final var transport = new RecordingTransport();
+        final var registry = createRegistry();
+        final var replicator = ToggleReplicator.start(registry, transport, "nodeA");
+        assertThrows(IllegalStateException.class, () -> ToggleReplicator.start(registry, transport, "nodeB"));
+        // When
+        replicator.close();
+        registry.setEnabled("feature1", true);
+        // Then
+        assertThat("Change published after close", transport.published.isEmpty(), is(true));
+        assertThat("Receiver not unsubscribed", transport.receiver, is((Consumer<ToggleDelta>) null));
+        ToggleReplicator.start(registry, transport, "nodeB").close();
+    }
+
+    private static ToggleRegistry createRegistry() {
+        return ToggleRegistry.builder("test")
+                             .toggle("feature1", false)
+                             .toggle("feature2", false)
+                             .toggle("feature3", false)
+                             .build();
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        final var deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            assertThat("Change not replicated in time", System.currentTimeMillis() < deadline, is(true));
+            TimeUnit.MILLISECONDS.sleep(1L);
+        }
+    }
+
+
+    static final class RecordingTransport implements ToggleReplicationTransport {
+        final List<ToggleDelta> published = new ArrayList<>();
+        Consumer<ToggleDelta> receiver;
+
+        @Override
+        public void publish(ToggleDelta delta) {
+            published.add(delta);
+        }
+
+        @Override
+        public Subscription subscribe(Consumer<ToggleDelta> newReceiver) {
+            receiver = newReceiver;
+            return () -> receiver = null;
+        }
+
+        void deliver(ToggleDelta delta) {
+            receiver.accept(delta);
+        }
+    }
+
+}
@@ -0,0 +1,184 @@
+package cz.auderis.infra.toggle.runtime;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ToggleRolloutTest {
+
+    private static final int ENTITY_COUNT = 100_000;
+
+    @Test
+    void shouldEnableForAllEntitiesWithoutRollout() {
+        // Given
+        final var registry = ToggleRegistry.builder("test").toggle("feature1", true).build();
+        // When
+        final var enabledCount = countEnabled(registry, 0);
+        // Then
+        assertThat("Rollout present", registry.getRollout(0).isPresent(), is(false));
+        assertThat("Wrong enabled count", enabledCount, is(ENTITY_COUNT));
+    }
+
+    @Test
+    void shouldDisableForAllEntitiesWhenToggleDisabled() {
+        // Given
+        final var registry = ToggleRegistry.builder("test").toggle("feature1", false).build();
+        // When
+        registry.setRollout(0, ToggleRollout.percentage(100.0));
+        // Then
+        assertThat("Wrong enabled count", countEnabled(registry, 0), is(0));
+        assertThat("Enabled for text key", registry.isEnabledFor(0, "user"), is(false));
+    }
+
+    @Test
+    void shouldEnablePercentageOfEntities() {
+        // Given
+        final var registry = ToggleRegistry.builder("test").toggle("feature1", true).build();
+        // When
+        registry.setRollout("feature1", ToggleRollout.percentage(10.0));
+        final var enabledCount = countEnabled(registry, 0);
+        // Then
+        assertThat("Wrong enabled count", enabledCount, allOf(greaterThan(9_000), lessThan(11_000)));
+    }
+
+    @Test
+    void shouldKeepEntitiesEnabledWhenRampingUp() {
+        // Given
+        final var registry = ToggleRegistry.builder("test").toggle("feature1", true).build();
+        registry.setRollout(0, ToggleRollout.percentage(1.0));
+        final var enabledAtOnePercent = new boolean[ENTITY_COUNT];
+        for (int key = 0; key < ENTITY_COUNT; ++key) {
+            enabledAtOnePercent[key] = registry.isEnabledFor(0, key);
+        }
+        // When
+        registry.setRollout(0, ToggleRollout.percentage(50.0));
+        // Then
+        for (int key = 0; key < ENTITY_COUNT; ++key) {
+            if (enabledAtOnePercent[key]) {
+                assertThat("Entity " + key + " disabled after ramp-up", registry.isEnabledFor(0, key), is(true));
+            }
+        }
+    }
+
+    @Test
+    void shouldTargetDisjointBucketRanges() {
+        // Given
+        final var registry = ToggleRegistry.builder("test").toggle("feature1", true).build();
+        final var groupA = new boolean[ENTITY_COUNT];
+        registry.setRollout(0, ToggleRollout.buckets(0, 5_000));
+        for (int key = 0; key < ENTITY_COUNT; ++key) {
+            groupA[key] = registry.isEnabledFor(0, key);
+        }
+        // When
+        registry.setRollout(0, ToggleRollout.buckets(5_000, ToggleRollout.BUCKET_COUNT));
+        // Then
+        for (int key = 0; key < ENTITY_COUNT; ++key) {
+            assertThat("Entity " + key + " in wrong group", registry.isEnabledFor(0, key), is(!groupA[key]));
+        }
+    }
+
+    @Test
+    void shouldAssignIndependentBucketsToDifferentToggles() {
+        // Given
+        final var registry = ToggleRegistry.builder("test")
+                                           .toggle("feature1", true)
+                                           .toggle("feature2", true)
+                                           .build();
+        registry.setRollout(0, ToggleRollout.percentage(50.0));
+        registry.setRollout(1, ToggleRollout.percentage(50.0));
+        // When
+        int bothEnabled = 0;
+        for (int key = 0; key < ENTITY_COUNT; ++key) {
+            if (registry.isEnabledFor(0, key) && registry.isEnabledFor(1, key)) {
+                ++bothEnabled;
+            }
+        }
+        // Then
+        assertThat("Toggles not independent", bothEnabled, allOf(greaterThan(23_000), lessThan(27_000)));
+    }
+
+    @Test
+    void shouldEvaluateTextKeysByContent() {
+        // Given
+        final var registry = ToggleRegistry.builder("test").toggle("feature1", true).build();
+        registry.setRollout(0, ToggleRollout.percentage(50.0));
+        // When
+        int enabledCount = 0;
+        for (int i = 0; i < 1000; ++i) {
+            final var key = "user-" + i;
+            final var enabled = registry.isEnabledFor(0, key);
+            assertThat("Different result for " + key, registry.isEnabledFor(0, new StringBuilder(key)), is(enabled));
+            if (enabled) {
+                ++enabledCount;
+            }
+        }
+        // Then
+        assertThat("Wrong enabled count", enabledCount, allOf(greaterThan(400), lessThan(600)));
+    }
+
+    @Test
+    void shouldNotAllocateDuringEvaluation() {
+        // Given
+        final var registry = ToggleRegistry.builder("test").toggle("feature1", true).build();
+        registry.setRollout(0, ToggleRollout.percentage(25.0));
+        final var threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final var threadId = Thread.currentThread().getId();
+        final CharSequence textKey = "user@example.com";
+        countEnabled(registry, 0);
+        // When
+        final var startBytes = threadBean.getThreadAllocatedBytes(threadId);
+        int enabledCount = 0;
+        for (int key = 0; key < ENTITY_COUNT; ++key) {
+            if (registry.isEnabledFor(0, key) || registry.isEnabledFor(0, textKey)) {
+                ++enabledCount;
+            }
+        }
+        final var allocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - startBytes;
+        // Then
+        assertThat("Nothing enabled", enabledCount, greaterThan(0));
+        assertThat("Evaluation allocates", allocatedBytes, lessThan(1024L));
+    }
+
+    @Test
+    void shouldIncrementVersionOnRolloutChange() {
+        // Given
+        final var registry = ToggleRegistry.builder("test").toggle("feature1", true).build();
+        final var rollout = ToggleRollout.percentage(10.0);
+        // When
+        registry.setRollout(0, rollout);
+        final var version = registry.getVersion();
+        registry.setRollout(0, ToggleRollout.buckets(0, 1_000));
+        // Then
+        assertThat("Wrong version", version, is(1L));
+        assertThat("Version changed by equal rollout", registry.getVersion(), is(1L));
+        assertThat("Wrong rollout", registry.getRollout(0).orElseThrow(), is(rollout));
+        assertThat("Toggle value changed", registry.isEnabled(0), is(true));
+    }
+
+    @Test
+    void shouldRejectInvalidRollouts() {
+        assertThrows(IllegalArgumentException.class, () -> ToggleRollout.percentage(-1.0));
+        assertThrows(IllegalArgumentException.class, () -> ToggleRollout.percentage(100.5));
+        assertThrows(IllegalArgumentException.class, () -> ToggleRollout.percentage(Double.NaN));
+        assertThrows(IllegalArgumentException.class, () -> ToggleRollout.buckets(10, 5));
+        assertThrows(IllegalArgumentException.class, () -> ToggleRollout.buckets(0, ToggleRollout.BUCKET_COUNT + 1));
+    }
+
+    private static int countEnabled(ToggleRegistry registry, int ordinal) {
+        int count = 0;
+        for (int key = 0; key < ENTITY_COUNT; ++key) {
+            if (registry.isEnabledFor(ordinal, key)) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,143 @@
+package cz.auderis.infra.toggle.runtime;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+public class ToggleSnapshotScopeTest {
+
+    @Test
+    void shouldReadConsistentValuesWithinScope() {
+        // Given
+        final var registry = createRegistry();
+        final var values = new ArrayList<Boolean>();
+        // When
+        registry.runWithSnapshot(() -> {
+            values.add(registry.isEnabled("feature1"));
+            registry.setEnabled("feature1", true);
+            values.add(registry.isEnabled("feature1"));
+            values.add(registry.isEnabledFor(0, 42L));
+        });
+        // Then
+        assertThat("Inconsistent values within scope", values, contains(false, false, false));
+        assertThat("Change not applied", registry.isEnabled("feature1"), is(true));
+    }
+
+    @Test
+    void shouldUseSnapshotInHandles() throws Throwable {
+        // Given
+        final var registry = createRegistry();
+        final var readHandle = registry.readHandle(0);
+        final var dispatcher = registry.dispatchHandle(0,
+                MethodHandles.constant(String.class, "legacy"),
+                MethodHandles.constant(String.class, "new"));
+        // When
+        final List<Object> results = registry.callWithSnapshot(() -> {
+            registry.setEnabled("feature1", true);
+            try {
+                return List.of((boolean) readHandle.invokeExact(), (String) dispatcher.invokeExact());
+            } catch (Throwable e) {
+                throw new AssertionError(e);
+            }
+        });
+        // Then
+        assertThat("Handles ignore snapshot", results, contains(false, "legacy"));
+        assertThat("Read handle not relinked", (boolean) readHandle.invokeExact(), is(true));
+        assertThat("Dispatcher not relinked", (String) dispatcher.invokeExact(), is("new"));
+    }
+
+    @Test
+    void shouldReadCurrentValueThroughHandleOutsideScope() throws Exception {
+        // Given
+        final var registry = createRegistry();
+        final var readHandle = registry.readHandle(0);
+        final var executor = Executors.newSingleThreadExecutor();
+        try {
+            // When
+            final var otherThreadValue = registry.callWithSnapshot(() -> {
+                registry.setEnabled("feature1", true);
+                return CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return (boolean) readHandle.invokeExact();
+                    } catch (Throwable e) {
+                        throw new AssertionError(e);
+                    }
+                }, executor).join();
+            });
+            // Then
+            assertThat("Snapshot leaked to other thread", otherThreadValue, is(true));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void shouldKeepOuterSnapshotInNestedScope() {
+        // Given
+        final var registry = createRegistry();
+        // When
+        final var nestedValue = registry.callWithSnapshot(() -> {
+            registry.setEnabled("feature1", true);
+            return registry.callWithSnapshot(() -> registry.isEnabled("feature1"));
+        });
+        // Then
+        assertThat("Nested scope captured new snapshot", nestedValue, is(false));
+        assertThat("Snapshot bound outside scope", registry.scopedSnapshot().isPresent(), is(false));
+    }
+
+    @Test
+    void shouldNotAffectOtherThreads() throws Exception {
+        // Given
+        final var registry = createRegistry();
+        final var executor = Executors.newSingleThreadExecutor();
+        try {
+            // When
+            final var otherThreadValue = registry.callWithSnapshot(() -> {
+                registry.setEnabled("feature1", true);
+                return CompletableFuture.supplyAsync(() -> registry.isEnabled("feature1"), executor).join();
+            });
+            // Then
+            assertThat("Snapshot leaked to other thread", otherThreadValue, is(true));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void shouldEvaluatePrerequisitesAndGroupsInSnapshot() {
+        // Given
+        final var registry = ToggleRegistry.builder("test")
+                                           .toggle("base", true)
+                                           .toggle("feature", true)
+                                           .prerequisite(1, 0)
+                                           .group("all", 0, 1)
+                                           .build();
+        final var values = new ArrayList<Boolean>();
+        // When
+        registry.runWithSnapshot(() -> {
+            registry.setEnabled("base", false);
+            values.add(registry.isEnabled("feature"));
+            values.add(registry.isGroupEnabled("all"));
+            values.add(registry.scopedSnapshot().orElseThrow().isEnabled(0));
+        });
+        // Then
+        assertThat("Snapshot not used", values, contains(true, true, true));
+        assertThat("Prerequisite ignored outside scope", registry.isEnabled("feature"), is(false));
+    }
+
+    private static ToggleRegistry createRegistry() {
+        return ToggleRegistry.builder("test")
+                             .toggle("feature1", false)
+                             .toggle("feature2", true)
+                             .build();
+    }
+
+}
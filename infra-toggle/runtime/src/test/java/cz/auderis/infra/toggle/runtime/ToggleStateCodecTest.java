@@ -0,0 +1,133 @@
+package cz.auderis.infra.toggle.runtime;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ToggleStateCodecTest {
+
+    @Test
+    void shouldDecodeEncodedBuffer() {
+        // Given
+        final var sender = createRegistry(100);
+        sender.setEnabled(3, true);
+        sender.setEnabled(97, true);
+        final var receiver = createRegistry(100);
+        final var buffer = ByteBuffer.allocate(ToggleStateCodec.of(sender).maxEncodedLength());
+        // When
+        ToggleStateCodec.of(sender).encode(buffer);
+        final var state = ToggleStateCodec.of(receiver).decode(buffer.flip());
+        // Then
+        assertThat("Wrong encoded length", buffer.limit(), is(1 + 4 + 1 + 1 + 13));
+        assertThat("Buffer not consumed", buffer.hasRemaining(), is(false));
+        assertThat("Wrong version", state.getVersion(), is(sender.getVersion()));
+        assertThat("Wrong values", state.toSnapshot(), is(sender.snapshot()));
+        assertThat("Wrong value", state.isEnabled(97), is(true));
+        assertThat("Wrong value", state.isEnabled(98), is(false));
+    }
+
+    @Test
+    void shouldOmitTrailingDisabledToggles() {
+        // Given
+        final var registry = createRegistry(200);
+        registry.setEnabled(0, true);
+        final var codec = ToggleStateCodec.of(registry);
+        // When
+        final var text = codec.encodeToString();
+        final var state = codec.decode(text);
+        // Then
+        assertThat("Encoding too long", text.length(), lessThanOrEqualTo(12));
+        assertThat("Wrong value", state.isEnabled(0), is(true));
+        assertThat("Wrong value beyond bitset", state.isEnabled(199), is(false));
+        assertThat("Wrong snapshot", state.toSnapshot(), is(registry.snapshot()));
+    }
+
+    @Test
+    void shouldEncodeEffectiveValuesOfScope() {
+        // Given
+        final var registry = ToggleRegistry.builder("test")
+                                           .toggle("base", false)
+                                           .toggle("feature", true)
+                                           .toggle("other", false)
+                                           .prerequisite(1, 0)
+                                           .build();
+        final var codec = ToggleStateCodec.of(registry);
+        // When
+        final var outsideScope = codec.decode(codec.encodeToString());
+        final var inScope = registry.callWithSnapshot(() -> {
+            registry.setEnabled("other", true);
+            return codec.decode(codec.encodeToString());
+        });
+        // Then
+        assertThat("Prerequisite ignored", outsideScope.isEnabled(1), is(false));
+        assertThat("Snapshot of scope ignored", inScope.isEnabled(2), is(false));
+        assertThat("Current value ignored", outsideScope.isEnabled(2), is(false));
+        assertThat("Wrong current value", codec.decode(codec.encodeToString()).isEnabled(2), is(true));
+    }
+
+    @Test
+    void shouldRunWithDecodedValues() {
+        // Given
+        final var sender = createRegistry(3);
+        sender.setEnabled(1, true);
+        final var receiver = createRegistry(3);
+        final var header = ToggleStateCodec.of(sender).encodeToString();
+        final var values = new ArrayList<Boolean>();
+        // When
+        final var state = ToggleStateCodec.of(receiver).decode(header);
+        receiver.runWithSnapshot(state.toSnapshot(), () -> {
+            for (int i = 0; i < receiver.size(); ++i) {
+                values.add(receiver.isEnabled(i));
+            }
+        });
+        // Then
+        assertThat("Decoded values not used", values, contains(false, true, false));
+        assertThat("Receiver changed", receiver.isEnabled(1), is(false));
+    }
+
+    @Test
+    void shouldReadValuesWithoutCopying() {
+        // Given
+        final var registry = createRegistry(8);
+        final var codec = ToggleStateCodec.of(registry);
+        registry.setEnabled(0, true);
+        final var buffer = ByteBuffer.allocate(codec.maxEncodedLength());
+        codec.encode(buffer);
+        final var state = codec.decode(buffer.flip());
+        // When
+        buffer.put(buffer.limit() - 1, (byte) 0x80);
+        // Then
+        assertThat("Value copied", state.isEnabled(0), is(false));
+        assertThat("Value copied", state.isEnabled(7), is(true));
+    }
+
+    @Test
+    void shouldRejectForeignState() {
+        // Given
+        final var sender = ToggleRegistry.builder("test").toggle("feature1", true).build();
+        final var receiver = ToggleRegistry.builder("test").toggle("feature2", true).build();
+        final var codec = ToggleStateCodec.of(receiver);
+        final var header = ToggleStateCodec.of(sender).encodeToString();
+        // When / Then
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(header));
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(header.substring(0, 4)));
+        assertThrows(IllegalArgumentException.class, () -> codec.decode("!" + header));
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(ByteBuffer.wrap(new byte[] { 2, 0, 0, 0, 0 })));
+    }
+
+    private static ToggleRegistry createRegistry(int size) {
+        final var builder = ToggleRegistry.builder("test");
+        for (int i = 0; i < size; ++i) {
+            builder.toggle("feature" + i, false);
+        }
+        return builder.build();
+    }
+
+}
@@ -0,0 +1,118 @@
+package cz.auderis.infra.toggle.runtime;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ToggleStateTableTest {
+
+    @Test
+    void shouldSetAndClearBits() {
+        // Given
+        final var table = new ToggleStateTable(130);
+        // When
+        final var previous = table.set(129, true);
+        final var unchanged = table.set(129, true);
+        table.set(64, true);
+        table.set(64, false);
+        // Then
+        assertThat("Wrong previous value", previous, is(false));
+        assertThat("Wrong previous value of unchanged bit", unchanged, is(true));
+        assertThat("Bit not set", table.get(129), is(true));
+        assertThat("Bit not cleared", table.get(64), is(false));
+        assertThat("Wrong word count", table.copyWords().length, is(3));
+        assertThat("Wrong word content", table.copyWords()[2], is(2L));
+    }
+
+    @Test
+    void shouldSetSeveralBitsAtOnce() throws Exception {
+        // Given
+        final var table = new ToggleStateTable(130);
+        final var stop = new AtomicBoolean();
+        final var inconsistencies = new AtomicInteger();
+        final var reader = new Thread(() -> {
+            while (!stop.get()) {
+                // Both bits are set exactly in odd versions
+                final var snapshot = table.snapshot();
+                final var oddVersion = 1L == (snapshot.getVersion() & 1L);
+                if ((snapshot.isEnabled(1) != oddVersion) || (snapshot.isEnabled(129) != oddVersion)) {
+                    inconsistencies.incrementAndGet();
+                }
+            }
+        });
+        reader.start();
+        // When
+        long version = 0L;
+        try {
+            for (int round = 0; round < 10_000; ++round) {
+                final var value = 0 == (round & 1);
+                version = table.setAll(new int[] {1, 129}, 2, new long[] {value ? 3L : 0L});
+            }
+        } finally {
+            stop.set(true);
+            reader.join();
+        }
+        // Then
+        assertThat("Inconsistent state observed", inconsistencies.get(), is(0));
+        assertThat("Wrong version", version, is(10_000L));
+        assertThat("Wrong table version", table.version(), is(10_000L));
+        assertThat("Bits not cleared", table.copyWords(), is(new long[3]));
+    }
+
+    @Test
+    void shouldRejectInvalidOrdinal() {
+        // Given
+        final var table = new ToggleStateTable(10);
+        // When / Then
+        assertThrows(IndexOutOfBoundsException.class, () -> table.get(10));
+        assertThrows(IndexOutOfBoundsException.class, () -> table.set(-1, true));
+        assertThrows(IndexOutOfBoundsException.class, () -> table.setAll(new int[] {0, 10}, 2, new long[1]));
+        assertThat("Table changed", table.version(), is(0L));
+    }
+
+    @Test
+    void shouldNotLoseConcurrentUpdatesOfSharedWord() throws Exception {
+        // Given
+        final var table = new ToggleStateTable(64);
+        final var start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        // When
+        try {
+            for (int t = 0; t < 8; ++t) {
+                final int base = 8 * t;
+                executor.execute(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    for (int round = 0; round < 10_000; ++round) {
+                        for (int bit = 0; bit < 8; ++bit) {
+                            table.set(base + bit, 0 == (round & 1));
+                        }
+                    }
+                    for (int bit = 0; bit < 8; ++bit) {
+                        table.set(base + bit, true);
+                    }
+                });
+            }
+            start.countDown();
+        } finally {
+            executor.shutdown();
+            assertThat("Updates did not finish", executor.awaitTermination(1, TimeUnit.MINUTES), is(true));
+        }
+        // Then
+        assertThat("Lost update", table.copyWords()[0], is(-1L));
+    }
+
+}
@@ -0,0 +1,150 @@
+package cz.auderis.infra.tools;
+
+import cz.auderis.infra.tools.concurrent.VirtualThreadSupport;
+
+import java.util.ArrayList;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Disposes of resources detached from a {@link ResourceManager} in the background.
+ * A coordinating task runs the cleanups in LIFO order; when a deadline applies, every
+ * cleanup runs in a thread of its own, so that the coordinator may stop waiting for it.
+ * A cleanup that does not finish within the resource timeout is reported as
+ * a {@link TimeoutException} and keeps running in its thread, while the coordinator
+ * continues with the next one. Once the overall deadline passes, the remaining cleanups
+ * are started without waiting, and all cleanups not awaited are given a short common grace
+ * period to finish; those that are still running afterwards are listed in a single
+ * {@link TimeoutException}.
+ */
+final class AsyncResourceCloser {
+
+    static final long NO_TIMEOUT = Long.MAX_VALUE;
+    static final long DEADLINE_GRACE_NANOS = TimeUnit.MILLISECONDS.toNanos(20L);
+
+    private final Object[] resources;
+    private final ResourceCleanup<?>[] cleanups;
+    private final long resourceTimeoutNanos;
+    private final long overallTimeoutNanos;
+    private final CompletableFuture<Void> result;
+
+    AsyncResourceCloser(Object[] resources, ResourceCleanup<?>[] cleanups, long resourceTimeoutNanos,
+                        long overallTimeoutNanos) {
+        assert resources.length == cleanups.length;
+        this.resources = resources;
+        this.cleanups = cleanups;
+        this.resourceTimeoutNanos = resourceTimeoutNanos;
+        this.overallTimeoutNanos = overallTimeoutNanos;
+        this.result = new CompletableFuture<>();
+    }
+
+    CompletableFuture<Void> start() {
+        if (0 == resources.length) {
+            result.complete(null);
+        } else {
+            CleanupExecutor.INSTANCE.execute(() -> {
+                try {
+                    run();
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                    throw e;
+                }
+            });
+        }
+        return result;
+    }
+
+    private void run() {
+        final var start = System.nanoTime();
+        final var timed = (NO_TIMEOUT != resourceTimeoutNanos) || (NO_TIMEOUT != overallTimeoutNanos);
+        final var pendingTasks = new ArrayList<Future<Exception>>(0);
+        final var pendingResources = new ArrayList<Object>(0);
+        RuntimeException error = null;
+        boolean interrupted = false;
+        for (int i = resources.length - 1; i >= 0; --i) {
+            final var resource = resources[i];
+            final var cleanup = cleanups[i];
+            resources[i] = null;
+            cleanups[i] = null;
+            if (!timed) {
+                error = addFailure(error, ResourceManager.runQuietly(cleanup, resource));
+                continue;
+            }
+            final var task = CleanupExecutor.INSTANCE.submit(() -> ResourceManager.runQuietly(cleanup, resource));
+            final var remainingNanos = (NO_TIMEOUT != overallTimeoutNanos)
+                                       ? Math.max(0L, overallTimeoutNanos - (System.nanoTime() - start))
+                                       : NO_TIMEOUT;
+            if (interrupted || (0L == remainingNanos)) {
+                pendingTasks.add(task);
+                pendingResources.add(resource);
+                continue;
+            }
+            try {
+                error = addFailure(error, task.get(Math.min(resourceTimeoutNanos, remainingNanos), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                if (remainingNanos < resourceTimeoutNanos) {
+                    pendingTasks.add(task);
+                    pendingResources.add(resource);
+                } else {
+                    error = addFailure(error, new TimeoutException("Cleanup of " + resource.getClass().getName() + " timed out"));
+                }
+            } catch (ExecutionException e) {
+                error = addFailure(error, e.getCause());
+            } catch (InterruptedException e) {
+                interrupted = true;
+                pendingTasks.add(task);
+                pendingResources.add(resource);
+            }
+        }
+        final var notAwaited = new StringJoiner(", ");
+        final var graceEnd = System.nanoTime() + DEADLINE_GRACE_NANOS;
+        for (int i = 0; i < pendingTasks.size(); ++i) {
+            final var waitNanos = interrupted ? 0L : Math.max(0L, graceEnd - System.nanoTime());
+            try {
+                error = addFailure(error, pendingTasks.get(i).get(waitNanos, TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                notAwaited.add(pendingResources.get(i).getClass().getName());
+            } catch (ExecutionException e) {
+                error = addFailure(error, e.getCause());
+            } catch (InterruptedException e) {
+                interrupted = true;
+                notAwaited.add(pendingResources.get(i).getClass().getName());
+            }
+        }
+        if (0 != notAwaited.length()) {
+            final var reason = interrupted ? "Interrupted" : "Overall timeout exceeded";
+            error = addFailure(error, new TimeoutException(reason + ", cleanups not awaited: " + notAwaited));
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (null != error) {
+            result.completeExceptionally(error);
+        } else {
+            result.complete(null);
+        }
+    }
+
+    private static RuntimeException addFailure(RuntimeException error, Throwable failure) {
+        if (null == failure) {
+            return error;
+        }
+        final var result = (null != error) ? error : new RuntimeException("Failed to close resource manager");
+        result.addSuppressed(failure);
+        return result;
+    }
+
+
+    /**
+     * Holder of the executor, which is created only when needed.
+     */
+    private static final class CleanupExecutor {
+        private static final ExecutorService INSTANCE = VirtualThreadSupport.newExecutor("resource-cleanup-");
+    }
+
+}
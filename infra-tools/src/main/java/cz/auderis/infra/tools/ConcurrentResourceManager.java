@@ -0,0 +1,311 @@
+package cz.auderis.infra.tools;
+
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Thread-safe variant of {@link ResourceManager}, which may be shared by tasks
+ * running concurrently, such as subtasks forked within a single structured scope.
+ * Registered resources are kept in a lock-free (Treiber) stack, so registering
+ * a resource is a single compare-and-set and never blocks the registering thread.
+ * <p>
+ * Resources are closed in the reverse order of their registration. Closing the manager
+ * is linearizable with respect to concurrent registrations: the whole stack is detached
+ * at once and the manager becomes closed for good, so a registration either precedes
+ * the close and its resource is closed by the manager, or follows it and fails with
+ * {@link IllegalStateException}; in the latter case, the resource is closed immediately
+ * by the registering thread.
+ * <p>
+ * A {@linkplain #rollbackToSavepoint(Object) rollback to a savepoint} closes all resources
+ * registered after the savepoint was created, including those registered by other threads.
+ *
+ * @author Boleslav Bobcik
+ */
+public class ConcurrentResourceManager implements AutoCloseable {
+
+    private static final Node CLOSED = new Node();
+
+    private final AtomicReference<Node> top;
+
+    /**
+     * Creates an empty resource manager.
+     */
+    public ConcurrentResourceManager() {
+        this.top = new AtomicReference<>();
+    }
+
+    /**
+     * Creates a resource and registers it to be closed by this manager.
+     *
+     * @param supplier supplier of the resource
+     * @param <T> type of the resource
+     * @return created resource, or {@code null} if the supplier returned {@code null}
+     * @throws IllegalStateException if the manager is closed
+     * @throws RuntimeException if the supplier fails, wrapping its checked exception
+     */
+    public <T extends AutoCloseable> T getInstance(Callable<T> supplier) {
+        return getInstance(supplier, AutoCloseable::close);
+    }
+
+    /**
+     * Creates a resource and registers it to be disposed of by this manager using the given cleanup.
+     *
+     * @param supplier supplier of the resource
+     * @param cleanup cleanup of the resource
+     * @param <T> type of the resource
+     * @return created resource, or {@code null} if the supplier returned {@code null}
+     * @throws IllegalStateException if the manager is closed
+     * @throws RuntimeException if the supplier fails, wrapping its checked exception
+     */
+    public <T> T getInstance(Callable<T> supplier, ResourceCleanup<? super T> cleanup) {
+        if ((null == supplier) || (null == cleanup)) {
+            throw new NullPointerException();
+        }
+        checkOpen();
+        final T resource;
+        try {
+            resource = supplier.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        if (null != resource) {
+            push(new Disposer<>(resource, cleanup));
+        }
+        return resource;
+    }
+
+    /**
+     * Creates a resource and registers it to be closed by this manager. Failures of the supplier
+     * are not propagated.
+     *
+     * @param supplier supplier of the resource
+     * @param <T> type of the resource
+     * @return created resource, or empty if the supplier failed or returned {@code null}
+     * @throws IllegalStateException if the manager is closed
+     */
+    public <T extends AutoCloseable> Optional<T> getOptionalInstance(Callable<T> supplier) {
+        return getOptionalInstance(supplier, AutoCloseable::close);
+    }
+
+    /**
+     * Creates a resource and registers it to be disposed of by this manager using the given cleanup.
+     * Failures of the supplier are not propagated.
+     *
+     * @param supplier supplier of the resource
+     * @param cleanup cleanup of the resource
+     * @param <T> type of the resource
+     * @return created resource, or empty if the supplier failed or returned {@code null}
+     * @throws IllegalStateException if the manager is closed
+     */
+    public <T> Optional<T> getOptionalInstance(Callable<T> supplier, ResourceCleanup<? super T> cleanup) {
+        if ((null == supplier) || (null == cleanup)) {
+            throw new NullPointerException();
+        }
+        checkOpen();
+        final T resource;
+        try {
+            resource = supplier.call();
+        } catch (Exception e) {
+            return Optional.empty();
+        }
+        if (null == resource) {
+            return Optional.empty();
+        }
+        push(new Disposer<>(resource, cleanup));
+        return Optional.of(resource);
+    }
+
+    /**
+     * Registers an existing resource to be closed by this manager.
+     *
+     * @param resource resource to register; {@code null} is ignored
+     * @param <T> type of the resource
+     * @throws IllegalStateException if the manager is closed; the resource is closed before the exception is thrown
+     */
+    public <T extends AutoCloseable> void register(T resource) {
+        if (null != resource) {
+            push(new Disposer<>(resource, AutoCloseable::close));
+        }
+    }
+
+    /**
+     * Registers a cleanup of a value.
+     *
+     * @param value value to dispose of
+     * @param cleanup cleanup of the value
+     * @param <T> type of the value
+     * @throws IllegalStateException if the manager is closed; the cleanup is run before the exception is thrown
+     */
+    public <T> void addCleanup(T value, ResourceCleanup<? super T> cleanup) {
+        if ((null == value) || (null == cleanup)) {
+            throw new NullPointerException();
+        }
+        push(new Disposer<>(value, cleanup));
+    }
+
+    /**
+     * Registers a cleanup action.
+     *
+     * @param cleanup cleanup action
+     * @throws IllegalStateException if the manager is closed; the cleanup is run before the exception is thrown
+     */
+    public void addCleanup(Runnable cleanup) {
+        if (null == cleanup) {
+            throw new NullPointerException();
+        }
+        push(new Disposer<>(null, (r) -> cleanup.run()));
+    }
+
+    /**
+     * Marks the current top of the stack of resources. If no resource was registered
+     * since the last savepoint was created, that savepoint is returned.
+     *
+     * @return opaque savepoint
+     * @throws IllegalStateException if the manager is closed
+     */
+    public Object createSavepoint() {
+        final var savepoint = new Savepoint();
+        while (true) {
+            final var current = top.get();
+            if (CLOSED == current) {
+                throw new IllegalStateException("Resource manager closed");
+            } else if (current instanceof Savepoint) {
+                return current;
+            }
+            savepoint.next = current;
+            if (top.compareAndSet(current, savepoint)) {
+                return savepoint;
+            }
+        }
+    }
+
+    /**
+     * Closes all resources registered after the savepoint was created, in the reverse order
+     * of their registration, and removes the savepoint.
+     *
+     * @param savepoint savepoint created by this manager
+     * @throws IllegalArgumentException if the savepoint was not created by this manager or was already removed
+     * @throws IllegalStateException if the manager is closed
+     * @throws RuntimeException if any cleanup fails; all failures are attached as suppressed exceptions
+     */
+    public void rollbackToSavepoint(Object savepoint) {
+        if (null == savepoint) {
+            throw new NullPointerException();
+        } else if (!(savepoint instanceof Savepoint)) {
+            throw new IllegalArgumentException("Invalid savepoint");
+        }
+        while (true) {
+            final var current = top.get();
+            if (CLOSED == current) {
+                throw new IllegalStateException("Resource manager closed");
+            }
+            var node = current;
+            while ((null != node) && (node != savepoint)) {
+                node = node.next;
+            }
+            if (null == node) {
+                throw new IllegalArgumentException("Savepoint not registered");
+            }
+            if (top.compareAndSet(current, node.next)) {
+                final var rollbackError = dispose(current, node, null, "Rollback failed");
+                if (null != rollbackError) {
+                    throw rollbackError;
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Checks whether the manager was closed.
+     *
+     * @return {@code true} if the manager is closed
+     */
+    public boolean isClosed() {
+        return CLOSED == top.get();
+    }
+
+    /**
+     * Closes all registered resources in the reverse order of their registration.
+     * Further registrations are rejected. Closing an already closed manager has no effect.
+     *
+     * @throws RuntimeException if any cleanup fails; all failures are attached as suppressed exceptions
+     */
+    @Override
+    public void close() {
+        final var current = top.getAndSet(CLOSED);
+        if (CLOSED != current) {
+            final var closeError = dispose(current, null, null, "Failed to close resource manager");
+            if (null != closeError) {
+                throw closeError;
+            }
+        }
+    }
+
+    private void checkOpen() {
+        if (CLOSED == top.get()) {
+            throw new IllegalStateException("Resource manager closed");
+        }
+    }
+
+    private void push(Disposer<?> disposer) {
+        while (true) {
+            final var current = top.get();
+            if (CLOSED == current) {
+                final var closedError = new IllegalStateException("Resource manager closed");
+                disposer.next = null;
+                dispose(disposer, null, closedError, null);
+                throw closedError;
+            }
+            disposer.next = current;
+            if (top.compareAndSet(current, disposer)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Runs disposers of a detached part of the stack, from its top up to the end node (exclusive).
+     * Failures are added to the given error, or to a new one with the given message.
+     */
+    private static RuntimeException dispose(Node first, Node end, RuntimeException error, String errorMessage) {
+        for (var node = first; node != end; node = node.next) {
+            if (node instanceof Disposer<?> disposer) {
+                try {
+                    disposer.run();
+                } catch (Exception e) {
+                    if (null == error) {
+                        error = new RuntimeException(errorMessage);
+                    }
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        return error;
+    }
+
+    private static class Node {
+        Node next;
+    }
+
+    private static final class Disposer<T> extends Node {
+        private final T obj;
+        private final ResourceCleanup<? super T> cleanup;
+
+        Disposer(T obj, ResourceCleanup<? super T> cleanup) {
+            this.obj = obj;
+            this.cleanup = cleanup;
+        }
+
+        void run() throws Exception {
+            cleanup.close(obj);
+        }
+    }
+
+    private static final class Savepoint extends Node {
+    }
+
+}
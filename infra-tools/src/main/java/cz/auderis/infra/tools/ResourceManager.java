@@ -1,35 +1,128 @@
 package cz.auderis.infra.tools;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
- *
+ * Keeps track of resources and disposes of them in the reverse order of their
+ * registration when the manager is closed.
+ * <p>
+ * If the manager is created with a close executor, resources may be registered
+ * with a dependency level: a resource may depend only on resources with a lower
+ * level. Leveled resources registered one after another are closed by levels,
+ * starting with the highest one, and all resources of the same level are closed
+ * concurrently on the executor. Resources registered without a level and savepoints
+ * separate such runs, so that the order of closing is still LIFO across them.
+ * <p>
+ * Registered resources and their cleanups are kept in parallel arrays, which grow
+ * as needed and are kept when the manager is closed, so registering a resource
+ * does not allocate once the arrays are large enough. A savepoint is a mark of
+ * the stack depth, so it is validated in constant time and a rollback visits only
+ * the entries registered after the savepoint. A closed manager may be used again,
+ * except for managers {@linkplain #obtain() obtained} from the per-thread pool: these
+ * reject any further registration once closed, and their arrays are handed over
+ * to the next manager obtained by the thread.
+ * <p>
+ * A manager may also be {@linkplain #closeAsync(Duration, Duration) closed asynchronously},
+ * so that the calling thread does not wait for the cleanups, which may be bounded by deadlines.
+ * <p>
+ * Expensive resources may be {@linkplain #getInstance(ResourcePool, Object) borrowed}
+ * from a {@link ResourcePool}, to which they are returned when the manager is closed.
  */
 public class ResourceManager implements AutoCloseable {
 
-    private final Deque<DisposerEntry> disposerStack;
-    private int lastId;
+    private static final int SEQUENTIAL = -1;
+    private static final int INITIAL_CAPACITY = 8;
+    private static final int MAX_POOLED_CAPACITY = 1024;
+    private static final ResourceCleanup<AutoCloseable> CLOSE = AutoCloseable::close;
+    private static final ResourceCleanup<Runnable> RUN = Runnable::run;
+    private static final ResourceCleanup<ResourcePool.Entry<?, ?>> RELEASE = ResourcePool.Entry::release;
+    private static final Object[] NO_RESOURCES = {};
+    private static final ResourceCleanup<?>[] NO_CLEANUPS = {};
+    private static final Savepoint[] NO_SAVEPOINTS = {};
+    private static final ThreadLocal<ResourceManager> POOL = new ThreadLocal<>();
+
+    private final Executor closeExecutor;
+    private final boolean pooled;
+    private Object[] resources;
+    private ResourceCleanup<?>[] cleanups;
+    private int[] levels;
+    private int size;
+    private Savepoint[] savepoints;
+    private int savepointCount;
+    private boolean closed;
 
     public ResourceManager() {
-        this.disposerStack = new ArrayDeque<>(2);
+        this(null);
+    }
+
+    /**
+     * Creates a resource manager that closes independent resources of the same
+     * dependency level concurrently. If the executor rejects a cleanup, the cleanup
+     * runs in the closing thread.
+     *
+     * @param closeExecutor executor of the cleanups, or {@code null} to close all resources sequentially
+     */
+    public ResourceManager(Executor closeExecutor) {
+        this(closeExecutor, false);
+    }
+
+    private ResourceManager(Executor closeExecutor, boolean pooled) {
+        this.closeExecutor = closeExecutor;
+        this.pooled = pooled;
+        this.resources = NO_RESOURCES;
+        this.cleanups = NO_CLEANUPS;
+        this.savepoints = NO_SAVEPOINTS;
+    }
+
+    /**
+     * Returns an empty resource manager that reuses the arrays of the last manager obtained
+     * and closed by the current thread. The returned manager cannot be used after it is
+     * closed, so that a caller that keeps it does not corrupt the managers obtained later.
+     * If the arrays are in use, e.g. by an outer request scope of the same thread, the
+     * manager allocates arrays of its own. The cache pays off on long-lived platform threads;
+     * each virtual thread has a cache of its own.
+     *
+     * @return empty resource manager that closes all resources sequentially
+     */
+    public static ResourceManager obtain() {
+        final var manager = new ResourceManager(null, true);
+        final var cached = POOL.get();
+        if (null != cached) {
+            POOL.remove();
+            manager.resources = cached.resources;
+            manager.cleanups = cached.cleanups;
+            manager.levels = cached.levels;
+            manager.savepoints = cached.savepoints;
+            cached.resources = NO_RESOURCES;
+            cached.cleanups = NO_CLEANUPS;
+            cached.levels = null;
+            cached.savepoints = NO_SAVEPOINTS;
+        }
+        return manager;
     }
 
     public <T extends AutoCloseable> T getInstance(Callable<T> supplier) {
-        return getInstance(supplier, AutoCloseable::close);
+        return getInstance(supplier, CLOSE);
     }
 
     public <T> T getInstance(Callable<T> supplier, ResourceCleanup<? super T> cleanup) {
         if ((null == supplier) || (null == cleanup)) {
             throw new NullPointerException();
         }
+        checkOpen();
         try {
             final T resource = supplier.call();
             if (null != resource) {
-                final var disposer = new BasicDisposer<>(resource, cleanup);
-                disposerStack.addLast(disposer);
+                push(resource, cleanup, SEQUENTIAL);
             }
             return resource;
         } catch (RuntimeException e) {
@@ -39,21 +132,62 @@ public class ResourceManager implements AutoCloseable {
         }
     }
 
+    /**
+     * Borrows a resource from the pool and registers it to be returned to the pool
+     * when this manager is closed.
+     *
+     * @param pool pool of the resources
+     * @param key key of the resource
+     * @param <K> type of the keys
+     * @param <T> type of the resource
+     * @return borrowed resource, or {@code null} if the factory of the pool returned {@code null}
+     * @throws IllegalStateException if the pool is closed
+     * @throws RuntimeException if the factory of the pool fails, wrapping its checked exception
+     */
+    public <K, T> T getInstance(ResourcePool<K, T> pool, K key) {
+        checkOpen();
+        final var entry = pool.borrow(key);
+        if (null == entry) {
+            return null;
+        }
+        push(entry, RELEASE, SEQUENTIAL);
+        return entry.resource;
+    }
+
+    /**
+     * Creates a resource and registers it with a dependency level.
+     *
+     * @param level dependency level of the resource, must not be negative
+     * @param supplier supplier of the resource
+     * @param cleanup cleanup of the resource
+     * @param <T> type of the resource
+     * @return created resource, or {@code null} if the supplier returned {@code null}
+     * @throws IllegalArgumentException if the level is negative
+     */
+    public <T> T getInstance(int level, Callable<T> supplier, ResourceCleanup<? super T> cleanup) {
+        checkLevel(level);
+        final T resource = getInstance(supplier, cleanup);
+        if (null != resource) {
+            setLevel(size - 1, level);
+        }
+        return resource;
+    }
+
     public <T extends AutoCloseable> Optional<T> getOptionalInstance(Callable<T> supplier) {
-        return getOptionalInstance(supplier, AutoCloseable::close);
+        return getOptionalInstance(supplier, CLOSE);
     }
 
-    public <T> Optional<T> getOptionalInstance(Callable<T> supplier, ResourceCleanup<T> cleanup) {
+    public <T> Optional<T> getOptionalInstance(Callable<T> supplier, ResourceCleanup<? super T> cleanup) {
         if ((null == supplier) || (null == cleanup)) {
             throw new NullPointerException();
         }
+        checkOpen();
         try {
             final T resource = supplier.call();
             if (null == resource) {
                 return Optional.empty();
             }
-            final var disposer = new BasicDisposer<>(resource, cleanup);
-            disposerStack.addLast(disposer);
+            push(resource, cleanup, SEQUENTIAL);
             return Optional.of(resource);
         } catch (Exception e) {
             return Optional.empty();
@@ -62,8 +196,22 @@ public class ResourceManager implements AutoCloseable {
 
     public <T extends AutoCloseable> void register(T resource) {
         if (null != resource) {
-            final var disposer = new BasicDisposer<>(resource, AutoCloseable::close);
-            disposerStack.addLast(disposer);
+            push(resource, CLOSE, SEQUENTIAL);
+        }
+    }
+
+    /**
+     * Registers an existing resource with a dependency level.
+     *
+     * @param level dependency level of the resource, must not be negative
+     * @param resource resource to register; {@code null} is ignored
+     * @param <T> type of the resource
+     * @throws IllegalArgumentException if the level is negative
+     */
+    public <T extends AutoCloseable> void register(int level, T resource) {
+        checkLevel(level);
+        if (null != resource) {
+            push(resource, CLOSE, level);
         }
     }
 
@@ -71,55 +219,58 @@ public class ResourceManager implements AutoCloseable {
         if ((null == value) || (null == cleanup)) {
             throw new NullPointerException();
         }
-        final var disposer = new BasicDisposer<>(value, cleanup);
-        disposerStack.addLast(disposer);
+        push(value, cleanup, SEQUENTIAL);
+    }
+
+    /**
+     * Registers a cleanup of a value with a dependency level.
+     *
+     * @param level dependency level of the value, must not be negative
+     * @param value value to dispose of
+     * @param cleanup cleanup of the value
+     * @param <T> type of the value
+     * @throws IllegalArgumentException if the level is negative
+     */
+    public <T> void addCleanup(int level, T value, ResourceCleanup<? super T> cleanup) {
+        checkLevel(level);
+        if ((null == value) || (null == cleanup)) {
+            throw new NullPointerException();
+        }
+        push(value, cleanup, level);
     }
 
     public void addCleanup(Runnable cleanup) {
         if (null == cleanup) {
             throw new NullPointerException();
         }
-        final var disposer = new BasicDisposer<>(null, (r) -> cleanup.run());
-        disposerStack.addLast(disposer);
+        push(cleanup, RUN, SEQUENTIAL);
     }
 
     public Object createSavepoint() {
-        if (!disposerStack.isEmpty()) {
-            final var lastDisposer = disposerStack.getLast();
-            if (lastDisposer instanceof Savepoint) {
-                return lastDisposer;
-            }
+        checkOpen();
+        if ((savepointCount > 0) && (savepoints[savepointCount - 1].depth == size)) {
+            return savepoints[savepointCount - 1];
         }
-        final var id = lastId++;
-        final var savepoint = new Savepoint(id);
-        disposerStack.addLast(savepoint);
+        if (savepointCount == savepoints.length) {
+            savepoints = Arrays.copyOf(savepoints, Math.max(2 * savepoints.length, 2));
+        }
+        final var savepoint = new Savepoint(savepointCount, size);
+        savepoints[savepointCount++] = savepoint;
         return savepoint;
     }
 
     public void rollbackToSavepoint(Object savepoint) {
         if (null == savepoint) {
             throw new NullPointerException();
-        } else if (!(savepoint instanceof Savepoint)) {
+        }
+        if (!(savepoint instanceof Savepoint target)) {
             throw new IllegalArgumentException("Invalid savepoint");
-        } else if (!disposerStack.contains(savepoint)) {
-            throw new IllegalArgumentException("Savepoint not registered");
         }
-        RuntimeException rollbackError = null;
-        while (!disposerStack.isEmpty()) {
-            final var lastDisposer = disposerStack.removeLast();
-            if (lastDisposer == savepoint) {
-                break;
-            } else if (lastDisposer instanceof BasicDisposer<?> disposer) {
-                try {
-                    disposer.run();
-                } catch (Exception e) {
-                    if (null == rollbackError) {
-                        rollbackError = new RuntimeException("Rollback failed");
-                    }
-                    rollbackError.addSuppressed(e);
-                }
-            }
+        if ((target.index >= savepointCount) || (savepoints[target.index] != target)) {
+            throw new IllegalArgumentException("Savepoint not registered");
         }
+        final var rollbackError = unwind(target.depth, "Rollback failed");
+        popSavepoints(target.index);
         if (null != rollbackError) {
             throw rollbackError;
         }
@@ -127,62 +278,286 @@ public class ResourceManager implements AutoCloseable {
 
     @Override
     public void close() {
-        RuntimeException closeError = null;
-        while (!disposerStack.isEmpty()) {
-            final var lastDisposer = disposerStack.removeLast();
-            if (lastDisposer instanceof BasicDisposer<?> disposer) {
-                try {
-                    disposer.run();
-                } catch (Exception e) {
-                    if (null == closeError) {
-                        closeError = new RuntimeException("Failed to close resource manager");
-                    }
-                    closeError.addSuppressed(e);
-                }
-            }
+        final RuntimeException closeError;
+        try {
+            closeError = unwind(0, "Failed to close resource manager");
+        } finally {
+            release();
         }
         if (null != closeError) {
             throw closeError;
         }
     }
 
-    private sealed interface DisposerEntry permits BasicDisposer, Savepoint {
+    /**
+     * Closes the manager without waiting for the cleanups. All registered resources are detached
+     * at once, so that the manager is immediately empty and, unless {@linkplain #obtain() obtained}
+     * from the per-thread pool, may be used again, and their cleanups run in LIFO order
+     * on a virtual thread. Dependency levels are not taken into account.
+     *
+     * @return future completed when all cleanups finish; if any of them fails, the future completes
+     *         exceptionally with an exception that holds all failures as suppressed exceptions
+     */
+    public CompletableFuture<Void> closeAsync() {
+        return detach(AsyncResourceCloser.NO_TIMEOUT, AsyncResourceCloser.NO_TIMEOUT).start();
     }
 
-    private final class BasicDisposer<T> implements DisposerEntry {
-        private final T obj;
-        private final ResourceCleanup<? super T> cleanup;
+    /**
+     * Closes the manager without waiting for the cleanups, with deadlines for the cleanups.
+     * Every cleanup runs in a virtual thread of its own; a cleanup that does not finish within
+     * the resource timeout is reported as a {@link java.util.concurrent.TimeoutException} among
+     * the suppressed exceptions and is left running, and the next cleanup is started. Once the overall
+     * deadline passes, the remaining cleanups are started without waiting for them. Cleanups that
+     * were not awaited get a short common grace period to finish, after which those still running
+     * are listed in a single {@code TimeoutException}, so the returned future completes shortly after
+     * the overall deadline at the latest.
+     *
+     * @param resourceTimeout maximum time to wait for a single cleanup
+     * @param overallTimeout maximum time to wait for all cleanups
+     * @return future completed when all cleanups finish or time out; if any of them fails or times out,
+     *         the future completes exceptionally with an exception that holds all failures as suppressed exceptions
+     * @throws IllegalArgumentException if any of the timeouts is negative
+     * @see #closeAsync()
+     */
+    public CompletableFuture<Void> closeAsync(Duration resourceTimeout, Duration overallTimeout) {
+        if (resourceTimeout.isNegative() || overallTimeout.isNegative()) {
+            throw new IllegalArgumentException("Negative timeout");
+        }
+        return detach(saturatedNanos(resourceTimeout), saturatedNanos(overallTimeout)).start();
+    }
+
+    /**
+     * Forgets all registered resources and savepoints without disposing of them.
+     * The allocated storage is kept for further use.
+     */
+    public void reset() {
+        clear(0, size - 1);
+        size = 0;
+        popSavepoints(0);
+    }
+
+    private AsyncResourceCloser detach(long resourceTimeoutNanos, long overallTimeoutNanos) {
+        final var closer = new AsyncResourceCloser(Arrays.copyOf(resources, size), Arrays.copyOf(cleanups, size),
+                                                   resourceTimeoutNanos, overallTimeoutNanos);
+        reset();
+        release();
+        return closer;
+    }
 
-        BasicDisposer(T obj, ResourceCleanup<? super T> cleanup) {
-            this.obj = obj;
-            this.cleanup = cleanup;
+    /**
+     * Marks a manager obtained from the per-thread pool as closed and offers its arrays
+     * to the next manager obtained by the thread. Arrays that still hold entries, e.g. after
+     * a cleanup failed with an error, are not offered.
+     */
+    private void release() {
+        popSavepoints(0);
+        if (pooled && !closed) {
+            closed = true;
+            if ((0 == size) && (resources.length <= MAX_POOLED_CAPACITY)) {
+                POOL.set(this);
+            }
         }
+    }
 
-        public void run() throws Exception {
-            cleanup.close(obj);
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Resource manager closed");
         }
     }
 
-    private final class Savepoint implements DisposerEntry {
-        private final int id;
+    private static long saturatedNanos(Duration duration) {
+        try {
+            return Math.min(duration.toNanos(), AsyncResourceCloser.NO_TIMEOUT - 1L);
+        } catch (ArithmeticException e) {
+            return AsyncResourceCloser.NO_TIMEOUT - 1L;
+        }
+    }
 
-        Savepoint(int id) {
-            this.id = id;
+    private static void checkLevel(int level) {
+        if (level < 0) {
+            throw new IllegalArgumentException("Negative dependency level: " + level);
         }
+    }
 
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj) {
-                return true;
-            } else if (obj instanceof Savepoint other) {
-                return this.id == other.id;
+    private void push(Object resource, ResourceCleanup<?> cleanup, int level) {
+        checkOpen();
+        if (size == resources.length) {
+            final var capacity = Math.max(2 * size, INITIAL_CAPACITY);
+            resources = Arrays.copyOf(resources, capacity);
+            cleanups = Arrays.copyOf(cleanups, capacity);
+            if (null != levels) {
+                levels = Arrays.copyOf(levels, capacity);
             }
-            return false;
         }
+        resources[size] = resource;
+        cleanups[size] = cleanup;
+        setLevel(size++, level);
+    }
+
+    /**
+     * Sets the dependency level of an entry; the array of levels is allocated only when the first
+     * leveled entry is registered.
+     */
+    private void setLevel(int index, int level) {
+        if (null == levels) {
+            if (SEQUENTIAL == level) {
+                return;
+            }
+            levels = new int[resources.length];
+            Arrays.fill(levels, SEQUENTIAL);
+        }
+        levels[index] = level;
+    }
+
+    private int levelOf(int index) {
+        return (null != levels) ? levels[index] : SEQUENTIAL;
+    }
+
+    private void popSavepoints(int newCount) {
+        Arrays.fill(savepoints, newCount, savepointCount, null);
+        savepointCount = Math.min(savepointCount, newCount);
+    }
+
+    /**
+     * Disposes of the entries on the stack down to the given depth. Failures are collected
+     * as suppressed exceptions of the returned error.
+     */
+    private RuntimeException unwind(int depth, String errorMessage) {
+        RuntimeException error = null;
+        int savepointIndex = savepointCount - 1;
+        while (size > depth) {
+            final var top = size - 1;
+            while ((savepointIndex >= 0) && (savepoints[savepointIndex].depth > top)) {
+                --savepointIndex;
+            }
+            var start = top;
+            if ((null != closeExecutor) && (SEQUENTIAL != levelOf(top))) {
+                final var floor = Math.max(depth, (savepointIndex >= 0) ? savepoints[savepointIndex].depth : 0);
+                while ((start > floor) && (SEQUENTIAL != levelOf(start - 1))) {
+                    --start;
+                }
+            }
+            size = start;
+            if (start == top) {
+                final var resource = resources[top];
+                final var cleanup = cleanups[top];
+                clear(top, top);
+                error = addFailure(error, runQuietly(cleanup, resource), errorMessage);
+            } else {
+                try {
+                    for (final var failure : runLeveled(start, top)) {
+                        error = addFailure(error, failure, errorMessage);
+                    }
+                } finally {
+                    clear(start, top);
+                }
+            }
+        }
+        return error;
+    }
+
+    private void clear(int start, int end) {
+        Arrays.fill(resources, start, end + 1, null);
+        Arrays.fill(cleanups, start, end + 1, null);
+        if (null != levels) {
+            Arrays.fill(levels, start, end + 1, SEQUENTIAL);
+        }
+    }
+
+    private static RuntimeException addFailure(RuntimeException error, Exception failure, String errorMessage) {
+        if (null == failure) {
+            return error;
+        }
+        final var result = (null != error) ? error : new RuntimeException(errorMessage);
+        result.addSuppressed(failure);
+        return result;
+    }
+
+    /**
+     * Disposes of the run of leveled entries between the indices (inclusive), level by level
+     * from the highest one. Returns the failures in LIFO order of each level.
+     */
+    private List<Exception> runLeveled(int start, int top) {
+        final var failures = new ArrayList<Exception>(0);
+        final var indices = new int[top - start + 1];
+        var level = Integer.MAX_VALUE;
+        while (true) {
+            var nextLevel = SEQUENTIAL;
+            for (int i = start; i <= top; ++i) {
+                if ((levels[i] < level) && (levels[i] > nextLevel)) {
+                    nextLevel = levels[i];
+                }
+            }
+            if (SEQUENTIAL == nextLevel) {
+                return failures;
+            }
+            level = nextLevel;
+            int count = 0;
+            for (int i = top; i >= start; --i) {
+                if (levels[i] == level) {
+                    indices[count++] = i;
+                }
+            }
+            failures.addAll(runAll(Arrays.copyOf(indices, count)));
+        }
+    }
+
+    /**
+     * Runs the cleanups of the entries concurrently and waits for all of them; a single cleanup
+     * runs in the calling thread. Returns the failures in the order of the entries.
+     */
+    private List<Exception> runAll(int[] indices) {
+        final var failures = new Exception[indices.length];
+        if (1 == indices.length) {
+            failures[0] = runQuietly(cleanups[indices[0]], resources[indices[0]]);
+        } else {
+            final var tasks = new CompletableFuture<?>[indices.length];
+            for (int i = 0; i < tasks.length; ++i) {
+                final var cleanup = cleanups[indices[i]];
+                final var resource = resources[indices[i]];
+                final var task = i;
+                try {
+                    tasks[i] = CompletableFuture.runAsync(() -> failures[task] = runQuietly(cleanup, resource), closeExecutor);
+                } catch (RejectedExecutionException e) {
+                    failures[i] = runQuietly(cleanup, resource);
+                    tasks[i] = CompletableFuture.completedFuture(null);
+                }
+            }
+            try {
+                CompletableFuture.allOf(tasks).join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof Error error) {
+                    throw error;
+                }
+                throw e;
+            }
+        }
+        final var result = new ArrayList<Exception>(0);
+        for (final var failure : failures) {
+            if (null != failure) {
+                result.add(failure);
+            }
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    static Exception runQuietly(ResourceCleanup<?> cleanup, Object resource) {
+        try {
+            ((ResourceCleanup<Object>) cleanup).close(resource);
+            return null;
+        } catch (Exception e) {
+            return e;
+        }
+    }
+
+    private static final class Savepoint {
+        private final int index;
+        private final int depth;
 
-        @Override
-        public int hashCode() {
-            return id;
+        Savepoint(int index, int depth) {
+            this.index = index;
+            this.depth = depth;
         }
     }
 
@@ -0,0 +1,579 @@
+package cz.auderis.infra.tools;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Keyed pool of expensive resources, such as parsers, channels or temporary workspaces,
+ * which are borrowed by {@link ResourceManager#getInstance(ResourcePool, Object)} and returned
+ * to the pool instead of being destroyed when the manager is closed. A resource borrowed for
+ * a key is reused only for the same key; if no idle resource of the key is available, a new one
+ * is created by the factory of the pool.
+ * <p>
+ * Idle resources are evicted, i.e. destroyed, when
+ * <ul>
+ *     <li>the number of idle resources exceeds the limit, in which case the least recently
+ *         returned resources are evicted first,</li>
+ *     <li>a resource stays idle longer than the idle timeout,</li>
+ *     <li>a resource is older than its time to live; such a resource is also destroyed instead
+ *         of being returned to the pool.</li>
+ * </ul>
+ * Expired resources are destroyed when they are found during a borrow or an eviction.
+ * Optionally, an idle resource is validated before it is borrowed, and destroyed if it is not valid.
+ * <p>
+ * Keys are distributed among stripes, each of which has a lock, idle resources and a share
+ * of the idle limit of its own, so that threads using different keys rarely contend.
+ * The shares add up to the idle limit, so there are never more stripes than idle resources.
+ * The order of eviction is therefore LRU within a stripe only. Resources are created,
+ * validated and destroyed outside the locks.
+ *
+ * @param <K> type of the keys
+ * @param <T> type of the resources
+ * @author Boleslav Bobcik
+ */
+public final class ResourcePool<K, T> implements AutoCloseable {
+
+    private static final int MAX_STRIPES = 64;
+
+    private final Factory<? super K, ? extends T> factory;
+    private final ResourceCleanup<? super T> destroyer;
+    private final Predicate<? super T> validator;
+    private final long idleTimeoutNanos;
+    private final long timeToLiveNanos;
+    private final LongSupplier clock;
+    private final Stripe<K, T>[] stripes;
+    private volatile boolean closed;
+
+    @SuppressWarnings("unchecked")
+    private ResourcePool(Builder<K, T> builder) {
+        this.factory = builder.factory;
+        this.destroyer = builder.destroyer;
+        this.validator = builder.validator;
+        this.idleTimeoutNanos = builder.idleTimeoutNanos;
+        this.timeToLiveNanos = builder.timeToLiveNanos;
+        this.clock = builder.clock;
+        final var stripeCount = Math.min((0 != builder.stripes) ? builder.stripes : defaultStripes(),
+                                         Integer.highestOneBit(Math.max(1, builder.maxIdle)));
+        this.stripes = (Stripe<K, T>[]) new Stripe<?, ?>[stripeCount];
+        for (int i = 0; i < stripeCount; ++i) {
+            final var remainder = (i < builder.maxIdle % stripeCount) ? 1 : 0;
+            stripes[i] = new Stripe<>(builder.maxIdle / stripeCount + remainder);
+        }
+    }
+
+    /**
+     * Creates a builder of a pool whose resources are created for a key by the factory.
+     * By default, the pool keeps at most 64 idle resources, which never expire, destroys
+     * resources by {@link AutoCloseable#close()} if they implement it and does not validate them.
+     *
+     * @param factory factory of the resources
+     * @param <K> type of the keys
+     * @param <T> type of the resources
+     * @return new builder
+     */
+    public static <K, T> Builder<K, T> builder(Factory<? super K, ? extends T> factory) {
+        return new Builder<>(Objects.requireNonNull(factory));
+    }
+
+    /**
+     * Creates a builder of a pool keyed by suppliers, which create the resources. As the supplier
+     * is the key, it must be the same instance each time, e.g. a constant or a non-capturing
+     * method reference.
+     *
+     * @param <T> type of the resources
+     * @return new builder
+     * @see #builder(Factory)
+     */
+    public static <T> Builder<Callable<? extends T>, T> bySupplier() {
+        return new Builder<>(Callable::call);
+    }
+
+    /**
+     * Returns the number of idle resources in the pool.
+     *
+     * @return number of idle resources
+     */
+    public int getIdleCount() {
+        int count = 0;
+        for (final var stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                count += stripe.idleCount;
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Checks whether the pool was closed.
+     *
+     * @return {@code true} if the pool is closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Destroys idle resources that stayed idle longer than the idle timeout or that are older
+     * than their time to live. Such resources are also evicted when other resources are returned
+     * to the pool, so this method needs to be called only to release resources of a pool that
+     * is not used for a long time.
+     *
+     * @throws RuntimeException if any resource fails to be destroyed; all failures are attached as suppressed exceptions
+     */
+    public void evictExpired() {
+        final var now = clock.getAsLong();
+        Entry<K, T> evicted = null;
+        for (final var stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                evicted = evict(stripe, now, evicted);
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        final var error = destroy(evicted, null);
+        if (null != error) {
+            throw error;
+        }
+    }
+
+    /**
+     * Destroys all idle resources. Resources borrowed when the pool is closed are destroyed
+     * when they are returned, and further borrows are rejected. Closing an already closed
+     * pool has no effect.
+     *
+     * @throws RuntimeException if any resource fails to be destroyed; all failures are attached as suppressed exceptions
+     */
+    @Override
+    public void close() {
+        closed = true;
+        RuntimeException error = null;
+        for (final var stripe : stripes) {
+            final Entry<K, T> idle;
+            stripe.lock.lock();
+            try {
+                idle = stripe.clear();
+            } finally {
+                stripe.lock.unlock();
+            }
+            error = destroy(idle, error);
+        }
+        if (null != error) {
+            throw error;
+        }
+    }
+
+    /**
+     * Takes an idle resource of the key, or creates a new one.
+     *
+     * @return borrowed entry, or {@code null} if the factory returned {@code null}
+     */
+    Entry<K, T> borrow(K key) {
+        if (null == key) {
+            throw new NullPointerException();
+        } else if (closed) {
+            throw new IllegalStateException("Resource pool closed");
+        }
+        final var stripe = stripeOf(key);
+        while (true) {
+            final Entry<K, T> entry;
+            stripe.lock.lock();
+            try {
+                entry = stripe.pop(key);
+            } finally {
+                stripe.lock.unlock();
+            }
+            if (null == entry) {
+                break;
+            }
+            if (!isExpired(entry, clock.getAsLong()) && isValid(entry.resource)) {
+                return entry;
+            }
+            destroyQuietly(entry.resource);
+        }
+        final T resource;
+        try {
+            resource = factory.create(key);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        return (null != resource) ? new Entry<>(this, key, resource, clock.getAsLong()) : null;
+    }
+
+    /**
+     * Returns a borrowed entry to the pool, evicting idle resources of its stripe
+     * that exceed the limit or are expired.
+     */
+    void release(Entry<K, T> entry) throws Exception {
+        final var now = clock.getAsLong();
+        if (!isAlive(entry, now)) {
+            destroyer.close(entry.resource);
+            return;
+        }
+        final var stripe = stripeOf(entry.key);
+        Entry<K, T> evicted = null;
+        stripe.lock.lock();
+        try {
+            if (closed) {
+                evicted = entry;
+            } else {
+                entry.idleSince = now;
+                stripe.push(entry);
+                evicted = evict(stripe, now, null);
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+        final var error = destroy(evicted, null);
+        if (null != error) {
+            throw error;
+        }
+    }
+
+    /**
+     * Removes the idle resources of a stripe that are expired or, starting with the least
+     * recently returned ones, exceed the idle limit of the stripe. Every idle resource is checked,
+     * as the resources are not ordered by their time to live; the number of idle resources
+     * of a stripe is bounded by its limit, so the scan is short.
+     *
+     * @return removed entries prepended to the given chain linked by {@code lruNext}
+     */
+    private Entry<K, T> evict(Stripe<K, T> stripe, long now, Entry<K, T> evicted) {
+        for (var entry = stripe.lruHead; null != entry; ) {
+            final var next = entry.lruNext;
+            if ((stripe.idleCount > stripe.maxIdle) || isExpired(entry, now)) {
+                stripe.remove(entry);
+                entry.lruNext = evicted;
+                evicted = entry;
+            }
+            entry = next;
+        }
+        return evicted;
+    }
+
+    private Stripe<K, T> stripeOf(K key) {
+        final var h = key.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+    }
+
+    private boolean isAlive(Entry<K, T> entry, long now) {
+        return now - entry.createdAt < timeToLiveNanos;
+    }
+
+    private boolean isExpired(Entry<K, T> entry, long now) {
+        return (now - entry.idleSince >= idleTimeoutNanos) || !isAlive(entry, now);
+    }
+
+    private boolean isValid(T resource) {
+        try {
+            return (null == validator) || validator.test(resource);
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private void destroyQuietly(T resource) {
+        try {
+            destroyer.close(resource);
+        } catch (Exception e) {
+            // the resource is being discarded
+        }
+    }
+
+    /**
+     * Destroys resources of a chain of entries linked by {@code lruNext}.
+     */
+    private RuntimeException destroy(Entry<K, T> entry, RuntimeException error) {
+        for (; null != entry; entry = entry.lruNext) {
+            try {
+                destroyer.close(entry.resource);
+            } catch (Exception e) {
+                if (null == error) {
+                    error = new RuntimeException("Failed to destroy pooled resource");
+                }
+                error.addSuppressed(e);
+            }
+        }
+        return error;
+    }
+
+    private static int defaultStripes() {
+        final var processors = Runtime.getRuntime().availableProcessors();
+        return Math.min(MAX_STRIPES, Integer.highestOneBit(Math.max(1, 2 * processors - 1)) << 1);
+    }
+
+    private static long toNanos(Duration duration) {
+        if (duration.isNegative() || duration.isZero()) {
+            throw new IllegalArgumentException("Duration must be positive: " + duration);
+        }
+        try {
+            return duration.toNanos();
+        } catch (ArithmeticException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+
+    /**
+     * Creates a resource for a key.
+     *
+     * @param <K> type of the keys
+     * @param <T> type of the resources
+     */
+    @FunctionalInterface
+    public interface Factory<K, T> {
+
+        T create(K key) throws Exception;
+
+    }
+
+
+    /**
+     * Builder of a resource pool.
+     *
+     * @param <K> type of the keys
+     * @param <T> type of the resources
+     */
+    public static final class Builder<K, T> {
+        private final Factory<? super K, ? extends T> factory;
+        private ResourceCleanup<? super T> destroyer;
+        private Predicate<? super T> validator;
+        private int maxIdle;
+        private long idleTimeoutNanos;
+        private long timeToLiveNanos;
+        private int stripes;
+        private LongSupplier clock;
+
+        private Builder(Factory<? super K, ? extends T> factory) {
+            this.factory = factory;
+            this.destroyer = (resource) -> {
+                if (resource instanceof AutoCloseable closeable) {
+                    closeable.close();
+                }
+            };
+            this.maxIdle = 64;
+            this.idleTimeoutNanos = Long.MAX_VALUE;
+            this.timeToLiveNanos = Long.MAX_VALUE;
+            this.clock = System::nanoTime;
+        }
+
+        /**
+         * Defines how the resources are destroyed.
+         *
+         * @param destroyer cleanup of the resources
+         * @return this builder
+         */
+        public Builder<K, T> destroyer(ResourceCleanup<? super T> destroyer) {
+            this.destroyer = Objects.requireNonNull(destroyer);
+            return this;
+        }
+
+        /**
+         * Defines the validation of idle resources before they are borrowed. A resource for which
+         * the validator returns {@code false} or throws an exception is destroyed.
+         *
+         * @param validator predicate that returns {@code true} if the resource may be reused
+         * @return this builder
+         */
+        public Builder<K, T> validator(Predicate<? super T> validator) {
+            this.validator = Objects.requireNonNull(validator);
+            return this;
+        }
+
+        /**
+         * Defines the maximum number of idle resources, which is evenly divided among the stripes.
+         * If the limit is lower than the number of stripes, the number of stripes is reduced.
+         *
+         * @param maxIdle maximum number of idle resources, {@code 0} to destroy returned resources immediately
+         * @return this builder
+         * @throws IllegalArgumentException if the limit is negative
+         */
+        public Builder<K, T> maxIdle(int maxIdle) {
+            if (maxIdle < 0) {
+                throw new IllegalArgumentException("Invalid maximum number of idle resources: " + maxIdle);
+            }
+            this.maxIdle = maxIdle;
+            return this;
+        }
+
+        /**
+         * Defines how long a resource may stay idle before it is evicted.
+         *
+         * @param idleTimeout idle timeout
+         * @return this builder
+         * @throws IllegalArgumentException if the timeout is not positive
+         */
+        public Builder<K, T> idleTimeout(Duration idleTimeout) {
+            this.idleTimeoutNanos = toNanos(idleTimeout);
+            return this;
+        }
+
+        /**
+         * Defines the maximum age of a resource, after which it is destroyed instead of being reused.
+         *
+         * @param timeToLive time to live of a resource since its creation
+         * @return this builder
+         * @throws IllegalArgumentException if the time to live is not positive
+         */
+        public Builder<K, T> timeToLive(Duration timeToLive) {
+            this.timeToLiveNanos = toNanos(timeToLive);
+            return this;
+        }
+
+        /**
+         * Defines the number of lock stripes. By default, it is derived from the number of processors.
+         * The number of stripes is reduced if it exceeds the maximum number of idle resources.
+         *
+         * @param stripes number of stripes, must be a positive power of two
+         * @return this builder
+         * @throws IllegalArgumentException if the number of stripes is not a positive power of two
+         */
+        public Builder<K, T> stripes(int stripes) {
+            if ((stripes < 1) || (0 != (stripes & (stripes - 1)))) {
+                throw new IllegalArgumentException("Number of stripes must be a positive power of two: " + stripes);
+            }
+            this.stripes = stripes;
+            return this;
+        }
+
+        Builder<K, T> clock(LongSupplier clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Creates the pool.
+         *
+         * @return new resource pool
+         */
+        public ResourcePool<K, T> build() {
+            return new ResourcePool<>(this);
+        }
+    }
+
+
+    /**
+     * Pooled resource, linked both in the LRU list of its stripe and in the list
+     * of idle resources of its key.
+     */
+    static final class Entry<K, T> {
+        final ResourcePool<K, T> pool;
+        final K key;
+        final T resource;
+        final long createdAt;
+        long idleSince;
+        Entry<K, T> lruPrev;
+        Entry<K, T> lruNext;
+        Entry<K, T> keyPrev;
+        Entry<K, T> keyNext;
+
+        Entry(ResourcePool<K, T> pool, K key, T resource, long createdAt) {
+            this.pool = pool;
+            this.key = key;
+            this.resource = resource;
+            this.createdAt = createdAt;
+        }
+
+        void release() throws Exception {
+            pool.release(this);
+        }
+    }
+
+
+    /**
+     * Idle resources of the keys that share a lock. Each key maps to its most recently returned
+     * resource, so that warm resources are reused first, while the LRU list starts with
+     * the least recently returned resource of the stripe.
+     */
+    private static final class Stripe<K, T> {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final HashMap<K, Entry<K, T>> idleByKey = new HashMap<>();
+        private final int maxIdle;
+        private Entry<K, T> lruHead;
+        private Entry<K, T> lruTail;
+        private int idleCount;
+
+        Stripe(int maxIdle) {
+            this.maxIdle = maxIdle;
+        }
+
+        Entry<K, T> pop(K key) {
+            final var entry = idleByKey.get(key);
+            if (null != entry) {
+                remove(entry);
+            }
+            return entry;
+        }
+
+        void push(Entry<K, T> entry) {
+            final var keyHead = idleByKey.put(entry.key, entry);
+            entry.keyPrev = null;
+            entry.keyNext = keyHead;
+            if (null != keyHead) {
+                keyHead.keyPrev = entry;
+            }
+            entry.lruPrev = lruTail;
+            entry.lruNext = null;
+            if (null != lruTail) {
+                lruTail.lruNext = entry;
+            } else {
+                lruHead = entry;
+            }
+            lruTail = entry;
+            ++idleCount;
+        }
+
+        void remove(Entry<K, T> entry) {
+            if (null != entry.keyPrev) {
+                entry.keyPrev.keyNext = entry.keyNext;
+            } else if (null != entry.keyNext) {
+                idleByKey.put(entry.key, entry.keyNext);
+            } else {
+                idleByKey.remove(entry.key);
+            }
+            if (null != entry.keyNext) {
+                entry.keyNext.keyPrev = entry.keyPrev;
+            }
+            if (null != entry.lruPrev) {
+                entry.lruPrev.lruNext = entry.lruNext;
+            } else {
+                lruHead = entry.lruNext;
+            }
+            if (null != entry.lruNext) {
+                entry.lruNext.lruPrev = entry.lruPrev;
+            } else {
+                lruTail = entry.lruPrev;
+            }
+            entry.keyPrev = null;
+            entry.keyNext = null;
+            entry.lruPrev = null;
+            entry.lruNext = null;
+            --idleCount;
+        }
+
+        /**
+         * Removes all idle resources.
+         *
+         * @return first entry of the LRU list, which remains linked by {@code lruNext}
+         */
+        Entry<K, T> clear() {
+            final var head = lruHead;
+            idleByKey.clear();
+            lruHead = null;
+            lruTail = null;
+            idleCount = 0;
+            return head;
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+package cz.auderis.infra.tools.concurrent;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provides executors that run tasks on virtual threads when the running JVM
+ * supports them. The library is compiled for Java 17, so the virtual thread
+ * API is looked up dynamically; on older JVMs a cached pool of daemon platform
+ * threads is used instead.
+ * <p>
+ * The class is shared by the libraries of the project. Its package is exported
+ * only to the feature toggle runtime module, so it is not part of the public API.
+ */
+public final class VirtualThreadSupport {
+
+    private VirtualThreadSupport() {
+        throw new AssertionError();
+    }
+
+    public static ExecutorService newExecutor(String threadNamePrefix) {
+        try {
+            final var factory = MethodHandles.publicLookup().findStatic(Executors.class,
+                    "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class));
+            return (ExecutorService) factory.invokeExact();
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return Executors.newCachedThreadPool(new DaemonThreadFactory(threadNamePrefix));
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot create virtual thread executor", e);
+        }
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger counter;
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+            this.counter = new AtomicInteger();
+        }
+
+        @Override
+        public Thread newThread(Runnable task) {
+            final var thread = new Thread(task, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
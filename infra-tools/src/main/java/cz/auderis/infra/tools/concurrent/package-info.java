@@ -0,0 +1,5 @@
+/**
+ * This package contains concurrency support shared by the libraries
+ * of the project.
+ */
+package cz.auderis.infra.tools.concurrent;
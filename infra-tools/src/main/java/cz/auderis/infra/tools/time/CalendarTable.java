@@ -219,7 +219,7 @@ public final class CalendarTable {
         }
         return (TemporalAccessor t) -> {
             final var referenceDay = LocalDate.from(t);
-            final var startOfDay= referenceDay.from(t).atStartOfDay().atZone(targetZone).toInstant()
+            final var startOfDay = referenceDay.atStartOfDay().atZone(targetZone).toInstant();
             final var beforeStartOfDay = startOfDay.minusMillis(1L);
             final var nextTransition = rules.nextTransition(beforeStartOfDay);
             if (null == nextTransition) {
@@ -2,6 +2,7 @@ module cz.auderis.infra.tools {
 
     exports cz.auderis.infra.tools;
     exports cz.auderis.infra.tools.time;
+    exports cz.auderis.infra.tools.concurrent to cz.auderis.infra.toggle.runtime;
 
     requires static org.jetbrains.annotations;
 
@@ -0,0 +1,132 @@
+package cz.auderis.infra.tools;
+
+import cz.auderis.infra.tools.ResourceManagerTest.CountingResource;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ConcurrentResourceManagerTest {
+
+    @Test
+    void shouldCloseResourcesInCorrectOrder() {
+        // Given
+        final var manager = new ConcurrentResourceManager();
+        final var counter = new AtomicInteger();
+        // When
+        try (final var rm = manager) {
+            rm.getInstance(() -> new CountingResource(counter), CountingResource::close);
+            rm.getInstance(() -> new CountingResource(counter), CountingResource::close);
+            rm.getInstance(() -> new CountingResource(counter), CountingResource::close);
+        }
+        // Then
+        assertThat("Resource manager not empty", counter.get(), is(0));
+        assertThat("Resource manager not closed", manager.isClosed(), is(true));
+    }
+
+    @Test
+    void shouldRegisterResourcesConcurrently() throws Exception {
+        // Given
+        final var manager = new ConcurrentResourceManager();
+        final var threadCount = 8;
+        final var perThread = 1000;
+        final var closed = new AtomicIntegerArray(threadCount * perThread);
+        final var start = new CountDownLatch(1);
+        final var threads = new ArrayList<Thread>();
+        for (int t = 0; t < threadCount; ++t) {
+            final var base = t * perThread;
+            threads.add(new Thread(() -> {
+                awaitQuietly(start);
+                for (int i = 0; i < perThread; ++i) {
+                    manager.addCleanup(base + i, closed::incrementAndGet);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        // When
+        start.countDown();
+        for (final var thread : threads) {
+            thread.join();
+        }
+        manager.close();
+        // Then
+        for (int i = 0; i < closed.length(); ++i) {
+            assertThat("Resource not closed exactly once", closed.get(i), is(1));
+        }
+    }
+
+    @Test
+    void shouldDisposeResourcesRegisteredAfterClose() throws Exception {
+        // Given
+        final var manager = new ConcurrentResourceManager();
+        final var threadCount = 4;
+        final var perThread = 2000;
+        final var closed = new AtomicIntegerArray(threadCount * perThread);
+        final var start = new CountDownLatch(1);
+        final var threads = new ArrayList<Thread>();
+        for (int t = 0; t < threadCount; ++t) {
+            final var base = t * perThread;
+            threads.add(new Thread(() -> {
+                awaitQuietly(start);
+                for (int i = 0; i < perThread; ++i) {
+                    try {
+                        manager.addCleanup(base + i, closed::incrementAndGet);
+                    } catch (IllegalStateException e) {
+                        // resource disposed by the registering thread
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        // When
+        start.countDown();
+        manager.close();
+        for (final var thread : threads) {
+            thread.join();
+        }
+        // Then
+        for (int i = 0; i < closed.length(); ++i) {
+            assertThat("Resource not closed exactly once", closed.get(i), is(1));
+        }
+        assertThrows(IllegalStateException.class, manager::createSavepoint);
+    }
+
+    @Test
+    void shouldRollbackToSavepoint() {
+        // Given
+        final var manager = new ConcurrentResourceManager();
+        final var closed = new ConcurrentLinkedQueue<String>();
+        manager.addCleanup("a", closed::add);
+        final var savepoint = manager.createSavepoint();
+        manager.addCleanup("b", closed::add);
+        final var nestedSavepoint = manager.createSavepoint();
+        manager.addCleanup("c", closed::add);
+        // When
+        manager.rollbackToSavepoint(savepoint);
+        final var closedOnRollback = new ArrayList<>(closed);
+        manager.addCleanup("d", closed::add);
+        manager.close();
+        // Then
+        assertThat("Wrong rollback", closedOnRollback, contains("c", "b"));
+        assertThat("Wrong close", closed, contains("c", "b", "d", "a"));
+        assertThrows(IllegalArgumentException.class, () -> new ConcurrentResourceManager().rollbackToSavepoint(nestedSavepoint));
+        assertThrows(IllegalArgumentException.class, () -> new ConcurrentResourceManager().rollbackToSavepoint(new Object()));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
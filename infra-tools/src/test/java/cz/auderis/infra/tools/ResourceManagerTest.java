@@ -2,11 +2,27 @@ package cz.auderis.infra.tools;
 
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class ResourceManagerTest {
 
@@ -48,7 +64,222 @@ public class ResourceManagerTest {
         assertThat("Wrong suppressed exception", suppressedExceptions[0].getMessage(), is("Resource 2 closed with exception"));
     }
 
+    @Test
+    void shouldCloseResourcesOfSameLevelConcurrently() throws Exception {
+        // Given
+        final var executor = Executors.newFixedThreadPool(4);
+        final var manager = new ResourceManager(executor);
+        final var closed = new ConcurrentLinkedQueue<String>();
+        final var barrier = new CyclicBarrier(3);
+        manager.addCleanup("first", closed::add);
+        manager.addCleanup(0, "pool", closed::add);
+        for (int i = 0; i < 3; ++i) {
+            final var name = "connection" + i;
+            manager.addCleanup(1, name, (n) -> {
+                barrier.await(5, TimeUnit.SECONDS);
+                closed.add(n);
+            });
+            manager.addCleanup(2, "stream" + i, closed::add);
+        }
+        manager.addCleanup("last", closed::add);
+        // When
+        try {
+            manager.close();
+        } finally {
+            executor.shutdown();
+        }
+        // Then
+        final var order = new ArrayList<>(closed);
+        assertThat("Wrong number of closed resources", order.size(), is(9));
+        assertThat("Sequential resource not closed first", order.get(0), is("last"));
+        assertThat("Wrong order of levels", order.subList(1, 4), containsInAnyOrder("stream0", "stream1", "stream2"));
+        assertThat("Wrong order of levels", order.subList(4, 7), containsInAnyOrder("connection0", "connection1", "connection2"));
+        assertThat("Wrong order of levels", order.subList(7, 9), contains("pool", "first"));
+    }
 
+    @Test
+    void shouldAggregateFailuresOfConcurrentCleanups() {
+        // Given
+        final var executor = Executors.newFixedThreadPool(2);
+        final var manager = new ResourceManager(executor);
+        for (int i = 0; i < 4; ++i) {
+            final var id = i;
+            manager.addCleanup(1, id, (n) -> {
+                if (0 == n % 2) {
+                    throw new Exception("Resource " + n + " closed with exception");
+                }
+            });
+        }
+        // When
+        final var e = assertThrows(RuntimeException.class, manager::close);
+        executor.shutdown();
+        // Then
+        final var messages = Arrays.stream(e.getSuppressed()).map(Throwable::getMessage).toList();
+        assertThat("Wrong suppressed exceptions", messages,
+                   contains("Resource 2 closed with exception", "Resource 0 closed with exception"));
+    }
+
+    @Test
+    void shouldIgnoreLevelsWithoutExecutor() {
+        // Given
+        final var manager = new ResourceManager();
+        final var counter = new AtomicInteger();
+        // When
+        manager.register(1, new CountingResource(counter));
+        manager.register(2, new CountingResource(counter));
+        manager.getInstance(1, () -> new CountingResource(counter), CountingResource::close);
+        manager.close();
+        // Then
+        assertThat("Resource manager not empty", counter.get(), is(0));
+        assertThrows(IllegalArgumentException.class, () -> manager.register(-1, new CountingResource(counter)));
+    }
+
+    @Test
+    void shouldRollbackToSavepoint() {
+        // Given
+        final var manager = new ResourceManager();
+        final var closed = new ArrayList<String>();
+        manager.addCleanup("a", closed::add);
+        final var savepoint = manager.createSavepoint();
+        manager.addCleanup("b", closed::add);
+        final var nestedSavepoint = manager.createSavepoint();
+        manager.addCleanup("c", closed::add);
+        // When
+        manager.rollbackToSavepoint(savepoint);
+        final var closedOnRollback = new ArrayList<>(closed);
+        manager.addCleanup("d", closed::add);
+        final var newSavepoint = manager.createSavepoint();
+        // Then
+        assertThat("Wrong rollback", closedOnRollback, contains("c", "b"));
+        assertThrows(IllegalArgumentException.class, () -> manager.rollbackToSavepoint(savepoint));
+        assertThrows(IllegalArgumentException.class, () -> manager.rollbackToSavepoint(nestedSavepoint));
+        assertThrows(IllegalArgumentException.class, () -> new ResourceManager().rollbackToSavepoint(newSavepoint));
+        assertThat("Savepoint not reused", manager.createSavepoint(), is(sameInstance(newSavepoint)));
+        manager.close();
+        assertThat("Wrong close", closed, contains("c", "b", "d", "a"));
+        assertThrows(IllegalArgumentException.class, () -> manager.rollbackToSavepoint(newSavepoint));
+    }
+
+    @Test
+    void shouldReuseManagerOfCurrentThread() {
+        // Given
+        final var counter = new AtomicInteger();
+        final var manager = ResourceManager.obtain();
+        // When
+        final var nestedManager = ResourceManager.obtain();
+        for (int i = 0; i < 20; ++i) {
+            manager.register(new CountingResource(counter));
+        }
+        manager.close();
+        nestedManager.close();
+        final var reusedManager = ResourceManager.obtain();
+        reusedManager.register(new CountingResource(counter));
+        // Then
+        assertThat("Resource manager not empty", counter.get(), is(1));
+        assertThat("Manager in use shared", nestedManager, is(not(sameInstance(manager))));
+        assertThat("Closed manager returned", reusedManager, is(not(sameInstance(manager))));
+        assertThrows(IllegalStateException.class, () -> manager.addCleanup(counter::incrementAndGet));
+        assertThrows(IllegalStateException.class, manager::createSavepoint);
+        manager.close();
+        reusedManager.close();
+        assertThat("Resource not closed", counter.get(), is(0));
+    }
+
+    @Test
+    void shouldNotReuseManagerAfterFailedCleanup() {
+        // Given
+        final var closed = new ArrayList<String>();
+        final var manager = ResourceManager.obtain();
+        manager.addCleanup("a", closed::add);
+        manager.addCleanup(() -> {
+            throw new AssertionError("cleanup");
+        });
+        // When
+        assertThrows(AssertionError.class, manager::close);
+        final var nextManager = ResourceManager.obtain();
+        nextManager.addCleanup("b", closed::add);
+        nextManager.close();
+        // Then
+        assertThat("Wrong close", closed, contains("b"));
+        assertThrows(IllegalStateException.class, () -> manager.addCleanup("c", closed::add));
+    }
+
+    @Test
+    void shouldForgetResourcesOnReset() {
+        // Given
+        final var manager = new ResourceManager();
+        final var closed = new ArrayList<String>();
+        manager.addCleanup("a", closed::add);
+        final var savepoint = manager.createSavepoint();
+        // When
+        manager.reset();
+        manager.addCleanup("b", closed::add);
+        manager.close();
+        // Then
+        assertThat("Wrong close", closed, contains("b"));
+        assertThrows(IllegalArgumentException.class, () -> manager.rollbackToSavepoint(savepoint));
+    }
+
+    @Test
+    void shouldCloseAsynchronouslyInCorrectOrder() {
+        // Given
+        final var manager = new ResourceManager();
+        final var counter = new AtomicInteger();
+        manager.register(new CountingResource(counter));
+        manager.register(new CountingResource(counter, true));
+        manager.register(new CountingResource(counter));
+        // When
+        final var closing = manager.closeAsync();
+        // Then
+        final var error = assertThrows(CompletionException.class, closing::join);
+        assertThat("Resource manager not empty", counter.get(), is(0));
+        assertThat("Wrong number of failures", error.getCause().getSuppressed().length, is(1));
+    }
+
+    @Test
+    void shouldReportCleanupsExceedingDeadline() {
+        // Given
+        final var manager = new ResourceManager();
+        final var closed = new ConcurrentLinkedQueue<String>();
+        final var release = new CountDownLatch(1);
+        manager.addCleanup("a", closed::add);
+        manager.addCleanup("hung", (ResourceCleanup<String>) (value) -> release.await());
+        manager.addCleanup("b", closed::add);
+        // When
+        final var closing = manager.closeAsync(Duration.ofMillis(50L), Duration.ofSeconds(10L));
+        final var error = assertThrows(CompletionException.class, closing::join);
+        release.countDown();
+        // Then
+        assertThat("Wrong close", closed, contains("b", "a"));
+        assertThat("Wrong number of failures", error.getCause().getSuppressed().length, is(1));
+        assertThat("Timeout not reported", error.getCause().getSuppressed()[0], is(instanceOf(TimeoutException.class)));
+        assertThrows(IllegalArgumentException.class, () -> manager.closeAsync(Duration.ofSeconds(-1L), Duration.ZERO));
+    }
+
+    @Test
+    void shouldNotReportFastCleanupsAfterOverallDeadline() {
+        // Given
+        final var manager = new ResourceManager();
+        final var closed = new ConcurrentLinkedQueue<String>();
+        final var release = new CountDownLatch(1);
+        manager.addCleanup("a", (ResourceCleanup<String>) (value) -> {
+            Thread.sleep(2L);
+            closed.add(value);
+        });
+        manager.addCleanup(release, CountDownLatch::await);
+        manager.addCleanup("b", closed::add);
+        // When
+        final var closing = manager.closeAsync(Duration.ofSeconds(10L), Duration.ofMillis(50L));
+        final var error = assertThrows(CompletionException.class, closing::join);
+        release.countDown();
+        // Then
+        final var failures = error.getCause().getSuppressed();
+        assertThat("Wrong close", closed, contains("b", "a"));
+        assertThat("Wrong number of failures", failures.length, is(1));
+        assertThat("Timeout not reported", failures[0], is(instanceOf(TimeoutException.class)));
+        assertThat("Wrong cleanup not awaited", failures[0].getMessage().contains(CountDownLatch.class.getName()), is(true));
+        assertThat("Fast cleanup reported", failures[0].getMessage().contains(String.class.getName()), is(false));
+    }
 
     static class CountingResource implements AutoCloseable {
         final int referenceValue;
@@ -0,0 +1,214 @@
+package cz.auderis.infra.tools;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ResourcePoolTest {
+
+    private static final Callable<StringBuilder> BUFFER_SUPPLIER = StringBuilder::new;
+
+    @Test
+    void shouldReuseReturnedResourceOfSameKey() {
+        // Given
+        final var created = new AtomicInteger();
+        final var pool = ResourcePool.<String, Resource>builder((key) -> new Resource(key + created.incrementAndGet())).build();
+        final Resource first;
+        try (final var rm = new ResourceManager()) {
+            first = rm.getInstance(pool, "a");
+        }
+        // When
+        final Resource reused;
+        final Resource nested;
+        final Resource other;
+        try (final var rm = new ResourceManager()) {
+            reused = rm.getInstance(pool, "a");
+            nested = rm.getInstance(pool, "a");
+            other = rm.getInstance(pool, "b");
+        }
+        // Then
+        assertThat("Resource not reused", reused, is(sameInstance(first)));
+        assertThat("Borrowed resource shared", nested, is(not(sameInstance(first))));
+        assertThat("Resource shared by keys", other.name, is("b3"));
+        assertThat("Wrong number of idle resources", pool.getIdleCount(), is(3));
+        assertThat("Resource destroyed", first.closed, is(false));
+        pool.close();
+        assertThat("Resource not destroyed", first.closed, is(true));
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyReturnedResources() {
+        // Given
+        final var destroyed = new ArrayList<String>();
+        final var pool = ResourcePool.<String, Resource>builder(Resource::new)
+                                     .maxIdle(2)
+                                     .stripes(1)
+                                     .destroyer((resource) -> destroyed.add(resource.name))
+                                     .build();
+        // When
+        try (final var rm = new ResourceManager()) {
+            rm.getInstance(pool, "a");
+            rm.getInstance(pool, "b");
+            rm.getInstance(pool, "c");
+        }
+        // Then
+        assertThat("Wrong eviction", destroyed, contains("c"));
+        assertThat("Wrong number of idle resources", pool.getIdleCount(), is(2));
+    }
+
+    @Test
+    void shouldDestroyExpiredAndInvalidResources() {
+        // Given
+        final var now = new AtomicLong();
+        final var pool = ResourcePool.<String, Resource>builder(Resource::new)
+                                     .idleTimeout(Duration.ofNanos(100L))
+                                     .timeToLive(Duration.ofNanos(1000L))
+                                     .validator((resource) -> !resource.name.equals("invalid"))
+                                     .clock(now::get)
+                                     .build();
+        final var rm = new ResourceManager();
+        final var idle = rm.getInstance(pool, "idle");
+        final var old = rm.getInstance(pool, "old");
+        final var invalid = rm.getInstance(pool, "invalid");
+        rm.close();
+        // When
+        now.set(50L);
+        final var reusedOld = rm.getInstance(pool, "old");
+        final var replacedInvalid = rm.getInstance(pool, "invalid");
+        now.set(150L);
+        pool.evictExpired();
+        now.set(1000L);
+        rm.close();
+        // Then
+        assertThat("Old resource not reused", reusedOld, is(sameInstance(old)));
+        assertThat("Invalid resource reused", replacedInvalid, is(not(sameInstance(invalid))));
+        assertThat("Invalid resource not destroyed", invalid.closed, is(true));
+        assertThat("Idle resource not evicted", idle.closed, is(true));
+        assertThat("Expired resource returned", old.closed, is(true));
+        assertThat("Live resource not returned", replacedInvalid.closed, is(false));
+        assertThat("Wrong number of idle resources", pool.getIdleCount(), is(1));
+    }
+
+    @Test
+    void shouldNotBorrowIdleExpiredResource() {
+        // Given
+        final var now = new AtomicLong();
+        final var pool = ResourcePool.<String, Resource>builder(Resource::new)
+                                     .idleTimeout(Duration.ofNanos(100L))
+                                     .clock(now::get)
+                                     .build();
+        final Resource first;
+        try (final var rm = new ResourceManager()) {
+            first = rm.getInstance(pool, "a");
+        }
+        // When
+        now.set(100L);
+        final Resource borrowed;
+        try (final var rm = new ResourceManager()) {
+            borrowed = rm.getInstance(pool, "a");
+        }
+        // Then
+        assertThat("Idle expired resource borrowed", borrowed, is(not(sameInstance(first))));
+        assertThat("Idle expired resource not destroyed", first.closed, is(true));
+        assertThat("Wrong number of idle resources", pool.getIdleCount(), is(1));
+    }
+
+    @Test
+    void shouldKeepIdleLimitAcrossStripes() {
+        // Given
+        final var destroyed = new AtomicInteger();
+        final var pool = ResourcePool.<String, Resource>builder(Resource::new)
+                                     .maxIdle(3)
+                                     .stripes(4)
+                                     .destroyer((resource) -> destroyed.incrementAndGet())
+                                     .build();
+        // When
+        try (final var rm = new ResourceManager()) {
+            for (int i = 0; i < 20; ++i) {
+                rm.getInstance(pool, "key" + i);
+            }
+        }
+        // Then
+        assertThat("Wrong number of idle resources", pool.getIdleCount(), is(3));
+        assertThat("Wrong number of evicted resources", destroyed.get(), is(17));
+    }
+
+    @Test
+    void shouldEvictExpiredResourceBehindLiveOne() {
+        // Given
+        final var now = new AtomicLong();
+        final var pool = ResourcePool.<String, Resource>builder(Resource::new)
+                                     .timeToLive(Duration.ofNanos(1000L))
+                                     .stripes(1)
+                                     .clock(now::get)
+                                     .build();
+        final var oldManager = new ResourceManager();
+        final var old = oldManager.getInstance(pool, "old");
+        now.set(500L);
+        final var newManager = new ResourceManager();
+        final var young = newManager.getInstance(pool, "young");
+        now.set(600L);
+        newManager.close();
+        now.set(700L);
+        oldManager.close();
+        // When
+        now.set(1100L);
+        try (final var rm = new ResourceManager()) {
+            rm.getInstance(pool, "other");
+        }
+        // Then
+        assertThat("Expired resource kept", old.closed, is(true));
+        assertThat("Live resource evicted", young.closed, is(false));
+        assertThat("Wrong number of idle resources", pool.getIdleCount(), is(2));
+    }
+
+    @Test
+    void shouldPoolResourcesBySupplier() {
+        // Given
+        final var pool = ResourcePool.<StringBuilder>bySupplier().build();
+        final StringBuilder first;
+        try (final var rm = new ResourceManager()) {
+            first = rm.getInstance(pool, BUFFER_SUPPLIER);
+        }
+        // When
+        final StringBuilder reused;
+        try (final var rm = new ResourceManager()) {
+            reused = rm.getInstance(pool, BUFFER_SUPPLIER);
+        }
+        pool.close();
+        // Then
+        assertThat("Resource not reused", reused, is(sameInstance(first)));
+        assertThat("Pool not closed", pool.isClosed(), is(true));
+        assertThat("Wrong number of idle resources", pool.getIdleCount(), is(0));
+        assertThrows(IllegalStateException.class, () -> new ResourceManager().getInstance(pool, BUFFER_SUPPLIER));
+        assertThrows(IllegalArgumentException.class, () -> ResourcePool.bySupplier().stripes(3));
+    }
+
+
+    static class Resource implements AutoCloseable {
+        final String name;
+        boolean closed;
+
+        Resource(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void close() {
+            assertThat("Resource closed twice", closed, is(false));
+            closed = true;
+        }
+    }
+
+}